@@ -8,8 +8,12 @@ import android.os.Handler;
 import android.util.Log;
 import android.util.TypedValue;
 import android.view.View;
+import android.view.ViewGroup;
 import android.view.inputmethod.InputMethodManager;
 
+import android.widget.ArrayAdapter;
+import android.widget.ListPopupWindow;
+import android.widget.TextView;
 import android.widget.Toast;
 
 import androidx.activity.EdgeToEdge;
@@ -23,10 +27,17 @@ import android.text.TextWatcher;
 import android.text.Editable;
 
 
+import com.levelpixel.DuneWebView;
+import com.levelpixel.DuneWebViewPool;
+import com.levelpixel.HistoryEntry;
+import com.levelpixel.HistoryStore;
+import com.levelpixel.PageState;
 import com.levelpixel.dunebrowser.databinding.ActivityMainBinding;
 
 import java.io.UnsupportedEncodingException;
 import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.regex.Pattern;
 
 public class MainActivity extends AppCompatActivity {
@@ -35,6 +46,17 @@ public class MainActivity extends AppCompatActivity {
     // Default URL to load
     private static final String DEFAULT_URL = "https://www.google.com";
     private ActivityMainBinding binding;
+    // Taken from the pool prewarmed by SplashScreen, handed back in onDestroy
+    private DuneWebView duneWebView;
+    // History suggestions shown above the URL input while typing
+    private HistoryStore history;
+    private final List<HistoryEntry> suggestions = new ArrayList<>();
+    private ArrayAdapter<HistoryEntry> suggestionsAdapter;
+    private ListPopupWindow suggestionsPopup;
+    // Whether the last edit typed characters at the end, which inline completion extends
+    private boolean typedAtEnd;
+    // Set while inline completion changes the input, so it does not complete itself
+    private boolean completing;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -47,6 +69,10 @@ public class MainActivity extends AppCompatActivity {
         binding = ActivityMainBinding.inflate(getLayoutInflater());
         setContentView(binding.getRoot());
 
+        duneWebView = DuneWebViewPool.getInstance(this).acquire(this);
+        binding.swipeRefreshLayout.addView(duneWebView, new ViewGroup.LayoutParams(
+                ViewGroup.LayoutParams.MATCH_PARENT, ViewGroup.LayoutParams.MATCH_PARENT));
+
 
         ViewCompat.setOnApplyWindowInsetsListener(binding.main, (v, insets) -> {
             Insets bars = insets.getInsets(
@@ -60,47 +86,60 @@ public class MainActivity extends AppCompatActivity {
         // Initialize all views and listeners
         initializeViews();
         setupSwipeRefresh();
+        setupSuggestions();
         setupListeners();
     }
 
+    @Override
+    protected void onDestroy() {
+        DuneWebViewPool.getInstance(this).release(duneWebView);
+        super.onDestroy();
+    }
+
     /**
-     * Initializes all UI components and configures  binding.duneWebView settings.
+     * Initializes all UI components and configures  duneWebView settings.
      */
     private void initializeViews() {
         
-        // Configure  binding.duneWebView with security and privacy settings
-        binding.duneWebView.setAdBlockEnabled(true);  //IF YOU WANT TO BLOCK ADS AND TRACKERS
-         binding.duneWebView.setPopupBlockEnabled(true); //IF YOU WANT TO BLOCK ANNOYING POPUP
-         binding.duneWebView.setRedirectBlockEnabled(true); // IF YOU WANT TO BLOCK ANNOYING RANDOM REDIRECT
-         binding.duneWebView.setUseSystemDownloader(true); //IF YOU WANT TO USE SYSTEM DEFAULT DOWNLOAD MANAGER , YOU CAN USE YOUR OWN DOWNLOAD MANAGER TOO
-
-        // Load default ad blocklist
-         binding.duneWebView.loadAdBlockListFromResource(true, null);
+        // Configure  duneWebView with security and privacy settings
+        duneWebView.setAdBlockEnabled(true);  //IF YOU WANT TO BLOCK ADS AND TRACKERS
+         duneWebView.setPopupBlockEnabled(true); //IF YOU WANT TO BLOCK ANNOYING POPUP
+         duneWebView.setRedirectBlockEnabled(true); // IF YOU WANT TO BLOCK ANNOYING RANDOM REDIRECT
+         duneWebView.setUseSystemDownloader(true); //IF YOU WANT TO USE SYSTEM DEFAULT DOWNLOAD MANAGER , YOU CAN USE YOUR OWN DOWNLOAD MANAGER TOO
+         duneWebView.setHistoryEnabled(true); // RECORD VISITS FOR URL SUGGESTIONS
+         history = duneWebView.getHistoryStore();
+
+        // Load default ad blocklist, holding early requests briefly until it is ready
+         duneWebView.setPendingRequestPolicy(DuneWebView.PendingRequestPolicy.WAIT, 300);
+         duneWebView.loadAdBlockListFromResource(true, null,
+                 stats -> Log.d("MainActivity", "Blocklist loaded: " + stats));
 
         // Load custom blocked domains
-         binding.duneWebView.addCustomBlockedDomain("ads.example.com");
-         binding.duneWebView.addCustomBlockedDomain("trackers.example.com");
-
-        // Example for removing and clearing blocklist entries
-         binding.duneWebView.removeBlockedDomain("ads.example.com");
-         binding.duneWebView.clearBlocklist();
-
-        // Load the default URL in  binding.duneWebView
-         binding.duneWebView.loadUrl(DEFAULT_URL);
-
-        // Set up progress view listener to track page loading
-         binding.duneWebView.setProgressListener(progress -> {
-             binding.progressBar.setVisibility(View.VISIBLE);
-             binding.progressBar.setProgress(progress);
-            if (progress == 100) {
-                binding.progressBar.setVisibility(View.INVISIBLE);
+         duneWebView.addCustomBlockedDomain("ads.example.com");
+         duneWebView.addCustomBlockedDomain("trackers.example.com");
+
+        // Example for removing an entry and dropping this view's custom changes; the loaded list stays
+         duneWebView.removeBlockedDomain("ads.example.com");
+         duneWebView.clearBlocklist();
+
+        // Load the default URL in  duneWebView
+         duneWebView.loadUrl(DEFAULT_URL);
+
+        // Track page loading; updates arrive at most once per frame, with only changed values flagged
+         duneWebView.setPageStateListener(state -> {
+            if (state.hasChanged(PageState.PROGRESS)) {
+                binding.progressBar.setVisibility(state.getProgress() < 100 ? View.VISIBLE : View.INVISIBLE);
+                binding.progressBar.setProgress(state.getProgress());
+            }
+            // Leave the input alone while the user is typing in it
+            if (state.hasChanged(PageState.URL) && !binding.urlInput.hasFocus()) {
+                binding.urlInput.setText(state.getUrl());
             }
-             binding.urlInput.setText( binding.duneWebView.getUrl());
         });
 
         // Example to check if a specific domain is blocked
-        boolean isFacebookBlocked =  binding.duneWebView.isBlockedDomain("facebook.com");
-        int blockedHostsSize =  binding.duneWebView.getBlocklistSize();
+        boolean isFacebookBlocked =  duneWebView.isBlockedDomain("facebook.com");
+        int blockedHostsSize =  duneWebView.getBlocklistSize();
     }
 
     /**
@@ -108,7 +147,7 @@ public class MainActivity extends AppCompatActivity {
      */
     private void setupSwipeRefresh() {
         binding.swipeRefreshLayout.setOnRefreshListener(() -> {
-             binding.duneWebView.reload();
+             duneWebView.reload();
             new Handler().postDelayed(() ->  binding.swipeRefreshLayout.setRefreshing(false), 500);
         });
 
@@ -120,6 +159,64 @@ public class MainActivity extends AppCompatActivity {
         binding.swipeRefreshLayout.setColorSchemeColors(colorPrimary, colorSecondary, backgroundColor);
     }
 
+    /**
+     * Configures the popup listing history suggestions for the URL input.
+     */
+    private void setupSuggestions() {
+        suggestionsAdapter = new ArrayAdapter<HistoryEntry>(this, android.R.layout.simple_list_item_2,
+                android.R.id.text1, suggestions) {
+            @Override
+            public View getView(int position, View convertView, ViewGroup parent) {
+                View view = super.getView(position, convertView, parent);
+                HistoryEntry entry = getItem(position);
+                ((TextView) view.findViewById(android.R.id.text1)).setText(
+                        entry.getTitle().isEmpty() ? entry.getUrl() : entry.getTitle());
+                ((TextView) view.findViewById(android.R.id.text2)).setText(entry.getUrl());
+                return view;
+            }
+        };
+
+        suggestionsPopup = new ListPopupWindow(this);
+        suggestionsPopup.setAnchorView(binding.urlInput);
+        suggestionsPopup.setAdapter(suggestionsAdapter);
+        // Keep the keyboard up while the popup shows
+        suggestionsPopup.setInputMethodMode(ListPopupWindow.INPUT_METHOD_NEEDED);
+        suggestionsPopup.setOnItemClickListener((parent, view, position, id) -> {
+            String url = suggestions.get(position).getUrl();
+            suggestionsPopup.dismiss();
+            binding.urlInput.setText(url);
+            duneWebView.loadUrl(url);
+            hideKeyboard();
+        });
+    }
+
+    /**
+     * Shows the history pages matching the input, and completes the input inline
+     * to the best matching host when the user typed at its end.
+     */
+    private void updateSuggestions(Editable text) {
+        String typed = text.toString();
+        suggestions.clear();
+        suggestions.addAll(history.suggest(typed, HistoryStore.DEFAULT_SUGGESTION_LIMIT));
+        suggestionsAdapter.notifyDataSetChanged();
+        if (suggestions.isEmpty()) {
+            suggestionsPopup.dismiss();
+        } else if (!suggestionsPopup.isShowing()) {
+            suggestionsPopup.show();
+        }
+
+        if (typedAtEnd) {
+            String completion = history.complete(typed);
+            if (completion != null && completion.length() > typed.length()) {
+                // The completed part stays selected, so typing on replaces it
+                completing = true;
+                text.append(completion, typed.length(), completion.length());
+                binding.urlInput.setSelection(typed.length(), completion.length());
+                completing = false;
+            }
+        }
+    }
+
     /**
      * Utility method to fetch color attribute from the app's theme.
      *
@@ -146,9 +243,21 @@ public class MainActivity extends AppCompatActivity {
             @Override
             public void onTextChanged(CharSequence s, int start, int before, int count) {
                 binding.goButton.setVisibility(s.length() > 0 ? View.VISIBLE : View.GONE);
+                typedAtEnd = count > before && start + count == s.length();
             }
             @Override
-            public void afterTextChanged(Editable s) {}
+            public void afterTextChanged(Editable s) {
+                // Only for the user's typing, not for URL updates from the page
+                if (!completing && binding.urlInput.hasFocus()) {
+                    updateSuggestions(s);
+                }
+            }
+        });
+
+        binding.urlInput.setOnFocusChangeListener((v, hasFocus) -> {
+            if (!hasFocus) {
+                suggestionsPopup.dismiss();
+            }
         });
 
         binding.goButton.setOnClickListener(v -> {
@@ -157,20 +266,20 @@ public class MainActivity extends AppCompatActivity {
         });
 
         binding.backButton.setOnClickListener(v -> {
-            if ( binding.duneWebView.canGoBack()) {
-                 binding.duneWebView.goBack();
+            if ( duneWebView.canGoBack()) {
+                 duneWebView.goBack();
             } else {
-                 binding.duneWebView.loadUrl(DEFAULT_URL);
+                 duneWebView.loadUrl(DEFAULT_URL);
             }
         });
 
         binding.forwardButton.setOnClickListener(v -> {
-            if ( binding.duneWebView.canGoForward()) {
-                 binding.duneWebView.goForward();
+            if ( duneWebView.canGoForward()) {
+                 duneWebView.goForward();
             }
         });
 
-        binding.refreshButton.setOnClickListener(v ->  binding.duneWebView.reload());
+        binding.refreshButton.setOnClickListener(v ->  duneWebView.reload());
 
         binding.settingsButton.setOnClickListener(v -> {
             // Settings button action can be defined here
@@ -187,6 +296,7 @@ public class MainActivity extends AppCompatActivity {
      * Hides the keyboard and clears focus from the URL input field.
      */
     private void hideKeyboard() {
+        suggestionsPopup.dismiss();
         InputMethodManager imm = (InputMethodManager) getSystemService(Context.INPUT_METHOD_SERVICE);
         if (imm != null && getCurrentFocus() != null) {
             imm.hideSoftInputFromWindow(getCurrentFocus().getWindowToken(), 0);
@@ -199,7 +309,7 @@ public class MainActivity extends AppCompatActivity {
      */
     private void clearUrlInputFocus() {
         binding.urlInput.clearFocus();
-         binding.duneWebView.requestFocus();
+         duneWebView.requestFocus();
     }
 
     // URL processing configurations
@@ -224,7 +334,7 @@ public class MainActivity extends AppCompatActivity {
         }
 
         String processedUrl = processInput(input);
-         binding.duneWebView.loadUrl(processedUrl);
+         duneWebView.loadUrl(processedUrl);
     }
 
     /**
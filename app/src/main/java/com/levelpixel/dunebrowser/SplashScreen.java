@@ -15,6 +15,8 @@ import android.widget.TextView;
 
 import androidx.appcompat.app.AppCompatActivity;
 
+import com.levelpixel.DuneWebViewPool;
+
 public class SplashScreen extends AppCompatActivity {
     private View logoContainer;
     private TextView appNameText, taglineText;
@@ -30,6 +32,8 @@ public class SplashScreen extends AppCompatActivity {
         splashContent = findViewById(R.id.splash_content);
 
         startEntranceAnimation();
+        // Build the browser's WebView while the splash is idle, so MainActivity opens without the wait
+        DuneWebViewPool.getInstance(this).prewarm(1);
         new Handler(Looper.getMainLooper()).postDelayed(this::startExitAnimation, 1500);
     }
 
@@ -0,0 +1,120 @@
+package com.levelpixel;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time to get the 500k-domain list ready for lookups, measured per load
+ * (single shot, so JIT warmup is part of early iterations as on a device).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(2)
+public class BlocklistLoadBenchmark {
+    private byte[] text;
+    private byte[] hostsText;
+    private byte[] compiled;
+    private File compiledFile;
+    private List<String> filterRules;
+
+    @Setup
+    public void setUp() throws IOException {
+        List<String> domains = Corpus.domains();
+        text = Corpus.domainListText(domains);
+        hostsText = Corpus.hostsFileText(domains);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        CompactBlocklist.convert(new ByteArrayInputStream(text), out);
+        compiled = out.toByteArray();
+        compiledFile = File.createTempFile("blocklist", ".bin");
+        try (FileOutputStream file = new FileOutputStream(compiledFile)) {
+            file.write(compiled);
+        }
+        filterRules = Corpus.filters();
+    }
+
+    @TearDown
+    public void tearDown() {
+        compiledFile.delete();
+    }
+
+    /**
+     * Release builds: the compiled asset is memory-mapped
+     */
+    @Benchmark
+    public CompactBlocklist mapCompiled() throws IOException {
+        return CompactBlocklist.map(compiledFile);
+    }
+
+    /**
+     * Compiled list read into memory, as from a compressed resource
+     */
+    @Benchmark
+    public CompactBlocklist readCompiled() throws IOException {
+        return CompactBlocklist.read(new ByteArrayInputStream(compiled), compiled.length);
+    }
+
+    /**
+     * Plain text resource converted on the device
+     */
+    @Benchmark
+    public CompactBlocklist convertText() throws IOException {
+        return CompactBlocklist.read(new ByteArrayInputStream(text), text.length);
+    }
+
+    /**
+     * Hosts file ("0.0.0.0 domain" lines with comments) converted on the device
+     */
+    @Benchmark
+    public CompactBlocklist convertHostsText() throws IOException {
+        return CompactBlocklist.fromText(new ByteArrayInputStream(hostsText));
+    }
+
+    /**
+     * Original loader: read lines into a HashSet, kept as a baseline
+     */
+    @Benchmark
+    public Set<String> hashSetFromText() throws IOException {
+        Set<String> set = new HashSet<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new ByteArrayInputStream(text), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String trimmed = line.trim();
+                if (!trimmed.isEmpty() && !trimmed.startsWith("#")) {
+                    set.add(trimmed.toLowerCase());
+                }
+            }
+        }
+        return set;
+    }
+
+    @Benchmark
+    public NetworkFilterIndex indexFilterRules() {
+        return NetworkFilterIndex.of(filterRules);
+    }
+}
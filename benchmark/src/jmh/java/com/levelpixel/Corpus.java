@@ -0,0 +1,245 @@
+package com.levelpixel;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Benchmark inputs. Every input can be replaced with real data through a
+ * system property (forwarded from the matching -P Gradle property):
+ * - dune.blocklist: domain list, one per line or hosts-file lines ("0.0.0.0 domain")
+ * - dune.urls: recorded requests, "<page host> <request URL>" per line
+ * - dune.filters: EasyList-style filter list
+ * Without them, a 500k-domain list and a filter list are generated from a
+ * fixed seed, and the bundled request sample is used.
+ */
+final class Corpus {
+    static final int DOMAIN_COUNT = 500_000;
+    static final int FILTER_COUNT = 20_000;
+
+    private static final long SEED = 0x5EEDL;
+
+    // Real ad and tracking domains, so the sample requests get realistic hits
+    private static final List<String> KNOWN_AD_DOMAINS = Arrays.asList(
+            "doubleclick.net", "googlesyndication.com", "googletagmanager.com", "google-analytics.com",
+            "adnxs.com", "criteo.com", "criteo.net", "taboola.com", "outbrain.com",
+            "scorecardresearch.com", "amazon-adsystem.com", "pubmatic.com", "rubiconproject.com",
+            "casalemedia.com", "moatads.com", "quantserve.com", "adsrvr.org", "openx.net",
+            "bidswitch.net", "bat.bing.com");
+
+    private static final String[] WORDS = {
+            "ad", "ads", "adserver", "track", "tracker", "pixel", "metrics", "stat", "stats",
+            "beacon", "tag", "tags", "media", "click", "srv", "img", "cdn", "sync", "bid",
+            "rtb", "promo", "banner", "counter", "log", "collect", "analytics", "cm", "match"
+    };
+
+    private static final String[] TLDS = {
+            "com", "com", "com", "com", "net", "net", "org", "io", "ru", "de", "info",
+            "xyz", "top", "co.uk", "com.br", "fr", "pl", "biz", "online", "site"
+    };
+
+    private Corpus() {
+    }
+
+    /**
+     * Lowercase domains to block
+     */
+    static List<String> domains() throws IOException {
+        String path = System.getProperty("dune.blocklist");
+        if (path == null) {
+            return syntheticDomains(DOMAIN_COUNT);
+        }
+        List<String> domains = new ArrayList<>();
+        for (String line : Files.readAllLines(Paths.get(path), StandardCharsets.UTF_8)) {
+            String trimmed = line.trim();
+            if (trimmed.isEmpty() || trimmed.startsWith("#")) {
+                continue;
+            }
+            String[] fields = trimmed.split("\\s+");
+            domains.add(fields[fields.length - 1].toLowerCase());
+        }
+        return domains;
+    }
+
+    /**
+     * Domain list as the text a blocklist resource would contain
+     */
+    static byte[] domainListText(List<String> domains) {
+        StringBuilder text = new StringBuilder(domains.size() * 20);
+        for (String domain : domains) {
+            text.append(domain).append('\n');
+        }
+        return text.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * The domains as a hosts file, as published by hosts-based blocklists
+     */
+    static byte[] hostsFileText(List<String> domains) {
+        StringBuilder text = new StringBuilder(domains.size() * 28);
+        text.append("# Generated hosts file\n127.0.0.1 localhost\n::1 localhost\n\n");
+        for (String domain : domains) {
+            text.append("0.0.0.0 ").append(domain).append('\n');
+        }
+        return text.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Recorded requests
+     */
+    static List<Request> requests() throws IOException {
+        String path = System.getProperty("dune.urls");
+        List<String> lines = path != null
+                ? Files.readAllLines(Paths.get(path), StandardCharsets.UTF_8)
+                : readResource("request-urls.txt");
+        List<Request> requests = new ArrayList<>();
+        for (String line : lines) {
+            String trimmed = line.trim();
+            if (trimmed.isEmpty() || trimmed.startsWith("#")) {
+                continue;
+            }
+            int space = trimmed.indexOf(' ');
+            requests.add(new Request(trimmed.substring(0, space), trimmed.substring(space + 1).trim()));
+        }
+        return requests;
+    }
+
+    /**
+     * Filter rules
+     */
+    static List<String> filters() throws IOException {
+        String path = System.getProperty("dune.filters");
+        return path != null
+                ? Files.readAllLines(Paths.get(path), StandardCharsets.UTF_8)
+                : syntheticFilters(FILTER_COUNT);
+    }
+
+    /**
+     * Generated domains shaped like ad and tracker hosts, plus the known ad domains
+     */
+    static List<String> syntheticDomains(int count) {
+        Random random = new Random(SEED);
+        Set<String> domains = new LinkedHashSet<>(KNOWN_AD_DOMAINS);
+        StringBuilder domain = new StringBuilder();
+        while (domains.size() < count) {
+            domain.setLength(0);
+            if (random.nextInt(3) == 0) {
+                domain.append(WORDS[random.nextInt(WORDS.length)]);
+                if (random.nextBoolean()) {
+                    domain.append(random.nextInt(100));
+                }
+                domain.append('.');
+            }
+            if (random.nextBoolean()) {
+                domain.append(WORDS[random.nextInt(WORDS.length)]).append('-');
+            }
+            appendRandomLabel(domain, random, 3 + random.nextInt(10));
+            domain.append('.').append(TLDS[random.nextInt(TLDS.length)]);
+            domains.add(domain.toString());
+        }
+        return new ArrayList<>(domains);
+    }
+
+    /**
+     * Generated filter list with the mix of rule kinds found in EasyList:
+     * mostly host rules, then path and size patterns, options and exceptions
+     */
+    static List<String> syntheticFilters(int count) {
+        Random random = new Random(SEED + 1);
+        List<String> rules = new ArrayList<>(count);
+        rules.add("[Adblock Plus 2.0]");
+        rules.add("! Generated benchmark filter list");
+        StringBuilder rule = new StringBuilder();
+        while (rules.size() < count) {
+            rule.setLength(0);
+            int kind = random.nextInt(20);
+            String word = WORDS[random.nextInt(WORDS.length)];
+            if (kind < 12) {
+                rule.append("||");
+                appendRandomLabel(rule, random, 4 + random.nextInt(8));
+                rule.append('.').append(TLDS[random.nextInt(TLDS.length)]).append('^');
+                if (kind < 3) {
+                    rule.append("$third-party");
+                }
+            } else if (kind < 15) {
+                rule.append('/').append(word).append('/');
+                appendRandomLabel(rule, random, 4 + random.nextInt(6));
+                rule.append(random.nextBoolean() ? ".js" : "/*");
+            } else if (kind < 17) {
+                rule.append('-').append(word).append('-').append(100 + random.nextInt(700))
+                        .append('x').append(50 + random.nextInt(600)).append('.');
+            } else if (kind < 19) {
+                rule.append("||");
+                appendRandomLabel(rule, random, 5);
+                rule.append(".com/").append(word).append("/*$script,domain=");
+                appendRandomLabel(rule, random, 6);
+                rule.append(".com");
+            } else {
+                rule.append("@@||");
+                appendRandomLabel(rule, random, 5);
+                rule.append(".com/").append(word).append(".js$script");
+            }
+            rules.add(rule.toString());
+        }
+        rules.add("||doubleclick.net^$third-party");
+        rules.add("/pagead/js/*");
+        rules.add("@@||googletagmanager.com/gtm.js");
+        rules.add("||facebook.com/tr^");
+        rules.add("||connect.facebook.net^$script,third-party");
+        rules.add("/beacon.min.js");
+        return rules;
+    }
+
+    private static void appendRandomLabel(StringBuilder out, Random random, int length) {
+        for (int i = 0; i < length; i++) {
+            out.append((char) ('a' + random.nextInt(26)));
+        }
+    }
+
+    private static List<String> readResource(String name) throws IOException {
+        List<String> lines = new ArrayList<>();
+        try (InputStream in = Corpus.class.getClassLoader().getResourceAsStream(name);
+             BufferedReader br = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = br.readLine()) != null) {
+                lines.add(line);
+            }
+        }
+        return lines;
+    }
+
+    /**
+     * One recorded request
+     */
+    static final class Request {
+        final String pageHost;
+        // The corpus only records hosts, so pages are taken to be front pages
+        final String pageUrl;
+        final String url;
+        final String host;
+        final ResourceType type;
+
+        Request(String pageHost, String url) {
+            this.pageHost = pageHost;
+            this.pageUrl = "https://" + pageHost + "/";
+            this.url = url;
+            int start = url.indexOf("://") + 3;
+            int end = start;
+            while (end < url.length() && "/?#:".indexOf(url.charAt(end)) < 0) {
+                end++;
+            }
+            this.host = url.substring(start, end);
+            this.type = ResourceType.of(url, false, null);
+        }
+    }
+}
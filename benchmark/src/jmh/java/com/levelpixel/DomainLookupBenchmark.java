@@ -0,0 +1,80 @@
+package com.levelpixel;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Host lookups against the 500k-domain list, one recorded request host per operation.
+ * {@link #hashSetExactHost} is the original HashSet lookup, kept as a baseline;
+ * it only matches exact hosts, so it does less work than the suffix-aware lookups.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class DomainLookupBenchmark {
+    private String[] hosts;
+    private DomainMatcher compiledOnly;
+    private DomainMatcher withCustomDomains;
+    private Set<String> hashSet;
+
+    @Setup
+    public void setUp() throws IOException {
+        List<String> domains = Corpus.domains();
+        List<Corpus.Request> requests = Corpus.requests();
+        hosts = new String[requests.size()];
+        for (int i = 0; i < hosts.length; i++) {
+            hosts[i] = requests.get(i).host;
+        }
+
+        CompactBlocklist compiled = CompactBlocklist.of(domains);
+        compiledOnly = DomainMatcher.EMPTY.withCompiled(compiled);
+        // A view with some custom additions and removals layered on the shared list
+        DomainMatcher matcher = compiledOnly;
+        for (int i = 0; i < 200; i++) {
+            matcher = matcher.withAdded("custom" + i + ".example.com")
+                    .withRemoved(domains.get(i * 7));
+        }
+        withCustomDomains = matcher;
+        hashSet = new HashSet<>(domains);
+    }
+
+    @Benchmark
+    public boolean compiledList(Cursor cursor) {
+        return compiledOnly.matches(hosts[cursor.next(hosts.length)]);
+    }
+
+    @Benchmark
+    public boolean compiledListWithCustomDomains(Cursor cursor) {
+        return withCustomDomains.matches(hosts[cursor.next(hosts.length)]);
+    }
+
+    @Benchmark
+    public boolean hashSetExactHost(Cursor cursor) {
+        return hashSet.contains(hosts[cursor.next(hosts.length)].toLowerCase());
+    }
+
+    /**
+     * Per-thread position in the request sample
+     */
+    @State(Scope.Thread)
+    public static class Cursor {
+        private int position;
+
+        int next(int length) {
+            int current = position;
+            position = current + 1 == length ? 0 : current + 1;
+            return current;
+        }
+    }
+}
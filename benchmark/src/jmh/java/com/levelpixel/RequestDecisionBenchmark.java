@@ -0,0 +1,71 @@
+package com.levelpixel;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The whole block/allow decision made in shouldInterceptRequest, per recorded request:
+ * domain list, URL patterns and filter rules, with and without the decision cache.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class RequestDecisionBenchmark {
+    private Corpus.Request[] requests;
+    private DomainMatcher blocklist;
+    private UrlPatternMatcher patterns;
+    private NetworkFilterIndex filters;
+    private DecisionCache cache;
+
+    @Setup
+    public void setUp() throws IOException {
+        List<Corpus.Request> recorded = Corpus.requests();
+        requests = recorded.toArray(new Corpus.Request[0]);
+        blocklist = DomainMatcher.EMPTY.withCompiled(CompactBlocklist.of(Corpus.domains()));
+        patterns = UrlPatternMatcher.compile(Arrays.asList(BlockDecider.DEFAULT_AD_URL_PATTERNS));
+        filters = NetworkFilterIndex.of(Corpus.filters());
+        cache = new DecisionCache(DecisionCache.DEFAULT_CAPACITY);
+    }
+
+    @Benchmark
+    public byte domainsAndPatterns(DomainLookupBenchmark.Cursor cursor) {
+        Corpus.Request request = requests[cursor.next(requests.length)];
+        return BlockDecider.decide(request.url, request.host, request.type, request.pageUrl,
+                request.pageHost, blocklist, DomainMatcher.EMPTY, patterns, NetworkFilterIndex.EMPTY);
+    }
+
+    @Benchmark
+    public byte withFilterRules(DomainLookupBenchmark.Cursor cursor) {
+        Corpus.Request request = requests[cursor.next(requests.length)];
+        return BlockDecider.decide(request.url, request.host, request.type, request.pageUrl,
+                request.pageHost, blocklist, DomainMatcher.EMPTY, patterns, filters);
+    }
+
+    /**
+     * Same as DuneWebView: the cache in front of the full decision.
+     * The sample fits in the cache, so this mostly measures hits.
+     */
+    @Benchmark
+    public byte withFilterRulesCached(DomainLookupBenchmark.Cursor cursor) {
+        Corpus.Request request = requests[cursor.next(requests.length)];
+        int generation = cache.generation(blocklist, DomainMatcher.EMPTY, patterns, filters);
+        String key = request.type.ordinal() + " " + request.pageHost + " " + request.url;
+        byte decision = cache.get(key, generation);
+        if (decision == DecisionCache.MISS) {
+            decision = BlockDecider.decide(request.url, request.host, request.type, request.pageUrl,
+                    request.pageHost, blocklist, DomainMatcher.EMPTY, patterns, filters);
+            cache.put(key, generation, decision);
+        }
+        return decision;
+    }
+}
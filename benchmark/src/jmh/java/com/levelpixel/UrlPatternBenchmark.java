@@ -0,0 +1,73 @@
+package com.levelpixel;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * isAdRequest / isSuspiciousUrl checks over the recorded URLs, one URL per operation.
+ * The contains-chain methods reproduce the original implementation as a baseline.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class UrlPatternBenchmark {
+    private String[] urls;
+    private UrlPatternMatcher adPatterns;
+    private UrlPatternMatcher suspiciousPatterns;
+
+    @Setup
+    public void setUp() throws IOException {
+        List<Corpus.Request> requests = Corpus.requests();
+        urls = new String[requests.size()];
+        for (int i = 0; i < urls.length; i++) {
+            urls[i] = requests.get(i).url;
+        }
+        adPatterns = UrlPatternMatcher.compile(Arrays.asList(BlockDecider.DEFAULT_AD_URL_PATTERNS));
+        suspiciousPatterns = UrlPatternMatcher.compile(Arrays.asList(BlockDecider.DEFAULT_SUSPICIOUS_URL_PATTERNS));
+    }
+
+    @Benchmark
+    public boolean adPatterns(DomainLookupBenchmark.Cursor cursor) {
+        return adPatterns.matches(urls[cursor.next(urls.length)]);
+    }
+
+    @Benchmark
+    public boolean suspiciousPatterns(DomainLookupBenchmark.Cursor cursor) {
+        return suspiciousPatterns.matches(urls[cursor.next(urls.length)]);
+    }
+
+    @Benchmark
+    public boolean adPatternsContainsChain(DomainLookupBenchmark.Cursor cursor) {
+        String url = urls[cursor.next(urls.length)].toLowerCase();
+        return url.contains("/ad/") ||
+                url.contains("/ads/") ||
+                url.contains("pop-under") ||
+                url.contains("popunder") ||
+                url.contains("click.php") ||
+                url.contains("track.php") ||
+                url.contains("banner.") ||
+                url.contains("analytics.") ||
+                url.contains("tracker.");
+    }
+
+    @Benchmark
+    public boolean suspiciousPatternsContainsChain(DomainLookupBenchmark.Cursor cursor) {
+        String url = urls[cursor.next(urls.length)].toLowerCase();
+        return url.contains("popup") ||
+                url.contains("click.php") ||
+                url.contains("redirect") ||
+                url.contains("ad.") ||
+                url.contains("/pop/") ||
+                url.contains("track.php");
+    }
+}
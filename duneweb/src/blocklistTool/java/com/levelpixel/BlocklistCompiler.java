@@ -0,0 +1,31 @@
+package com.levelpixel;
+
+import java.io.BufferedOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Build-time entry point of the compileBlocklist Gradle task. Compiles a text
+ * blocklist into the binary asset with the parser the library uses at runtime,
+ * so the two cannot drift apart.
+ *
+ * Usage: BlocklistCompiler input output
+ */
+public final class BlocklistCompiler {
+    private BlocklistCompiler() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.err.println("Usage: BlocklistCompiler <input> <output>");
+            System.exit(2);
+        }
+        try (InputStream in = new FileInputStream(args[0]);
+             OutputStream out = new BufferedOutputStream(new FileOutputStream(args[1]))) {
+            CompactBlocklist.convert(in, out);
+        }
+    }
+}
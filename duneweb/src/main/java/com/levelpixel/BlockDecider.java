@@ -0,0 +1,51 @@
+package com.levelpixel;
+
+/**
+ * Block/allow decision for one request, kept free of Android types so the
+ * same code runs in DuneWebView and in the JVM benchmarks.
+ */
+final class BlockDecider {
+    // Default URL patterns for ad and tracking requests
+    static final String[] DEFAULT_AD_URL_PATTERNS = {
+            "/ad/", "/ads/", "pop-under", "popunder", "click.php",
+            "track.php", "banner.", "analytics.", "tracker."
+    };
+
+    // Default URL patterns for popup and redirect navigations
+    static final String[] DEFAULT_SUSPICIOUS_URL_PATTERNS = {
+            "popup", "click.php", "redirect", "ad.", "/pop/", "track.php"
+    };
+
+    private BlockDecider() {
+    }
+
+    /**
+     * Decides whether a request is blocked, from one consistent set of snapshots
+     *
+     * @param type       resource type of the request; only needed when there are filter rules
+     * @param pageUrl    URL of the page making the request, for $document exceptions; null if unknown
+     * @param subscribed domains from subscribed host lists
+     */
+    static byte decide(String url, String host, ResourceType type, String pageUrl, String pageHost,
+                       DomainMatcher blocklist, DomainMatcher subscribed, UrlPatternMatcher patterns,
+                       NetworkFilterIndex filters) {
+        // Check host and its parent domains against the blocklists, then common ad patterns
+        BlockSource source = null;
+        if (host != null && (blocklist.matches(host) || subscribed.matches(host))) {
+            source = BlockSource.DOMAIN_LIST;
+        } else if (patterns.matches(url)) {
+            source = BlockSource.URL_PATTERN;
+        }
+
+        // Network filter rules can block more, and their exceptions unblock
+        if (!filters.isEmpty()) {
+            if (!filters.shouldBlock(url, host, type, pageUrl, pageHost, source != null)) {
+                return DecisionCache.ALLOWED;
+            }
+            if (source == null) {
+                source = BlockSource.FILTER_RULE;
+            }
+        }
+        return source == null ? DecisionCache.ALLOWED : DecisionCache.blockedBy(source);
+    }
+}
@@ -0,0 +1,13 @@
+package com.levelpixel;
+
+/**
+ * Kind of rule that blocked a request
+ */
+public enum BlockSource {
+    // Shared blocklist or a custom domain of the view
+    DOMAIN_LIST,
+    // Ad URL patterns (default or added with addAdUrlPattern)
+    URL_PATTERN,
+    // EasyList-style network filter rules
+    FILTER_RULE
+}
@@ -0,0 +1,138 @@
+package com.levelpixel;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * Snapshot of a DuneWebView's ad blocking statistics, see
+ * {@link DuneWebView#setBlockStatsEnabled(boolean)}
+ */
+public final class BlockStats {
+    private final long interceptedRequests;
+    private final long allowedRequests;
+    private final long[] blockedBySource;
+    private final String pageUrl;
+    private final long pageInterceptedRequests;
+    private final long pageBlockedRequests;
+    private final long latencyP50Nanos;
+    private final long latencyP99Nanos;
+    private final long blocklistLoadMillis;
+    private final long blocklistBytes;
+    private final int filterRuleCount;
+    private final double decisionCacheHitRate;
+
+    BlockStats(long interceptedRequests, long allowedRequests, long[] blockedBySource,
+               String pageUrl, long pageInterceptedRequests, long pageBlockedRequests,
+               long latencyP50Nanos, long latencyP99Nanos, long blocklistLoadMillis,
+               long blocklistBytes, int filterRuleCount, double decisionCacheHitRate) {
+        this.interceptedRequests = interceptedRequests;
+        this.allowedRequests = allowedRequests;
+        this.blockedBySource = blockedBySource;
+        this.pageUrl = pageUrl;
+        this.pageInterceptedRequests = pageInterceptedRequests;
+        this.pageBlockedRequests = pageBlockedRequests;
+        this.latencyP50Nanos = latencyP50Nanos;
+        this.latencyP99Nanos = latencyP99Nanos;
+        this.blocklistLoadMillis = blocklistLoadMillis;
+        this.blocklistBytes = blocklistBytes;
+        this.filterRuleCount = filterRuleCount;
+        this.decisionCacheHitRate = decisionCacheHitRate;
+    }
+
+    /**
+     * Requests checked by the ad blocker since stats were enabled
+     */
+    public long getInterceptedRequests() {
+        return interceptedRequests;
+    }
+
+    public long getAllowedRequests() {
+        return allowedRequests;
+    }
+
+    public long getBlockedRequests() {
+        long total = 0;
+        for (long count : blockedBySource) {
+            total += count;
+        }
+        return total;
+    }
+
+    /**
+     * Requests blocked by one kind of rule
+     */
+    public long getBlockedRequests(BlockSource source) {
+        return blockedBySource[source.ordinal()];
+    }
+
+    /**
+     * URL of the page the page counters belong to, null before the first page
+     */
+    @Nullable
+    public String getPageUrl() {
+        return pageUrl;
+    }
+
+    public long getPageInterceptedRequests() {
+        return pageInterceptedRequests;
+    }
+
+    public long getPageBlockedRequests() {
+        return pageBlockedRequests;
+    }
+
+    /**
+     * Median time spent deciding on a request in shouldInterceptRequest
+     */
+    public long getLatencyP50Nanos() {
+        return latencyP50Nanos;
+    }
+
+    /**
+     * 99th percentile of the time spent deciding on a request
+     */
+    public long getLatencyP99Nanos() {
+        return latencyP99Nanos;
+    }
+
+    /**
+     * Time the last shared blocklist load took, -1 if none has completed
+     */
+    public long getBlocklistLoadMillis() {
+        return blocklistLoadMillis;
+    }
+
+    /**
+     * Size of the compiled shared blocklist in bytes
+     */
+    public long getBlocklistBytes() {
+        return blocklistBytes;
+    }
+
+    public int getFilterRuleCount() {
+        return filterRuleCount;
+    }
+
+    public double getDecisionCacheHitRate() {
+        return decisionCacheHitRate;
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return "BlockStats{intercepted=" + interceptedRequests
+                + ", allowed=" + allowedRequests
+                + ", blockedByDomain=" + getBlockedRequests(BlockSource.DOMAIN_LIST)
+                + ", blockedByPattern=" + getBlockedRequests(BlockSource.URL_PATTERN)
+                + ", blockedByFilter=" + getBlockedRequests(BlockSource.FILTER_RULE)
+                + ", page=" + pageUrl
+                + ", pageIntercepted=" + pageInterceptedRequests
+                + ", pageBlocked=" + pageBlockedRequests
+                + ", p50Nanos=" + latencyP50Nanos
+                + ", p99Nanos=" + latencyP99Nanos
+                + ", blocklistLoadMillis=" + blocklistLoadMillis
+                + ", blocklistBytes=" + blocklistBytes
+                + ", filterRules=" + filterRuleCount
+                + ", cacheHitRate=" + decisionCacheHitRate + "}";
+    }
+}
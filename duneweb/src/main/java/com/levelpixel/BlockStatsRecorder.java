@@ -0,0 +1,136 @@
+package com.levelpixel;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Request counters and interception latency histogram of one DuneWebView.
+ * Recording is called from WebView's IO threads, so every counter is a
+ * LongAdder: concurrent increments land in separate cells instead of
+ * fighting over one cache line, and are only summed when a snapshot is taken.
+ */
+final class BlockStatsRecorder {
+    // Latency buckets: 4 per power of two of nanoseconds, up to 2^40 ns (~18 minutes)
+    private static final int SUB_BUCKETS = 4;
+    private static final int MAX_EXPONENT = 40;
+
+    private final LongAdder intercepted = new LongAdder();
+    private final LongAdder allowed = new LongAdder();
+    private final LongAdder[] blockedBySource = newAdders(BlockSource.values().length);
+    private final LongAdder[] latency = newAdders((MAX_EXPONENT + 1) * SUB_BUCKETS);
+
+    // Counters of the page in the main frame, replaced when a new page starts
+    private volatile PageCounters page = new PageCounters(null);
+
+    /**
+     * Start counting for a new main-frame page
+     */
+    void startPage(String url) {
+        page = new PageCounters(url);
+    }
+
+    /**
+     * Record one intercepted request
+     *
+     * @param decision   DecisionCache.ALLOWED or DecisionCache.blockedBy(source)
+     * @param elapsedNanos time spent deciding
+     */
+    void record(byte decision, long elapsedNanos) {
+        PageCounters current = page;
+        intercepted.increment();
+        current.intercepted.increment();
+        BlockSource source = DecisionCache.sourceOf(decision);
+        if (source == null) {
+            allowed.increment();
+        } else {
+            blockedBySource[source.ordinal()].increment();
+            current.blocked.increment();
+        }
+        latency[bucketOf(elapsedNanos)].increment();
+    }
+
+    BlockStats snapshot(BlocklistLoadStats load, long blocklistBytes, int filterRules,
+                        double cacheHitRate) {
+        long[] blocked = new long[blockedBySource.length];
+        for (int i = 0; i < blocked.length; i++) {
+            blocked[i] = blockedBySource[i].sum();
+        }
+        long[] histogram = new long[latency.length];
+        long total = 0;
+        for (int i = 0; i < histogram.length; i++) {
+            histogram[i] = latency[i].sum();
+            total += histogram[i];
+        }
+        PageCounters current = page;
+        return new BlockStats(intercepted.sum(), allowed.sum(), blocked,
+                current.url, current.intercepted.sum(), current.blocked.sum(),
+                percentile(histogram, total, 0.50), percentile(histogram, total, 0.99),
+                load == null ? -1 : load.getElapsedMillis(), blocklistBytes, filterRules, cacheHitRate);
+    }
+
+    /**
+     * Requests blocked on the current main frame page so far
+     */
+    long pageBlockedRequests() {
+        return page.blocked.sum();
+    }
+
+    /**
+     * Histogram bucket for a latency; relative error is below 25%
+     */
+    static int bucketOf(long nanos) {
+        if (nanos < SUB_BUCKETS) {
+            return (int) Math.max(nanos, 0);
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+        if (exponent > MAX_EXPONENT) {
+            return (MAX_EXPONENT + 1) * SUB_BUCKETS - 1;
+        }
+        int sub = (int) (nanos >>> (exponent - 2)) & (SUB_BUCKETS - 1);
+        return (exponent - 1) * SUB_BUCKETS + sub;
+    }
+
+    /**
+     * Largest latency that falls into a bucket
+     */
+    static long bucketUpperBound(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int exponent = bucket / SUB_BUCKETS + 1;
+        int sub = bucket % SUB_BUCKETS;
+        return ((long) (SUB_BUCKETS + sub + 1) << (exponent - 2)) - 1;
+    }
+
+    private static long percentile(long[] histogram, long total, double fraction) {
+        if (total == 0) {
+            return 0;
+        }
+        long target = (long) Math.ceil(total * fraction);
+        long seen = 0;
+        for (int i = 0; i < histogram.length; i++) {
+            seen += histogram[i];
+            if (seen >= target) {
+                return bucketUpperBound(i);
+            }
+        }
+        return bucketUpperBound(histogram.length - 1);
+    }
+
+    private static LongAdder[] newAdders(int count) {
+        LongAdder[] adders = new LongAdder[count];
+        for (int i = 0; i < count; i++) {
+            adders[i] = new LongAdder();
+        }
+        return adders;
+    }
+
+    private static final class PageCounters {
+        final String url;
+        final LongAdder intercepted = new LongAdder();
+        final LongAdder blocked = new LongAdder();
+
+        PageCounters(String url) {
+            this.url = url;
+        }
+    }
+}
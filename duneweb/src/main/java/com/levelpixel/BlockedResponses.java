@@ -0,0 +1,86 @@
+package com.levelpixel;
+
+import android.webkit.WebResourceResponse;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Responses served in place of blocked requests, shaped so the page's
+ * element or request settles at once: images get a transparent pixel,
+ * scripts and stylesheets an empty body of their type, and XHR, fetch,
+ * beacons and media a 204 No Content.
+ *
+ * Empty responses are built once per type and shared: their body stream
+ * has no state, and WebView only reads a response, so every blocked
+ * request of that type can be handed the same instance. Only images need
+ * a fresh stream over the shared pixel bytes.
+ */
+final class BlockedResponses {
+    // Smallest transparent GIF: 1x1, one-colour palette, transparent index 0
+    private static final byte[] TRANSPARENT_GIF = {
+            'G', 'I', 'F', '8', '9', 'a', 1, 0, 1, 0, (byte) 0x80, 0, 0,
+            0, 0, 0, 0, 0, 0,
+            '!', (byte) 0xF9, 4, 1, 0, 0, 0, 0,
+            ',', 0, 0, 0, 0, 1, 0, 1, 0, 0,
+            2, 2, 'D', 1, 0, ';'
+    };
+
+    // CORS-enabled so cross-origin fetches see the answer instead of a CORS
+    // error, and not stored so unblocking takes effect on the next load
+    private static final Map<String, String> HEADERS;
+
+    private static final InputStream EMPTY_BODY = new InputStream() {
+        @Override
+        public int read() {
+            return -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            return len == 0 ? 0 : -1;
+        }
+    };
+
+    private static final Map<ResourceType, WebResourceResponse> EMPTY_RESPONSES =
+            new EnumMap<>(ResourceType.class);
+
+    static {
+        Map<String, String> headers = new HashMap<>();
+        headers.put("Access-Control-Allow-Origin", "*");
+        headers.put("Cache-Control", "no-store");
+        HEADERS = Collections.unmodifiableMap(headers);
+
+        WebResourceResponse html = empty("text/html", 200, "OK");
+        WebResourceResponse noContent = empty("text/plain", 204, "No Content");
+        for (ResourceType type : ResourceType.values()) {
+            EMPTY_RESPONSES.put(type, noContent);
+        }
+        EMPTY_RESPONSES.put(ResourceType.DOCUMENT, html);
+        EMPTY_RESPONSES.put(ResourceType.SUBDOCUMENT, html);
+        EMPTY_RESPONSES.put(ResourceType.SCRIPT, empty("application/javascript", 200, "OK"));
+        EMPTY_RESPONSES.put(ResourceType.STYLESHEET, empty("text/css", 200, "OK"));
+    }
+
+    private BlockedResponses() {
+    }
+
+    /**
+     * Response for a blocked request of the given type
+     */
+    static WebResourceResponse forType(ResourceType type) {
+        if (type == ResourceType.IMAGE) {
+            return new WebResourceResponse("image/gif", null, 200, "OK", HEADERS,
+                    new ByteArrayInputStream(TRANSPARENT_GIF));
+        }
+        return EMPTY_RESPONSES.get(type);
+    }
+
+    private static WebResourceResponse empty(String mimeType, int status, String reason) {
+        return new WebResourceResponse(mimeType, "utf-8", status, reason, HEADERS, EMPTY_BODY);
+    }
+}
@@ -0,0 +1,47 @@
+package com.levelpixel;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Result of loading a blocklist or filter list into the shared DuneFilterEngine
+ */
+public final class BlocklistLoadStats {
+    private final int entries;
+    private final long bytes;
+    private final long elapsedMillis;
+
+    BlocklistLoadStats(int entries, long bytes, long elapsedMillis) {
+        this.entries = entries;
+        this.bytes = bytes;
+        this.elapsedMillis = elapsedMillis;
+    }
+
+    /**
+     * Number of domains in the loaded list, or of supported rules in a filter list
+     */
+    public int getEntries() {
+        return entries;
+    }
+
+    /**
+     * Size of the compiled list, or of the filter list text, in bytes
+     */
+    public long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * Time spent opening and, if needed, converting the list
+     */
+    public long getElapsedMillis() {
+        return elapsedMillis;
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return "BlocklistLoadStats{entries=" + entries
+                + ", bytes=" + bytes
+                + ", elapsedMillis=" + elapsedMillis + "}";
+    }
+}
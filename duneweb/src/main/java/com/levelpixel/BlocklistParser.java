@@ -0,0 +1,497 @@
+package com.levelpixel;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Compiles a plain text blocklist into the CompactBlocklist format without
+ * creating a String per line.
+ *
+ * Text is read in 1 MB chunks and every chunk is handed to the fork-join pool
+ * as soon as it is read, so parsing runs on all cores while the rest of the
+ * input is still being read. Domains are lowercased and reversed inside the
+ * chunk they were read into and referenced by position. Each chunk's entries
+ * are sorted on their own, then the sorted runs are merged pass by pass
+ * between two preallocated arrays, every merge split across the pool, and
+ * the result is written straight into the final buffer. Every entry carries
+ * the first 8 bytes of its key as a long, so most comparisons while sorting
+ * and merging are a single long comparison instead of a walk over the chunks.
+ *
+ * Accepted lines: one domain per line, or hosts-file lines
+ * ("0.0.0.0 ads.example.com", several names after one address are allowed).
+ * '#' starts a comment; localhost entries and non-ASCII names are skipped.
+ */
+final class BlocklistParser {
+    static final int CHUNK_SIZE = 1 << 20;
+
+    // Entries pack chunk index, offset in the chunk and length into one long.
+    // Runs hold (key prefix, entry) pairs: run[2 * i] and run[2 * i + 1].
+    private static final int OFFSET_BITS = 24;
+    private static final int LENGTH_BITS = 8;
+    private static final int MAX_DOMAIN_LENGTH = (1 << LENGTH_BITS) - 1;
+    private static final int MAX_CHUNK_SIZE = 1 << OFFSET_BITS;
+    // Merges of fewer entries run on one thread
+    private static final int MIN_PARALLEL_MERGE = 16 * 1024;
+
+    // Names hosts files carry for the machine itself
+    private static final byte[][] LOCAL_NAMES = {
+            ascii("localhost"), ascii("localhost.localdomain"), ascii("local"), ascii("broadcasthost"),
+            ascii("ip6-localhost"), ascii("ip6-loopback"), ascii("0.0.0.0")
+    };
+
+    private BlocklistParser() {
+    }
+
+    /**
+     * Reads the text to its end and compiles it. The stream is not closed.
+     */
+    static byte[] compile(InputStream in) throws IOException {
+        List<byte[]> chunks = new ArrayList<>();
+        List<ForkJoinTask<long[]>> parses = new ArrayList<>();
+        byte[] chunk = new byte[CHUNK_SIZE];
+        int length = 0;
+        boolean eof = false;
+        while (!eof) {
+            int read = in.read(chunk, length, chunk.length - length);
+            if (read > 0) {
+                length += read;
+                if (length < chunk.length) {
+                    continue;
+                }
+            }
+            eof = read < 0;
+            // Hand over whole lines; the partial last line starts the next chunk
+            int end = eof ? length : lastNewline(chunk, length) + 1;
+            if (end == 0 && !eof) {
+                if (chunk.length == MAX_CHUNK_SIZE) {
+                    throw new IOException("Blocklist line longer than " + MAX_CHUNK_SIZE + " bytes");
+                }
+                chunk = Arrays.copyOf(chunk, chunk.length * 2);
+                continue;
+            }
+            byte[] next = new byte[Math.max(CHUNK_SIZE, 2 * (length - end))];
+            System.arraycopy(chunk, end, next, 0, length - end);
+            parses.add(new ParseTask(chunk, end, chunks.size()).fork());
+            chunks.add(chunk);
+            length -= end;
+            chunk = next;
+        }
+
+        // Lay the sorted runs out in one array, then merge neighbours until one run is left
+        List<long[]> parsed = new ArrayList<>(parses.size());
+        int total = 0;
+        for (ForkJoinTask<long[]> parse : parses) {
+            long[] run = parse.join();
+            parsed.add(run);
+            total += run.length / 2;
+        }
+        long[] pairs = new long[2 * total];
+        int[] runStarts = new int[parsed.size() + 1];
+        for (int i = 0; i < parsed.size(); i++) {
+            long[] run = parsed.get(i);
+            System.arraycopy(run, 0, pairs, 2 * runStarts[i], run.length);
+            runStarts[i + 1] = runStarts[i] + run.length / 2;
+        }
+        parsed = null;
+        byte[][] sources = chunks.toArray(new byte[0][]);
+        long[] scratch = new long[pairs.length];
+        for (int width = 1; width < runStarts.length - 1; width *= 2) {
+            List<MergeTask> merges = new ArrayList<>();
+            for (int run = 0; run < runStarts.length - 1; run += 2 * width) {
+                int middle = runStarts[Math.min(run + width, runStarts.length - 1)];
+                int end = runStarts[Math.min(run + 2 * width, runStarts.length - 1)];
+                merges.add(new MergeTask(sources, pairs, scratch, runStarts[run], middle, middle, end, runStarts[run]));
+            }
+            ForkJoinTask.invokeAll(merges);
+            long[] merged = scratch;
+            scratch = pairs;
+            pairs = merged;
+        }
+        return write(sources, pairs);
+    }
+
+    /**
+     * Serializes sorted (prefix, entry) pairs in the CompactBlocklist layout,
+     * dropping domains listed in more than one chunk
+     */
+    private static byte[] write(byte[][] chunks, long[] pairs) throws IOException {
+        int count = 0;
+        long dataLength = 0;
+        int kept = -1;
+        for (int i = 0; i < pairs.length; i += 2) {
+            if (kept >= 0 && compare(chunks, pairs, kept, pairs, i) == 0) {
+                pairs[i + 1] = -1;
+            } else {
+                kept = i;
+                count++;
+                dataLength += lengthOf(pairs[i + 1]);
+            }
+        }
+        long size = CompactBlocklist.HEADER_SIZE + 4L * count + dataLength;
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("Blocklist too large");
+        }
+        byte[] out = new byte[(int) size];
+        ByteBuffer buffer = ByteBuffer.wrap(out);
+        buffer.put(CompactBlocklist.MAGIC)
+                .putInt(CompactBlocklist.VERSION)
+                .putInt(count)
+                .putInt((int) dataLength);
+        int offset = 0;
+        for (int i = 1; i < pairs.length; i += 2) {
+            if (pairs[i] != -1) {
+                buffer.putInt(offset);
+                offset += lengthOf(pairs[i]);
+            }
+        }
+        int position = buffer.position();
+        for (int i = 1; i < pairs.length; i += 2) {
+            long entry = pairs[i];
+            if (entry == -1) {
+                continue;
+            }
+            int entryLength = lengthOf(entry);
+            System.arraycopy(chunks[chunkOf(entry)], offsetOf(entry), out, position, entryLength);
+            position += entryLength;
+        }
+        return out;
+    }
+
+    /**
+     * Parses one chunk of whole lines into its sorted, distinct entries
+     */
+    private static final class ParseTask extends RecursiveTask<long[]> {
+        private final byte[] chunk;
+        private final int length;
+        private final int index;
+        private long[] pairs = new long[2048];
+        private int count;
+
+        ParseTask(byte[] chunk, int length, int index) {
+            this.chunk = chunk;
+            this.length = length;
+            this.index = index;
+        }
+
+        @Override
+        protected long[] compute() {
+            int start = 0;
+            // UTF-8 byte order mark
+            if (index == 0 && length >= 3 && chunk[0] == (byte) 0xEF && chunk[1] == (byte) 0xBB
+                    && chunk[2] == (byte) 0xBF) {
+                start = 3;
+            }
+            while (start < length) {
+                int end = start;
+                while (end < length && chunk[end] != '\n') {
+                    end++;
+                }
+                parseLine(start, end);
+                start = end + 1;
+            }
+            long[] sorted = Arrays.copyOf(pairs, 2 * count);
+            pairs = null;
+            sort(sorted, new long[2 * count], 0, count);
+            return distinct(sorted);
+        }
+
+        private void parseLine(int start, int end) {
+            for (int i = start; i < end; i++) {
+                if (chunk[i] == '#') {
+                    end = i;
+                    break;
+                }
+            }
+            int first = skipSpace(start, end);
+            int firstEnd = skipToken(first, end);
+            if (first == firstEnd) {
+                return;
+            }
+            int next = skipSpace(firstEnd, end);
+            if (next == end || !isAddress(first, firstEnd)) {
+                add(first, firstEnd);
+                return;
+            }
+            while (next < end) {
+                int tokenEnd = skipToken(next, end);
+                add(next, tokenEnd);
+                next = skipSpace(tokenEnd, end);
+            }
+        }
+
+        /**
+         * Lowercases and reverses a name in place and records it
+         */
+        private void add(int start, int end) {
+            int length = end - start;
+            if (length > MAX_DOMAIN_LENGTH || isLocalName(start, end)) {
+                return;
+            }
+            for (int i = start; i < end; i++) {
+                byte b = chunk[i];
+                if (b < 0) {
+                    return;
+                }
+                if (b >= 'A' && b <= 'Z') {
+                    chunk[i] = (byte) (b + ('a' - 'A'));
+                }
+            }
+            for (int i = start, j = end - 1; i < j; i++, j--) {
+                byte b = chunk[i];
+                chunk[i] = chunk[j];
+                chunk[j] = b;
+            }
+            if (2 * count == pairs.length) {
+                pairs = Arrays.copyOf(pairs, pairs.length * 2);
+            }
+            long prefix = 0;
+            for (int i = 0; i < 8; i++) {
+                prefix = (prefix << 8) | (i < length ? chunk[start + i] & 0xff : 0);
+            }
+            // Flipping the sign bit makes signed comparison order the bytes unsigned
+            pairs[2 * count] = prefix ^ Long.MIN_VALUE;
+            pairs[2 * count + 1] = entry(index, start, length);
+            count++;
+        }
+
+        private boolean isLocalName(int start, int end) {
+            for (byte[] name : LOCAL_NAMES) {
+                if (name.length == end - start) {
+                    int i = 0;
+                    while (i < name.length && CompactBlocklist.lowerAscii((char) chunk[start + i]) == name[i]) {
+                        i++;
+                    }
+                    if (i == name.length) {
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+
+        /**
+         * IPv4 addresses are digits and dots; anything with a ':' is taken as IPv6
+         */
+        private boolean isAddress(int start, int end) {
+            boolean digitsAndDots = true;
+            for (int i = start; i < end; i++) {
+                byte b = chunk[i];
+                if (b == ':') {
+                    return true;
+                }
+                digitsAndDots &= (b >= '0' && b <= '9') || b == '.';
+            }
+            return digitsAndDots;
+        }
+
+        private int skipSpace(int i, int end) {
+            while (i < end && isSpace(chunk[i])) {
+                i++;
+            }
+            return i;
+        }
+
+        private int skipToken(int i, int end) {
+            while (i < end && !isSpace(chunk[i])) {
+                i++;
+            }
+            return i;
+        }
+
+        /**
+         * Top-down merge sort of this chunk's pairs [from, to)
+         */
+        private void sort(long[] a, long[] scratch, int from, int to) {
+            if (to - from < 16) {
+                for (int i = from + 1; i < to; i++) {
+                    long prefix = a[2 * i];
+                    long entry = a[2 * i + 1];
+                    int j = i - 1;
+                    while (j >= from && compare(chunk, a[2 * j], a[2 * j + 1], chunk, prefix, entry) > 0) {
+                        a[2 * j + 2] = a[2 * j];
+                        a[2 * j + 3] = a[2 * j + 1];
+                        j--;
+                    }
+                    a[2 * j + 2] = prefix;
+                    a[2 * j + 3] = entry;
+                }
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            sort(a, scratch, from, middle);
+            sort(a, scratch, middle, to);
+            if (compare(chunk, a[2 * middle - 2], a[2 * middle - 1], chunk, a[2 * middle], a[2 * middle + 1]) <= 0) {
+                return;
+            }
+            System.arraycopy(a, 2 * from, scratch, 2 * from, 2 * (to - from));
+            int left = from;
+            int right = middle;
+            for (int i = from; i < to; i++) {
+                int next = right >= to || (left < middle && compare(chunk, scratch[2 * left], scratch[2 * left + 1],
+                        chunk, scratch[2 * right], scratch[2 * right + 1]) <= 0) ? left++ : right++;
+                a[2 * i] = scratch[2 * next];
+                a[2 * i + 1] = scratch[2 * next + 1];
+            }
+        }
+
+        private long[] distinct(long[] sorted) {
+            int kept = 0;
+            for (int i = 0; i < sorted.length; i += 2) {
+                if (kept == 0 || compare(chunk, sorted[kept - 2], sorted[kept - 1], chunk, sorted[i], sorted[i + 1]) != 0) {
+                    sorted[kept++] = sorted[i];
+                    sorted[kept++] = sorted[i + 1];
+                }
+            }
+            return kept == sorted.length ? sorted : Arrays.copyOf(sorted, kept);
+        }
+    }
+
+    /**
+     * Merges two sorted runs of pairs from one array into another. Large merges
+     * are split in two: the middle of the longer run is looked up in the other,
+     * and both halves are merged in parallel into their own part of the output.
+     */
+    private static final class MergeTask extends RecursiveAction {
+        private final byte[][] chunks;
+        private final long[] source;
+        private final long[] target;
+        // Pair indices
+        private final int aFrom;
+        private final int aTo;
+        private final int bFrom;
+        private final int bTo;
+        private final int to;
+
+        MergeTask(byte[][] chunks, long[] source, long[] target, int aFrom, int aTo, int bFrom, int bTo, int to) {
+            this.chunks = chunks;
+            this.source = source;
+            this.target = target;
+            this.aFrom = aFrom;
+            this.aTo = aTo;
+            this.bFrom = bFrom;
+            this.bTo = bTo;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            int aLength = aTo - aFrom;
+            int bLength = bTo - bFrom;
+            if (aLength + bLength < MIN_PARALLEL_MERGE) {
+                merge();
+            } else if (aLength >= bLength) {
+                int aMiddle = (aFrom + aTo) >>> 1;
+                int bMiddle = lowerBound(bFrom, bTo, aMiddle);
+                invokeAll(new MergeTask(chunks, source, target, aFrom, aMiddle, bFrom, bMiddle, to),
+                        new MergeTask(chunks, source, target, aMiddle, aTo, bMiddle, bTo,
+                                to + (aMiddle - aFrom) + (bMiddle - bFrom)));
+            } else {
+                int bMiddle = (bFrom + bTo) >>> 1;
+                int aMiddle = lowerBound(aFrom, aTo, bMiddle);
+                invokeAll(new MergeTask(chunks, source, target, aFrom, aMiddle, bFrom, bMiddle, to),
+                        new MergeTask(chunks, source, target, aMiddle, aTo, bMiddle, bTo,
+                                to + (aMiddle - aFrom) + (bMiddle - bFrom)));
+            }
+        }
+
+        private void merge() {
+            int a = aFrom;
+            int b = bFrom;
+            int out = to;
+            while (a < aTo && b < bTo) {
+                int next = compare(chunks, source, 2 * a, source, 2 * b) <= 0 ? a++ : b++;
+                target[2 * out] = source[2 * next];
+                target[2 * out + 1] = source[2 * next + 1];
+                out++;
+            }
+            System.arraycopy(source, 2 * a, target, 2 * out, 2 * (aTo - a));
+            out += aTo - a;
+            System.arraycopy(source, 2 * b, target, 2 * out, 2 * (bTo - b));
+        }
+
+        /**
+         * First pair index in [from, to) not ordered before the pair at key
+         */
+        private int lowerBound(int from, int to, int key) {
+            while (from < to) {
+                int middle = (from + to) >>> 1;
+                if (compare(chunks, source, 2 * middle, source, 2 * key) < 0) {
+                    from = middle + 1;
+                } else {
+                    to = middle;
+                }
+            }
+            return from;
+        }
+    }
+
+    private static int compare(byte[][] chunks, long[] a, int i, long[] b, int j) {
+        return compare(chunks[chunkOf(a[i + 1])], a[i], a[i + 1], chunks[chunkOf(b[j + 1])], b[j], b[j + 1]);
+    }
+
+    /**
+     * Orders two entries by unsigned byte value, as CompactBlocklist.KEY_ORDER,
+     * looking at the chunks only when the 8-byte prefixes are equal
+     */
+    private static int compare(byte[] a, long prefixA, long entryA, byte[] b, long prefixB, long entryB) {
+        if (prefixA != prefixB) {
+            return prefixA < prefixB ? -1 : 1;
+        }
+        int offsetA = offsetOf(entryA);
+        int offsetB = offsetOf(entryB);
+        int lengthA = lengthOf(entryA);
+        int lengthB = lengthOf(entryB);
+        int length = Math.min(lengthA, lengthB);
+        for (int i = 8; i < length; i++) {
+            int diff = (a[offsetA + i] & 0xff) - (b[offsetB + i] & 0xff);
+            if (diff != 0) {
+                return diff;
+            }
+        }
+        return lengthA - lengthB;
+    }
+
+    private static long entry(int chunk, int offset, int length) {
+        return ((long) chunk << (OFFSET_BITS + LENGTH_BITS)) | ((long) offset << LENGTH_BITS) | length;
+    }
+
+    private static int chunkOf(long entry) {
+        return (int) (entry >>> (OFFSET_BITS + LENGTH_BITS));
+    }
+
+    private static int offsetOf(long entry) {
+        return (int) (entry >>> LENGTH_BITS) & (MAX_CHUNK_SIZE - 1);
+    }
+
+    private static int lengthOf(long entry) {
+        return (int) entry & MAX_DOMAIN_LENGTH;
+    }
+
+    private static int lastNewline(byte[] bytes, int length) {
+        for (int i = length - 1; i >= 0; i--) {
+            if (bytes[i] == '\n') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean isSpace(byte b) {
+        return b == ' ' || b == '\t' || b == '\r' || b == '\f' || b == 0x0B;
+    }
+
+    private static byte[] ascii(String s) {
+        byte[] bytes = new byte[s.length()];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) s.charAt(i);
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,67 @@
+package com.levelpixel;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Result of applying a batch of added and removed domains to a DuneWebView's blocklist
+ */
+public final class BlocklistUpdateStats {
+    private final int added;
+    private final int removed;
+    private final int duplicates;
+    private final int blocklistSize;
+    private final long elapsedNanos;
+
+    BlocklistUpdateStats(int added, int removed, int duplicates, int blocklistSize, long elapsedNanos) {
+        this.added = added;
+        this.removed = removed;
+        this.duplicates = duplicates;
+        this.blocklistSize = blocklistSize;
+        this.elapsedNanos = elapsedNanos;
+    }
+
+    /**
+     * Number of distinct domains added
+     */
+    public int getAdded() {
+        return added;
+    }
+
+    /**
+     * Number of distinct domains removed
+     */
+    public int getRemoved() {
+        return removed;
+    }
+
+    /**
+     * Number of entries skipped because they repeated an earlier entry of the batch
+     */
+    public int getDuplicates() {
+        return duplicates;
+    }
+
+    /**
+     * Number of domains in the blocklist once the batch was applied
+     */
+    public int getBlocklistSize() {
+        return blocklistSize;
+    }
+
+    /**
+     * Time spent normalizing the entries and building the new blocklist snapshot
+     */
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return "BlocklistUpdateStats{added=" + added
+                + ", removed=" + removed
+                + ", duplicates=" + duplicates
+                + ", blocklistSize=" + blocklistSize
+                + ", elapsedNanos=" + elapsedNanos + "}";
+    }
+}
@@ -0,0 +1,598 @@
+package com.levelpixel;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PushbackInputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Immutable, sorted domain list stored in a compact binary form.
+ * The list is queried directly from its backing buffer (heap or memory-mapped),
+ * so loading half a million domains does not create half a million Strings.
+ *
+ * Binary layout (big-endian):
+ * - magic "DUNEBLST" (8 bytes)
+ * - int format version
+ * - int entry count
+ * - int data length in bytes
+ * - int[count] start offset of every entry, relative to the data section
+ * - data section: every domain as lowercase ASCII with its characters reversed,
+ *   sorted by unsigned byte order
+ *
+ * Reversed keys keep a domain and all of its subdomains next to each other.
+ * The same layout is produced at build time by the compileBlocklist Gradle task.
+ */
+public final class CompactBlocklist {
+    static final byte[] MAGIC = {'D', 'U', 'N', 'E', 'B', 'L', 'S', 'T'};
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = MAGIC.length + 12;
+
+    /**
+     * List without any entries
+     */
+    public static final CompactBlocklist EMPTY = new CompactBlocklist(emptyBuffer(), 0, 0);
+
+    // Orders reversed keys by unsigned byte value, the order used in the data section
+    static final Comparator<byte[]> KEY_ORDER = (a, b) -> {
+        int length = Math.min(a.length, b.length);
+        for (int i = 0; i < length; i++) {
+            int diff = (a[i] & 0xff) - (b[i] & 0xff);
+            if (diff != 0) {
+                return diff;
+            }
+        }
+        return a.length - b.length;
+    };
+
+    private final ByteBuffer buffer;
+    private final int count;
+    private final int dataStart;
+    private final int dataLength;
+
+    private CompactBlocklist(ByteBuffer buffer, int count, int dataLength) {
+        this.buffer = buffer;
+        this.count = count;
+        this.dataStart = HEADER_SIZE + count * 4;
+        this.dataLength = dataLength;
+    }
+
+    /**
+     * Wraps a buffer holding a compiled blocklist. The buffer is used as is, not copied.
+     */
+    public static CompactBlocklist wrap(ByteBuffer buffer) throws IOException {
+        ByteBuffer source = buffer.slice();
+        if (!hasMagic(source)) {
+            throw new IOException("Not a compiled blocklist");
+        }
+        int version = source.getInt(MAGIC.length);
+        if (version != VERSION) {
+            throw new IOException("Unsupported blocklist version " + version);
+        }
+        int count = source.getInt(MAGIC.length + 4);
+        int dataLength = source.getInt(MAGIC.length + 8);
+        if (count < 0 || dataLength < 0
+                || (long) HEADER_SIZE + count * 4L + dataLength > source.capacity()) {
+            throw new IOException("Truncated blocklist");
+        }
+        return new CompactBlocklist(source, count, dataLength);
+    }
+
+    /**
+     * Memory-maps a region of a file holding a compiled blocklist
+     */
+    public static CompactBlocklist map(FileChannel channel, long offset, long length) throws IOException {
+        return wrap(channel.map(FileChannel.MapMode.READ_ONLY, offset, length));
+    }
+
+    /**
+     * Memory-maps a compiled blocklist file
+     */
+    public static CompactBlocklist map(File file) throws IOException {
+        try (FileInputStream in = new FileInputStream(file)) {
+            FileChannel channel = in.getChannel();
+            return map(channel, 0, channel.size());
+        }
+    }
+
+    /**
+     * Reads a blocklist from a stream. Compiled lists are read in one bulk read
+     * and used directly; anything else is parsed as text (see {@link #fromText(InputStream)}).
+     *
+     * @param sizeHint expected stream length, or -1 if unknown
+     */
+    public static CompactBlocklist read(InputStream in, long sizeHint) throws IOException {
+        PushbackInputStream source = new PushbackInputStream(in, MAGIC.length);
+        byte[] magic = new byte[MAGIC.length];
+        int length = 0;
+        int read;
+        while (length < magic.length && (read = source.read(magic, length, magic.length - length)) != -1) {
+            length += read;
+        }
+        source.unread(magic, 0, length);
+        if (length == magic.length && Arrays.equals(magic, MAGIC)) {
+            return wrap(ByteBuffer.wrap(readFully(source, sizeHint)));
+        }
+        return fromText(source);
+    }
+
+    /**
+     * Builds a blocklist from text with one domain per line, or from a hosts
+     * file ("0.0.0.0 ads.example.com"). '#' starts a comment.
+     * The text is parsed on all cores while it is read.
+     */
+    public static CompactBlocklist fromText(InputStream text) throws IOException {
+        return wrap(ByteBuffer.wrap(BlocklistParser.compile(text)));
+    }
+
+    /**
+     * Builds a blocklist in memory from domains
+     */
+    public static CompactBlocklist of(Iterable<String> domains) {
+        try {
+            return wrap(ByteBuffer.wrap(compile(domains)));
+        } catch (IOException e) {
+            // Only in-memory streams are involved
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Converts a domain list or hosts file into the compiled binary format
+     */
+    public static void convert(InputStream text, OutputStream out) throws IOException {
+        out.write(BlocklistParser.compile(text));
+    }
+
+    /**
+     * Compiles domains into the binary format. Entries are trimmed, lowercased,
+     * sorted and deduplicated; blank and non-ASCII entries are skipped.
+     */
+    public static byte[] compile(Iterable<String> domains) throws IOException {
+        List<byte[]> keys = new ArrayList<>();
+        for (String domain : domains) {
+            byte[] key = toKey(domain);
+            if (key != null) {
+                keys.add(key);
+            }
+        }
+        byte[][] sorted = keys.toArray(new byte[0][]);
+        Arrays.sort(sorted, KEY_ORDER);
+        return write(sorted);
+    }
+
+    /**
+     * Serializes reversed keys that are already in KEY_ORDER, dropping duplicates
+     */
+    static byte[] write(byte[][] sortedKeys) throws IOException {
+        int count = 0;
+        int dataLength = 0;
+        for (int i = 0; i < sortedKeys.length; i++) {
+            if (i == 0 || !Arrays.equals(sortedKeys[i - 1], sortedKeys[i])) {
+                count++;
+                dataLength += sortedKeys[i].length;
+            }
+        }
+
+        ByteArrayOutputStream bytes =
+                new ByteArrayOutputStream(HEADER_SIZE + count * 4 + dataLength);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.write(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(count);
+        out.writeInt(dataLength);
+        int offset = 0;
+        for (int i = 0; i < sortedKeys.length; i++) {
+            if (i == 0 || !Arrays.equals(sortedKeys[i - 1], sortedKeys[i])) {
+                out.writeInt(offset);
+                offset += sortedKeys[i].length;
+            }
+        }
+        for (int i = 0; i < sortedKeys.length; i++) {
+            if (i == 0 || !Arrays.equals(sortedKeys[i - 1], sortedKeys[i])) {
+                out.write(sortedKeys[i]);
+            }
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Entries in either list, merged in one pass over both without creating Strings
+     */
+    static CompactBlocklist union(CompactBlocklist a, CompactBlocklist b) {
+        if (b.count == 0) {
+            return a;
+        }
+        if (a.count == 0) {
+            return b;
+        }
+        return merge(a, b, true, true);
+    }
+
+    /**
+     * Entries of a that are not in b, in one pass over both lists
+     */
+    static CompactBlocklist difference(CompactBlocklist a, CompactBlocklist b) {
+        if (a.count == 0 || b.count == 0) {
+            return a;
+        }
+        return merge(a, b, true, false);
+    }
+
+    /**
+     * Walks both sorted lists side by side, keeping entries only in a, only in
+     * b, and in both (written once) as asked
+     */
+    private static CompactBlocklist merge(CompactBlocklist a, CompactBlocklist b, boolean onlyA, boolean onlyB) {
+        Writer out = new Writer(a.count + (onlyB ? b.count : 0), a.dataLength + (onlyB ? b.dataLength : 0));
+        int i = 0;
+        int j = 0;
+        while (i < a.count || j < b.count) {
+            int cmp = i == a.count ? 1 : j == b.count ? -1 : compareEntries(a, i, b, j);
+            if (cmp < 0) {
+                if (onlyA) {
+                    out.add(a, i);
+                }
+                i++;
+            } else if (cmp > 0) {
+                if (onlyB) {
+                    out.add(b, j);
+                }
+                j++;
+            } else {
+                if (onlyA && onlyB) {
+                    out.add(a, i);
+                }
+                i++;
+                j++;
+            }
+        }
+        return out.finish();
+    }
+
+    /**
+     * Writes the list in the binary format
+     */
+    void writeTo(OutputStream out) throws IOException {
+        ByteBuffer source = buffer.duplicate();
+        source.clear();
+        byte[] chunk = new byte[Math.min(byteSize(), 64 * 1024)];
+        int remaining = byteSize();
+        while (remaining > 0) {
+            int n = Math.min(remaining, chunk.length);
+            source.get(chunk, 0, n);
+            out.write(chunk, 0, n);
+            remaining -= n;
+        }
+    }
+
+    /**
+     * Domains of the list as Strings, for lists small enough to hand around that way
+     */
+    List<String> domains() {
+        List<String> domains = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            domains.add(domainAt(i));
+        }
+        return domains;
+    }
+
+    /**
+     * Orders entry i of a against entry j of b as KEY_ORDER does
+     */
+    static int compareEntries(CompactBlocklist a, int i, CompactBlocklist b, int j) {
+        int aStart = a.entryStart(i);
+        int aLength = a.entryEnd(i) - aStart;
+        int bStart = b.entryStart(j);
+        int bLength = b.entryEnd(j) - bStart;
+        int length = Math.min(aLength, bLength);
+        for (int k = 0; k < length; k++) {
+            int diff = (a.buffer.get(aStart + k) & 0xff) - (b.buffer.get(bStart + k) & 0xff);
+            if (diff != 0) {
+                return diff;
+            }
+        }
+        return aLength - bLength;
+    }
+
+    /**
+     * Builds a list from entries copied out of other lists, already in order
+     */
+    static final class Writer {
+        private int[] offsets;
+        private byte[] data;
+        private int count;
+        private int length;
+
+        Writer(int expectedCount, int expectedBytes) {
+            offsets = new int[Math.max(16, expectedCount)];
+            data = new byte[Math.max(256, expectedBytes)];
+        }
+
+        void add(CompactBlocklist list, int i) {
+            int start = list.entryStart(i);
+            int entryLength = list.entryEnd(i) - start;
+            if (count == offsets.length) {
+                offsets = Arrays.copyOf(offsets, count * 2);
+            }
+            if (length + entryLength > data.length) {
+                data = Arrays.copyOf(data, Math.max(data.length * 2, length + entryLength));
+            }
+            offsets[count++] = length;
+            ByteBuffer source = list.buffer.duplicate();
+            source.position(start);
+            source.get(data, length, entryLength);
+            length += entryLength;
+        }
+
+        int size() {
+            return count;
+        }
+
+        CompactBlocklist finish() {
+            if (count == 0) {
+                return EMPTY;
+            }
+            ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + count * 4 + length);
+            buffer.put(MAGIC).putInt(VERSION).putInt(count).putInt(length);
+            for (int k = 0; k < count; k++) {
+                buffer.putInt(offsets[k]);
+            }
+            buffer.put(data, 0, length);
+            buffer.flip();
+            return new CompactBlocklist(buffer, count, length);
+        }
+    }
+
+    /**
+     * Check if the exact domain is in the list. Case-insensitive, no allocation.
+     */
+    public boolean contains(CharSequence domain) {
+        return contains(domain, 0, domain.length());
+    }
+
+    /**
+     * Check if domain.subSequence(start, end) is in the list without creating it
+     */
+    public boolean contains(CharSequence domain, int start, int end) {
+        int low = 0;
+        int high = count - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int cmp = compareEntry(mid, domain, start, end);
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Check if the domain or any of its parent domains is in the list
+     */
+    public boolean containsDomainOrParent(CharSequence domain) {
+        long range = fullRange();
+        int end = domain.length();
+        int labelEnd = end;
+        while (true) {
+            int dot = DomainTrie.lastDot(domain, 0, labelEnd);
+            if (containsIn(range, domain, dot + 1, end)) {
+                return true;
+            }
+            if (dot < 0) {
+                return false;
+            }
+            range = narrow(range, domain, dot, end);
+            if (isEmpty(range)) {
+                return false;
+            }
+            labelEnd = dot;
+        }
+    }
+
+    /*
+     * Range walk used for suffix matching. A range of entries is packed into a long
+     * (low index in the high bits, exclusive high index in the low bits) so the walk
+     * allocates nothing. Walking a host's labels from the top-level domain down,
+     * each step narrows the range to the entries that extend the current suffix,
+     * which behaves like descending a trie over the reversed keys.
+     */
+
+    long fullRange() {
+        return range(0, count);
+    }
+
+    static boolean isEmpty(long range) {
+        return (int) (range >>> 32) >= (int) range;
+    }
+
+    /**
+     * Check if domain[start, end) is an entry within the range
+     */
+    boolean containsIn(long range, CharSequence domain, int start, int end) {
+        int high = (int) range;
+        int i = lowerBound((int) (range >>> 32), high, domain, start, end, false);
+        return i < high && compareEntry(i, domain, start, end) == 0;
+    }
+
+    /**
+     * Narrows the range to the entries whose reversed key starts with the reversed
+     * domain[start, end). Passing the index of a dot as start selects the subdomains
+     * of domain[start + 1, end).
+     */
+    long narrow(long range, CharSequence domain, int start, int end) {
+        int high = (int) range;
+        int low = lowerBound((int) (range >>> 32), high, domain, start, end, false);
+        return range(low, lowerBound(low, high, domain, start, end, true));
+    }
+
+    private static long range(int low, int high) {
+        return ((long) low << 32) | (high & 0xffffffffL);
+    }
+
+    /**
+     * First entry in [low, high) not ordered before the key. When prefixOnly is set,
+     * entries that start with the key compare equal, so the result is the first entry
+     * ordered after every entry that has the key as prefix.
+     */
+    private int lowerBound(int low, int high, CharSequence domain, int start, int end, boolean prefixOnly) {
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            int cmp = prefixOnly
+                    ? comparePrefix(mid, domain, start, end)
+                    : compareEntry(mid, domain, start, end);
+            if (cmp < 0 || (prefixOnly && cmp == 0)) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Number of domains in the list
+     */
+    public int size() {
+        return count;
+    }
+
+    /**
+     * Domain at position i of the list's sorted order
+     */
+    String domainAt(int i) {
+        int start = entryStart(i);
+        int end = entryEnd(i);
+        char[] domain = new char[end - start];
+        for (int j = 0; j < domain.length; j++) {
+            domain[j] = (char) (buffer.get(end - 1 - j) & 0xFF);
+        }
+        return new String(domain);
+    }
+
+    /**
+     * Size of the backing buffer in bytes
+     */
+    public int byteSize() {
+        return dataStart + dataLength;
+    }
+
+    /**
+     * Compares entry i with the reversed, lowercased form of domain[start, end)
+     */
+    private int compareEntry(int i, CharSequence domain, int start, int end) {
+        int entryStart = entryStart(i);
+        int entryLength = entryEnd(i) - entryStart;
+        int keyLength = end - start;
+        int length = Math.min(entryLength, keyLength);
+        for (int k = 0; k < length; k++) {
+            int a = buffer.get(entryStart + k) & 0xff;
+            int b = lowerAscii(domain.charAt(end - 1 - k));
+            if (a != b) {
+                return a - b;
+            }
+        }
+        return entryLength - keyLength;
+    }
+
+    /**
+     * Like compareEntry, but entries that start with the key compare equal
+     */
+    private int comparePrefix(int i, CharSequence domain, int start, int end) {
+        int entryStart = entryStart(i);
+        int entryLength = entryEnd(i) - entryStart;
+        int keyLength = end - start;
+        int length = Math.min(entryLength, keyLength);
+        for (int k = 0; k < length; k++) {
+            int a = buffer.get(entryStart + k) & 0xff;
+            int b = lowerAscii(domain.charAt(end - 1 - k));
+            if (a != b) {
+                return a - b;
+            }
+        }
+        return entryLength >= keyLength ? 0 : -1;
+    }
+
+    int entryStart(int i) {
+        return dataStart + buffer.getInt(HEADER_SIZE + i * 4);
+    }
+
+    int entryEnd(int i) {
+        return i + 1 < count ? entryStart(i + 1) : dataStart + dataLength;
+    }
+
+    static int lowerAscii(char c) {
+        return c >= 'A' && c <= 'Z' ? c + ('a' - 'A') : c;
+    }
+
+    /**
+     * Reversed lowercase key for a domain, or null if it is blank or not ASCII
+     */
+    static byte[] toKey(String domain) {
+        String trimmed = domain.trim();
+        int length = trimmed.length();
+        if (length == 0) {
+            return null;
+        }
+        byte[] key = new byte[length];
+        for (int i = 0; i < length; i++) {
+            char c = trimmed.charAt(length - 1 - i);
+            if (c >= 0x80) {
+                return null;
+            }
+            key[i] = (byte) lowerAscii(c);
+        }
+        return key;
+    }
+
+    private static boolean hasMagic(ByteBuffer buffer) {
+        if (buffer.remaining() < HEADER_SIZE) {
+            return false;
+        }
+        for (int i = 0; i < MAGIC.length; i++) {
+            if (buffer.get(buffer.position() + i) != MAGIC[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static byte[] readFully(InputStream in, long sizeHint) throws IOException {
+        byte[] bytes = new byte[sizeHint > 0 && sizeHint < Integer.MAX_VALUE ? (int) sizeHint : 64 * 1024];
+        int length = 0;
+        int read;
+        while ((read = in.read(bytes, length, bytes.length - length)) != -1) {
+            length += read;
+            if (length == bytes.length) {
+                int next = in.read();
+                if (next == -1) {
+                    break;
+                }
+                bytes = Arrays.copyOf(bytes, bytes.length * 2);
+                bytes[length++] = (byte) next;
+            }
+        }
+        return length == bytes.length ? bytes : Arrays.copyOf(bytes, length);
+    }
+
+    private static ByteBuffer emptyBuffer() {
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE);
+        buffer.put(MAGIC).putInt(VERSION).putInt(0).putInt(0);
+        buffer.flip();
+        return buffer;
+    }
+}
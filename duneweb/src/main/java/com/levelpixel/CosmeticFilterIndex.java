@@ -0,0 +1,379 @@
+package com.levelpixel;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Immutable index of EasyList element hiding rules:
+ * - "##.ad-banner" hides matching elements on every site (generic)
+ * - "example.com,~shop.example.com##.ad" only on example.com and its
+ *   subdomains, except shop.example.com
+ * - "~example.com##.ad" everywhere but example.com
+ * - "example.com#@#.ad" (exception) keeps ".ad" visible on example.com;
+ *   without a domain it disables the selector everywhere
+ *
+ * Selectors are filed under the domains they name. A "~domain" only cancels
+ * the rule it is part of, while an exception cancels the selector for every
+ * rule. A page gets one stylesheet hiding every selector that applies to its
+ * host; hosts without specific rules share the generic stylesheet built once
+ * with the index.
+ * Extended syntax (#?#, #$#, scriptlets) is not supported and skipped.
+ */
+final class CosmeticFilterIndex {
+    static final CosmeticFilterIndex EMPTY = new CosmeticFilterIndex(Collections.<String>emptyList());
+
+    // Selectors per CSS rule. An invalid selector drops the whole rule,
+    // so selectors are grouped to limit what one bad selector hides.
+    private static final int SELECTORS_PER_RULE = 64;
+    private static final String HIDE = "{display:none!important}\n";
+    private static final int CACHED_HOSTS = 64;
+
+    private final List<String> rules;
+    // Selectors of all rules without included domains, in the generic stylesheet
+    private final Set<String> generic = new LinkedHashSet<>();
+    // Of those, selectors of rules that apply on every site
+    private final Set<String> unconditional = new HashSet<>();
+    // Selector -> number of generic rules with "~domain"s hiding it
+    private final Map<String, Integer> negatedRules = new HashMap<>();
+    // Domain -> rules that only apply there
+    private final Map<String, List<HidingRule>> specific = new HashMap<>();
+    // Domain -> generic rules that skip it ("~domain##...")
+    private final Map<String, List<HidingRule>> genericExcluded = new HashMap<>();
+    // Domain -> selectors kept visible there by exceptions
+    private final Map<String, Set<String>> exceptions = new HashMap<>();
+    private final String genericStylesheet;
+
+    // Stylesheets of recently seen hosts with specific rules
+    private final Map<String, String> stylesheets = new LinkedHashMap<String, String>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+            return size() > CACHED_HOSTS;
+        }
+    };
+
+    private CosmeticFilterIndex(List<String> rules) {
+        this.rules = rules;
+        Set<String> disabled = new HashSet<>();
+        for (String rule : rules) {
+            add(rule, disabled);
+        }
+        generic.removeAll(disabled);
+        for (List<HidingRule> domainRules : specific.values()) {
+            domainRules.removeIf(rule -> disabled.contains(rule.selector));
+        }
+        genericStylesheet = stylesheet(generic, Collections.<String>emptySet(),
+                Collections.<String>emptySet(), Collections.<String>emptySet());
+    }
+
+    /**
+     * Builds an index from rules; lines that are not element hiding rules are skipped
+     */
+    static CosmeticFilterIndex of(Collection<String> rules) {
+        return EMPTY.with(rules);
+    }
+
+    /**
+     * Returns an index holding these rules and the given ones
+     */
+    CosmeticFilterIndex with(Collection<String> added) {
+        List<String> combined = new ArrayList<>(rules);
+        for (String rule : added) {
+            String trimmed = rule.trim();
+            if (isSupported(trimmed)) {
+                combined.add(trimmed);
+            }
+        }
+        return combined.size() == rules.size()
+                ? this
+                : new CosmeticFilterIndex(Collections.unmodifiableList(combined));
+    }
+
+    /**
+     * Returns an index holding these rules plus the given index's rules
+     */
+    CosmeticFilterIndex with(CosmeticFilterIndex other) {
+        if (other.rules.isEmpty()) {
+            return this;
+        }
+        List<String> combined = new ArrayList<>(rules);
+        combined.addAll(other.rules);
+        return new CosmeticFilterIndex(Collections.unmodifiableList(combined));
+    }
+
+    /**
+     * Returns an index without the given rules; each given rule removes one occurrence
+     */
+    CosmeticFilterIndex without(Collection<String> removed) {
+        if (removed.isEmpty() || rules.isEmpty()) {
+            return this;
+        }
+        Map<String, Integer> toRemove = new HashMap<>();
+        for (String rule : removed) {
+            String trimmed = rule.trim();
+            Integer count = toRemove.get(trimmed);
+            toRemove.put(trimmed, count == null ? 1 : count + 1);
+        }
+        List<String> remaining = new ArrayList<>(rules.size());
+        for (String rule : rules) {
+            Integer count = toRemove.get(rule);
+            if (count == null) {
+                remaining.add(rule);
+            } else if (count == 1) {
+                toRemove.remove(rule);
+            } else {
+                toRemove.put(rule, count - 1);
+            }
+        }
+        return remaining.size() == rules.size()
+                ? this
+                : new CosmeticFilterIndex(Collections.unmodifiableList(remaining));
+    }
+
+    /**
+     * Number of element hiding rules in the index
+     */
+    int size() {
+        return rules.size();
+    }
+
+    boolean isEmpty() {
+        return rules.isEmpty();
+    }
+
+    /**
+     * CSS hiding every selector that applies to the host; empty if there are none
+     */
+    String stylesheetFor(String host) {
+        if (host == null || host.isEmpty()
+                || (specific.isEmpty() && genericExcluded.isEmpty() && exceptions.isEmpty())) {
+            return genericStylesheet;
+        }
+        String key = host.toLowerCase();
+        synchronized (stylesheets) {
+            String cached = stylesheets.get(key);
+            if (cached != null) {
+                return cached;
+            }
+        }
+
+        Set<String> hostSelectors = new LinkedHashSet<>();
+        Set<String> hostExceptions = new HashSet<>();
+        Set<HidingRule> skipped = new HashSet<>();
+        int labelStart = 0;
+        while (labelStart >= 0) {
+            String domain = key.substring(labelStart);
+            List<HidingRule> domainRules = specific.get(domain);
+            if (domainRules != null) {
+                for (HidingRule rule : domainRules) {
+                    if (rule.appliesTo(key)) {
+                        hostSelectors.add(rule.selector);
+                    }
+                }
+            }
+            List<HidingRule> skipping = genericExcluded.get(domain);
+            if (skipping != null) {
+                skipped.addAll(skipping);
+            }
+            Set<String> selectors = exceptions.get(domain);
+            if (selectors != null) {
+                hostExceptions.addAll(selectors);
+            }
+            int dot = key.indexOf('.', labelStart);
+            labelStart = dot < 0 ? -1 : dot + 1;
+        }
+        Set<String> cancelled = cancelledGenericSelectors(skipped);
+        String css = hostSelectors.isEmpty() && hostExceptions.isEmpty() && cancelled.isEmpty()
+                ? genericStylesheet
+                : stylesheet(generic, hostSelectors, hostExceptions, cancelled);
+        synchronized (stylesheets) {
+            stylesheets.put(key, css);
+        }
+        return css;
+    }
+
+    /**
+     * Generic selectors whose every rule skips the host; a selector also
+     * hidden by a rule that applies here stays
+     */
+    private Set<String> cancelledGenericSelectors(Set<HidingRule> skipped) {
+        if (skipped.isEmpty()) {
+            return Collections.emptySet();
+        }
+        Map<String, Integer> skippedRules = new HashMap<>();
+        for (HidingRule rule : skipped) {
+            Integer count = skippedRules.get(rule.selector);
+            skippedRules.put(rule.selector, count == null ? 1 : count + 1);
+        }
+        Set<String> cancelled = new HashSet<>();
+        for (Map.Entry<String, Integer> entry : skippedRules.entrySet()) {
+            String selector = entry.getKey();
+            if (!unconditional.contains(selector) && entry.getValue().equals(negatedRules.get(selector))) {
+                cancelled.add(selector);
+            }
+        }
+        return cancelled;
+    }
+
+    /**
+     * Check if a line is an element hiding rule this index understands
+     */
+    static boolean isSupported(String rule) {
+        if (rule.startsWith("!")) {
+            return false;
+        }
+        int separator = rule.indexOf('#');
+        while (separator >= 0) {
+            if (rule.startsWith("##", separator)) {
+                return rule.length() > separator + 2 && !rule.startsWith("##+js(", separator);
+            }
+            if (rule.startsWith("#@#", separator)) {
+                return rule.length() > separator + 3 && !rule.startsWith("#@#+js(", separator);
+            }
+            if (rule.startsWith("#?#", separator) || rule.startsWith("#$#", separator)
+                    || rule.startsWith("#@?#", separator) || rule.startsWith("#@$#", separator)) {
+                return false;
+            }
+            separator = rule.indexOf('#', separator + 1);
+        }
+        return false;
+    }
+
+    private void add(String rule, Set<String> disabled) {
+        int hide = rule.indexOf("##");
+        int allow = rule.indexOf("#@#");
+        boolean exception = allow >= 0 && (hide < 0 || allow < hide);
+        int separator = exception ? allow : hide;
+        String selector = rule.substring(separator + (exception ? 3 : 2)).trim();
+        // Braces would let a rule escape its selector and inject other CSS
+        if (selector.isEmpty() || selector.indexOf('{') >= 0 || selector.indexOf('}') >= 0) {
+            return;
+        }
+
+        List<String> include = new ArrayList<>();
+        List<String> exclude = new ArrayList<>();
+        for (String domain : rule.substring(0, separator).split(",")) {
+            String d = domain.trim().toLowerCase();
+            if (d.startsWith("~")) {
+                exclude.add(d.substring(1));
+            } else if (!d.isEmpty()) {
+                include.add(d);
+            }
+        }
+
+        if (exception) {
+            if (include.isEmpty()) {
+                disabled.add(selector);
+            }
+            for (String domain : include) {
+                Set<String> selectors = exceptions.get(domain);
+                if (selectors == null) {
+                    selectors = new HashSet<>();
+                    exceptions.put(domain, selectors);
+                }
+                selectors.add(selector);
+            }
+            return;
+        }
+        HidingRule hiding = new HidingRule(selector, exclude.toArray(new String[0]));
+        if (include.isEmpty()) {
+            generic.add(selector);
+            if (exclude.isEmpty()) {
+                unconditional.add(selector);
+            } else {
+                Integer count = negatedRules.get(selector);
+                negatedRules.put(selector, count == null ? 1 : count + 1);
+                for (String domain : exclude) {
+                    rulesOf(genericExcluded, domain).add(hiding);
+                }
+            }
+        }
+        for (String domain : include) {
+            rulesOf(specific, domain).add(hiding);
+        }
+    }
+
+    private static List<HidingRule> rulesOf(Map<String, List<HidingRule>> map, String domain) {
+        List<HidingRule> domainRules = map.get(domain);
+        if (domainRules == null) {
+            domainRules = new ArrayList<>(1);
+            map.put(domain, domainRules);
+        }
+        return domainRules;
+    }
+
+    private static String stylesheet(Set<String> generic, Set<String> hostSelectors, Set<String> hostExceptions,
+                                     Set<String> cancelled) {
+        StringBuilder css = new StringBuilder();
+        Set<String> skipGeneric = hostExceptions;
+        if (!cancelled.isEmpty()) {
+            skipGeneric = new HashSet<>(hostExceptions);
+            skipGeneric.addAll(cancelled);
+        }
+        int inRule = appendSelectors(css, generic, skipGeneric, 0);
+        // Host selectors already written with the generic ones are not repeated
+        Set<String> hostOnly = new LinkedHashSet<>();
+        for (String selector : hostSelectors) {
+            if (!generic.contains(selector) || cancelled.contains(selector)) {
+                hostOnly.add(selector);
+            }
+        }
+        inRule = appendSelectors(css, hostOnly, hostExceptions, inRule);
+        if (inRule > 0) {
+            css.append(HIDE);
+        }
+        return css.toString();
+    }
+
+    /**
+     * Appends selectors to the rule being written, closing it every SELECTORS_PER_RULE
+     *
+     * @return number of selectors in the rule left open
+     */
+    private static int appendSelectors(StringBuilder css, Set<String> selectors, Set<String> skip,
+                                       int inRule) {
+        for (String selector : selectors) {
+            if (skip.contains(selector)) {
+                continue;
+            }
+            if (inRule > 0) {
+                css.append(',');
+            }
+            css.append(selector);
+            if (++inRule == SELECTORS_PER_RULE) {
+                css.append(HIDE);
+                inRule = 0;
+            }
+        }
+        return inRule;
+    }
+
+    /**
+     * A hiding rule filed under domains, with the domains it names with "~"
+     */
+    private static final class HidingRule {
+        final String selector;
+        final String[] exclude;
+
+        HidingRule(String selector, String[] exclude) {
+            this.selector = selector;
+            this.exclude = exclude;
+        }
+
+        boolean appliesTo(String host) {
+            for (String domain : exclude) {
+                if (NetworkFilter.isSameOrSubdomain(host, domain)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
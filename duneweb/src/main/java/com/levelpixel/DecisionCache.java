@@ -0,0 +1,191 @@
+package com.levelpixel;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded LRU cache of block/allow decisions, keyed by request.
+ * A decision is {@link #ALLOWED} or {@link #blockedBy(BlockSource)}, so the
+ * cache also remembers which rule source blocked the request.
+ * Pages request the same ad and CDN URLs many times; a hit skips the
+ * blocklist walk, the URL pattern scan and the filter rules.
+ *
+ * The cache is split into independently locked segments so WebView's IO
+ * threads rarely contend. Every decision is tagged with the generation it
+ * was computed in; a new generation starts whenever one of the snapshots the
+ * decisions were made from is replaced, which drops all earlier decisions,
+ * including ones still being computed from the old snapshots.
+ */
+final class DecisionCache {
+    static final int DEFAULT_CAPACITY = 1024;
+
+    // Decisions; a blocked request is 1 + the ordinal of the source that blocked it
+    static final byte MISS = -1;
+    static final byte ALLOWED = 0;
+
+    private static final BlockSource[] SOURCES = BlockSource.values();
+
+    private static final int SEGMENTS = 8;
+
+    private final Segment[] segments = new Segment[SEGMENTS];
+    private final AtomicReference<Inputs> inputs = new AtomicReference<>(new Inputs(0, null, null, null, null));
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    DecisionCache(int capacity) {
+        int perSegment = Math.max(1, capacity / SEGMENTS);
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment(perSegment);
+        }
+    }
+
+    /**
+     * Current generation for decisions made from these snapshots. Starts a new
+     * generation, emptying the cache, if any of them differs from the last call.
+     */
+    int generation(Object blocklist, Object subscribed, Object patterns, Object filters) {
+        while (true) {
+            Inputs current = inputs.get();
+            if (current.blocklist == blocklist && current.subscribed == subscribed
+                    && current.patterns == patterns && current.filters == filters) {
+                return current.generation;
+            }
+            Inputs next = new Inputs(current.generation + 1, blocklist, subscribed, patterns, filters);
+            if (inputs.compareAndSet(current, next)) {
+                clearSegments();
+                return next.generation;
+            }
+        }
+    }
+
+    static byte blockedBy(BlockSource source) {
+        return (byte) (1 + source.ordinal());
+    }
+
+    /**
+     * Source that blocked a request, or null if the decision is ALLOWED
+     */
+    static BlockSource sourceOf(byte decision) {
+        return decision <= ALLOWED ? null : SOURCES[decision - 1];
+    }
+
+    /**
+     * Cached decision for the key in this generation, or MISS if there is none
+     */
+    byte get(String key, int generation) {
+        byte decision = segmentFor(key).get(key, generation);
+        if (decision == MISS) {
+            misses.increment();
+        } else {
+            hits.increment();
+        }
+        return decision;
+    }
+
+    void put(String key, int generation, byte decision) {
+        if (generation == inputs.get().generation) {
+            segmentFor(key).put(key, generation, decision);
+        }
+    }
+
+    long hitCount() {
+        return hits.sum();
+    }
+
+    long missCount() {
+        return misses.sum();
+    }
+
+    /**
+     * Fraction of lookups answered from the cache, 0 before the first lookup
+     */
+    double hitRate() {
+        long h = hits.sum();
+        long total = h + misses.sum();
+        return total == 0 ? 0 : (double) h / total;
+    }
+
+    int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            size += segment.size();
+        }
+        return size;
+    }
+
+    private Segment segmentFor(String key) {
+        int h = key.hashCode();
+        return segments[(h ^ (h >>> 16)) & (SEGMENTS - 1)];
+    }
+
+    private void clearSegments() {
+        for (Segment segment : segments) {
+            segment.clear();
+        }
+    }
+
+    /**
+     * Snapshots the current generation's decisions were made from
+     */
+    private static final class Inputs {
+        final int generation;
+        final Object blocklist;
+        final Object subscribed;
+        final Object patterns;
+        final Object filters;
+
+        Inputs(int generation, Object blocklist, Object subscribed, Object patterns, Object filters) {
+            this.generation = generation;
+            this.blocklist = blocklist;
+            this.subscribed = subscribed;
+            this.patterns = patterns;
+            this.filters = filters;
+        }
+    }
+
+    /**
+     * One access-ordered map with its own lock, evicting the least recently used entry
+     */
+    private static final class Segment {
+        private final LinkedHashMap<String, Decision> map;
+
+        Segment(int capacity) {
+            map = new LinkedHashMap<String, Decision>(capacity * 4 / 3 + 1, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Decision> eldest) {
+                    return size() > capacity;
+                }
+            };
+        }
+
+        synchronized byte get(String key, int generation) {
+            Decision entry = map.get(key);
+            return entry == null || entry.generation != generation ? MISS : entry.decision;
+        }
+
+        synchronized void put(String key, int generation, byte decision) {
+            map.put(key, new Decision(generation, decision));
+        }
+
+        synchronized int size() {
+            return map.size();
+        }
+
+        synchronized void clear() {
+            map.clear();
+        }
+    }
+
+    private static final class Decision {
+        final int generation;
+        final byte decision;
+
+        Decision(int generation, byte decision) {
+            this.generation = generation;
+            this.decision = decision;
+        }
+    }
+}
@@ -0,0 +1,183 @@
+package com.levelpixel;
+
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Immutable snapshot answering "is this host or any of its parent domains blocked".
+ * Combines the compiled list loaded from a resource with a trie of domains
+ * added or removed at runtime, and checks both in one walk over the host's
+ * labels from the top-level domain down. Lookups allocate nothing.
+ *
+ * Every change returns a new snapshot, so writers build the next version off
+ * to the side and publish it with a single reference swap while readers keep
+ * using the version they started with.
+ *
+ * Runtime changes are recorded in the trie whatever the compiled list holds
+ * and survive replacing it, so they are only resolved against the list at
+ * lookup time. A removed domain only masks its own compiled entry: removing
+ * "ads.example.com" does not unblock it if "example.com" is still listed.
+ */
+final class DomainMatcher {
+    static final DomainMatcher EMPTY = new DomainMatcher(CompactBlocklist.EMPTY, DomainTrie.EMPTY);
+
+    private final CompactBlocklist compiled;
+    private final DomainTrie overlay;
+    // Computed on first use; racing threads compute the same value
+    private int size = -1;
+
+    private DomainMatcher(CompactBlocklist compiled, DomainTrie overlay) {
+        this.compiled = compiled;
+        this.overlay = overlay;
+    }
+
+    /**
+     * Snapshot with the compiled list replaced; runtime additions and removals are kept
+     */
+    DomainMatcher withCompiled(CompactBlocklist list) {
+        return list == compiled ? this : new DomainMatcher(list, overlay);
+    }
+
+    /**
+     * Snapshot without runtime additions and removals, on the same compiled list
+     */
+    DomainMatcher withoutChanges() {
+        return overlay == DomainTrie.EMPTY ? this : new DomainMatcher(compiled, DomainTrie.EMPTY);
+    }
+
+    /**
+     * Snapshot with a lowercase domain added
+     */
+    DomainMatcher withAdded(String domain) {
+        return overlay.stateOf(domain) == DomainTrie.BLOCKED
+                ? this
+                : new DomainMatcher(compiled, overlay.put(domain, DomainTrie.BLOCKED));
+    }
+
+    /**
+     * Snapshot with a lowercase domain removed
+     */
+    DomainMatcher withRemoved(String domain) {
+        return overlay.stateOf(domain) == DomainTrie.REMOVED
+                ? this
+                : new DomainMatcher(compiled, overlay.put(domain, DomainTrie.REMOVED));
+    }
+
+    /**
+     * Snapshot with a batch of domains added and removed in one step.
+     * A domain both added and removed ends up removed.
+     */
+    DomainMatcher withChanges(Changes changes) {
+        Map<String, Byte> states = new HashMap<>();
+        for (String domain : changes.added) {
+            states.put(domain, DomainTrie.BLOCKED);
+        }
+        for (String domain : changes.removed) {
+            states.put(domain, DomainTrie.REMOVED);
+        }
+        DomainTrie trie = overlay.putAll(states);
+        return trie == overlay ? this : new DomainMatcher(compiled, trie);
+    }
+
+    /**
+     * Compiled list this snapshot is layered on
+     */
+    CompactBlocklist compiled() {
+        return compiled;
+    }
+
+    /**
+     * Number of blocked domains: compiled entries not removed plus additions
+     * the compiled list lacks
+     */
+    int size() {
+        int result = size;
+        if (result < 0) {
+            result = compiled.size();
+            if (overlay.blockedCount() > 0) {
+                for (String domain : overlay.domains(DomainTrie.BLOCKED)) {
+                    if (!compiled.contains(domain)) {
+                        result++;
+                    }
+                }
+            }
+            if (overlay.removedCount() > 0) {
+                for (String domain : overlay.domains(DomainTrie.REMOVED)) {
+                    if (compiled.contains(domain)) {
+                        result--;
+                    }
+                }
+            }
+            size = result;
+        }
+        return result;
+    }
+
+    /**
+     * Check if the host or any of its parent domains is blocked
+     */
+    boolean matches(CharSequence host) {
+        DomainTrie.Node node = overlay.root;
+        long range = compiled.fullRange();
+        int end = host.length();
+        int labelEnd = end;
+        while (true) {
+            int dot = DomainTrie.lastDot(host, 0, labelEnd);
+            if (node != null) {
+                node = node.child(host, dot + 1, labelEnd);
+            }
+            byte state = node == null ? DomainTrie.NONE : node.state;
+            if (state == DomainTrie.BLOCKED) {
+                return true;
+            }
+            boolean inRange = !CompactBlocklist.isEmpty(range);
+            if (inRange && state != DomainTrie.REMOVED && compiled.containsIn(range, host, dot + 1, end)) {
+                return true;
+            }
+            if (dot < 0) {
+                return false;
+            }
+            if (inRange) {
+                range = compiled.narrow(range, host, dot, end);
+            }
+            if (node == null && CompactBlocklist.isEmpty(range)) {
+                return false;
+            }
+            labelEnd = dot;
+        }
+    }
+
+    /**
+     * Normalized batch of domains to add and remove, read once from its sources
+     */
+    static final class Changes {
+        final Set<String> added = new LinkedHashSet<>();
+        final Set<String> removed = new LinkedHashSet<>();
+        // Entries dropped because the batch already had them
+        int duplicates;
+
+        /**
+         * Trims and lowercases the domains; blank entries are skipped
+         */
+        static Changes of(Iterable<String> additions, Iterable<String> removals) {
+            Changes changes = new Changes();
+            changes.addAll(changes.added, additions);
+            changes.addAll(changes.removed, removals);
+            return changes;
+        }
+
+        private void addAll(Set<String> target, Iterable<String> domains) {
+            if (domains == null) {
+                return;
+            }
+            for (String domain : domains) {
+                String key = domain.trim().toLowerCase();
+                if (!key.isEmpty() && !target.add(key)) {
+                    duplicates++;
+                }
+            }
+        }
+    }
+}
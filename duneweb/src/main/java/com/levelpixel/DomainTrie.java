@@ -0,0 +1,384 @@
+package com.levelpixel;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable reversed-label trie of domains added or removed at runtime.
+ * "ads.example.com" is stored as com -> example -> ads, so a host is matched
+ * against itself and all of its parent domains in a single walk from the
+ * top-level domain down. Labels are compared case-insensitively in place;
+ * lookups never create substrings.
+ *
+ * Updates copy only the nodes on the path to the changed domain and return
+ * a new trie, so a published trie can be read from any thread without locking.
+ */
+final class DomainTrie {
+    // Node states
+    static final byte NONE = 0;
+    static final byte BLOCKED = 1;
+    // Masks an entry of the compiled list at exactly this domain
+    static final byte REMOVED = 2;
+
+    static final DomainTrie EMPTY = new DomainTrie(Node.ROOT, 0, 0);
+
+    final Node root;
+    private final int blockedCount;
+    private final int removedCount;
+
+    private DomainTrie(Node root, int blockedCount, int removedCount) {
+        this.root = root;
+        this.blockedCount = blockedCount;
+        this.removedCount = removedCount;
+    }
+
+    /**
+     * Returns a trie with the state of the domain set. Setting NONE removes the
+     * domain and prunes nodes left without state or children.
+     */
+    DomainTrie put(String domain, byte state) {
+        byte previous = stateOf(domain);
+        if (previous == state) {
+            return this;
+        }
+        Node updated = put(root, domain, domain.length(), state);
+        return new DomainTrie(updated,
+                blockedCount + delta(BLOCKED, previous, state),
+                removedCount + delta(REMOVED, previous, state));
+    }
+
+    /**
+     * Returns a trie with the states of all the given domains set at once.
+     * Each node on a changed path is copied once however many of the domains
+     * pass through it, where a put per domain would copy a busy node (e.g.
+     * "com") again for every one of them.
+     */
+    DomainTrie putAll(Map<String, Byte> states) {
+        if (states.isEmpty()) {
+            return this;
+        }
+        Draft draft = new Draft(root);
+        int blocked = blockedCount;
+        int removed = removedCount;
+        for (Map.Entry<String, Byte> entry : states.entrySet()) {
+            String domain = entry.getKey();
+            byte state = entry.getValue();
+            Draft node = draft;
+            int labelEnd = domain.length();
+            while (labelEnd >= 0) {
+                int dot = domain.lastIndexOf('.', labelEnd - 1);
+                node = node.child(domain.substring(dot + 1, labelEnd).toLowerCase());
+                labelEnd = dot;
+            }
+            blocked += delta(BLOCKED, node.state, state);
+            removed += delta(REMOVED, node.state, state);
+            node.state = state;
+        }
+        Node updated = draft.build();
+        return new DomainTrie(updated != null ? updated : Node.ROOT, blocked, removed);
+    }
+
+    /**
+     * Returns a trie without the domain
+     */
+    DomainTrie remove(String domain) {
+        return put(domain, NONE);
+    }
+
+    /**
+     * State of the exact domain, ignoring its parents
+     */
+    byte stateOf(CharSequence domain) {
+        Node node = root;
+        int labelEnd = domain.length();
+        while (node != null && labelEnd >= 0) {
+            int dot = lastDot(domain, 0, labelEnd);
+            node = node.child(domain, dot + 1, labelEnd);
+            labelEnd = dot;
+        }
+        return node == null ? NONE : node.state;
+    }
+
+    /**
+     * Number of blocked domains
+     */
+    int blockedCount() {
+        return blockedCount;
+    }
+
+    /**
+     * Number of removed domains
+     */
+    int removedCount() {
+        return removedCount;
+    }
+
+    /**
+     * Domains currently in the given state
+     */
+    List<String> domains(byte state) {
+        List<String> out = new ArrayList<>();
+        collect(root, new StringBuilder(), state, out);
+        return out;
+    }
+
+    /**
+     * Copies the path from node down to domain[0, labelEnd), setting the state at its end
+     */
+    private static Node put(Node node, String domain, int labelEnd, byte state) {
+        if (labelEnd < 0) {
+            return node.withState(state);
+        }
+        int dot = domain.lastIndexOf('.', labelEnd - 1);
+        Node child = node.child(domain, dot + 1, labelEnd);
+        if (child == null) {
+            if (state == NONE) {
+                return node;
+            }
+            String label = domain.substring(dot + 1, labelEnd).toLowerCase();
+            child = new Node(label, labelHash(label, 0, label.length()), NONE, Node.NO_CHILDREN, 0);
+        }
+        Node updated = put(child, domain, dot, state);
+        return updated.isEmpty() ? node.withoutChild(child) : node.withChild(updated);
+    }
+
+    private static int delta(byte counted, byte previous, byte state) {
+        return (state == counted ? 1 : 0) - (previous == counted ? 1 : 0);
+    }
+
+    private static void collect(Node node, StringBuilder suffix, byte state, List<String> out) {
+        if (node.state == state && suffix.length() > 0) {
+            out.add(suffix.toString());
+        }
+        for (Node child : node.children) {
+            if (child != null) {
+                int length = suffix.length();
+                suffix.insert(0, length == 0 ? child.label : child.label + ".");
+                collect(child, suffix, state, out);
+                suffix.delete(0, suffix.length() - length);
+            }
+        }
+    }
+
+    /**
+     * Index of the last '.' in domain[start, end), or start - 1 if there is none
+     */
+    static int lastDot(CharSequence domain, int start, int end) {
+        for (int i = end - 1; i >= start; i--) {
+            if (domain.charAt(i) == '.') {
+                return i;
+            }
+        }
+        return start - 1;
+    }
+
+    static int labelHash(CharSequence s, int start, int end) {
+        int hash = 0;
+        for (int i = start; i < end; i++) {
+            hash = 31 * hash + CompactBlocklist.lowerAscii(s.charAt(i));
+        }
+        return hash;
+    }
+
+    /**
+     * Mutable copy of the nodes a batch changes; the rest of the trie is shared
+     */
+    private static final class Draft {
+        final String label;
+        final int hash;
+        // Node this draft replaces, null for a new label
+        final Node original;
+        byte state;
+        // Children the batch changes, by lowercase label
+        Map<String, Draft> changed;
+
+        Draft(Node original) {
+            this.label = original.label;
+            this.hash = original.hash;
+            this.original = original;
+            this.state = original.state;
+        }
+
+        Draft(String label) {
+            this.label = label;
+            this.hash = labelHash(label, 0, label.length());
+            this.original = null;
+            this.state = NONE;
+        }
+
+        Draft child(String label) {
+            if (changed == null) {
+                changed = new HashMap<>();
+            }
+            Draft child = changed.get(label);
+            if (child == null) {
+                Node existing = original != null ? original.child(label, 0, label.length()) : null;
+                child = existing != null ? new Draft(existing) : new Draft(label);
+                changed.put(label, child);
+            }
+            return child;
+        }
+
+        /**
+         * Immutable node for this draft, or null if it has no state or children left
+         */
+        Node build() {
+            if (changed == null && original != null && original.state == state) {
+                return original.isEmpty() ? null : original;
+            }
+            List<Node> children = new ArrayList<>();
+            if (original != null) {
+                for (Node child : original.children) {
+                    if (child != null && (changed == null || !changed.containsKey(child.label))) {
+                        children.add(child);
+                    }
+                }
+            }
+            if (changed != null) {
+                for (Draft draft : changed.values()) {
+                    Node child = draft.build();
+                    if (child != null) {
+                        children.add(child);
+                    }
+                }
+            }
+            if (state == NONE && children.isEmpty()) {
+                return null;
+            }
+            if (children.isEmpty()) {
+                return new Node(label, hash, state, Node.NO_CHILDREN, 0);
+            }
+            int capacity = 2;
+            while (children.size() * 2 > capacity) {
+                capacity *= 2;
+            }
+            Node[] table = new Node[capacity];
+            for (Node child : children) {
+                Node.insert(table, child);
+            }
+            return new Node(label, hash, state, table, children.size());
+        }
+    }
+
+    /**
+     * One label with its children kept in an open-addressing table.
+     * Nodes are never modified once they are reachable from a published trie.
+     */
+    static final class Node {
+        static final Node[] NO_CHILDREN = new Node[0];
+        static final Node ROOT = new Node("", 0, NONE, NO_CHILDREN, 0);
+
+        final String label;
+        final int hash;
+        final byte state;
+        final Node[] children;
+        final int childCount;
+
+        Node(String label, int hash, byte state, Node[] children, int childCount) {
+            this.label = label;
+            this.hash = hash;
+            this.state = state;
+            this.children = children;
+            this.childCount = childCount;
+        }
+
+        /**
+         * Child whose label equals s[start, end), ignoring ASCII case
+         */
+        Node child(CharSequence s, int start, int end) {
+            if (childCount == 0) {
+                return null;
+            }
+            int hash = labelHash(s, start, end);
+            int mask = children.length - 1;
+            for (int i = hash & mask; ; i = (i + 1) & mask) {
+                Node child = children[i];
+                if (child == null) {
+                    return null;
+                }
+                if (child.hash == hash && child.matches(s, start, end)) {
+                    return child;
+                }
+            }
+        }
+
+        boolean isEmpty() {
+            return state == NONE && childCount == 0;
+        }
+
+        Node withState(byte state) {
+            return new Node(label, hash, state, children, childCount);
+        }
+
+        /**
+         * Copy of this node with the child of the same label added or replaced
+         */
+        Node withChild(Node child) {
+            Node existing = child(child.label, 0, child.label.length());
+            if (existing != null) {
+                Node[] table = children.clone();
+                int mask = table.length - 1;
+                int i = child.hash & mask;
+                while (table[i] != existing) {
+                    i = (i + 1) & mask;
+                }
+                table[i] = child;
+                return new Node(label, hash, state, table, childCount);
+            }
+            int capacity = Math.max(2, children.length);
+            while ((childCount + 1) * 2 > capacity) {
+                capacity *= 2;
+            }
+            Node[] table = new Node[capacity];
+            for (Node node : children) {
+                if (node != null) {
+                    insert(table, node);
+                }
+            }
+            insert(table, child);
+            return new Node(label, hash, state, table, childCount + 1);
+        }
+
+        /**
+         * Copy of this node without the child, or this node if it has no such child
+         */
+        Node withoutChild(Node child) {
+            if (child(child.label, 0, child.label.length()) == null) {
+                return this;
+            }
+            if (childCount == 1) {
+                return new Node(label, hash, state, NO_CHILDREN, 0);
+            }
+            Node[] table = new Node[children.length];
+            for (Node node : children) {
+                if (node != null && !node.label.equals(child.label)) {
+                    insert(table, node);
+                }
+            }
+            return new Node(label, hash, state, table, childCount - 1);
+        }
+
+        private boolean matches(CharSequence s, int start, int end) {
+            if (label.length() != end - start) {
+                return false;
+            }
+            for (int i = 0; i < label.length(); i++) {
+                if (label.charAt(i) != CompactBlocklist.lowerAscii(s.charAt(start + i))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private static void insert(Node[] table, Node node) {
+            int mask = table.length - 1;
+            int i = node.hash & mask;
+            while (table[i] != null) {
+                i = (i + 1) & mask;
+            }
+            table[i] = node;
+        }
+    }
+}
@@ -0,0 +1,464 @@
+package com.levelpixel;
+
+import android.content.Context;
+import android.content.res.AssetFileDescriptor;
+import android.content.res.Resources;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import androidx.annotation.Nullable;
+
+import com.levelpixel.duneweb.R;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Process-wide filter engine shared by every DuneWebView.
+ * Holds the compiled blocklists loaded from resources, merged into one shared
+ * list, so opening more tabs does not load or parse a list again. Each
+ * DuneWebView layers its own custom and removed domains on top of it.
+ *
+ * The engine also holds the EasyList-style network filter rules
+ * ("||ads.example.com^$third-party", "@@||example.com/ads.js", ...) used by
+ * every DuneWebView, indexed once for fast per-request matching, and the
+ * domains and rules of remote lists kept up to date by its SubscriptionManager.
+ *
+ * The engine lives as long as the application; obtain it with {@link #getInstance(Context)}.
+ */
+public final class DuneFilterEngine {
+    // Compiled asset generated from R.raw.adblockserverlist by the compileBlocklist task
+    private static final String DEFAULT_BLOCKLIST_ASSET = "adblockserverlist.bin";
+    // Stored subscription lists, under the app's files directory
+    private static final String SUBSCRIPTION_DIRECTORY = "dune-subscriptions";
+
+    private static volatile DuneFilterEngine instance;
+
+    /**
+     * Interface for blocklist load completion, called on the main thread
+     */
+    public interface OnBlocklistLoadedListener {
+        void onBlocklistLoaded(BlocklistLoadStats stats);
+    }
+
+    private final Context appContext;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    // Loads run one after another on a single background thread
+    private final ExecutorService loader = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "DuneFilterEngine-loader");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // Union of every loaded list, replaced as a whole once a load completes
+    private volatile CompactBlocklist sharedBlocklist = CompactBlocklist.EMPTY;
+
+    // Blocklist loads by resource (0 for the default list), so each list is merged in once
+    private final Map<Integer, LoadTask> blocklistLoads = new HashMap<>();
+
+    // Compiled list of each loaded resource; only used on the loader thread
+    private final Map<Integer, CompactBlocklist> loadedLists = new LinkedHashMap<>();
+
+    // Most recently requested load, null before the first one. Loads run in
+    // order, so once it is done every earlier one is too.
+    private volatile LoadTask currentLoad;
+
+    // Statistics of the last completed blocklist load
+    private volatile BlocklistLoadStats lastBlocklistLoad;
+
+    // Network and element hiding filter rules, replaced as a whole when rules are added
+    private volatile NetworkFilterIndex networkFilters = NetworkFilterIndex.EMPTY;
+    private volatile CosmeticFilterIndex cosmeticFilters = CosmeticFilterIndex.EMPTY;
+
+    // Filter list loads by resource id, so each list is merged in once
+    private final Map<Integer, LoadTask> filterLoads = new HashMap<>();
+
+    // Bumped by clearFilterRules; loads started before that do not merge their rules
+    private int filterGeneration;
+
+    // Domains of subscribed hosts files, changed in place as the lists change
+    private volatile DomainMatcher subscribedDomains = DomainMatcher.EMPTY;
+
+    // Created on first use, which restores the stored subscriptions
+    private SubscriptionManager subscriptionManager;
+
+    private DuneFilterEngine(Context context) {
+        this.appContext = context.getApplicationContext() != null
+                ? context.getApplicationContext()
+                : context;
+    }
+
+    /**
+     * Application-scoped engine instance
+     */
+    public static DuneFilterEngine getInstance(Context context) {
+        DuneFilterEngine engine = instance;
+        if (engine == null) {
+            synchronized (DuneFilterEngine.class) {
+                engine = instance;
+                if (engine == null) {
+                    engine = new DuneFilterEngine(context);
+                    instance = engine;
+                }
+            }
+        }
+        return engine;
+    }
+
+    /**
+     * Load the shared blocklist from a raw resource in the background.
+     * Format: compiled blocklist (see CompactBlocklist) or one domain per line.
+     * Loading a resource that is already loaded (or loading) returns the same load;
+     * loading a different one adds its domains to the shared list of every DuneWebView.
+     *
+     * @return future completing with the load statistics, or failing with the IOException
+     */
+    public Future<BlocklistLoadStats> loadBlocklist(boolean useDefaultHosts, @Nullable Integer resourceId) {
+        return loadBlocklist(useDefaultHosts, resourceId, null);
+    }
+
+    /**
+     * Same as {@link #loadBlocklist(boolean, Integer)}, also notifying the listener on
+     * the main thread once the list is in use. Failed loads are logged and not reported.
+     */
+    public Future<BlocklistLoadStats> loadBlocklist(boolean useDefaultHosts, @Nullable Integer resourceId,
+                                                    @Nullable OnBlocklistLoadedListener listener) {
+        int resource = (useDefaultHosts || resourceId == null) ? 0 : resourceId;
+        LoadTask task;
+        synchronized (this) {
+            task = blocklistLoads.get(resource);
+            if (task == null || task.failed()) {
+                task = new LoadTask(() -> load(resource));
+                blocklistLoads.put(resource, task);
+                currentLoad = task;
+                loader.execute(task);
+            }
+        }
+        if (listener != null) {
+            task.addListener(listener);
+        }
+        return task;
+    }
+
+    /**
+     * Check if no blocklist load is in progress
+     */
+    public boolean isBlocklistReady() {
+        LoadTask task = currentLoad;
+        return task == null || task.isDone();
+    }
+
+    /**
+     * Wait up to the given time for a load in progress to finish.
+     * Returns true if the list is ready, false on timeout or interruption.
+     */
+    public boolean awaitBlocklist(long timeout, TimeUnit unit) {
+        LoadTask task = currentLoad;
+        if (task == null || task.isDone()) {
+            return true;
+        }
+        try {
+            task.get(timeout, unit);
+            return true;
+        } catch (ExecutionException e) {
+            return true;
+        } catch (TimeoutException e) {
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * Number of domains in the shared list
+     */
+    public int getBlocklistSize() {
+        return sharedBlocklist.size();
+    }
+
+    /**
+     * Statistics of the last completed blocklist load, null if none has completed
+     */
+    @Nullable
+    public BlocklistLoadStats getLastBlocklistLoadStats() {
+        return lastBlocklistLoad;
+    }
+
+    /**
+     * Current shared list; never null
+     */
+    CompactBlocklist getSharedBlocklist() {
+        return sharedBlocklist;
+    }
+
+    /**
+     * Load an EasyList / Adblock Plus filter list from a raw resource in the background
+     * and add its network and element hiding rules to the ones already in use.
+     * Regular expressions, extended selectors and rules with unsupported options are skipped.
+     * Loading the same resource again returns the first load.
+     *
+     * @return future completing with the load statistics, or failing with the IOException
+     */
+    public Future<BlocklistLoadStats> loadFilterList(int resourceId,
+                                                     @Nullable OnBlocklistLoadedListener listener) {
+        LoadTask task;
+        synchronized (this) {
+            task = filterLoads.get(resourceId);
+            if (task == null || task.failed()) {
+                int generation = filterGeneration;
+                task = new LoadTask(() -> loadFilters(resourceId, generation));
+                filterLoads.put(resourceId, task);
+                loader.execute(task);
+            }
+        }
+        if (listener != null) {
+            task.addListener(listener);
+        }
+        return task;
+    }
+
+    /**
+     * Add filter rules, e.g. "||ads.example.com^$script,third-party" or
+     * "example.com##.ad-banner". Unsupported rules are skipped.
+     */
+    public synchronized void addFilterRules(Collection<String> rules) {
+        networkFilters = networkFilters.with(rules);
+        cosmeticFilters = cosmeticFilters.with(rules);
+    }
+
+    /**
+     * Remove all filter rules, including those from loaded filter lists.
+     * Filter list loads still in progress are cancelled.
+     */
+    public synchronized void clearFilterRules() {
+        networkFilters = NetworkFilterIndex.EMPTY;
+        cosmeticFilters = CosmeticFilterIndex.EMPTY;
+        filterGeneration++;
+        for (LoadTask task : filterLoads.values()) {
+            task.cancel(false);
+        }
+        filterLoads.clear();
+    }
+
+    /**
+     * Number of network and element hiding rules in use
+     */
+    public int getFilterRuleCount() {
+        return networkFilters.size() + cosmeticFilters.size();
+    }
+
+    /**
+     * CSS hiding the elements matched by element hiding rules on the given host;
+     * empty if no rule applies
+     */
+    public String getElementHidingStylesheet(String host) {
+        return cosmeticFilters.stylesheetFor(host);
+    }
+
+    /**
+     * Manager of remote hosts files and filter lists, which keeps them up to
+     * date in this engine. Lists subscribed in an earlier run are put back in
+     * use in the background as soon as the manager is first obtained.
+     */
+    public synchronized SubscriptionManager getSubscriptionManager() {
+        if (subscriptionManager == null) {
+            subscriptionManager = new SubscriptionManager(
+                    new File(appContext.getFilesDir(), SUBSCRIPTION_DIRECTORY),
+                    new HttpFetcher(), new SubscriptionSink(), mainHandler::post);
+        }
+        return subscriptionManager;
+    }
+
+    /**
+     * Current domains of subscribed hosts files; never null
+     */
+    DomainMatcher getSubscribedDomains() {
+        return subscribedDomains;
+    }
+
+    /**
+     * Current network filter rules; never null
+     */
+    NetworkFilterIndex getNetworkFilters() {
+        return networkFilters;
+    }
+
+    /**
+     * Maps the compiled default list straight out of the APK.
+     * Falls back to converting the raw text list if the asset is missing or compressed.
+     */
+    private CompactBlocklist openDefaultBlocklist() throws IOException {
+        try (AssetFileDescriptor afd = appContext.getAssets().openFd(DEFAULT_BLOCKLIST_ASSET);
+             FileInputStream in = afd.createInputStream()) {
+            return CompactBlocklist.map(in.getChannel(), afd.getStartOffset(), afd.getLength());
+        } catch (IOException e) {
+            return openBlocklistResource(R.raw.adblockserverlist);
+        }
+    }
+
+    /**
+     * Reads a raw resource in one bulk read, converting it if it is plain text
+     */
+    private CompactBlocklist openBlocklistResource(int resourceId) throws IOException {
+        try (AssetFileDescriptor afd = appContext.getResources().openRawResourceFd(resourceId);
+             FileInputStream in = afd.createInputStream()) {
+            return CompactBlocklist.read(in, afd.getLength());
+        } catch (Resources.NotFoundException e) {
+            // Compressed resources have no file descriptor, read them as a stream below
+        }
+        try (InputStream in = appContext.getResources().openRawResource(resourceId)) {
+            return CompactBlocklist.read(in, -1);
+        }
+    }
+
+    /**
+     * Opens one resource and publishes the union of it and the lists loaded before
+     */
+    private BlocklistLoadStats load(int resource) throws IOException {
+        long start = SystemClock.elapsedRealtime();
+        CompactBlocklist list = resource == 0
+                ? openDefaultBlocklist()
+                : openBlocklistResource(resource);
+        loadedLists.put(resource, list);
+        CompactBlocklist union = CompactBlocklist.EMPTY;
+        for (CompactBlocklist loaded : loadedLists.values()) {
+            union = CompactBlocklist.union(union, loaded);
+        }
+        sharedBlocklist = union;
+        BlocklistLoadStats stats = new BlocklistLoadStats(list.size(), list.byteSize(),
+                SystemClock.elapsedRealtime() - start);
+        lastBlocklistLoad = stats;
+        return stats;
+    }
+
+    /**
+     * Parses a filter list resource off to the side and merges it into the rules in use
+     */
+    private BlocklistLoadStats loadFilters(int resourceId, int generation) throws IOException {
+        long start = SystemClock.elapsedRealtime();
+        List<String> lines = new ArrayList<>();
+        long bytes = 0;
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                appContext.getResources().openRawResource(resourceId), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lines.add(line);
+                bytes += line.length() + 1;
+            }
+        }
+        NetworkFilterIndex network = NetworkFilterIndex.of(lines);
+        CosmeticFilterIndex cosmetic = CosmeticFilterIndex.of(lines);
+        synchronized (this) {
+            // Cleared while parsing: the task is already cancelled, so nothing is merged
+            if (generation == filterGeneration) {
+                networkFilters = networkFilters.with(network);
+                cosmeticFilters = cosmeticFilters.with(cosmetic);
+            }
+        }
+        return new BlocklistLoadStats(network.size() + cosmetic.size(), bytes,
+                SystemClock.elapsedRealtime() - start);
+    }
+
+    /**
+     * Applies subscription changes: domains to the subscribed matcher, rules to the indexes
+     */
+    private final class SubscriptionSink implements SubscriptionManager.Sink {
+        @Override
+        public void setDomains(CompactBlocklist domains) {
+            subscribedDomains = DomainMatcher.EMPTY.withCompiled(domains);
+        }
+
+        @Override
+        public void updateDomains(Collection<String> added, Collection<String> removed) {
+            subscribedDomains = subscribedDomains.withChanges(DomainMatcher.Changes.of(added, removed));
+        }
+
+        @Override
+        public void updateRules(Collection<String> added, Collection<String> removed) {
+            synchronized (DuneFilterEngine.this) {
+                networkFilters = networkFilters.without(removed).with(added);
+                cosmeticFilters = cosmeticFilters.without(removed).with(added);
+            }
+        }
+    }
+
+    /**
+     * One load request, notifying its listeners when it completes
+     */
+    private final class LoadTask extends FutureTask<BlocklistLoadStats> {
+        private final List<OnBlocklistLoadedListener> listeners = new CopyOnWriteArrayList<>();
+
+        LoadTask(Callable<BlocklistLoadStats> load) {
+            super(load);
+        }
+
+        void addListener(OnBlocklistLoadedListener listener) {
+            listeners.add(listener);
+            if (isDone()) {
+                notifyListeners();
+            }
+        }
+
+        boolean failed() {
+            return isDone() && result() == null;
+        }
+
+        @Override
+        protected void done() {
+            try {
+                get();
+            } catch (ExecutionException e) {
+                e.getCause().printStackTrace();
+            } catch (InterruptedException | CancellationException e) {
+                // cancelled by the caller, nothing to log
+            }
+            notifyListeners();
+        }
+
+        @Nullable
+        private BlocklistLoadStats result() {
+            try {
+                return get();
+            } catch (ExecutionException | InterruptedException | CancellationException e) {
+                return null;
+            }
+        }
+
+        private void notifyListeners() {
+            BlocklistLoadStats stats = result();
+            if (stats == null) {
+                listeners.clear();
+                return;
+            }
+            for (OnBlocklistLoadedListener listener : listeners) {
+                if (listeners.remove(listener)) {
+                    mainHandler.post(() -> listener.onBlocklistLoaded(stats));
+                }
+            }
+        }
+    }
+}
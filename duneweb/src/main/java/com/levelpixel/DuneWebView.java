@@ -2,12 +2,17 @@ package com.levelpixel;
 
 import android.app.DownloadManager;
 import android.content.Context;
+import android.graphics.Bitmap;
 import android.net.Uri;
+import android.os.Bundle;
 import android.os.Environment;
 import android.util.AttributeSet;
 import android.webkit.CookieManager;
 import android.webkit.DownloadListener;
+import android.webkit.JavascriptInterface;
+import android.webkit.RenderProcessGoneDetail;
 import android.webkit.URLUtil;
+import android.webkit.WebBackForwardList;
 import android.webkit.WebChromeClient;
 import android.webkit.WebResourceRequest;
 import android.webkit.WebResourceResponse;
@@ -17,18 +22,27 @@ import android.webkit.WebViewClient;
 import android.widget.Toast;
 
 import androidx.annotation.Nullable;
+import androidx.webkit.ScriptHandler;
+import androidx.webkit.WebViewCompat;
+import androidx.webkit.WebViewFeature;
 
-import com.levelpixel.duneweb.R;
-
-import java.io.BufferedReader;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * EnhancedWebView extends Android's WebView with additional security and user experience features:
@@ -41,54 +55,232 @@ import java.util.concurrent.Executors;
  */
 public class DuneWebView extends WebView {
     // Feature flags for enabling/disabling functionality
-    private boolean adBlockEnabled = true;
+    private volatile boolean adBlockEnabled = true;
     private boolean popupBlockEnabled = true;
     private boolean redirectBlockEnabled = true;
     private boolean useSystemDownloader = true;
 
-    // Set to store domains that should be blocked
-    private Set<String> adBlockList;
+    // Process-wide engine holding the blocklist shared by all instances
+    private DuneFilterEngine filterEngine;
+
+    // Whether this view consults the shared list; cleared by clearBlocklist()
+    private volatile boolean useSharedBlocklist;
+
+    // How requests are handled while the shared list is still loading
+    private volatile PendingRequestPolicy pendingRequestPolicy = PendingRequestPolicy.PATTERNS_ONLY;
+    private volatile long pendingRequestWaitMillis;
+
+    // Longest time the overlay blocker spends checking elements per frame/idle slice
+    private long overlayScanBudgetMillis = DEFAULT_OVERLAY_SCAN_BUDGET_MILLIS;
+    private static final long DEFAULT_OVERLAY_SCAN_BUDGET_MILLIS = 4;
+
+    // Domains that should be blocked, matched together with their subdomains.
+    // Holds an immutable snapshot of this view's custom domains layered on the
+    // shared list. Writers replace it atomically, so request interception on
+    // WebView's IO threads never locks or sees a half-applied change.
+    private final AtomicReference<DomainMatcher> adBlockList =
+            new AtomicReference<>(DomainMatcher.EMPTY);
+
+    // Host of the page currently loaded in the main frame, for $third-party and $domain= rules
+    private volatile String pageHost;
+    // URL of that page, for $document exceptions
+    private volatile String pageUrl;
+
+    // Compiled URL patterns, replaced as a whole when patterns are registered
+    private volatile UrlPatternMatcher adUrlPatterns =
+            UrlPatternMatcher.compile(Arrays.asList(BlockDecider.DEFAULT_AD_URL_PATTERNS));
+    private volatile UrlPatternMatcher suspiciousUrlPatterns =
+            UrlPatternMatcher.compile(Arrays.asList(BlockDecider.DEFAULT_SUSPICIOUS_URL_PATTERNS));
+
+    // Recent block/allow decisions. Emptied automatically whenever the blocklist
+    // snapshot, the ad patterns or the filter rules are replaced, which covers
+    // added, removed and cleared domains as well as reloads of the shared list.
+    private final DecisionCache decisionCache = new DecisionCache(DecisionCache.DEFAULT_CAPACITY);
+
+    // Request counters and latency histogram, null while stats are disabled
+    private volatile BlockStatsRecorder blockStats;
+
+    // Response filters; allowed documents and scripts are fetched here and
+    // streamed through them only while at least one filter is registered
+    private final ResponsePipeline responsePipeline = new ResponsePipeline(new HttpFetcher());
+    // Shared disk cache serving subresources, null while disabled
+    private volatile ResourceCache resourceCache;
+    // Shared browsing history recording visits, null while disabled
+    private HistoryStore historyStore;
+    // Read on IO threads, where WebSettings must not be used
+    private volatile String userAgent;
+
+    // Protection scripts registered to run at document start in every frame;
+    // null when not registered or when the WebView does not support it
+    private ScriptHandler overlayScriptHandler;
+    private ScriptHandler elementHidingScriptHandler;
+    private ScriptHandler redirectScriptHandler;
+    private ScriptHandler telemetryScriptHandler;
+    private boolean documentStartScriptSupported;
 
     // Interfaces for callback functionality
     private OnProgressChangedListener progressListener;
+    // Read on IO threads, which only count blocked requests while it is set
+    private volatile OnPageStateListener pageStateListener;
+    // Coalesces progress, URL, title and blocked count into one update per frame
+    private PageStateDispatcher stateDispatcher;
+    private OnBlockStatsListener blockStatsListener;
+    private OnPageLoadMetricsListener pageLoadMetricsListener;
+    // Native page times while page load telemetry is enabled, null otherwise
+    private volatile PageTelemetry pageTelemetry;
     private DownloadListener customDownloadListener;
+    // Handles a lost renderer; without it the system kills the app
+    private OnRenderProcessGoneListener renderProcessGoneListener;
+    // URL of the last navigation committed in the main frame
+    private String committedUrl;
+    // Set by resetForReuse: the previous owner's back/forward list is cleared
+    // once the next navigation has committed
+    private boolean clearHistoryOnCommit;
+    // JavaScript interfaces added by the app, removed when the view is reused
+    private final Set<String> appJavascriptInterfaces = new HashSet<>();
+    // Scroll position to apply when pendingScrollUrl finishes loading
+    private String pendingScrollUrl;
+    private int pendingScrollX;
+    private int pendingScrollY;
+    // Gets the built-in downloader's callbacks for downloads this view starts
+    private SegmentedDownloader.OnDownloadListener downloadProgressListener;
+
+    // JavaScript interfaces the library adds itself
+    private static final Set<String> INTERNAL_JAVASCRIPT_INTERFACES =
+            new HashSet<>(Arrays.asList("DuneElementHiding", "DuneTelemetry"));
+
+    // Hands downloads to the system DownloadManager off the UI thread
+    private static final ExecutorService SYSTEM_DOWNLOAD_EXECUTOR = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "DuneSystemDownloads");
+        thread.setDaemon(true);
+        return thread;
+    });
 
     /**
      * JavaScript code to detect and remove unwanted overlay elements.
-     * - Checks for fixed/absolute positioned elements
-     * - Looks for common ad-related keywords
+     * - Watches the DOM with a MutationObserver and only inspects added or restyled elements
+     * - Checks fixed/absolute positioned elements for common ad-related keywords
+     *   in their text, id and class (no innerHTML serialization)
      * - Identifies corner advertisements based on position and size
-     * - Runs every second to catch dynamically added elements
+     * - Works through queued elements in idle time (animation frames where idle
+     *   callbacks are missing), spending at most window.__duneOverlayBudget ms per slice
+     * - Installs itself once per document; running it again only updates the budget
      */
     private static final String BLOCK_OVERLAY_JS =
-            "function blockUnwantedOverlays() {" +
-                    "  const elementsToCheck = document.querySelectorAll('div, iframe, span');" +
-                    "  elementsToCheck.forEach(el => {" +
+            "(function() {" +
+                    "  const budget = window.__duneOverlayBudget || 4;" +
+                    "  if (window.__duneOverlayBlocker) {" +
+                    "    window.__duneOverlayBlocker.budget = budget;" +
+                    "    return;" +
+                    "  }" +
+                    "  const state = { budget: budget, queue: [], head: 0, queued: new WeakSet(), scheduled: false };" +
+                    "  window.__duneOverlayBlocker = state;" +
+                    "  const adKeywords = /(adsby|sponsored|advertisement|click here|you won|congratulation|lucky winner)/i;" +
+                    "  const candidates = 'div, iframe, span';" +
+                    "  function isUnwantedOverlay(el) {" +
                     "    const style = window.getComputedStyle(el);" +
+                    "    if (style.position !== 'fixed' && style.position !== 'absolute') return false;" +
+                    "    const text = (el.textContent || '').slice(0, 2000) + ' ' + el.id + ' ' + el.getAttribute('class');" +
+                    "    if (adKeywords.test(text)) return true;" +
                     "    const rect = el.getBoundingClientRect();" +
-                    "    if (style.position === 'fixed' || style.position === 'absolute') {" +
-                    "      const hasAdKeywords = el.innerHTML.toLowerCase().match(/(adsby|sponsored|advertisement|click here|you won|congratulation|lucky winner)/i);" +
-                    "      const isCornerAd = (rect.width < 400 && rect.height < 400) && " +
-                    "                         ((rect.top < 10 && rect.left < 10) || " +
-                    "                          (rect.top < 10 && rect.right > window.innerWidth - 10) || " +
-                    "                          (rect.bottom > window.innerHeight - 10 && rect.left < 10) || " +
-                    "                          (rect.bottom > window.innerHeight - 10 && rect.right > window.innerWidth - 10));" +
-                    "      if (hasAdKeywords || isCornerAd) {" +
+                    "    return (rect.width < 400 && rect.height < 400) && " +
+                    "           ((rect.top < 10 && rect.left < 10) || " +
+                    "            (rect.top < 10 && rect.right > window.innerWidth - 10) || " +
+                    "            (rect.bottom > window.innerHeight - 10 && rect.left < 10) || " +
+                    "            (rect.bottom > window.innerHeight - 10 && rect.right > window.innerWidth - 10));" +
+                    "  }" +
+                    "  function enqueue(el) {" +
+                    "    if (el.nodeType !== 1 || state.queued.has(el)) return;" +
+                    "    state.queued.add(el);" +
+                    "    state.queue.push(el);" +
+                    "  }" +
+                    "  function enqueueTree(node) {" +
+                    "    if (node.nodeType !== 1) return;" +
+                    "    if (node.matches(candidates)) enqueue(node);" +
+                    "    node.querySelectorAll(candidates).forEach(enqueue);" +
+                    "  }" +
+                    "  function schedule() {" +
+                    "    if (state.scheduled || state.head === state.queue.length) return;" +
+                    "    state.scheduled = true;" +
+                    "    if (window.requestIdleCallback) {" +
+                    "      window.requestIdleCallback(run, { timeout: 1000 });" +
+                    "    } else {" +
+                    "      window.requestAnimationFrame(() => run(null));" +
+                    "    }" +
+                    "  }" +
+                    "  function run(deadline) {" +
+                    "    state.scheduled = false;" +
+                    "    const start = performance.now();" +
+                    "    while (state.head < state.queue.length) {" +
+                    "      const el = state.queue[state.head++];" +
+                    "      state.queued.delete(el);" +
+                    "      if (el.isConnected && isUnwantedOverlay(el)) {" +
                     "        el.remove();" +
                     "      }" +
+                    "      if (performance.now() - start >= state.budget) break;" +
+                    "      if (deadline && !deadline.didTimeout && deadline.timeRemaining() <= 0) break;" +
+                    "    }" +
+                    "    if (state.head === state.queue.length) {" +
+                    "      state.queue = [];" +
+                    "      state.head = 0;" +
+                    "    }" +
+                    "    schedule();" +
+                    "  }" +
+                    "  new MutationObserver(records => {" +
+                    "    for (const record of records) {" +
+                    "      if (record.type === 'childList') {" +
+                    "        record.addedNodes.forEach(enqueueTree);" +
+                    "      } else if (record.target.matches(candidates)) {" +
+                    "        enqueue(record.target);" +
+                    "      }" +
                     "    }" +
-                    "  });" +
-                    "}" +
-                    "setInterval(blockUnwantedOverlays, 1000);";
+                    "    schedule();" +
+                    "  }).observe(document, { childList: true, subtree: true, attributes: true, attributeFilter: ['style', 'class'] });" +
+                    "  if (document.documentElement) enqueueTree(document.documentElement);" +
+                    "  schedule();" +
+                    "})();";
+
+    /**
+     * JavaScript code applying element hiding rules.
+     * - Asks the app once per document for the stylesheet precomputed for its host
+     * - Adds it as a single style element, so the browser hides matching elements
+     *   itself without any per-element script work
+     */
+    private static final String ELEMENT_HIDING_JS =
+            "(function() {" +
+                    "  if (window.__duneElementHiding || !window.DuneElementHiding) return;" +
+                    "  window.__duneElementHiding = true;" +
+                    "  const css = window.DuneElementHiding.stylesheet(location.hostname);" +
+                    "  if (!css) return;" +
+                    "  const style = document.createElement('style');" +
+                    "  style.textContent = css;" +
+                    "  function attach() {" +
+                    "    (document.head || document.documentElement).appendChild(style);" +
+                    "  }" +
+                    "  if (document.documentElement) {" +
+                    "    attach();" +
+                    "  } else {" +
+                    "    new MutationObserver(function(records, observer) {" +
+                    "      if (document.documentElement) {" +
+                    "        observer.disconnect();" +
+                    "        attach();" +
+                    "      }" +
+                    "    }).observe(document, { childList: true });" +
+                    "  }" +
+                    "})();";
 
     /**
      * JavaScript code to prevent unwanted redirects.
      * - Tracks the original link clicked by the user
      * - Monitors for suspicious redirects (e.g., through tracking URLs)
      * - Restores the original destination if a suspicious redirect is detected
+     * - Installs its listeners once per document, however often it runs
      */
     private static final String REDIRECT_HANDLER_JS =
-            "let lastClickTime = 0;" +
+            "(function() {" +
+                    "if (window.__duneRedirectHandler) return;" +
+                    "window.__duneRedirectHandler = true;" +
+                    "let lastClickTime = 0;" +
                     "let originalHref = '';" +
                     "document.addEventListener('click', function(e) {" +
                     "  const target = e.target;" +
@@ -112,7 +304,8 @@ public class DuneWebView extends WebView {
                     "      window.location.href = originalHref;" +
                     "    }" +
                     "  }" +
-                    "});";
+                    "});" +
+                    "})();";
 
     /**
      * Interface for tracking page load progress
@@ -121,6 +314,48 @@ public class DuneWebView extends WebView {
         void onProgressChanged(int progress);
     }
 
+    /**
+     * Interface for the page's progress, URL, title and blocked request count,
+     * called at most once per display frame and only when a value changed
+     */
+    public interface OnPageStateListener {
+        void onPageStateChanged(PageState state);
+    }
+
+    /**
+     * Interface for ad blocking statistics, reported when a page finishes loading
+     */
+    public interface OnBlockStatsListener {
+        void onBlockStats(BlockStats stats);
+    }
+
+    /**
+     * Interface for page load telemetry, reported once per page when it is hidden
+     */
+    public interface OnPageLoadMetricsListener {
+        void onPageLoadMetrics(PageLoadMetrics metrics);
+    }
+
+    /**
+     * Interface for a renderer process that crashed or was killed to reclaim
+     * memory. The view can no longer be used and must be destroyed.
+     */
+    public interface OnRenderProcessGoneListener {
+        void onRenderProcessGone(DuneWebView view, boolean crashed);
+    }
+
+    /**
+     * Handling of requests that arrive before the shared blocklist has loaded
+     */
+    public enum PendingRequestPolicy {
+        // Let requests through without any ad blocking
+        ALLOW,
+        // Block by URL pattern and custom domains only
+        PATTERNS_ONLY,
+        // Hold the request up to the configured time for the list, then block by pattern
+        WAIT
+    }
+
     /**
      * Constructor for programmatic instantiation
      */
@@ -141,10 +376,106 @@ public class DuneWebView extends WebView {
      * Initializes the WebView with enhanced features
      */
     private void init() {
+        filterEngine = DuneFilterEngine.getInstance(getContext());
+        stateDispatcher = new PageStateDispatcher(this, this::dispatchPageState);
         setupWebView();
         setupWebViewClient();
         setupDownloadListener();
-        adBlockList = new HashSet<>();
+        addJavascriptInterface(new ElementHidingBridge(), "DuneElementHiding");
+        documentStartScriptSupported = WebViewFeature.isFeatureSupported(WebViewFeature.DOCUMENT_START_SCRIPT);
+        updateDocumentStartScripts();
+    }
+
+    /**
+     * Registers the enabled protection scripts to run at document start in every frame,
+     * before any page script, and unregisters disabled ones. Does nothing when the
+     * WebView does not support it; the scripts are then injected from the WebViewClient.
+     */
+    private void updateDocumentStartScripts() {
+        if (!documentStartScriptSupported) {
+            return;
+        }
+        if (overlayScriptHandler != null) {
+            overlayScriptHandler.remove();
+            overlayScriptHandler = null;
+        }
+        if (adBlockEnabled) {
+            overlayScriptHandler = WebViewCompat.addDocumentStartJavaScript(
+                    this, overlayBlockerScript(), Collections.singleton("*"));
+        }
+        if (adBlockEnabled && elementHidingScriptHandler == null) {
+            elementHidingScriptHandler = WebViewCompat.addDocumentStartJavaScript(
+                    this, ELEMENT_HIDING_JS, Collections.singleton("*"));
+        } else if (!adBlockEnabled && elementHidingScriptHandler != null) {
+            elementHidingScriptHandler.remove();
+            elementHidingScriptHandler = null;
+        }
+        if (redirectBlockEnabled && redirectScriptHandler == null) {
+            redirectScriptHandler = WebViewCompat.addDocumentStartJavaScript(
+                    this, REDIRECT_HANDLER_JS, Collections.singleton("*"));
+        } else if (!redirectBlockEnabled && redirectScriptHandler != null) {
+            redirectScriptHandler.remove();
+            redirectScriptHandler = null;
+        }
+        if (pageTelemetry != null && telemetryScriptHandler == null) {
+            telemetryScriptHandler = WebViewCompat.addDocumentStartJavaScript(
+                    this, PageTelemetry.SCRIPT, Collections.singleton("*"));
+        } else if (pageTelemetry == null && telemetryScriptHandler != null) {
+            telemetryScriptHandler.remove();
+            telemetryScriptHandler = null;
+        }
+    }
+
+    /**
+     * Injects the enabled protection and telemetry scripts into the current document
+     * when they cannot be registered for document start. Safe to repeat: each script
+     * installs itself once per document.
+     */
+    private void injectProtectionScripts(WebView view) {
+        if (documentStartScriptSupported) {
+            return;
+        }
+        if (adBlockEnabled) {
+            view.evaluateJavascript(ELEMENT_HIDING_JS, null);
+            view.evaluateJavascript(overlayBlockerScript(), null);
+        }
+        if (redirectBlockEnabled) {
+            view.evaluateJavascript(REDIRECT_HANDLER_JS, null);
+        }
+        if (pageTelemetry != null) {
+            view.evaluateJavascript(PageTelemetry.SCRIPT, null);
+        }
+    }
+
+    /**
+     * Hands the element hiding stylesheet of a host to ELEMENT_HIDING_JS.
+     * Called on WebView's JavaBridge thread.
+     */
+    private final class ElementHidingBridge {
+        @JavascriptInterface
+        public String stylesheet(String host) {
+            return adBlockEnabled ? filterEngine.getElementHidingStylesheet(host) : "";
+        }
+    }
+
+    /**
+     * Receives the one report PageTelemetry.SCRIPT sends per page.
+     * Called on WebView's JavaBridge thread.
+     */
+    private final class TelemetryBridge {
+        @JavascriptInterface
+        public void report(String url, String values) {
+            PageTelemetry telemetry = pageTelemetry;
+            if (telemetry == null) {
+                return;
+            }
+            PageLoadMetrics metrics = telemetry.complete(url, values, adBlockEnabled);
+            post(() -> {
+                if (pageLoadMetricsListener != null) {
+                    pageLoadMetricsListener.onPageLoadMetrics(metrics);
+                }
+            });
+        }
     }
 
     /**
@@ -174,6 +505,7 @@ public class DuneWebView extends WebView {
         settings.setAllowFileAccessFromFileURLs(false);
         settings.setAllowUniversalAccessFromFileURLs(false);
         settings.setSaveFormData(false);
+        userAgent = settings.getUserAgentString();
     }
 
     /**
@@ -185,41 +517,112 @@ public class DuneWebView extends WebView {
      */
     private void setupWebViewClient() {
         setWebViewClient(new WebViewClient() {
+            @Override
+            public void onPageStarted(WebView view, String url, Bitmap favicon) {
+                super.onPageStarted(view, url, favicon);
+                stateDispatcher.setUrl(url);
+                PageTelemetry telemetry = pageTelemetry;
+                if (telemetry != null) {
+                    telemetry.pageStarted(url, System.currentTimeMillis());
+                }
+                // Without document start scripts, inject as early as possible...
+                injectProtectionScripts(view);
+            }
+
             @Override
             public void onPageFinished(WebView view, String url) {
                 super.onPageFinished(view, url);
-                // Inject protection scripts after page loads
-                if (adBlockEnabled) {
-                    view.evaluateJavascript(BLOCK_OVERLAY_JS, null);
+                PageTelemetry telemetry = pageTelemetry;
+                if (telemetry != null) {
+                    BlockStatsRecorder stats = blockStats;
+                    telemetry.pageFinished(url, System.currentTimeMillis(),
+                            stats != null ? stats.pageBlockedRequests() : -1);
+                }
+                // ...and again once the page has loaded, in case the early
+                // injection reached the previous document
+                injectProtectionScripts(view);
+                if (pendingScrollUrl != null && pendingScrollUrl.equals(url)) {
+                    int x = pendingScrollX;
+                    int y = pendingScrollY;
+                    pendingScrollUrl = null;
+                    // After the next layout, which sizes the restored content
+                    post(() -> scrollTo(x, y));
                 }
-                if (redirectBlockEnabled) {
-                    view.evaluateJavascript(REDIRECT_HANDLER_JS, null);
+                if (blockStatsListener != null && blockStats != null) {
+                    blockStatsListener.onBlockStats(getBlockStats());
                 }
             }
 
             @Override
             public WebResourceResponse shouldInterceptRequest(WebView view, WebResourceRequest request) {
+                if (request.isForMainFrame()) {
+                    pageUrl = request.getUrl().toString();
+                    pageHost = request.getUrl().getHost();
+                }
                 if (adBlockEnabled) {
-                    String url = request.getUrl().toString().toLowerCase();
-                    String host = request.getUrl().getHost();
-
-                    // Check against blocklist
-                    if (host != null && adBlockList.contains(host)) {
-                        return createEmptyResponse();
+                    BlockStatsRecorder stats = blockStats;
+                    long start = stats != null ? System.nanoTime() : 0;
+                    String url = request.getUrl().toString();
+                    if (request.isForMainFrame()) {
+                        if (stats != null) {
+                            stats.startPage(url);
+                        }
+                        if (pageStateListener != null) {
+                            stateDispatcher.startPage();
+                        }
                     }
 
-                    // Check for common ad patterns
-                    if (isAdRequest(url)) {
-                        return createEmptyResponse();
+                    byte decision = awaitPendingBlocklist()
+                            ? decide(url, request.getUrl().getHost(), request.isForMainFrame(),
+                                    request.getRequestHeaders())
+                            : DecisionCache.ALLOWED;
+                    if (stats != null) {
+                        stats.record(decision, System.nanoTime() - start);
+                    }
+                    if (decision != DecisionCache.ALLOWED) {
+                        if (pageStateListener != null) {
+                            stateDispatcher.requestBlocked();
+                        }
+                        return BlockedResponses.forType(
+                                ResourceType.of(url, request.isForMainFrame(), request.getRequestHeaders()));
                     }
                 }
+                WebResourceResponse fetched = fetchItself(request);
+                if (fetched != null) {
+                    return fetched;
+                }
                 return super.shouldInterceptRequest(view, request);
             }
 
+            @Override
+            public void doUpdateVisitedHistory(WebView view, String url, boolean isReload) {
+                super.doUpdateVisitedHistory(view, url, isReload);
+                if (clearHistoryOnCommit) {
+                    // Keeps only the entry just committed
+                    clearHistoryOnCommit = false;
+                    clearHistory();
+                }
+                // Also covers same-document navigations, which start no page
+                stateDispatcher.setUrl(url);
+                committedUrl = url;
+                if (historyStore != null && !isReload) {
+                    historyStore.recordVisit(url, null);
+                }
+            }
+
+            @Override
+            public boolean onRenderProcessGone(WebView view, RenderProcessGoneDetail detail) {
+                if (renderProcessGoneListener == null) {
+                    return false;
+                }
+                renderProcessGoneListener.onRenderProcessGone(DuneWebView.this, detail.didCrash());
+                return true;
+            }
+
             @Override
             public boolean shouldOverrideUrlLoading(WebView view, WebResourceRequest request) {
                 if (popupBlockEnabled || redirectBlockEnabled) {
-                    String url = request.getUrl().toString().toLowerCase();
+                    String url = request.getUrl().toString();
                     return isSuspiciousUrl(url);
                 }
                 return false;
@@ -229,46 +632,211 @@ public class DuneWebView extends WebView {
         setWebChromeClient(new WebChromeClient() {
             @Override
             public void onProgressChanged(WebView view, int newProgress) {
-                if (progressListener != null) {
-                    progressListener.onProgressChanged(newProgress);
+                stateDispatcher.setProgress(newProgress);
+            }
+
+            @Override
+            public void onReceivedTitle(WebView view, String title) {
+                stateDispatcher.setTitle(title);
+                if (historyStore != null) {
+                    historyStore.updateTitle(view.getUrl(), title);
                 }
             }
         });
     }
 
     /**
-     * Creates an empty response for blocked requests
+     * Loads a request here instead of in the WebView: documents and scripts
+     * while response filters are registered, other subresources through the
+     * resource cache while it is enabled. Cross-site requests follow the
+     * WebView's third-party cookie setting: when it blocks them, none are sent
+     * or stored; when it allows them, requests that carry cookies are left to
+     * the WebView, which also applies SameSite.
+     *
+     * A redirected document is answered with a page that replaces itself with
+     * the new address, so the WebView's URL follows it without fetching the
+     * redirect again. Redirected scripts are followed here, each hop checked
+     * against the blocklists and given its own cookies.
+     *
+     * @return the response, or null to let the WebView load the request itself
      */
-    private WebResourceResponse createEmptyResponse() {
-        return new WebResourceResponse("text/plain", "utf-8",
-                new ByteArrayInputStream("".getBytes()));
+    private WebResourceResponse fetchItself(WebResourceRequest request) {
+        String url = request.getUrl().toString();
+        boolean mainFrame = request.isForMainFrame();
+        if (!"GET".equals(request.getMethod()) || !URLUtil.isNetworkUrl(url)) {
+            return null;
+        }
+        Map<String, String> requestHeaders = request.getRequestHeaders();
+        ResourceType type = ResourceType.of(url, mainFrame, requestHeaders);
+        boolean filter = responsePipeline.wants(type);
+        ResourceCache cache = resourceCache;
+        if (!filter && (cache == null || !isCacheable(type, requestHeaders))) {
+            return null;
+        }
+
+        CookieManager cookieManager = CookieManager.getInstance();
+        String host = request.getUrl().getHost();
+        try {
+            for (int redirects = 0; ; redirects++) {
+                Map<String, String> headers = new HashMap<>(requestHeaders);
+                if (userAgent != null) {
+                    headers.put("User-Agent", userAgent);
+                }
+                boolean thirdParty = !mainFrame && NetworkFilter.isThirdParty(host, pageHost);
+                boolean acceptThirdParty = thirdParty && cookieManager.acceptThirdPartyCookies(this);
+                if (!thirdParty || acceptThirdParty) {
+                    String cookie = cookieManager.getCookie(url);
+                    if (cookie != null) {
+                        if (thirdParty) {
+                            return null;
+                        }
+                        headers.put("Cookie", cookie);
+                    }
+                }
+
+                HttpFetcher.Response response = filter
+                        ? responsePipeline.fetch(url, mainFrame, headers)
+                        : cache.get(url, headers);
+                if (response == null) {
+                    return null;
+                }
+                for (String setCookie : response.cookies) {
+                    if (!thirdParty || (acceptThirdParty && isCrossSiteCookie(setCookie))) {
+                        cookieManager.setCookie(url, setCookie);
+                    }
+                }
+                if (!response.isRedirection()) {
+                    return new WebResourceResponse(response.mimeType, response.charset,
+                            response.status, response.reason, response.headers, response.body);
+                }
+
+                String location = response.header("Location");
+                if (location == null || redirects == HttpFetcher.MAX_REDIRECTS) {
+                    return null;
+                }
+                String target = new URL(new URL(url), location).toString();
+                if (mainFrame) {
+                    return redirectPage(target);
+                }
+                if (!URLUtil.isNetworkUrl(target)) {
+                    return null;
+                }
+                host = Uri.parse(target).getHost();
+                if (adBlockEnabled && decide(target, host, false, requestHeaders) != DecisionCache.ALLOWED) {
+                    if (pageStateListener != null) {
+                        stateDispatcher.requestBlocked();
+                    }
+                    return BlockedResponses.forType(type);
+                }
+                url = target;
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
     }
 
     /**
-     * Checks if a URL matches common ad patterns
+     * Page that moves on to the target as a client redirect, which replaces
+     * its own history entry
      */
-    private boolean isAdRequest(String url) {
-        return url.contains("/ad/") ||
-                url.contains("/ads/") ||
-                url.contains("pop-under") ||
-                url.contains("popunder") ||
-                url.contains("click.php") ||
-                url.contains("track.php") ||
-                url.contains("banner.") ||
-                url.contains("analytics.") ||
-                url.contains("tracker.");
+    private static WebResourceResponse redirectPage(String target) {
+        StringBuilder script = new StringBuilder();
+        for (int i = 0; i < target.length(); i++) {
+            char c = target.charAt(i);
+            if (Character.isLetterOrDigit(c) && c < 128) {
+                script.append(c);
+            } else {
+                script.append(String.format(Locale.ROOT, "\\u%04x", (int) c));
+            }
+        }
+        String attribute = target.replace("&", "&amp;").replace("\"", "&quot;")
+                .replace("<", "&lt;").replace(">", "&gt;");
+        String html = "<!DOCTYPE html><meta http-equiv=\"refresh\" content=\"0;url=" + attribute + "\">"
+                + "<script>location.replace(\"" + script + "\")</script>";
+        Map<String, String> headers = new HashMap<>();
+        headers.put("Cache-Control", "no-store");
+        return new WebResourceResponse("text/html", "utf-8", 200, "OK", headers,
+                new ByteArrayInputStream(html.getBytes(StandardCharsets.UTF_8)));
     }
 
     /**
-     * Checks if a URL is potentially suspicious (popup/redirect)
+     * Check if a Set-Cookie value may be stored from a cross-site response,
+     * which takes "SameSite=None" and "Secure"
+     */
+    static boolean isCrossSiteCookie(String setCookie) {
+        boolean sameSiteNone = false;
+        boolean secure = false;
+        String[] parts = setCookie.split(";");
+        for (int i = 1; i < parts.length; i++) {
+            String attribute = parts[i].trim().toLowerCase(Locale.ROOT);
+            if (attribute.equals("secure")) {
+                secure = true;
+            } else if (attribute.startsWith("samesite")) {
+                sameSiteNone = attribute.replace(" ", "").equals("samesite=none");
+            }
+        }
+        return sameSiteNone && secure;
+    }
+
+    /**
+     * Static subresources go through the resource cache; media is left out
+     * because it is loaded in ranges, and so are credentialed requests
+     */
+    private static boolean isCacheable(ResourceType type, Map<String, String> headers) {
+        switch (type) {
+            case SCRIPT:
+            case STYLESHEET:
+            case IMAGE:
+            case FONT:
+                for (String name : headers.keySet()) {
+                    if (name.equalsIgnoreCase("Authorization") || name.equalsIgnoreCase("Range")) {
+                        return false;
+                    }
+                }
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Decides whether a request is blocked, answering from the decision cache when possible
+     *
+     * @return DecisionCache.ALLOWED or the DecisionCache.blockedBy code of the blocking source
+     */
+    private byte decide(String url, String host, boolean mainFrame, Map<String, String> requestHeaders) {
+        DomainMatcher blocklist = currentBlocklist();
+        UrlPatternMatcher patterns = adUrlPatterns;
+        DomainMatcher subscribed = filterEngine.getSubscribedDomains();
+        NetworkFilterIndex filters = filterEngine.getNetworkFilters();
+        int generation = decisionCache.generation(blocklist, subscribed, patterns, filters);
+
+        // Filter rules depend on the resource type and page, so they are part of the key;
+        // $document exceptions match the page's whole URL rather than its host
+        ResourceType type = null;
+        String key = url;
+        String page = pageHost;
+        String pageAddress = pageUrl;
+        if (!filters.isEmpty()) {
+            type = ResourceType.of(url, mainFrame, requestHeaders);
+            key = type.ordinal() + " " + (filters.hasDocumentExceptions() ? pageAddress : page) + " " + url;
+        }
+
+        byte decision = decisionCache.get(key, generation);
+        if (decision == DecisionCache.MISS) {
+            decision = BlockDecider.decide(url, host, type, pageAddress, page, blocklist, subscribed,
+                    patterns, filters);
+            decisionCache.put(key, generation, decision);
+        }
+        return decision;
+    }
+
+    /**
+     * Checks if a URL is potentially suspicious (popup/redirect), in one case-insensitive pass
      */
     private boolean isSuspiciousUrl(String url) {
-        return url.contains("popup") ||
-                url.contains("click.php") ||
-                url.contains("redirect") ||
-                url.contains("ad.") ||
-                url.contains("/pop/") ||
-                url.contains("track.php");
+        return suspiciousUrlPatterns.matches(url);
     }
 
     /**
@@ -286,29 +854,34 @@ public class DuneWebView extends WebView {
                 return;
             }
 
+            String fileName = URLUtil.guessFileName(url, contentDisposition, mimeType);
             if (useSystemDownloader) {
                 DownloadManager.Request request = new DownloadManager.Request(Uri.parse(url));
 
                 // Set request headers
                 request.setMimeType(mimeType);
-                String cookies = CookieManager.getInstance().getCookie(url);
-                request.addRequestHeader("cookie", cookies);
                 request.addRequestHeader("User-Agent", userAgent);
 
                 // Configure download
                 request.setDescription("Downloading file...");
-                request.setTitle(URLUtil.guessFileName(url, contentDisposition, mimeType));
+                request.setTitle(fileName);
                 request.allowScanningByMediaScanner();
                 request.setNotificationVisibility(
                         DownloadManager.Request.VISIBILITY_VISIBLE_NOTIFY_COMPLETED);
-                request.setDestinationInExternalPublicDir(Environment.DIRECTORY_DOWNLOADS,
-                        URLUtil.guessFileName(url, contentDisposition, mimeType));
+                request.setDestinationInExternalPublicDir(Environment.DIRECTORY_DOWNLOADS, fileName);
 
-                // Start download
+                // The cookie lookup and the enqueue both touch disk, so they run off the UI thread
                 DownloadManager dm = (DownloadManager) getContext()
                         .getSystemService(Context.DOWNLOAD_SERVICE);
-                dm.enqueue(request);
+                SYSTEM_DOWNLOAD_EXECUTOR.execute(() -> {
+                    request.addRequestHeader("cookie", CookieManager.getInstance().getCookie(url));
+                    dm.enqueue(request);
+                });
                 Toast.makeText(getContext(), "Downloading File", Toast.LENGTH_LONG).show();
+            } else {
+                Map<String, String> headers = new HashMap<>();
+                headers.put("User-Agent", userAgent);
+                SegmentedDownloader.getInstance(getContext()).enqueue(url, headers, fileName, downloadProgressListener);
             }
         });
     }
@@ -320,6 +893,7 @@ public class DuneWebView extends WebView {
      */
     public void setAdBlockEnabled(boolean enabled) {
         this.adBlockEnabled = enabled;
+        updateDocumentStartScripts();
     }
 
     /**
@@ -334,10 +908,12 @@ public class DuneWebView extends WebView {
      */
     public void setRedirectBlockEnabled(boolean enabled) {
         this.redirectBlockEnabled = enabled;
+        updateDocumentStartScripts();
     }
 
     /**
-     * Enable/disable system download manager
+     * Enable/disable system download manager. When disabled, downloads go
+     * to the built-in {@link SegmentedDownloader}.
      */
     public void setUseSystemDownloader(boolean enabled) {
         this.useSystemDownloader = enabled;
@@ -351,85 +927,488 @@ public class DuneWebView extends WebView {
     }
 
     /**
-     * Set progress change listener
+     * Set the listener for progress of downloads started by this view with the
+     * built-in downloader, i.e. after setUseSystemDownloader(false)
+     */
+    public void setDownloadProgressListener(SegmentedDownloader.OnDownloadListener listener) {
+        this.downloadProgressListener = listener;
+    }
+
+    /**
+     * Set progress change listener. Progress is reported at most once per
+     * display frame, and only when it changed.
      */
     public void setProgressListener(OnProgressChangedListener listener) {
         this.progressListener = listener;
     }
 
+    /**
+     * Set a listener for the page's progress, URL, title and blocked request
+     * count. Changes arriving between two frames are merged into one update on
+     * the next frame, so the listener can update views directly; values that
+     * did not change are not reported again.
+     */
+    public void setPageStateListener(OnPageStateListener listener) {
+        this.pageStateListener = listener;
+    }
+
+    /**
+     * Set a listener for the loss of this view's renderer process. With a
+     * listener the app keeps running and the listener must destroy the view
+     * (e.g. by recreating its tab, as {@link TabHibernator} does); without one
+     * the system kills the app, as for a plain WebView.
+     */
+    public void setRenderProcessGoneListener(OnRenderProcessGoneListener listener) {
+        this.renderProcessGoneListener = listener;
+    }
+
+    /**
+     * URL of the last main frame navigation, which remains readable after the
+     * renderer is gone
+     */
+    String getCommittedUrl() {
+        return committedUrl;
+    }
+
+    /**
+     * Scroll to the given position once the page with the URL finishes loading,
+     * e.g. after restoreState()
+     */
+    void restoreScrollPosition(String url, int x, int y) {
+        pendingScrollUrl = url;
+        pendingScrollX = x;
+        pendingScrollY = y;
+    }
+
+    /**
+     * Hands a frame's merged state to the listeners, on the main thread
+     */
+    private void dispatchPageState(PageState state) {
+        if (progressListener != null && state.hasChanged(PageState.PROGRESS)) {
+            progressListener.onProgressChanged(state.getProgress());
+        }
+        OnPageStateListener listener = pageStateListener;
+        if (listener != null) {
+            listener.onPageStateChanged(state);
+        }
+    }
+
     /**
      * Load ad block rules from a raw resource file
-     * Format: One domain per line
-     */
-    public void loadAdBlockListFromResource(boolean useDefaultHosts, @Nullable Integer resourceId) {
-        ExecutorService executor = Executors.newSingleThreadExecutor();
-        executor.execute(() -> {
-            try {
-            /*
-             prrocessing to be exact 536975 lines from buffer.
-             running in a background thread to prevent Ui blocking.
-            */
-
-                InputStream fis = (useDefaultHosts || resourceId == null)
-                        ? getContext().getResources().openRawResource(R.raw.adblockserverlist)
-                        : getContext().getResources().openRawResource(resourceId);
-
-                try (BufferedReader br = new BufferedReader(new InputStreamReader(fis))) {
-                    Set<String> tempSet = new HashSet<>();
-
-
-                    br.lines()
-                            .map(String::trim)
-                            .filter(line -> !line.isEmpty())
-                            .map(String::toLowerCase)
-                            .forEach(tempSet::add);
-
-                    // sync
-                    synchronized (adBlockList) {
-                        adBlockList.addAll(tempSet);
-                    }
-                }
-            } catch (IOException e) {
-                e.printStackTrace();
-            } finally {
-                executor.shutdown(); //cls
-            }
-        });
+     * Format: compiled blocklist (see CompactBlocklist) or one domain per line.
+     * The list is loaded once into the shared DuneFilterEngine and used by every
+     * DuneWebView, together with the other lists loaded there; custom domains
+     * of this view are kept on top of them.
+     *
+     * @return future completing with the load statistics once the list is in use
+     */
+    public Future<BlocklistLoadStats> loadAdBlockListFromResource(boolean useDefaultHosts,
+                                                                  @Nullable Integer resourceId) {
+        return loadAdBlockListFromResource(useDefaultHosts, resourceId, null);
+    }
+
+    /**
+     * Load ad block rules from a raw resource file, notifying the listener on the
+     * main thread once the list is in use
+     */
+    public Future<BlocklistLoadStats> loadAdBlockListFromResource(
+            boolean useDefaultHosts, @Nullable Integer resourceId,
+            @Nullable DuneFilterEngine.OnBlocklistLoadedListener listener) {
+        useSharedBlocklist = true;
+        return filterEngine.loadBlocklist(useDefaultHosts, resourceId, listener);
+    }
+
+    /**
+     * Load an EasyList / Adblock Plus filter list from a raw resource.
+     * Its network and element hiding rules are added to the shared DuneFilterEngine
+     * and apply to every DuneWebView.
+     *
+     * @return future completing with the load statistics once the rules are in use
+     */
+    public Future<BlocklistLoadStats> loadFilterListFromResource(
+            int resourceId, @Nullable DuneFilterEngine.OnBlocklistLoadedListener listener) {
+        return filterEngine.loadFilterList(resourceId, listener);
+    }
+
+    /**
+     * Add filter rules such as "||ads.example.com^$third-party",
+     * "@@||example.com/ads.js$script" or "example.com##.ad-banner".
+     * They apply to every DuneWebView.
+     */
+    public void addFilterRules(Collection<String> rules) {
+        filterEngine.addFilterRules(rules);
+    }
+
+    /**
+     * Add a filter rewriting response bodies, e.g.
+     * {@link HeadInjectionFilter} or {@link InlineScriptFilter}. While any
+     * filter is registered, allowed main-frame documents and scripts are
+     * fetched by the library and streamed through the filters; redirects and
+     * network errors are left to the WebView.
+     */
+    public void addResponseFilter(ResponseFilter filter) {
+        responsePipeline.addFilter(filter);
+    }
+
+    /**
+     * Remove a filter added with {@link #addResponseFilter(ResponseFilter)}
+     */
+    public void removeResponseFilter(ResponseFilter filter) {
+        responsePipeline.removeFilter(filter);
+    }
+
+    /**
+     * Remove every response filter; the WebView loads all responses itself again
+     */
+    public void clearResponseFilters() {
+        responsePipeline.clearFilters();
+    }
+
+    /**
+     * Serve images, scripts, stylesheets and fonts from the app's
+     * {@link ResourceCache} instead of the WebView's own cache. Off by default.
+     * Response filters take precedence for scripts while any are registered.
+     */
+    public void setResourceCacheEnabled(boolean enabled) {
+        resourceCache = enabled ? ResourceCache.getInstance(getContext()) : null;
+    }
+
+    /**
+     * Record every page this view navigates to in the app's {@link HistoryStore},
+     * for address bar suggestions. Off by default; recording only queues the
+     * visit, it is written in the background.
+     */
+    public void setHistoryEnabled(boolean enabled) {
+        historyStore = enabled ? HistoryStore.getInstance(getContext()) : null;
+    }
+
+    /**
+     * Shared browsing history, to ask for suggestions or forget pages
+     */
+    public HistoryStore getHistoryStore() {
+        return HistoryStore.getInstance(getContext());
+    }
+
+    /**
+     * Shared resource cache, to prefetch URLs, change its size budget or read
+     * its hit and miss counts
+     */
+    public ResourceCache getResourceCache() {
+        return ResourceCache.getInstance(getContext());
+    }
+
+    /**
+     * Enable or disable ad blocking statistics. Enabling starts from zero;
+     * counting is lock-free and adds two clock reads per request.
+     */
+    public void setBlockStatsEnabled(boolean enabled) {
+        if (enabled != (blockStats != null)) {
+            blockStats = enabled ? new BlockStatsRecorder() : null;
+        }
+    }
+
+    /**
+     * Set a listener receiving the statistics each time a page finishes loading
+     */
+    public void setBlockStatsListener(OnBlockStatsListener listener) {
+        this.blockStatsListener = listener;
+    }
+
+    /**
+     * Enable or disable page load telemetry: Navigation Timing, resource totals
+     * and Web Vitals (FCP, LCP, CLS, INP) collected by a script in each page,
+     * sent back in one call when the page is hidden and combined with the
+     * onPageStarted / onPageFinished times. Off by default; applies from the
+     * next page load.
+     */
+    public void setPageLoadTelemetryEnabled(boolean enabled) {
+        if (enabled == (pageTelemetry != null)) {
+            return;
+        }
+        if (enabled) {
+            pageTelemetry = new PageTelemetry();
+            addJavascriptInterface(new TelemetryBridge(), "DuneTelemetry");
+        } else {
+            pageTelemetry = null;
+            removeJavascriptInterface("DuneTelemetry");
+        }
+        updateDocumentStartScripts();
     }
 
+    /**
+     * Set a listener receiving each page's load metrics, on the main thread
+     */
+    public void setPageLoadMetricsListener(OnPageLoadMetricsListener listener) {
+        this.pageLoadMetricsListener = listener;
+    }
 
     /**
-     * Add a domain to the block list
+     * Current ad blocking statistics, null while stats are disabled
+     */
+    @Nullable
+    public BlockStats getBlockStats() {
+        BlockStatsRecorder stats = blockStats;
+        if (stats == null) {
+            return null;
+        }
+        return stats.snapshot(filterEngine.getLastBlocklistLoadStats(),
+                currentBlocklist().compiled().byteSize(),
+                filterEngine.getFilterRuleCount(), decisionCache.hitRate());
+    }
+
+    /**
+     * Fraction of intercepted requests answered from the decision cache
+     */
+    public double getDecisionCacheHitRate() {
+        return decisionCache.hitRate();
+    }
+
+    /**
+     * Check if the blocklist used by this view has finished loading
+     */
+    public boolean isBlocklistReady() {
+        return !useSharedBlocklist || filterEngine.isBlocklistReady();
+    }
+
+    /**
+     * Set how long the overlay blocker may spend checking new elements in one
+     * frame or idle period; remaining elements wait for the next one
+     */
+    public void setOverlayScanBudget(long millis) {
+        this.overlayScanBudgetMillis = millis;
+        updateDocumentStartScripts();
+    }
+
+    /**
+     * Overlay blocker preceded by the configured per-frame budget
+     */
+    private String overlayBlockerScript() {
+        return "window.__duneOverlayBudget = " + overlayScanBudgetMillis + ";" + BLOCK_OVERLAY_JS;
+    }
+
+    /**
+     * Set how requests are handled while the blocklist is still loading
+     *
+     * @param maxWaitMillis longest time a request is held with {@link PendingRequestPolicy#WAIT}
+     */
+    public void setPendingRequestPolicy(PendingRequestPolicy policy, long maxWaitMillis) {
+        this.pendingRequestPolicy = policy;
+        this.pendingRequestWaitMillis = maxWaitMillis;
+    }
+
+
+    /**
+     * Add a domain to the block list. Its subdomains are blocked as well.
      */
     public void addCustomBlockedDomain(String domain) {
-        adBlockList.add(domain.toLowerCase());
+        String key = domain.toLowerCase();
+        currentBlocklist(); // rebase onto the latest shared list first
+        adBlockList.updateAndGet(current -> current.withAdded(key));
     }
 
     /**
      * Remove a domain from the block list
      */
     public void removeBlockedDomain(String domain) {
-        adBlockList.remove(domain.toLowerCase());
+        String key = domain.toLowerCase();
+        currentBlocklist(); // rebase onto the latest shared list first
+        adBlockList.updateAndGet(current -> current.withRemoved(key));
+    }
+
+    /**
+     * Add and remove many domains as one change: the whole batch becomes
+     * visible to requests at once, in a single new blocklist snapshot, instead
+     * of one snapshot per domain. Entries are trimmed and lowercased, repeats
+     * are skipped, and a domain in both lists ends up removed. Each source is
+     * read once, so a Java stream can be passed as {@code stream::iterator}.
+     *
+     * @param additions domains to block, with their subdomains; may be null
+     * @param removals  domains to unblock; may be null
+     */
+    public BlocklistUpdateStats updateBlocklist(@Nullable Iterable<String> additions,
+                                                @Nullable Iterable<String> removals) {
+        long start = System.nanoTime();
+        DomainMatcher.Changes changes = DomainMatcher.Changes.of(additions, removals);
+        currentBlocklist(); // rebase onto the latest shared list first
+        DomainMatcher updated = adBlockList.updateAndGet(current -> current.withChanges(changes));
+        return new BlocklistUpdateStats(changes.added.size(), changes.removed.size(),
+                changes.duplicates, updated.size(), System.nanoTime() - start);
+    }
+
+    /**
+     * Add many domains to the block list in one change, see {@link #updateBlocklist(Iterable, Iterable)}
+     */
+    public BlocklistUpdateStats addCustomBlockedDomains(Iterable<String> domains) {
+        return updateBlocklist(domains, null);
     }
 
     /**
-     * Clear all domains from the block list
+     * Remove many domains from the block list in one change, see {@link #updateBlocklist(Iterable, Iterable)}
+     */
+    public BlocklistUpdateStats removeBlockedDomains(Iterable<String> domains) {
+        return updateBlocklist(null, domains);
+    }
+
+    /**
+     * Drop this view's custom additions and removals. Loaded lists stay in use.
      */
     public void clearBlocklist() {
-        adBlockList.clear();
+        adBlockList.updateAndGet(DomainMatcher::withoutChanges);
     }
 
     /**
      * Get the current size of the block list
      */
     public int getBlocklistSize() {
-        return adBlockList.size();
+        return currentBlocklist().size();
     }
 
     /**
-     * Check if a domain is currently blocked
+     * Check if a domain, or any of its parent domains, is currently blocked
      */
     public boolean isBlockedDomain(String domain) {
-        return adBlockList.contains(domain.toLowerCase());
+        return currentBlocklist().matches(domain);
+    }
+
+    /**
+     * Applies the pending request policy while the blocklist loads.
+     * Returns false if the request should pass without ad blocking.
+     */
+    private boolean awaitPendingBlocklist() {
+        if (isBlocklistReady()) {
+            return true;
+        }
+        switch (pendingRequestPolicy) {
+            case ALLOW:
+                return false;
+            case WAIT:
+                filterEngine.awaitBlocklist(pendingRequestWaitMillis, TimeUnit.MILLISECONDS);
+                return true;
+            default:
+                return true;
+        }
+    }
+
+    /**
+     * This view's blocklist snapshot, rebased first if the shared list has changed
+     */
+    private DomainMatcher currentBlocklist() {
+        DomainMatcher matcher = adBlockList.get();
+        CompactBlocklist shared = useSharedBlocklist
+                ? filterEngine.getSharedBlocklist()
+                : CompactBlocklist.EMPTY;
+        if (matcher.compiled() != shared) {
+            matcher = adBlockList.updateAndGet(current ->
+                    current.compiled() == shared ? current : current.withCompiled(shared));
+        }
+        return matcher;
+    }
+
+    /**
+     * Block requests whose URL contains the given text (case-insensitive),
+     * in addition to the default ad patterns
+     */
+    public synchronized void addAdUrlPattern(String pattern) {
+        adUrlPatterns = adUrlPatterns.with(pattern);
+    }
+
+    /**
+     * Stop blocking requests by a previously registered or default ad pattern
+     */
+    public synchronized void removeAdUrlPattern(String pattern) {
+        adUrlPatterns = adUrlPatterns.without(pattern);
+    }
+
+    /**
+     * Treat navigations whose URL contains the given text (case-insensitive)
+     * as popups/redirects, in addition to the default patterns
+     */
+    public synchronized void addSuspiciousUrlPattern(String pattern) {
+        suspiciousUrlPatterns = suspiciousUrlPatterns.with(pattern);
+    }
+
+    /**
+     * Stop treating navigations matching a registered or default pattern as suspicious
+     */
+    public synchronized void removeSuspiciousUrlPattern(String pattern) {
+        suspiciousUrlPatterns = suspiciousUrlPatterns.without(pattern);
+    }
+
+    @Override
+    public void addJavascriptInterface(Object object, String name) {
+        super.addJavascriptInterface(object, name);
+        if (!INTERNAL_JAVASCRIPT_INTERFACES.contains(name)) {
+            appJavascriptInterfaces.add(name);
+        }
+    }
+
+    @Override
+    public void removeJavascriptInterface(String name) {
+        super.removeJavascriptInterface(name);
+        appJavascriptInterfaces.remove(name);
+    }
+
+    @Override
+    public WebBackForwardList restoreState(Bundle inState) {
+        // The restored list replaces the previous owner's, which must not clear it
+        clearHistoryOnCommit = false;
+        return super.restoreState(inState);
+    }
+
+    /**
+     * Returns a pooled view to the state of a newly built one: the previous
+     * page and its back/forward list, listeners, JavaScript interfaces, the
+     * WebViewClient, WebChromeClient and download listener, the library's
+     * features and the WebSettings the library configures (including the
+     * user agent). Other WebSettings the app changed are kept.
+     * The shared blocklist and filter rules stay loaded.
+     */
+    void resetForReuse() {
+        stopLoading();
+        loadUrl("about:blank");
+        // clearHistory() now would run before about:blank commits and keep the
+        // previous page; it runs on the next commit instead
+        clearHistoryOnCommit = true;
+        for (String name : appJavascriptInterfaces.toArray(new String[0])) {
+            removeJavascriptInterface(name);
+        }
+        getSettings().setUserAgentString(null);
+        setupWebView();
+        setupWebViewClient();
+        setupDownloadListener();
+
+        progressListener = null;
+        pageStateListener = null;
+        stateDispatcher.reset();
+        blockStatsListener = null;
+        pageLoadMetricsListener = null;
+        setPageLoadTelemetryEnabled(false);
+        customDownloadListener = null;
+        downloadProgressListener = null;
+        renderProcessGoneListener = null;
+        committedUrl = null;
+        pendingScrollUrl = null;
+        popupBlockEnabled = true;
+        useSystemDownloader = true;
+        adBlockEnabled = true;
+        redirectBlockEnabled = true;
+        overlayScanBudgetMillis = DEFAULT_OVERLAY_SCAN_BUDGET_MILLIS;
+        updateDocumentStartScripts();
+
+        pendingRequestPolicy = PendingRequestPolicy.PATTERNS_ONLY;
+        pendingRequestWaitMillis = 0;
+        useSharedBlocklist = false;
+        adBlockList.set(DomainMatcher.EMPTY);
+        pageHost = null;
+        pageUrl = null;
+        synchronized (this) {
+            adUrlPatterns = UrlPatternMatcher.compile(Arrays.asList(BlockDecider.DEFAULT_AD_URL_PATTERNS));
+            suspiciousUrlPatterns = UrlPatternMatcher.compile(
+                    Arrays.asList(BlockDecider.DEFAULT_SUSPICIOUS_URL_PATTERNS));
+        }
+        blockStats = null;
+        responsePipeline.clearFilters();
+        resourceCache = null;
+        historyStore = null;
     }
-}
\ No newline at end of file
+}
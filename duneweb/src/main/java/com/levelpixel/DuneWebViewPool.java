@@ -0,0 +1,183 @@
+package com.levelpixel;
+
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.MutableContextWrapper;
+import android.content.res.Configuration;
+import android.os.Looper;
+import android.os.MessageQueue;
+import android.view.ViewGroup;
+import android.view.ViewParent;
+
+import java.util.ArrayDeque;
+
+/**
+ * Pool of ready-to-use DuneWebViews, so opening a tab does not pay for
+ * building and configuring a WebView (and, for the first one, starting
+ * Chromium) on the UI thread.
+ *
+ * Views are built while the main thread is idle, one per idle pass, on a
+ * MutableContextWrapper around the application context; {@link #acquire(Context)}
+ * points that wrapper at the caller's Activity. Released views are reset to
+ * their initial state and kept for the next tab. Idle views are destroyed
+ * when the system reports memory pressure.
+ *
+ * All methods must be called on the main thread.
+ */
+public final class DuneWebViewPool {
+    public static final int DEFAULT_MAX_SIZE = 2;
+
+    private static DuneWebViewPool instance;
+
+    private final Context appContext;
+    // Ready views, most recently released last
+    private final ArrayDeque<DuneWebView> idle = new ArrayDeque<>();
+    private int maxSize = DEFAULT_MAX_SIZE;
+    // Number of idle views prewarming keeps available
+    private int prewarmCount;
+    private boolean prewarmScheduled;
+
+    // Drops an idle view whose renderer is gone instead of letting the app be killed
+    private final DuneWebView.OnRenderProcessGoneListener idleRendererGone = (view, crashed) -> {
+        idle.remove(view);
+        view.destroy();
+    };
+
+    private final MessageQueue.IdleHandler prewarmer = () -> {
+        if (idle.size() < prewarmCount) {
+            idle.addLast(create());
+        }
+        prewarmScheduled = idle.size() < prewarmCount;
+        return prewarmScheduled;
+    };
+
+    private DuneWebViewPool(Context context) {
+        this.appContext = context.getApplicationContext() != null
+                ? context.getApplicationContext()
+                : context;
+        appContext.registerComponentCallbacks(new ComponentCallbacks2() {
+            @Override
+            public void onTrimMemory(int level) {
+                if (level >= TRIM_MEMORY_RUNNING_LOW) {
+                    trimTo(0);
+                } else if (level >= TRIM_MEMORY_RUNNING_MODERATE) {
+                    trimTo(1);
+                }
+            }
+
+            @Override
+            public void onLowMemory() {
+                trimTo(0);
+            }
+
+            @Override
+            public void onConfigurationChanged(Configuration newConfig) {
+            }
+        });
+    }
+
+    /**
+     * Application-scoped pool instance
+     */
+    public static DuneWebViewPool getInstance(Context context) {
+        if (instance == null) {
+            instance = new DuneWebViewPool(context);
+        }
+        return instance;
+    }
+
+    /**
+     * Build views while the main thread is idle until the given number are
+     * ready (at most the pool's maximum size), and keep that many ready as
+     * views are acquired. Call it early, e.g. from a splash screen.
+     */
+    public void prewarm(int count) {
+        prewarmCount = Math.min(count, maxSize);
+        schedulePrewarm();
+    }
+
+    /**
+     * A configured view for the given Activity, from the pool if one is ready.
+     * Hand it back with {@link #release(DuneWebView)} instead of destroying it.
+     */
+    public DuneWebView acquire(Context context) {
+        DuneWebView view = idle.pollLast();
+        if (view == null) {
+            view = create();
+        } else {
+            view.onResume();
+        }
+        view.setRenderProcessGoneListener(null);
+        ((MutableContextWrapper) view.getContext()).setBaseContext(context);
+        schedulePrewarm();
+        return view;
+    }
+
+    /**
+     * Take a view back: it is detached, reset and kept for reuse, or
+     * destroyed if the pool is full or the view was not built by the pool
+     */
+    public void release(DuneWebView view) {
+        ViewParent parent = view.getParent();
+        if (parent instanceof ViewGroup) {
+            ((ViewGroup) parent).removeView(view);
+        }
+        if (!(view.getContext() instanceof MutableContextWrapper) || idle.size() >= maxSize) {
+            view.destroy();
+            return;
+        }
+        view.resetForReuse();
+        // Drop the Activity so a pooled view cannot leak it
+        ((MutableContextWrapper) view.getContext()).setBaseContext(appContext);
+        view.onPause();
+        view.setRenderProcessGoneListener(idleRendererGone);
+        idle.addLast(view);
+    }
+
+    /**
+     * Set how many idle views the pool keeps, destroying any above it
+     */
+    public void setMaxSize(int size) {
+        maxSize = Math.max(0, size);
+        prewarmCount = Math.min(prewarmCount, maxSize);
+        trimTo(maxSize);
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Number of views ready to be acquired
+     */
+    public int getIdleCount() {
+        return idle.size();
+    }
+
+    /**
+     * Destroy every idle view
+     */
+    public void clear() {
+        trimTo(0);
+    }
+
+    private void trimTo(int size) {
+        // The views released longest ago go first
+        while (idle.size() > size) {
+            idle.pollFirst().destroy();
+        }
+    }
+
+    private void schedulePrewarm() {
+        if (!prewarmScheduled && idle.size() < prewarmCount) {
+            prewarmScheduled = true;
+            Looper.getMainLooper().getQueue().addIdleHandler(prewarmer);
+        }
+    }
+
+    private DuneWebView create() {
+        DuneWebView view = new DuneWebView(new MutableContextWrapper(appContext));
+        view.setRenderProcessGoneListener(idleRendererGone);
+        return view;
+    }
+}
@@ -0,0 +1,156 @@
+package com.levelpixel;
+
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Inserts markup at the start of an HTML document's head, right after the
+ * head start tag. Documents that omit the tag get the markup before the first
+ * tag that belongs to the head or body instead. Once inserted, the rest of the
+ * document streams through untouched.
+ *
+ * Markup is written as UTF-8; keep it ASCII to be safe in every page charset.
+ * Pages with a Content-Security-Policy that forbids inline scripts will not
+ * run an injected script tag.
+ */
+public final class HeadInjectionFilter implements ResponseFilter {
+    // Longest tag name worth recognizing; longer names are plain markup
+    private static final int MAX_TAG_NAME = 8;
+
+    // Tags that can only come after the point where the head starts
+    private static final String[] HEAD_OR_BODY_TAGS = {
+            "base", "body", "link", "meta", "script", "style", "title"
+    };
+
+    private final byte[] markup;
+
+    public HeadInjectionFilter(String markup) {
+        this.markup = markup.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Filter inserting a script element with the given code
+     */
+    public static HeadInjectionFilter script(String javaScript) {
+        return new HeadInjectionFilter("<script>" + javaScript + "</script>");
+    }
+
+    @Override
+    public boolean appliesTo(String url, boolean mainFrame, String mimeType) {
+        return "text/html".equals(mimeType);
+    }
+
+    @Override
+    public InputStream filter(InputStream body) {
+        return new Injecting(body, markup);
+    }
+
+    private static final class Injecting extends RewritingInputStream {
+        private static final int TEXT = 0;
+        private static final int TAG_NAME = 1;
+        private static final int HEAD_TAG = 2;
+        private static final int DONE = 3;
+
+        private final byte[] markup;
+        private int state = TEXT;
+        // "<" and the tag name read so far, possibly split across chunks
+        private final byte[] tag = new byte[MAX_TAG_NAME + 1];
+        private int tagLength;
+
+        Injecting(InputStream source, byte[] markup) {
+            super(source);
+            this.markup = markup;
+        }
+
+        @Override
+        protected void process(byte[] data, int offset, int length) {
+            int end = offset + length;
+            int i = offset;
+            while (i < end) {
+                switch (state) {
+                    case TEXT: {
+                        int lt = indexOf(data, i, end, (byte) '<');
+                        emit(data, i, (lt < 0 ? end : lt) - i);
+                        if (lt < 0) {
+                            return;
+                        }
+                        tag[0] = '<';
+                        tagLength = 1;
+                        state = TAG_NAME;
+                        i = lt + 1;
+                        break;
+                    }
+                    case TAG_NAME: {
+                        byte b = data[i];
+                        if (isTagNameByte(b) && tagLength < tag.length) {
+                            tag[tagLength++] = b;
+                            i++;
+                            break;
+                        }
+                        if (tagNameIs("head")) {
+                            emit(tag, 0, tagLength);
+                            state = HEAD_TAG;
+                        } else if (isHeadOrBodyTag()) {
+                            emit(markup, 0, markup.length);
+                            emit(tag, 0, tagLength);
+                            state = DONE;
+                        } else {
+                            emit(tag, 0, tagLength);
+                            state = TEXT;
+                        }
+                        tagLength = 0;
+                        // The byte ending the name is processed in the new state
+                        break;
+                    }
+                    case HEAD_TAG: {
+                        int gt = indexOf(data, i, end, (byte) '>');
+                        if (gt < 0) {
+                            emit(data, i, end - i);
+                            return;
+                        }
+                        emit(data, i, gt + 1 - i);
+                        emit(markup, 0, markup.length);
+                        state = DONE;
+                        i = gt + 1;
+                        break;
+                    }
+                    default:
+                        emit(data, i, end - i);
+                        return;
+                }
+            }
+        }
+
+        @Override
+        protected void finish() {
+            emit(tag, 0, tagLength);
+            tagLength = 0;
+        }
+
+        @Override
+        protected boolean isPassThrough() {
+            return state == DONE;
+        }
+
+        private boolean tagNameIs(String name) {
+            if (tagLength - 1 != name.length()) {
+                return false;
+            }
+            for (int i = 0; i < name.length(); i++) {
+                if (lowerAscii(tag[i + 1]) != name.charAt(i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private boolean isHeadOrBodyTag() {
+            for (String name : HEAD_OR_BODY_TAGS) {
+                if (tagNameIs(name)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
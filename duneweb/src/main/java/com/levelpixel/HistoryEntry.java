@@ -0,0 +1,171 @@
+package com.levelpixel;
+
+import androidx.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * One page in the browsing history, as returned by {@link HistoryStore#suggest(String, int)}
+ */
+public final class HistoryEntry {
+    // Title words indexed per entry; the rest of a long title is not searchable
+    private static final int MAX_TITLE_TOKENS = 16;
+
+    private final String url;
+    private final String title;
+    private final int visitCount;
+    private final long lastVisitMillis;
+
+    // URL without scheme and "www.", lowercased; what typed text is completed against
+    final String key;
+    // Length of the host part of key
+    final int hostLength;
+    // key, then the host's shorter domain suffixes, then title words
+    final String[] tokens;
+    // Number of leading tokens taken from the URL rather than the title
+    final int urlTokenCount;
+
+    HistoryEntry(String url, String title, int visitCount, long lastVisitMillis) {
+        this.url = url;
+        this.title = title != null ? title : "";
+        this.visitCount = visitCount;
+        this.lastVisitMillis = lastVisitMillis;
+        this.key = keyOf(url);
+        int end = 0;
+        while (end < key.length() && key.charAt(end) != '/' && key.charAt(end) != '?' && key.charAt(end) != '#') {
+            end++;
+        }
+        this.hostLength = end;
+
+        List<String> list = new ArrayList<>();
+        list.add(key);
+        // "news.example.com" is also found by "example"
+        for (int dot = key.indexOf('.'); dot >= 0 && dot < hostLength; dot = key.indexOf('.', dot + 1)) {
+            String suffix = key.substring(dot + 1, hostLength);
+            if (suffix.indexOf('.') > 0) {
+                list.add(suffix);
+            }
+        }
+        int urlTokens = list.size();
+        addWords(this.title, list);
+        this.tokens = list.toArray(new String[0]);
+        this.urlTokenCount = urlTokens;
+    }
+
+    private HistoryEntry(HistoryEntry entry, String title, int visitCount, long lastVisitMillis) {
+        this.url = entry.url;
+        this.title = title;
+        this.visitCount = visitCount;
+        this.lastVisitMillis = lastVisitMillis;
+        this.key = entry.key;
+        this.hostLength = entry.hostLength;
+        if (title.equals(entry.title)) {
+            this.tokens = entry.tokens;
+        } else {
+            List<String> list = new ArrayList<>();
+            for (int i = 0; i < entry.urlTokenCount; i++) {
+                list.add(entry.tokens[i]);
+            }
+            addWords(title, list);
+            this.tokens = list.toArray(new String[0]);
+        }
+        this.urlTokenCount = entry.urlTokenCount;
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    /**
+     * Page title, or an empty string if the page had none
+     */
+    public String getTitle() {
+        return title;
+    }
+
+    public int getVisitCount() {
+        return visitCount;
+    }
+
+    public long getLastVisitMillis() {
+        return lastVisitMillis;
+    }
+
+    /**
+     * Same entry with one more visit at the given time, and the new title if not null
+     */
+    HistoryEntry visited(String newTitle, long time) {
+        return new HistoryEntry(this, newTitle != null && !newTitle.isEmpty() ? newTitle : title,
+                visitCount + 1, Math.max(lastVisitMillis, time));
+    }
+
+    HistoryEntry withTitle(String newTitle) {
+        return new HistoryEntry(this, newTitle, visitCount, lastVisitMillis);
+    }
+
+    /**
+     * Check if a token of the entry starts with the prefix
+     *
+     * @return 2 for a URL token, 1 for a title word, 0 for no match
+     */
+    int match(String prefix) {
+        for (int i = 0; i < tokens.length; i++) {
+            if (tokens[i].startsWith(prefix)) {
+                return i < urlTokenCount ? 2 : 1;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Lowercased URL without "http://", "https://" or "www."
+     */
+    static String keyOf(String url) {
+        return stripPrefixes(url.toLowerCase(Locale.ROOT));
+    }
+
+    /**
+     * Removes a leading scheme and "www." from lowercased text
+     */
+    static String stripPrefixes(String text) {
+        String stripped = text;
+        if (stripped.startsWith("https://")) {
+            stripped = stripped.substring(8);
+        } else if (stripped.startsWith("http://")) {
+            stripped = stripped.substring(7);
+        }
+        if (stripped.startsWith("www.")) {
+            stripped = stripped.substring(4);
+        }
+        return stripped;
+    }
+
+    /**
+     * Appends the lowercased words of the text, letters and digits only
+     */
+    static void addWords(String text, List<String> out) {
+        int added = 0;
+        int start = -1;
+        for (int i = 0; i <= text.length() && added < MAX_TITLE_TOKENS; i++) {
+            boolean wordChar = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+            if (wordChar && start < 0) {
+                start = i;
+            } else if (!wordChar && start >= 0) {
+                out.add(text.substring(start, i).toLowerCase(Locale.ROOT));
+                added++;
+                start = -1;
+            }
+        }
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return "HistoryEntry{url=" + url
+                + ", title=" + title
+                + ", visitCount=" + visitCount
+                + ", lastVisitMillis=" + lastVisitMillis + "}";
+    }
+}
@@ -0,0 +1,292 @@
+package com.levelpixel;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable prefix index over history entries, answering ranked suggestions.
+ *
+ * Every token of every entry (URL, shorter host suffixes, title words) is
+ * kept once in a sorted array, with the positions of the entries holding it
+ * in a shared postings array, each posting marked as a URL or a title match.
+ * Entries are ordered by frecency when the index is built, so posting lists
+ * are best-first. A prefix selects a contiguous run of tokens by binary
+ * search. If the rarest word has a short run, its entries are checked
+ * directly; otherwise the runs of all words (one or two typed letters, or
+ * common words) are intersected as bit sets and the matches walked
+ * best-first, URL and title matches apart, until no remaining one can make
+ * the top results.
+ */
+final class HistoryIndex {
+    static final HistoryIndex EMPTY = build(Collections.<HistoryEntry>emptyList(), 0);
+
+    private static final long DAY_MILLIS = 24L * 60 * 60 * 1000;
+    // Words with more postings than this are intersected as bit sets instead
+    private static final int MAX_RANKED_POSTINGS = 2048;
+    // A match in the URL counts this many times a match in the title
+    private static final int URL_MATCH_WEIGHT = 2;
+
+    // Best first, by frecency when built
+    private final HistoryEntry[] entries;
+    // Frecency of each entry when built; only decays, so it bounds later scores
+    private final long[] scores;
+    // Sorted, unique
+    private final String[] tokens;
+    // Postings of tokens[i] are postings[starts[i]] to postings[starts[i + 1]]
+    private final int[] starts;
+    // Entry position shifted left by one, the low bit set for a URL token
+    private final int[] postings;
+
+    private HistoryIndex(HistoryEntry[] entries, long[] scores, String[] tokens, int[] starts, int[] postings) {
+        this.entries = entries;
+        this.scores = scores;
+        this.tokens = tokens;
+        this.starts = starts;
+        this.postings = postings;
+    }
+
+    static HistoryIndex build(Collection<HistoryEntry> all, long now) {
+        HistoryEntry[] entries = all.toArray(new HistoryEntry[0]);
+        Arrays.sort(entries, (a, b) -> Long.compare(frecency(b, now), frecency(a, now)));
+        long[] scores = new long[entries.length];
+
+        Map<String, IntList> byToken = new HashMap<>();
+        int postingCount = 0;
+        for (int i = 0; i < entries.length; i++) {
+            scores[i] = frecency(entries[i], now);
+            String[] entryTokens = entries[i].tokens;
+            for (int t = 0; t < entryTokens.length; t++) {
+                IntList list = byToken.get(entryTokens[t]);
+                if (list == null) {
+                    list = new IntList();
+                    byToken.put(entryTokens[t], list);
+                }
+                // A title may repeat a word, or a URL token; URL tokens come first and win
+                if (list.size == 0 || list.values[list.size - 1] >>> 1 != i) {
+                    list.add(i << 1 | (t < entries[i].urlTokenCount ? 1 : 0));
+                    postingCount++;
+                }
+            }
+        }
+
+        String[] tokens = byToken.keySet().toArray(new String[0]);
+        Arrays.sort(tokens);
+        int[] starts = new int[tokens.length + 1];
+        int[] postings = new int[postingCount];
+        int offset = 0;
+        for (int t = 0; t < tokens.length; t++) {
+            starts[t] = offset;
+            IntList list = byToken.get(tokens[t]);
+            System.arraycopy(list.values, 0, postings, offset, list.size);
+            offset += list.size;
+        }
+        starts[tokens.length] = offset;
+        return new HistoryIndex(entries, scores, tokens, starts, postings);
+    }
+
+    int size() {
+        return entries.length;
+    }
+
+    /**
+     * Weighted visit count: visits in the last four days count ten times
+     * as much as visits more than three months ago
+     */
+    static long frecency(HistoryEntry entry, long now) {
+        long age = now - entry.getLastVisitMillis();
+        int weight = age <= 4 * DAY_MILLIS ? 100
+                : age <= 14 * DAY_MILLIS ? 70
+                : age <= 31 * DAY_MILLIS ? 50
+                : age <= 90 * DAY_MILLIS ? 30
+                : 10;
+        return (long) weight * entry.getVisitCount();
+    }
+
+    /**
+     * Best entries matching every word, counting the newer versions in
+     * changed instead of the indexed ones
+     *
+     * @param words lowercased; an entry matches a word if one of its tokens starts with it
+     * @param changed entries added or updated since the index was built, by URL
+     */
+    List<HistoryEntry> search(String[] words, Map<String, HistoryEntry> changed, int limit, long now) {
+        TopEntries top = new TopEntries(limit);
+        if (words.length == 0 || limit <= 0) {
+            return top.toList();
+        }
+        for (HistoryEntry entry : changed.values()) {
+            // Removed pages are left in changed without visits
+            if (entry.getVisitCount() > 0) {
+                offer(top, entry, words, now);
+            }
+        }
+
+        int[] from = new int[words.length];
+        int[] to = new int[words.length];
+        int rarest = 0;
+        for (int w = 0; w < words.length; w++) {
+            from[w] = lowerBound(words[w]);
+            to[w] = lowerBound(words[w] + Character.MAX_VALUE);
+            if (starts[to[w]] - starts[from[w]] < starts[to[rarest]] - starts[from[rarest]]) {
+                rarest = w;
+            }
+        }
+        int rarestCount = starts[to[rarest]] - starts[from[rarest]];
+        if (rarestCount == 0) {
+            return top.toList();
+        }
+        if (rarestCount <= MAX_RANKED_POSTINGS) {
+            for (int p = starts[from[rarest]]; p < starts[to[rarest]]; p++) {
+                HistoryEntry entry = entries[postings[p] >>> 1];
+                if (!changed.containsKey(entry.getUrl())) {
+                    offer(top, entry, words, now);
+                }
+            }
+            return top.toList();
+        }
+
+        // Only the first word decides between a URL and a title match
+        long[] urlMatches = new long[(entries.length + 63) >>> 6];
+        long[] titleMatches = new long[urlMatches.length];
+        mark(from[0], to[0], urlMatches, titleMatches);
+        long[] wordMatches = new long[urlMatches.length];
+        for (int w = 1; w < words.length; w++) {
+            Arrays.fill(wordMatches, 0);
+            mark(from[w], to[w], wordMatches, wordMatches);
+            for (int k = 0; k < wordMatches.length; k++) {
+                urlMatches[k] &= wordMatches[k];
+                titleMatches[k] &= wordMatches[k];
+            }
+        }
+        for (int k = 0; k < titleMatches.length; k++) {
+            titleMatches[k] &= ~urlMatches[k];
+        }
+        walk(top, urlMatches, URL_MATCH_WEIGHT, changed, now);
+        walk(top, titleMatches, 1, changed, now);
+        return top.toList();
+    }
+
+    /**
+     * Sets the bits of the entries holding a token in the run, in urlMatches
+     * for URL tokens and titleMatches for title words
+     */
+    private void mark(int fromToken, int toToken, long[] urlMatches, long[] titleMatches) {
+        for (int p = starts[fromToken]; p < starts[toToken]; p++) {
+            int entry = postings[p] >>> 1;
+            long[] matches = (postings[p] & 1) != 0 ? urlMatches : titleMatches;
+            matches[entry >>> 6] |= 1L << entry;
+        }
+    }
+
+    /**
+     * Offers the entries set in matches best-first, until no remaining one
+     * can make the top results
+     */
+    private void walk(TopEntries top, long[] matches, int weight, Map<String, HistoryEntry> changed, long now) {
+        for (int k = 0; k < matches.length; k++) {
+            for (long bits = matches[k]; bits != 0; bits &= bits - 1) {
+                int i = k << 6 | Long.numberOfTrailingZeros(bits);
+                if (top.isFull() && scores[i] * weight <= top.lowestScore()) {
+                    return;
+                }
+                if (!changed.containsKey(entries[i].getUrl())) {
+                    top.offer(entries[i], frecency(entries[i], now) * weight);
+                }
+            }
+        }
+    }
+
+    private static void offer(TopEntries top, HistoryEntry entry, String[] words, long now) {
+        int firstMatch = entry.match(words[0]);
+        if (firstMatch == 0) {
+            return;
+        }
+        for (int w = 1; w < words.length; w++) {
+            if (entry.match(words[w]) == 0) {
+                return;
+            }
+        }
+        top.offer(entry, frecency(entry, now) * (firstMatch == 2 ? URL_MATCH_WEIGHT : 1));
+    }
+
+    /**
+     * Position of the first token not less than the key
+     */
+    private int lowerBound(String key) {
+        int low = 0;
+        int high = tokens.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (tokens[mid].compareTo(key) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private static final class IntList {
+        int[] values = new int[2];
+        int size;
+
+        void add(int value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+    }
+
+    /**
+     * The highest scored entries offered, each once
+     */
+    private static final class TopEntries {
+        private final HistoryEntry[] entries;
+        private final long[] scores;
+        private int size;
+
+        TopEntries(int limit) {
+            entries = new HistoryEntry[Math.max(0, limit)];
+            scores = new long[entries.length];
+        }
+
+        boolean isFull() {
+            return size == entries.length;
+        }
+
+        long lowestScore() {
+            return size == 0 ? Long.MIN_VALUE : scores[size - 1];
+        }
+
+        void offer(HistoryEntry entry, long score) {
+            if (isFull() && score <= lowestScore()) {
+                return;
+            }
+            for (int i = 0; i < size; i++) {
+                if (entries[i] == entry) {
+                    return;
+                }
+            }
+            int position = isFull() ? size - 1 : size++;
+            while (position > 0 && scores[position - 1] < score) {
+                entries[position] = entries[position - 1];
+                scores[position] = scores[position - 1];
+                position--;
+            }
+            entries[position] = entry;
+            scores[position] = score;
+        }
+
+        List<HistoryEntry> toList() {
+            List<HistoryEntry> list = new ArrayList<>(size);
+            list.addAll(Arrays.asList(entries).subList(0, size));
+            return list;
+        }
+    }
+}
@@ -0,0 +1,544 @@
+package com.levelpixel;
+
+import android.content.Context;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Persistent browsing history with ranked prefix suggestions for the
+ * address bar. DuneWebView records visits into it once enabled with
+ * {@link DuneWebView#setHistoryEnabled(boolean)}.
+ *
+ * Recording only queues the visit; a background thread applies queued
+ * visits in batches and appends them to a log file, which is rewritten
+ * compactly once it holds mostly superseded records. Suggestions are read
+ * from an immutable {@link HistoryIndex} plus the few entries changed since
+ * it was built, without locks, so they can be asked for on every keystroke.
+ * The index is rebuilt in the background once enough entries changed.
+ *
+ * The history lives as long as the application; obtain it with
+ * {@link #getInstance(Context)}.
+ */
+public final class HistoryStore {
+    public static final int DEFAULT_SUGGESTION_LIMIT = 8;
+
+    private static final String DIRECTORY = "dune-history";
+    private static final String LOG_FILE = "history.log";
+    private static final int LOG_MAGIC = 0x44484c31;
+    // Queued visits are written together after this delay, or at once past MAX_PENDING
+    private static final long FLUSH_DELAY_MILLIS = 1000;
+    private static final int MAX_PENDING = 64;
+    // Entries changed since the index was built are scanned on every query; past
+    // this many, the index is rebuilt
+    private static final int MAX_CHANGED = 256;
+    // Rewrite the log once it holds this many more records than entries
+    private static final int MIN_COMPACTION_SLACK = 10_000;
+    // Longer URLs (data: URIs, huge query strings) are not recorded
+    private static final int MAX_URL_LENGTH = 2048;
+    // Longer titles are cut; this keeps every record within writeUTF's 64 KB limit
+    static final int MAX_TITLE_LENGTH = 1024;
+
+    private static final byte RECORD_VISIT = 1;
+    private static final byte RECORD_TITLE = 2;
+    private static final byte RECORD_REMOVE = 3;
+    // Written by compaction: a whole entry
+    private static final byte RECORD_ENTRY = 4;
+
+    private static volatile HistoryStore instance;
+
+    private final File logFile;
+    private final ScheduledExecutorService writer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "DuneHistory");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // Published to readers; replaced, never modified
+    private volatile Snapshot snapshot = new Snapshot(HistoryIndex.EMPTY,
+            Collections.<String, HistoryEntry>emptyMap());
+
+    // Number of pages, as of the last applied batch
+    private volatile int size;
+
+    // Guarded by this
+    private List<Change> pending = new ArrayList<>();
+    private boolean flushScheduled;
+
+    // Below here only used on the writer thread
+    private final Map<String, HistoryEntry> entries = new HashMap<>();
+    private FileOutputStream log;
+    // Length of the log up to its last whole record
+    private long logLength;
+    private int logRecords;
+
+    HistoryStore(File directory) {
+        this.logFile = new File(directory, LOG_FILE);
+        writer.execute(this::load);
+    }
+
+    /**
+     * Application-wide history, loaded in the background on first use
+     */
+    public static HistoryStore getInstance(Context context) {
+        HistoryStore store = instance;
+        if (store == null) {
+            synchronized (HistoryStore.class) {
+                store = instance;
+                if (store == null) {
+                    store = new HistoryStore(new File(context.getFilesDir(), DIRECTORY));
+                    instance = store;
+                }
+            }
+        }
+        return store;
+    }
+
+    /**
+     * Record a visit to an http(s) page; other URLs are ignored. Returns at
+     * once; the visit is written in the background.
+     *
+     * @param title may be null, e.g. before the page reported one
+     */
+    public void recordVisit(String url, String title) {
+        if (isRecordable(url)) {
+            enqueue(new Change(RECORD_VISIT, url, truncateTitle(title), System.currentTimeMillis()));
+        }
+    }
+
+    /**
+     * Set the title of a recorded page
+     */
+    public void updateTitle(String url, String title) {
+        if (isRecordable(url) && title != null) {
+            enqueue(new Change(RECORD_TITLE, url, truncateTitle(title), 0));
+        }
+    }
+
+    /**
+     * Forget one page
+     */
+    public void remove(String url) {
+        if (isRecordable(url)) {
+            enqueue(new Change(RECORD_REMOVE, url, null, 0));
+        }
+    }
+
+    /**
+     * Forget every page
+     *
+     * @return future completing once the history file is emptied
+     */
+    public Future<?> clear() {
+        synchronized (this) {
+            pending = new ArrayList<>();
+        }
+        return writer.submit(() -> {
+            entries.clear();
+            closeLog();
+            logFile.delete();
+            logRecords = 0;
+            size = 0;
+            snapshot = new Snapshot(HistoryIndex.EMPTY, Collections.<String, HistoryEntry>emptyMap());
+        });
+    }
+
+    /**
+     * Write queued changes now
+     *
+     * @return future completing once they are on disk and visible to suggest()
+     */
+    public Future<?> flush() {
+        return writer.submit(this::applyPending);
+    }
+
+    /**
+     * Pages matching what was typed, best first. Every word of the input must
+     * start the URL (without scheme and "www."), one of its parent domains, or
+     * a word of the title; pages visited often and recently rank first, and
+     * matches in the URL above matches in the title. Cheap enough to call on
+     * every keystroke from the UI thread.
+     */
+    public List<HistoryEntry> suggest(String input, int limit) {
+        Snapshot current = snapshot;
+        return current.index.search(wordsOf(input), current.changed, limit, System.currentTimeMillis());
+    }
+
+    /**
+     * Text to complete the address bar to as the user types: the input
+     * extended to the end of the host, or past it to the whole URL, of the
+     * best page whose URL starts with the input
+     *
+     * @return the completed text starting with the input as typed, or null if no page matches
+     */
+    public String complete(String input) {
+        String typed = input.trim();
+        String prefix = HistoryEntry.stripPrefixes(typed.toLowerCase(Locale.ROOT));
+        if (prefix.isEmpty() || prefix.indexOf(' ') >= 0 || !typed.equals(input)) {
+            return null;
+        }
+        for (HistoryEntry entry : suggest(prefix, DEFAULT_SUGGESTION_LIMIT)) {
+            if (entry.key.startsWith(prefix)) {
+                int end = prefix.length() < entry.hostLength ? entry.hostLength : entry.key.length();
+                return input + entry.key.substring(prefix.length(), end);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Number of pages in the history, not counting queued visits
+     */
+    public int size() {
+        return size;
+    }
+
+    private void enqueue(Change change) {
+        boolean now;
+        synchronized (this) {
+            pending.add(change);
+            now = pending.size() >= MAX_PENDING;
+            if (!now && flushScheduled) {
+                return;
+            }
+            flushScheduled = true;
+        }
+        if (now) {
+            writer.execute(this::applyPending);
+        } else {
+            writer.schedule(this::applyPending, FLUSH_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Applies queued changes to the entries, appends them to the log and
+     * publishes them to readers
+     */
+    private void applyPending() {
+        List<Change> batch;
+        synchronized (this) {
+            batch = pending;
+            pending = new ArrayList<>();
+            flushScheduled = false;
+        }
+        if (batch.isEmpty()) {
+            return;
+        }
+
+        Map<String, HistoryEntry> changed = new HashMap<>(snapshot.changed);
+        for (Change change : batch) {
+            HistoryEntry entry = apply(change.type, change.url, change.title, change.time);
+            if (entry != null) {
+                changed.put(change.url, entry);
+            } else if (change.type == RECORD_REMOVE) {
+                // Stays in changed with no visits, hiding the indexed version
+                changed.put(change.url, new HistoryEntry(change.url, "", 0, 0));
+            }
+        }
+        size = entries.size();
+        try {
+            ByteArrayOutputStream records = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(records);
+            for (Change change : batch) {
+                writeRecord(out, change.type, change.url, change.title, 0, change.time);
+            }
+            append(records);
+            logRecords += batch.size();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+
+        if (changed.size() > MAX_CHANGED) {
+            publishIndex();
+        } else {
+            snapshot = new Snapshot(snapshot.index, changed);
+        }
+        if (logRecords > entries.size() * 2 + MIN_COMPACTION_SLACK) {
+            compact();
+        }
+    }
+
+    /**
+     * Applies one change to the entries
+     *
+     * @return the entry afterwards, or null if it is gone
+     */
+    private HistoryEntry apply(byte type, String url, String title, long time) {
+        HistoryEntry entry = entries.get(url);
+        switch (type) {
+            case RECORD_VISIT:
+                entry = entry != null ? entry.visited(title, time) : new HistoryEntry(url, title, 1, time);
+                break;
+            case RECORD_TITLE:
+                if (entry == null) {
+                    return null;
+                }
+                entry = entry.withTitle(title);
+                break;
+            case RECORD_REMOVE:
+                entries.remove(url);
+                return null;
+            default:
+                return entry;
+        }
+        entries.put(url, entry);
+        return entry;
+    }
+
+    private void publishIndex() {
+        snapshot = new Snapshot(HistoryIndex.build(entries.values(), System.currentTimeMillis()),
+                Collections.<String, HistoryEntry>emptyMap());
+    }
+
+    /**
+     * Replays the log. A record cut short by a crash ends the replay and is
+     * cut off the file, so later appends follow the last whole record.
+     */
+    private void load() {
+        if (!logFile.exists()) {
+            return;
+        }
+        long valid = 0;
+        CountingInputStream counter = null;
+        try (DataInputStream in = new DataInputStream(counter = new CountingInputStream(
+                new BufferedInputStream(new FileInputStream(logFile))))) {
+            if (in.readInt() != LOG_MAGIC) {
+                throw new IOException("Not a history log: " + logFile);
+            }
+            valid = counter.count;
+            while (true) {
+                byte type;
+                try {
+                    type = in.readByte();
+                } catch (EOFException e) {
+                    break;
+                }
+                String url = in.readUTF();
+                String title = type == RECORD_VISIT || type == RECORD_TITLE || type == RECORD_ENTRY
+                        ? in.readUTF() : null;
+                if (type == RECORD_ENTRY) {
+                    int visits = in.readInt();
+                    long lastVisit = in.readLong();
+                    entries.put(url, new HistoryEntry(url, title, visits, lastVisit));
+                } else {
+                    long time = type == RECORD_VISIT ? in.readLong() : 0;
+                    apply(type, url, title, time);
+                }
+                logRecords++;
+                valid = counter.count;
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        try (RandomAccessFile file = new RandomAccessFile(logFile, "rw")) {
+            if (valid < 4) {
+                file.setLength(0);
+            } else if (file.length() > valid) {
+                file.setLength(valid);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        size = entries.size();
+        publishIndex();
+    }
+
+    /**
+     * Rewrites the log as one record per entry
+     */
+    private void compact() {
+        closeLog();
+        File temp = new File(logFile.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+            out.writeInt(LOG_MAGIC);
+            for (HistoryEntry entry : entries.values()) {
+                writeRecord(out, RECORD_ENTRY, entry.getUrl(), entry.getTitle(),
+                        entry.getVisitCount(), entry.getLastVisitMillis());
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            temp.delete();
+            return;
+        }
+        if (temp.renameTo(logFile)) {
+            logRecords = entries.size();
+        } else {
+            temp.delete();
+        }
+    }
+
+    /**
+     * Appends a batch of whole records to the log. A write that fails part
+     * way is cut off again, so later batches still follow a whole record.
+     */
+    private void append(ByteArrayOutputStream records) throws IOException {
+        if (log == null) {
+            File directory = logFile.getParentFile();
+            if (directory != null && !directory.isDirectory() && !directory.mkdirs()) {
+                throw new IOException("Cannot create " + directory);
+            }
+            logLength = logFile.length();
+            log = new FileOutputStream(logFile, true);
+        }
+        try {
+            if (logLength == 0) {
+                log.write(ByteBuffer.allocate(4).putInt(LOG_MAGIC).array());
+                logLength = 4;
+            }
+            records.writeTo(log);
+            logLength += records.size();
+        } catch (IOException e) {
+            closeLog();
+            try (RandomAccessFile file = new RandomAccessFile(logFile, "rw")) {
+                file.setLength(logLength);
+            } catch (IOException truncateError) {
+                e.addSuppressed(truncateError);
+            }
+            throw e;
+        }
+    }
+
+    private void closeLog() {
+        if (log != null) {
+            try {
+                log.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            log = null;
+        }
+    }
+
+    private static void writeRecord(DataOutputStream out, byte type, String url, String title,
+                                    int visits, long time) throws IOException {
+        out.writeByte(type);
+        out.writeUTF(url);
+        if (type == RECORD_VISIT || type == RECORD_TITLE || type == RECORD_ENTRY) {
+            out.writeUTF(title != null ? title : "");
+        }
+        if (type == RECORD_ENTRY) {
+            out.writeInt(visits);
+        }
+        if (type == RECORD_VISIT || type == RECORD_ENTRY) {
+            out.writeLong(time);
+        }
+    }
+
+    /**
+     * The title cut to {@link #MAX_TITLE_LENGTH} chars, without splitting a surrogate pair
+     */
+    static String truncateTitle(String title) {
+        if (title == null || title.length() <= MAX_TITLE_LENGTH) {
+            return title;
+        }
+        int end = MAX_TITLE_LENGTH;
+        if (Character.isHighSurrogate(title.charAt(end - 1))) {
+            end--;
+        }
+        return title.substring(0, end);
+    }
+
+    private static boolean isRecordable(String url) {
+        return url != null && url.length() <= MAX_URL_LENGTH
+                && (url.startsWith("https://") || url.startsWith("http://"));
+    }
+
+    /**
+     * Lowercased words of the input, without a leading scheme or "www."
+     */
+    static String[] wordsOf(String input) {
+        String text = HistoryEntry.stripPrefixes(input.trim().toLowerCase(Locale.ROOT));
+        if (text.isEmpty()) {
+            return new String[0];
+        }
+        return text.split("\\s+");
+    }
+
+    /**
+     * Counts the bytes read through it, to find where the last whole record ends
+     */
+    private static final class CountingInputStream extends FilterInputStream {
+        long count;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int n = super.read(buffer, offset, length);
+            if (n > 0) {
+                count += n;
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            count += skipped;
+            return skipped;
+        }
+    }
+
+    /**
+     * Published state: the index, and entries changed since it was built
+     */
+    private static final class Snapshot {
+        final HistoryIndex index;
+        final Map<String, HistoryEntry> changed;
+
+        Snapshot(HistoryIndex index, Map<String, HistoryEntry> changed) {
+            this.index = index;
+            this.changed = changed;
+        }
+    }
+
+    /**
+     * A queued visit, title change or removal
+     */
+    private static final class Change {
+        final byte type;
+        final String url;
+        final String title;
+        final long time;
+
+        Change(byte type, String url, String title, long time) {
+            this.type = type;
+            this.url = url;
+            this.title = title;
+            this.time = time;
+        }
+    }
+}
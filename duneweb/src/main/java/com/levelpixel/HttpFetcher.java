@@ -0,0 +1,270 @@
+package com.levelpixel;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Minimal HTTP client for requests the library makes on the WebView's behalf.
+ * Redirects are not followed unless asked for, so the caller decides what to
+ * do with them, and the body is left unread for the caller to stream.
+ */
+final class HttpFetcher {
+    static final int DEFAULT_TIMEOUT_MILLIS = 15_000;
+    static final int MAX_REDIRECTS = 5;
+
+    // Request headers the connection manages itself. Forwarding Accept-Encoding
+    // would turn off transparent decompression and hand compressed bytes to filters;
+    // only "identity" is passed on, for callers that need byte ranges of the raw body.
+    private static final String[] SKIPPED_REQUEST_HEADERS = {
+            "accept-encoding", "connection", "content-length", "host"
+    };
+
+    // Response headers that describe the wire format rather than the decoded body
+    private static final String[] SKIPPED_RESPONSE_HEADERS = {
+            "content-encoding", "content-length", "transfer-encoding", "connection", "set-cookie"
+    };
+
+    // Request headers that make the server answer with 304 or a partial body
+    private static final String[] CONDITIONAL_REQUEST_HEADERS = {
+            "if-none-match", "if-modified-since", "if-match", "if-unmodified-since", "if-range", "range"
+    };
+
+    private final int timeoutMillis;
+
+    HttpFetcher() {
+        this(DEFAULT_TIMEOUT_MILLIS);
+    }
+
+    HttpFetcher(int timeoutMillis) {
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    /**
+     * Sends a GET request. The returned response's body must be closed, which
+     * hands the connection back to the keep-alive pool.
+     */
+    Response get(String url, Map<String, String> headers) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        connection.setInstanceFollowRedirects(false);
+        connection.setConnectTimeout(timeoutMillis);
+        connection.setReadTimeout(timeoutMillis);
+        connection.setUseCaches(false);
+        if (headers != null) {
+            for (Map.Entry<String, String> header : headers.entrySet()) {
+                if (header.getValue() != null && (!contains(SKIPPED_REQUEST_HEADERS, header.getKey())
+                        || isIdentityEncoding(header.getKey(), header.getValue()))) {
+                    connection.setRequestProperty(header.getKey(), header.getValue());
+                }
+            }
+        }
+
+        int status;
+        try {
+            status = connection.getResponseCode();
+        } catch (IOException e) {
+            connection.disconnect();
+            throw e;
+        }
+
+        Map<String, String> responseHeaders = new LinkedHashMap<>();
+        List<String> cookies = new ArrayList<>();
+        for (Map.Entry<String, List<String>> header : connection.getHeaderFields().entrySet()) {
+            String name = header.getKey();
+            // The status line is reported under a null name
+            if (name == null) {
+                continue;
+            }
+            if (name.equalsIgnoreCase("set-cookie")) {
+                cookies.addAll(header.getValue());
+            }
+            if (!contains(SKIPPED_RESPONSE_HEADERS, name)) {
+                responseHeaders.put(name, join(header.getValue()));
+            }
+        }
+
+        InputStream body = status >= 400 ? connection.getErrorStream() : connection.getInputStream();
+        if (body == null) {
+            body = new ByteArrayInputStream(new byte[0]);
+        }
+        // Only meaningful when the body is not decompressed on the way
+        long contentLength = connection.getContentEncoding() == null ? connection.getContentLengthLong() : -1;
+        return new Response(url, status, connection.getResponseMessage(), connection.getContentType(),
+                contentLength, Collections.unmodifiableMap(responseHeaders),
+                Collections.unmodifiableList(cookies), body);
+    }
+
+    /**
+     * Sends a GET request, following up to {@link #MAX_REDIRECTS} redirects with
+     * the same headers. 304 Not Modified is returned as is; {@link Response#url}
+     * is the address that answered.
+     */
+    Response getFollowingRedirects(String url, Map<String, String> headers) throws IOException {
+        for (int redirects = 0; ; redirects++) {
+            Response response = get(url, headers);
+            String location = response.header("Location");
+            if (response.status == 304 || !response.isRedirection() || location == null
+                    || redirects == MAX_REDIRECTS) {
+                return response;
+            }
+            response.body.close();
+            url = new URL(new URL(url), location).toString();
+        }
+    }
+
+    /**
+     * Copy of the request headers without conditional and range headers,
+     * for fetches that need the full body
+     */
+    static Map<String, String> withoutConditionalHeaders(Map<String, String> headers) {
+        Map<String, String> copy = new HashMap<>();
+        if (headers != null) {
+            for (Map.Entry<String, String> header : headers.entrySet()) {
+                if (!contains(CONDITIONAL_REQUEST_HEADERS, header.getKey())) {
+                    copy.put(header.getKey(), header.getValue());
+                }
+            }
+        }
+        return copy;
+    }
+
+    private static boolean isIdentityEncoding(String name, String value) {
+        return name.equalsIgnoreCase("accept-encoding") && value.trim().equalsIgnoreCase("identity");
+    }
+
+    private static boolean contains(String[] names, String name) {
+        for (String candidate : names) {
+            if (candidate.equalsIgnoreCase(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String join(List<String> values) {
+        if (values.size() == 1) {
+            return values.get(0);
+        }
+        StringBuilder joined = new StringBuilder();
+        for (String value : values) {
+            if (joined.length() > 0) {
+                joined.append(", ");
+            }
+            joined.append(value);
+        }
+        return joined.toString();
+    }
+
+    /**
+     * Status, headers and unread body of a response
+     */
+    static final class Response {
+        // Address that answered; null for responses not read from the network
+        final String url;
+        final int status;
+        // Never empty; WebResourceResponse rejects an empty reason phrase
+        final String reason;
+        // Content-Type as sent; null if not sent
+        final String contentType;
+        // Lowercase MIME type without parameters, e.g. "text/html"; null if not sent
+        final String mimeType;
+        // Charset parameter of Content-Type; null if not sent
+        final String charset;
+        // Length of the body in bytes, or -1 if unknown or changed by decoding
+        final long contentLength;
+        // Headers of the decoded body, without Set-Cookie
+        final Map<String, String> headers;
+        final List<String> cookies;
+        final InputStream body;
+
+        Response(int status, String reason, String contentType, Map<String, String> headers,
+                 List<String> cookies, InputStream body) {
+            this(null, status, reason, contentType, -1, headers, cookies, body);
+        }
+
+        Response(String url, int status, String reason, String contentType, long contentLength,
+                 Map<String, String> headers, List<String> cookies, InputStream body) {
+            this.url = url;
+            this.status = status;
+            this.reason = reason == null || reason.trim().isEmpty() ? defaultReason(status) : reason.trim();
+            this.contentType = contentType;
+            this.mimeType = mimeTypeOf(contentType);
+            this.charset = charsetOf(contentType);
+            this.contentLength = contentLength;
+            this.headers = headers;
+            this.cookies = cookies;
+            this.body = body;
+        }
+
+        /**
+         * Same response with another body
+         */
+        Response withBody(InputStream body) {
+            return new Response(url, status, reason, contentType, -1, headers, cookies, body);
+        }
+
+        /**
+         * Check if the status is 3xx, which covers redirects and 304 Not Modified
+         */
+        boolean isRedirection() {
+            return status >= 300 && status < 400;
+        }
+
+        /**
+         * Header value, looked up case-insensitively; null if absent
+         */
+        String header(String name) {
+            for (Map.Entry<String, String> header : headers.entrySet()) {
+                if (header.getKey().equalsIgnoreCase(name)) {
+                    return header.getValue();
+                }
+            }
+            return null;
+        }
+
+        static String mimeTypeOf(String contentType) {
+            if (contentType == null) {
+                return null;
+            }
+            int semicolon = contentType.indexOf(';');
+            String type = (semicolon < 0 ? contentType : contentType.substring(0, semicolon)).trim();
+            return type.isEmpty() ? null : type.toLowerCase(Locale.ROOT);
+        }
+
+        static String charsetOf(String contentType) {
+            if (contentType == null) {
+                return null;
+            }
+            for (String parameter : contentType.split(";")) {
+                String p = parameter.trim();
+                if (p.regionMatches(true, 0, "charset=", 0, 8)) {
+                    String value = p.substring(8).trim();
+                    if (value.length() >= 2 && value.startsWith("\"") && value.endsWith("\"")) {
+                        value = value.substring(1, value.length() - 1);
+                    }
+                    return value.isEmpty() ? null : value;
+                }
+            }
+            return null;
+        }
+
+        private static String defaultReason(int status) {
+            if (status >= 200 && status < 300) {
+                return "OK";
+            }
+            if (status >= 300 && status < 400) {
+                return "Redirect";
+            }
+            return "Error";
+        }
+    }
+}
@@ -0,0 +1,213 @@
+package com.levelpixel;
+
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+
+/**
+ * Removes script elements from HTML documents when their start tag or inline
+ * code contains one of the given markers, e.g. "googletag.cmd" or
+ * "adsbygoogle". Markers match case-insensitively.
+ *
+ * Each script element is held back until its end tag is read. One larger than
+ * the size limit is let through, so a huge bundle never has to be buffered.
+ */
+public final class InlineScriptFilter implements ResponseFilter {
+    public static final int DEFAULT_MAX_SCRIPT_BYTES = 64 * 1024;
+
+    private static final byte[] SCRIPT_END = "</script".getBytes(StandardCharsets.US_ASCII);
+
+    private final UrlPatternMatcher markers;
+    private final int maxScriptBytes;
+
+    public InlineScriptFilter(Collection<String> markers) {
+        this(markers, DEFAULT_MAX_SCRIPT_BYTES);
+    }
+
+    public InlineScriptFilter(Collection<String> markers, int maxScriptBytes) {
+        this.markers = UrlPatternMatcher.compile(markers);
+        this.maxScriptBytes = maxScriptBytes;
+    }
+
+    @Override
+    public boolean appliesTo(String url, boolean mainFrame, String mimeType) {
+        return "text/html".equals(mimeType) && !markers.patterns().isEmpty();
+    }
+
+    @Override
+    public InputStream filter(InputStream body) {
+        return new Stripping(body, markers, maxScriptBytes);
+    }
+
+    private static final class Stripping extends RewritingInputStream {
+        private static final int TEXT = 0;
+        private static final int TAG_NAME = 1;
+        private static final int SCRIPT = 2;
+        private static final int OVERSIZED_SCRIPT = 3;
+
+        private final UrlPatternMatcher markers;
+        private final int maxScriptBytes;
+        private int state = TEXT;
+        // Tag name being read, then the script element held back
+        private byte[] held = new byte[256];
+        private int heldLength;
+        private final Latin1Chars heldChars = new Latin1Chars();
+
+        Stripping(InputStream source, UrlPatternMatcher markers, int maxScriptBytes) {
+            super(source);
+            this.markers = markers;
+            this.maxScriptBytes = maxScriptBytes;
+        }
+
+        @Override
+        protected void process(byte[] data, int offset, int length) {
+            int end = offset + length;
+            int i = offset;
+            while (i < end) {
+                switch (state) {
+                    case TEXT: {
+                        int lt = indexOf(data, i, end, (byte) '<');
+                        emit(data, i, (lt < 0 ? end : lt) - i);
+                        if (lt < 0) {
+                            return;
+                        }
+                        held[0] = '<';
+                        heldLength = 1;
+                        state = TAG_NAME;
+                        i = lt + 1;
+                        break;
+                    }
+                    case TAG_NAME: {
+                        byte b = data[i];
+                        if (isTagNameByte(b) && heldLength < 8) {
+                            hold(data, i, 1);
+                            i++;
+                        } else if (heldLength == 7 && heldIsScriptTag()) {
+                            state = SCRIPT;
+                        } else {
+                            emit(held, 0, heldLength);
+                            heldLength = 0;
+                            state = TEXT;
+                        }
+                        break;
+                    }
+                    case SCRIPT:
+                    case OVERSIZED_SCRIPT: {
+                        int gt = indexOf(data, i, end, (byte) '>');
+                        int stop = gt < 0 ? end : gt + 1;
+                        hold(data, i, stop - i);
+                        i = stop;
+                        // A held script starts with "<script>" at least; an oversized one is only a tail
+                        if (gt >= 0 && endsWithScriptEnd(state == SCRIPT ? 8 : 0)) {
+                            if (state == OVERSIZED_SCRIPT || heldLength > maxScriptBytes
+                                    || !markers.matches(heldChars.of(held, heldLength))) {
+                                emit(held, 0, heldLength);
+                            }
+                            heldLength = 0;
+                            state = TEXT;
+                        } else if (state == SCRIPT && heldLength > maxScriptBytes) {
+                            state = OVERSIZED_SCRIPT;
+                        }
+                        if (state == OVERSIZED_SCRIPT) {
+                            releaseAllButTail();
+                        }
+                        break;
+                    }
+                }
+            }
+        }
+
+        @Override
+        protected void finish() {
+            emit(held, 0, heldLength);
+            heldLength = 0;
+        }
+
+        private void hold(byte[] data, int offset, int length) {
+            if (heldLength + length > held.length) {
+                byte[] grown = new byte[Math.max(held.length * 2, heldLength + length)];
+                System.arraycopy(held, 0, grown, 0, heldLength);
+                held = grown;
+            }
+            System.arraycopy(data, offset, held, heldLength, length);
+            heldLength += length;
+        }
+
+        /**
+         * An oversized script is passed on as it arrives, keeping only enough
+         * bytes to spot its end tag across chunk boundaries
+         */
+        private void releaseAllButTail() {
+            int keep = Math.min(heldLength, 64);
+            emit(held, 0, heldLength - keep);
+            System.arraycopy(held, heldLength - keep, held, 0, keep);
+            heldLength = keep;
+        }
+
+        private boolean heldIsScriptTag() {
+            for (int i = 1; i < 7; i++) {
+                if (lowerAscii(held[i]) != SCRIPT_END[i + 1]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Check if the held bytes end with "</script" followed by optional
+         * whitespace and ">", starting no earlier than minStart
+         */
+        private boolean endsWithScriptEnd(int minStart) {
+            int i = heldLength - 2;
+            while (i >= 0 && (held[i] == ' ' || held[i] == '\t' || held[i] == '\n'
+                    || held[i] == '\r' || held[i] == '\f')) {
+                i--;
+            }
+            int start = i - SCRIPT_END.length + 1;
+            if (start < minStart) {
+                return false;
+            }
+            for (int j = 0; j < SCRIPT_END.length; j++) {
+                if (lowerAscii(held[start + j]) != SCRIPT_END[j]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Bytes read as ISO-8859-1 characters without copying. Markers are ASCII,
+     * so they match the same way in any ASCII-compatible charset.
+     */
+    private static final class Latin1Chars implements CharSequence {
+        private byte[] bytes;
+        private int length;
+
+        Latin1Chars of(byte[] bytes, int length) {
+            this.bytes = bytes;
+            this.length = length;
+            return this;
+        }
+
+        @Override
+        public int length() {
+            return length;
+        }
+
+        @Override
+        public char charAt(int index) {
+            return (char) (bytes[index] & 0xFF);
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            return toString().substring(start, end);
+        }
+
+        @Override
+        public String toString() {
+            return new String(bytes, 0, length, StandardCharsets.ISO_8859_1);
+        }
+    }
+}
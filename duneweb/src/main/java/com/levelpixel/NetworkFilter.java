@@ -0,0 +1,384 @@
+package com.levelpixel;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * One EasyList / Adblock Plus network rule, e.g. "||ads.example.com^$script,third-party".
+ *
+ * Supported syntax:
+ * - "@@" exception prefix
+ * - "||" host anchor, "|" start/end anchors, "*" wildcard, "^" separator
+ * - options: resource types ($script, $image, ... and their "~" negations),
+ *   $third-party / $first-party (and "~" forms), $domain=a.com|~b.a.com, $match-case
+ * - "@@...$document" exceptions, which allow everything on a matching page
+ *
+ * Rules using any other option ($csp, $redirect, $popup, ...) or regular
+ * expressions are rejected by {@link #parse(String)} rather than applied
+ * with a broader meaning than intended.
+ */
+final class NetworkFilter {
+    // Third-party constraint
+    static final byte ANY_PARTY = 0;
+    static final byte THIRD_PARTY = 1;
+    static final byte FIRST_PARTY = 2;
+
+    final String rule;
+    final String pattern;
+    final boolean exception;
+    final boolean hostAnchored;
+    final boolean startAnchored;
+    final boolean endAnchored;
+    final boolean matchCase;
+    final int typeMask;
+    final byte party;
+    final String[] includeDomains;
+    final String[] excludeDomains;
+
+    private NetworkFilter(String rule, String pattern, boolean exception, boolean hostAnchored,
+                          boolean startAnchored, boolean endAnchored, boolean matchCase,
+                          int typeMask, byte party, String[] includeDomains, String[] excludeDomains) {
+        this.rule = rule;
+        this.pattern = pattern;
+        this.exception = exception;
+        this.hostAnchored = hostAnchored;
+        this.startAnchored = startAnchored;
+        this.endAnchored = endAnchored;
+        this.matchCase = matchCase;
+        this.typeMask = typeMask;
+        this.party = party;
+        this.includeDomains = includeDomains;
+        this.excludeDomains = excludeDomains;
+    }
+
+    /**
+     * Parses a network rule. Returns null for comments, cosmetic rules,
+     * regular expressions and rules with unsupported options.
+     */
+    static NetworkFilter parse(String line) {
+        String rule = line.trim();
+        if (rule.isEmpty() || rule.startsWith("!") || rule.startsWith("[")
+                || isCosmetic(rule)) {
+            return null;
+        }
+
+        String body = rule;
+        boolean exception = body.startsWith("@@");
+        if (exception) {
+            body = body.substring(2);
+        }
+
+        // Options follow the last '$'
+        boolean matchCase = false;
+        int includeTypes = 0;
+        int excludeTypes = 0;
+        byte party = ANY_PARTY;
+        List<String> include = new ArrayList<>();
+        List<String> exclude = new ArrayList<>();
+        int dollar = body.lastIndexOf('$');
+        if (dollar >= 0) {
+            for (String option : body.substring(dollar + 1).split(",")) {
+                String name = option.trim().toLowerCase();
+                boolean negated = name.startsWith("~");
+                String bare = negated ? name.substring(1) : name;
+                if (bare.equals("match-case")) {
+                    matchCase = !negated;
+                } else if (bare.equals("third-party") || bare.equals("3p")) {
+                    party = negated ? FIRST_PARTY : THIRD_PARTY;
+                } else if (bare.equals("first-party") || bare.equals("1p")) {
+                    party = negated ? THIRD_PARTY : FIRST_PARTY;
+                } else if (name.startsWith("domain=")) {
+                    for (String domain : name.substring("domain=".length()).split("\\|")) {
+                        if (domain.startsWith("~")) {
+                            exclude.add(domain.substring(1));
+                        } else if (!domain.isEmpty()) {
+                            include.add(domain);
+                        }
+                    }
+                } else {
+                    ResourceType type = ResourceType.fromOption(bare);
+                    if (type == null) {
+                        return null;
+                    }
+                    if (negated) {
+                        excludeTypes |= type.mask;
+                    } else {
+                        includeTypes |= type.mask;
+                    }
+                }
+            }
+            body = body.substring(0, dollar);
+        }
+
+        // Regular expression rules are not supported
+        if (body.length() > 1 && body.startsWith("/") && body.endsWith("/")) {
+            return null;
+        }
+
+        boolean hostAnchored = body.startsWith("||");
+        boolean startAnchored = !hostAnchored && body.startsWith("|");
+        if (hostAnchored) {
+            body = body.substring(2);
+        } else if (startAnchored) {
+            body = body.substring(1);
+        }
+        boolean endAnchored = body.endsWith("|");
+        if (endAnchored) {
+            body = body.substring(0, body.length() - 1);
+        }
+        // Leading and trailing wildcards are implied
+        while (body.startsWith("*") && !hostAnchored) {
+            body = body.substring(1);
+            startAnchored = false;
+        }
+        while (body.endsWith("*") && !endAnchored) {
+            body = body.substring(0, body.length() - 1);
+        }
+        if (body.isEmpty() && !hostAnchored && include.isEmpty()) {
+            return null;
+        }
+
+        int typeMask = includeTypes != 0 ? includeTypes : ResourceType.DEFAULT_MASK;
+        typeMask &= ~excludeTypes;
+        return new NetworkFilter(rule, matchCase ? body : body.toLowerCase(), exception,
+                hostAnchored, startAnchored, endAnchored, matchCase, typeMask, party,
+                include.toArray(new String[0]), exclude.toArray(new String[0]));
+    }
+
+    /**
+     * Check if a line is an element hiding (cosmetic) rule rather than a network rule
+     */
+    static boolean isCosmetic(String rule) {
+        int hash = rule.indexOf('#');
+        while (hash >= 0 && hash + 1 < rule.length()) {
+            char next = rule.charAt(hash + 1);
+            if (next == '#' || next == '@' || next == '?' || next == '$') {
+                return true;
+            }
+            hash = rule.indexOf('#', hash + 1);
+        }
+        return false;
+    }
+
+    /**
+     * Check if the rule is a plain "||domain^" rule, matching a host and its
+     * subdomains regardless of request type, party or page
+     */
+    boolean isPlainDomainRule() {
+        if (!hostAnchored || endAnchored || typeMask != ResourceType.DEFAULT_MASK
+                || party != ANY_PARTY || includeDomains.length > 0 || excludeDomains.length > 0) {
+            return false;
+        }
+        int end = pattern.endsWith("^") ? pattern.length() - 1 : -1;
+        if (end <= 0) {
+            return false;
+        }
+        for (int i = 0; i < end; i++) {
+            char c = pattern.charAt(i);
+            if (!(isAlnum(c) || c == '.' || c == '-')) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Domain of a plain "||domain^" rule
+     */
+    String plainDomain() {
+        return pattern.substring(0, pattern.length() - 1);
+    }
+
+    /**
+     * Check if the rule applies to a request
+     *
+     * @param hostStart index where the host starts in url
+     * @param hostEnd   index where the host ends in url
+     * @param pageHost  host of the page making the request, null if unknown
+     */
+    boolean matches(String url, int hostStart, int hostEnd, ResourceType type,
+                    boolean thirdParty, String pageHost) {
+        if ((typeMask & type.mask) == 0) {
+            return false;
+        }
+        if ((party == THIRD_PARTY && !thirdParty) || (party == FIRST_PARTY && thirdParty)) {
+            return false;
+        }
+        if (!matchesPage(pageHost)) {
+            return false;
+        }
+        if (hostAnchored) {
+            if (matchPattern(url, hostStart, 0)) {
+                return true;
+            }
+            for (int i = hostStart; i < hostEnd; i++) {
+                if (url.charAt(i) == '.' && matchPattern(url, i + 1, 0)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        if (startAnchored) {
+            return matchPattern(url, 0, 0);
+        }
+        char first = pattern.isEmpty() ? 0 : pattern.charAt(0);
+        for (int i = 0; i <= url.length(); i++) {
+            if ((first == '*' || first == '^' || first == 0
+                    || (i < url.length() && sameChar(first, url.charAt(i))))
+                    && matchPattern(url, i, 0)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean matchesPage(String pageHost) {
+        if (includeDomains.length == 0 && excludeDomains.length == 0) {
+            return true;
+        }
+        if (pageHost == null) {
+            return includeDomains.length == 0;
+        }
+        for (String domain : excludeDomains) {
+            if (isSameOrSubdomain(pageHost, domain)) {
+                return false;
+            }
+        }
+        if (includeDomains.length == 0) {
+            return true;
+        }
+        for (String domain : includeDomains) {
+            if (isSameOrSubdomain(pageHost, domain)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Matches pattern[pi..] against url[ui..], backtracking at wildcards
+     */
+    private boolean matchPattern(String url, int ui, int pi) {
+        while (pi < pattern.length()) {
+            char p = pattern.charAt(pi);
+            if (p == '*') {
+                while (pi < pattern.length() && pattern.charAt(pi) == '*') {
+                    pi++;
+                }
+                if (pi == pattern.length()) {
+                    return true;
+                }
+                for (int k = ui; k <= url.length(); k++) {
+                    if (matchPattern(url, k, pi)) {
+                        return true;
+                    }
+                }
+                return false;
+            }
+            if (p == '^') {
+                if (ui == url.length()) {
+                    pi++;
+                    continue;
+                }
+                if (!isSeparator(url.charAt(ui))) {
+                    return false;
+                }
+            } else if (ui == url.length() || !sameChar(p, url.charAt(ui))) {
+                return false;
+            }
+            pi++;
+            ui++;
+        }
+        return !endAnchored || ui == url.length();
+    }
+
+    private boolean sameChar(char p, char u) {
+        return matchCase ? p == u : p == CompactBlocklist.lowerAscii(u);
+    }
+
+    /**
+     * Alphanumeric run of the pattern that any matching URL must contain as a
+     * whole token, or null if there is none. Used to index the rule.
+     */
+    String indexToken() {
+        String best = null;
+        int i = 0;
+        while (i < pattern.length()) {
+            if (!isAlnum(pattern.charAt(i))) {
+                i++;
+                continue;
+            }
+            int start = i;
+            while (i < pattern.length() && isAlnum(pattern.charAt(i))) {
+                i++;
+            }
+            boolean boundedBefore = start > 0
+                    ? pattern.charAt(start - 1) != '*'
+                    : hostAnchored || startAnchored;
+            boolean boundedAfter = i < pattern.length()
+                    ? pattern.charAt(i) != '*'
+                    : endAnchored;
+            if (boundedBefore && boundedAfter && i - start >= 2
+                    && (best == null || i - start > best.length())) {
+                best = pattern.substring(start, i);
+            }
+        }
+        return best == null ? null : best.toLowerCase();
+    }
+
+    /**
+     * Check if host is domain or one of its subdomains, ignoring ASCII case
+     */
+    static boolean isSameOrSubdomain(String host, String domain) {
+        int offset = host.length() - domain.length();
+        if (offset < 0 || !host.regionMatches(true, offset, domain, 0, domain.length())) {
+            return false;
+        }
+        return offset == 0 || host.charAt(offset - 1) == '.';
+    }
+
+    /**
+     * Check if two hosts belong to different sites. Sites are compared by their
+     * last two labels, or three for two-letter country domains with a short
+     * second level such as "co.uk".
+     */
+    static boolean isThirdParty(String host, String pageHost) {
+        if (pageHost == null || host == null) {
+            return false;
+        }
+        int a = siteStart(host);
+        int b = siteStart(pageHost);
+        int length = host.length() - a;
+        return length != pageHost.length() - b
+                || !host.regionMatches(true, a, pageHost, b, length);
+    }
+
+    private static int siteStart(String host) {
+        int last = host.lastIndexOf('.');
+        if (last <= 0) {
+            return 0;
+        }
+        int second = host.lastIndexOf('.', last - 1);
+        if (second < 0) {
+            return 0;
+        }
+        boolean countryCode = host.length() - last - 1 == 2;
+        boolean shortSecondLevel = last - second - 1 <= 3;
+        if (countryCode && shortSecondLevel) {
+            int third = host.lastIndexOf('.', second - 1);
+            return third + 1;
+        }
+        return second + 1;
+    }
+
+    static boolean isAlnum(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9');
+    }
+
+    /**
+     * Separator as defined for "^": anything but a letter, a digit or one of _ - . %
+     */
+    private static boolean isSeparator(char c) {
+        return !(isAlnum(c) || c == '_' || c == '-' || c == '.' || c == '%');
+    }
+}
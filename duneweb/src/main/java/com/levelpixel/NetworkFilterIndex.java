@@ -0,0 +1,289 @@
+package com.levelpixel;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable index over a set of network filter rules, built so that a request
+ * is checked against a handful of candidate rules instead of all of them.
+ *
+ * - Plain "||domain^" rules, the bulk of most lists, go into a CompactBlocklist
+ *   and are answered by one suffix walk over the request host.
+ * - Every other rule is filed under the longest alphanumeric token a matching
+ *   URL must contain. A request's URL is split into tokens and only the rules
+ *   filed under those tokens are tried.
+ * - Rules without such a token are always tried; lists contain few of them.
+ *
+ * Exception ("@@") rules are indexed the same way and are only consulted
+ * once something has decided to block the request. Exceptions for the
+ * document type ("@@||site.com^$document") are also kept aside: one that
+ * matches the page allows every request the page makes.
+ */
+final class NetworkFilterIndex {
+    static final NetworkFilterIndex EMPTY = new NetworkFilterIndex(Collections.<NetworkFilter>emptyList());
+
+    private final List<NetworkFilter> filters;
+    private final Bucket blocking;
+    private final Bucket exceptions;
+    // Exceptions matched against the page rather than the request
+    private final NetworkFilter[] documentExceptions;
+
+    private NetworkFilterIndex(List<NetworkFilter> filters) {
+        this.filters = filters;
+        List<NetworkFilter> block = new ArrayList<>();
+        List<NetworkFilter> allow = new ArrayList<>();
+        List<NetworkFilter> document = new ArrayList<>();
+        for (NetworkFilter filter : filters) {
+            (filter.exception ? allow : block).add(filter);
+            if (filter.exception && (filter.typeMask & ResourceType.DOCUMENT.mask) != 0) {
+                document.add(filter);
+            }
+        }
+        this.blocking = new Bucket(block);
+        this.exceptions = new Bucket(allow);
+        this.documentExceptions = document.toArray(new NetworkFilter[0]);
+    }
+
+    /**
+     * Builds an index from rules; lines that are not supported network rules are skipped
+     */
+    static NetworkFilterIndex of(Iterable<String> rules) {
+        return EMPTY.with(rules);
+    }
+
+    /**
+     * Returns an index holding these rules and the given ones
+     */
+    NetworkFilterIndex with(Iterable<String> rules) {
+        List<NetworkFilter> combined = new ArrayList<>(filters);
+        for (String rule : rules) {
+            NetworkFilter filter = NetworkFilter.parse(rule);
+            if (filter != null) {
+                combined.add(filter);
+            }
+        }
+        return combined.size() == filters.size()
+                ? this
+                : new NetworkFilterIndex(Collections.unmodifiableList(combined));
+    }
+
+    /**
+     * Returns an index holding these rules plus the given index's rules
+     */
+    NetworkFilterIndex with(NetworkFilterIndex other) {
+        if (other.filters.isEmpty()) {
+            return this;
+        }
+        List<NetworkFilter> combined = new ArrayList<>(filters);
+        combined.addAll(other.filters);
+        return new NetworkFilterIndex(Collections.unmodifiableList(combined));
+    }
+
+    /**
+     * Returns an index without the given rules. Rules are matched by their
+     * text; each given rule removes one occurrence. The remaining rules are
+     * re-indexed as they are, without parsing them again.
+     */
+    NetworkFilterIndex without(Collection<String> rules) {
+        if (rules.isEmpty() || filters.isEmpty()) {
+            return this;
+        }
+        Map<String, Integer> toRemove = new HashMap<>();
+        for (String rule : rules) {
+            String trimmed = rule.trim();
+            Integer count = toRemove.get(trimmed);
+            toRemove.put(trimmed, count == null ? 1 : count + 1);
+        }
+        List<NetworkFilter> remaining = new ArrayList<>(filters.size());
+        for (NetworkFilter filter : filters) {
+            Integer count = toRemove.get(filter.rule);
+            if (count == null) {
+                remaining.add(filter);
+            } else if (count == 1) {
+                toRemove.remove(filter.rule);
+            } else {
+                toRemove.put(filter.rule, count - 1);
+            }
+        }
+        return remaining.size() == filters.size()
+                ? this
+                : new NetworkFilterIndex(Collections.unmodifiableList(remaining));
+    }
+
+    /**
+     * Number of supported rules in the index
+     */
+    int size() {
+        return filters.size();
+    }
+
+    boolean isEmpty() {
+        return filters.isEmpty();
+    }
+
+    /**
+     * Check if decisions depend on the page's full URL rather than only its host
+     */
+    boolean hasDocumentExceptions() {
+        return documentExceptions.length > 0;
+    }
+
+    /**
+     * Decides whether a request is blocked.
+     *
+     * @param host             request host as reported by WebView
+     * @param pageUrl          URL of the page making the request, null if unknown
+     * @param pageHost         host of the page making the request, null if unknown
+     * @param blockedElsewhere whether another blocker (domain list, URL patterns)
+     *                         already wants to block it; exception rules still apply
+     */
+    boolean shouldBlock(String url, String host, ResourceType type, String pageUrl, String pageHost,
+                        boolean blockedElsewhere) {
+        if (filters.isEmpty()) {
+            return blockedElsewhere;
+        }
+        int hostStart = hostStart(url);
+        int hostEnd = hostEnd(url, hostStart);
+        boolean thirdParty = NetworkFilter.isThirdParty(host, pageHost);
+        boolean blocked = blockedElsewhere
+                || blocking.matches(url, host, hostStart, hostEnd, type, thirdParty, pageHost);
+        return blocked
+                && !exceptions.matches(url, host, hostStart, hostEnd, type, thirdParty, pageHost)
+                && !allowsDocument(pageUrl, pageHost);
+    }
+
+    /**
+     * Check if a $document exception matches the page, allowing everything on it
+     */
+    private boolean allowsDocument(String pageUrl, String pageHost) {
+        if (documentExceptions.length == 0 || pageUrl == null) {
+            return false;
+        }
+        int hostStart = hostStart(pageUrl);
+        int hostEnd = hostEnd(pageUrl, hostStart);
+        for (NetworkFilter filter : documentExceptions) {
+            if (filter.matches(pageUrl, hostStart, hostEnd, ResourceType.DOCUMENT, false, pageHost)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static int hostStart(String url) {
+        int scheme = url.indexOf("://");
+        return scheme < 0 ? 0 : scheme + 3;
+    }
+
+    private static int hostEnd(String url, int hostStart) {
+        int hostEnd = hostStart;
+        while (hostEnd < url.length()) {
+            char c = url.charAt(hostEnd);
+            if (c == '/' || c == '?' || c == '#' || c == ':') {
+                break;
+            }
+            hostEnd++;
+        }
+        return hostEnd;
+    }
+
+    /**
+     * One half of the index (blocking or exception rules)
+     */
+    private static final class Bucket {
+        private final CompactBlocklist domains;
+        // Open-addressing table from token hash to the rules filed under it
+        private final int[] tokenHashes;
+        private final NetworkFilter[][] tokenFilters;
+        private final NetworkFilter[] untokenized;
+
+        Bucket(List<NetworkFilter> filters) {
+            List<String> plainDomains = new ArrayList<>();
+            Map<Integer, List<NetworkFilter>> byToken = new HashMap<>();
+            List<NetworkFilter> rest = new ArrayList<>();
+            for (NetworkFilter filter : filters) {
+                if (filter.isPlainDomainRule()) {
+                    plainDomains.add(filter.plainDomain());
+                    continue;
+                }
+                String token = filter.indexToken();
+                if (token == null) {
+                    rest.add(filter);
+                    continue;
+                }
+                int hash = DomainTrie.labelHash(token, 0, token.length());
+                List<NetworkFilter> list = byToken.get(hash);
+                if (list == null) {
+                    list = new ArrayList<>(1);
+                    byToken.put(hash, list);
+                }
+                list.add(filter);
+            }
+
+            domains = plainDomains.isEmpty() ? CompactBlocklist.EMPTY : CompactBlocklist.of(plainDomains);
+
+            int capacity = 2;
+            while (capacity < byToken.size() * 2) {
+                capacity *= 2;
+            }
+            tokenHashes = new int[capacity];
+            tokenFilters = new NetworkFilter[capacity][];
+            int mask = capacity - 1;
+            for (Map.Entry<Integer, List<NetworkFilter>> entry : byToken.entrySet()) {
+                int i = entry.getKey() & mask;
+                while (tokenFilters[i] != null) {
+                    i = (i + 1) & mask;
+                }
+                tokenHashes[i] = entry.getKey();
+                tokenFilters[i] = entry.getValue().toArray(new NetworkFilter[0]);
+            }
+            untokenized = rest.toArray(new NetworkFilter[0]);
+        }
+
+        boolean matches(String url, String host, int hostStart, int hostEnd, ResourceType type,
+                        boolean thirdParty, String pageHost) {
+            // Plain domain rules do not apply to the main document, like other rules without a type
+            if (type != ResourceType.DOCUMENT && host != null && domains.containsDomainOrParent(host)) {
+                return true;
+            }
+            int mask = tokenHashes.length - 1;
+            int i = 0;
+            int length = url.length();
+            while (i < length) {
+                if (!NetworkFilter.isAlnum(url.charAt(i))) {
+                    i++;
+                    continue;
+                }
+                int hash = 0;
+                int start = i;
+                while (i < length && NetworkFilter.isAlnum(url.charAt(i))) {
+                    hash = 31 * hash + CompactBlocklist.lowerAscii(url.charAt(i));
+                    i++;
+                }
+                if (i - start < 2) {
+                    continue;
+                }
+                for (int slot = hash & mask; tokenFilters[slot] != null; slot = (slot + 1) & mask) {
+                    if (tokenHashes[slot] == hash
+                            && anyMatches(tokenFilters[slot], url, hostStart, hostEnd, type, thirdParty, pageHost)) {
+                        return true;
+                    }
+                }
+            }
+            return anyMatches(untokenized, url, hostStart, hostEnd, type, thirdParty, pageHost);
+        }
+
+        private static boolean anyMatches(NetworkFilter[] candidates, String url, int hostStart, int hostEnd,
+                                          ResourceType type, boolean thirdParty, String pageHost) {
+            for (NetworkFilter filter : candidates) {
+                if (filter.matches(url, hostStart, hostEnd, type, thirdParty, pageHost)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
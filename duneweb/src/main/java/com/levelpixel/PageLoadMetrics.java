@@ -0,0 +1,196 @@
+package com.levelpixel;
+
+import androidx.annotation.NonNull;
+
+import java.util.Map;
+
+/**
+ * Load performance of one page, see
+ * {@link DuneWebView#setPageLoadTelemetryEnabled(boolean)}.
+ *
+ * Times in milliseconds are measured from the start of the navigation,
+ * as the page's Performance API reports them; -1 means the page did not
+ * provide the value.
+ */
+public final class PageLoadMetrics {
+    private final String url;
+    private final boolean adBlockEnabled;
+    private final long blockedRequests;
+    private final long pageStartedMillis;
+    private final long pageFinishedMillis;
+    private final long navigationStartMillis;
+    private final long dnsMillis;
+    private final long connectMillis;
+    private final long timeToFirstByteMillis;
+    private final long domContentLoadedMillis;
+    private final long loadEventMillis;
+    private final long documentTransferBytes;
+    private final long resourceCount;
+    private final long resourceTransferBytes;
+    private final long firstContentfulPaintMillis;
+    private final long largestContentfulPaintMillis;
+    private final double cumulativeLayoutShift;
+    private final long interactionToNextPaintMillis;
+
+    /**
+     * @param values the page's report, by the keys of {@link PageTelemetry#SCRIPT}
+     */
+    PageLoadMetrics(String url, boolean adBlockEnabled, long blockedRequests,
+                    long pageStartedMillis, long pageFinishedMillis, Map<String, Double> values) {
+        this.url = url;
+        this.adBlockEnabled = adBlockEnabled;
+        this.blockedRequests = blockedRequests;
+        this.pageStartedMillis = pageStartedMillis;
+        this.pageFinishedMillis = pageFinishedMillis;
+        this.navigationStartMillis = rounded(values, "origin");
+        this.dnsMillis = rounded(values, "dns");
+        this.connectMillis = rounded(values, "connect");
+        this.timeToFirstByteMillis = rounded(values, "ttfb");
+        this.domContentLoadedMillis = rounded(values, "dcl");
+        this.loadEventMillis = rounded(values, "load");
+        this.documentTransferBytes = rounded(values, "bytes");
+        this.resourceCount = rounded(values, "resources");
+        this.resourceTransferBytes = rounded(values, "resourceBytes");
+        this.firstContentfulPaintMillis = rounded(values, "fcp");
+        this.largestContentfulPaintMillis = rounded(values, "lcp");
+        Double cls = values.get("cls");
+        this.cumulativeLayoutShift = cls != null ? cls : -1;
+        this.interactionToNextPaintMillis = rounded(values, "inp");
+    }
+
+    private static long rounded(Map<String, Double> values, String key) {
+        Double value = values.get(key);
+        return value != null && value >= 0 ? Math.round(value) : -1;
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    public boolean isAdBlockEnabled() {
+        return adBlockEnabled;
+    }
+
+    /**
+     * Requests of the page the ad blocker blocked, or -1 unless block
+     * statistics are enabled
+     */
+    public long getBlockedRequests() {
+        return blockedRequests;
+    }
+
+    /**
+     * Wall clock time of onPageStarted, or -1 if it was not seen
+     */
+    public long getPageStartedMillis() {
+        return pageStartedMillis;
+    }
+
+    /**
+     * Wall clock time of onPageFinished, or -1 if the page never finished loading
+     */
+    public long getPageFinishedMillis() {
+        return pageFinishedMillis;
+    }
+
+    /**
+     * Time from onPageStarted to onPageFinished, or -1 if either is missing
+     */
+    public long getNativeLoadMillis() {
+        return pageStartedMillis >= 0 && pageFinishedMillis >= pageStartedMillis
+                ? pageFinishedMillis - pageStartedMillis
+                : -1;
+    }
+
+    /**
+     * Wall clock time the navigation started, per the page (performance.timeOrigin)
+     */
+    public long getNavigationStartMillis() {
+        return navigationStartMillis;
+    }
+
+    public long getDnsMillis() {
+        return dnsMillis;
+    }
+
+    public long getConnectMillis() {
+        return connectMillis;
+    }
+
+    public long getTimeToFirstByteMillis() {
+        return timeToFirstByteMillis;
+    }
+
+    public long getDomContentLoadedMillis() {
+        return domContentLoadedMillis;
+    }
+
+    /**
+     * End of the load event
+     */
+    public long getLoadEventMillis() {
+        return loadEventMillis;
+    }
+
+    /**
+     * Bytes transferred for the document itself; 0 when served from cache
+     */
+    public long getDocumentTransferBytes() {
+        return documentTransferBytes;
+    }
+
+    /**
+     * Subresources the page requested, blocked ones included
+     */
+    public long getResourceCount() {
+        return resourceCount;
+    }
+
+    /**
+     * Bytes transferred for subresources; cross-origin ones without
+     * Timing-Allow-Origin count as 0
+     */
+    public long getResourceTransferBytes() {
+        return resourceTransferBytes;
+    }
+
+    public long getFirstContentfulPaintMillis() {
+        return firstContentfulPaintMillis;
+    }
+
+    public long getLargestContentfulPaintMillis() {
+        return largestContentfulPaintMillis;
+    }
+
+    /**
+     * Largest burst of unexpected layout shifts, or -1 if not supported
+     */
+    public double getCumulativeLayoutShift() {
+        return cumulativeLayoutShift;
+    }
+
+    /**
+     * Near-worst interaction latency, or -1 if the user did not interact
+     */
+    public long getInteractionToNextPaintMillis() {
+        return interactionToNextPaintMillis;
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return "PageLoadMetrics{url=" + url
+                + ", adBlockEnabled=" + adBlockEnabled
+                + ", blockedRequests=" + blockedRequests
+                + ", nativeLoadMillis=" + getNativeLoadMillis()
+                + ", timeToFirstByteMillis=" + timeToFirstByteMillis
+                + ", domContentLoadedMillis=" + domContentLoadedMillis
+                + ", loadEventMillis=" + loadEventMillis
+                + ", resourceCount=" + resourceCount
+                + ", resourceTransferBytes=" + resourceTransferBytes
+                + ", firstContentfulPaintMillis=" + firstContentfulPaintMillis
+                + ", largestContentfulPaintMillis=" + largestContentfulPaintMillis
+                + ", cumulativeLayoutShift=" + cumulativeLayoutShift
+                + ", interactionToNextPaintMillis=" + interactionToNextPaintMillis + "}";
+    }
+}
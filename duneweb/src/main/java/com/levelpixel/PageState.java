@@ -0,0 +1,81 @@
+package com.levelpixel;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * Loading state of a DuneWebView's page, see
+ * {@link DuneWebView#setPageStateListener(DuneWebView.OnPageStateListener)}.
+ * Each update carries every value, and flags for the ones that changed
+ * since the previous update.
+ */
+public final class PageState {
+    // Flags of getChanges()
+    public static final int PROGRESS = 1;
+    public static final int URL = 1 << 1;
+    public static final int TITLE = 1 << 2;
+    public static final int BLOCKED_REQUESTS = 1 << 3;
+
+    private final int progress;
+    private final String url;
+    private final String title;
+    private final long blockedRequests;
+    private final int changes;
+
+    PageState(int progress, String url, String title, long blockedRequests, int changes) {
+        this.progress = progress;
+        this.url = url;
+        this.title = title;
+        this.blockedRequests = blockedRequests;
+        this.changes = changes;
+    }
+
+    /**
+     * Load progress from 0 to 100
+     */
+    public int getProgress() {
+        return progress;
+    }
+
+    @Nullable
+    public String getUrl() {
+        return url;
+    }
+
+    @Nullable
+    public String getTitle() {
+        return title;
+    }
+
+    /**
+     * Requests of the current page the ad blocker blocked
+     */
+    public long getBlockedRequests() {
+        return blockedRequests;
+    }
+
+    /**
+     * Values that changed since the previous update, as PROGRESS, URL, TITLE
+     * and BLOCKED_REQUESTS flags
+     */
+    public int getChanges() {
+        return changes;
+    }
+
+    /**
+     * Check if any of the given values changed since the previous update
+     */
+    public boolean hasChanged(int flags) {
+        return (changes & flags) != 0;
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return "PageState{progress=" + progress
+                + ", url=" + url
+                + ", title=" + title
+                + ", blockedRequests=" + blockedRequests
+                + ", changes=" + changes + "}";
+    }
+}
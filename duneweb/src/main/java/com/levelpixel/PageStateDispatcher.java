@@ -0,0 +1,145 @@
+package com.levelpixel;
+
+import android.view.Choreographer;
+import android.view.View;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Merges a view's progress, URL, title and blocked request changes into at
+ * most one {@link PageState} per display frame.
+ *
+ * WebView reports progress many times per load, often several times between
+ * two frames. Values are only stored when they arrive; the next frame callback
+ * compares them with the last dispatched state and calls the listener once,
+ * if anything changed. Blocked requests are counted on WebView's IO threads
+ * and hand over to the main thread with at most one pending post.
+ */
+final class PageStateDispatcher implements Choreographer.FrameCallback, Runnable {
+    private final View view;
+    private final DuneWebView.OnPageStateListener listener;
+    private final Choreographer choreographer;
+
+    // Latest values, main thread only
+    private int progress;
+    private String url;
+    private String title;
+    private boolean frameScheduled;
+
+    // Values of the last dispatched state; progress -1 until the first one
+    private int dispatchedProgress = -1;
+    private String dispatchedUrl;
+    private String dispatchedTitle;
+    private long dispatchedBlocked;
+
+    // Blocked requests of the current page, counted on IO threads
+    private final LongAdder blocked = new LongAdder();
+    private final AtomicBoolean blockedPosted = new AtomicBoolean();
+
+    /**
+     * Create on the main thread
+     */
+    PageStateDispatcher(View view, DuneWebView.OnPageStateListener listener) {
+        this.view = view;
+        this.listener = listener;
+        this.choreographer = Choreographer.getInstance();
+    }
+
+    void setProgress(int progress) {
+        this.progress = progress;
+        scheduleFrame();
+    }
+
+    void setUrl(String url) {
+        this.url = url;
+        scheduleFrame();
+    }
+
+    void setTitle(String title) {
+        this.title = title;
+        scheduleFrame();
+    }
+
+    /**
+     * A new page started loading in the main frame; called on any thread
+     */
+    void startPage() {
+        blocked.reset();
+        postBlockedChange();
+    }
+
+    /**
+     * A request of the current page was blocked; called on any thread
+     */
+    void requestBlocked() {
+        blocked.increment();
+        postBlockedChange();
+    }
+
+    private void postBlockedChange() {
+        if (blockedPosted.compareAndSet(false, true)) {
+            view.post(this);
+        }
+    }
+
+    /**
+     * Blocked count changed on an IO thread
+     */
+    @Override
+    public void run() {
+        // Cleared before the frame reads the count, so later blocks post again
+        blockedPosted.set(false);
+        scheduleFrame();
+    }
+
+    private void scheduleFrame() {
+        if (!frameScheduled) {
+            frameScheduled = true;
+            choreographer.postFrameCallback(this);
+        }
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        frameScheduled = false;
+        long blockedRequests = blocked.sum();
+        int changes = 0;
+        if (progress != dispatchedProgress) {
+            changes |= PageState.PROGRESS;
+        }
+        if (url != null && !url.equals(dispatchedUrl)) {
+            changes |= PageState.URL;
+        }
+        if (title != null && !title.equals(dispatchedTitle)) {
+            changes |= PageState.TITLE;
+        }
+        if (blockedRequests != dispatchedBlocked) {
+            changes |= PageState.BLOCKED_REQUESTS;
+        }
+        if (changes == 0) {
+            return;
+        }
+        dispatchedProgress = progress;
+        dispatchedUrl = url;
+        dispatchedTitle = title;
+        dispatchedBlocked = blockedRequests;
+        listener.onPageStateChanged(new PageState(progress, url, title, blockedRequests, changes));
+    }
+
+    /**
+     * Forgets the page and drops a pending update, for a view being reused
+     */
+    void reset() {
+        choreographer.removeFrameCallback(this);
+        frameScheduled = false;
+        progress = 0;
+        url = null;
+        title = null;
+        dispatchedProgress = -1;
+        dispatchedUrl = null;
+        dispatchedTitle = null;
+        dispatchedBlocked = 0;
+        blocked.reset();
+    }
+}
@@ -0,0 +1,176 @@
+package com.levelpixel;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Page load telemetry of one DuneWebView: the native page timestamps, and
+ * the script collecting the page's own measurements.
+ *
+ * The script observes paints, layout shifts and interactions from document
+ * start, and reports everything once, when the page is hidden (navigating
+ * away, switching apps), which is when Web Vitals are final. The report is a
+ * single bridge call with URL-encoded values, matched here to the page's
+ * onPageStarted / onPageFinished times by URL.
+ */
+final class PageTelemetry {
+    // Pages whose report is still expected; more are only kept briefly
+    private static final int MAX_PAGES = 8;
+
+    /**
+     * Collects Navigation Timing, resource totals, FCP, LCP, CLS and INP in the
+     * top frame and calls DuneTelemetry.report(url, values) once per page.
+     * CLS is the largest session window of shifts (gaps under 1 s, at most
+     * 5 s long); INP is the longest interaction, or the 98th percentile once
+     * there are 50 or more. Installs itself once per document.
+     */
+    static final String SCRIPT =
+            "(function() {" +
+                    "  if (window.__dunePageTelemetry || window !== window.top || !window.DuneTelemetry" +
+                    "      || !window.PerformanceObserver) return;" +
+                    "  window.__dunePageTelemetry = true;" +
+                    "  const pageUrl = location.href;" +
+                    "  let fcp = -1, lcp = -1, cls = 0, session = 0, sessionStart = 0, sessionEnd = 0;" +
+                    "  let resources = 0, resourceBytes = 0, sent = false;" +
+                    "  const interactions = new Map();" +
+                    "  function observe(type, callback, options) {" +
+                    "    try {" +
+                    "      new PerformanceObserver(function(list) { list.getEntries().forEach(callback); })" +
+                    "          .observe(Object.assign({ type: type, buffered: true }, options));" +
+                    "    } catch (e) {}" +
+                    "  }" +
+                    "  observe('paint', function(e) {" +
+                    "    if (e.name === 'first-contentful-paint') fcp = e.startTime;" +
+                    "  });" +
+                    "  observe('largest-contentful-paint', function(e) { lcp = e.startTime; });" +
+                    "  observe('layout-shift', function(e) {" +
+                    "    if (e.hadRecentInput) return;" +
+                    "    if (session && e.startTime - sessionEnd < 1000 && e.startTime - sessionStart < 5000) {" +
+                    "      session += e.value;" +
+                    "    } else {" +
+                    "      session = e.value;" +
+                    "      sessionStart = e.startTime;" +
+                    "    }" +
+                    "    sessionEnd = e.startTime;" +
+                    "    cls = Math.max(cls, session);" +
+                    "  });" +
+                    "  function interaction(e) {" +
+                    "    if (e.interactionId) {" +
+                    "      interactions.set(e.interactionId, Math.max(interactions.get(e.interactionId) || 0, e.duration));" +
+                    "    }" +
+                    "  }" +
+                    "  observe('event', interaction, { durationThreshold: 16 });" +
+                    "  observe('first-input', interaction);" +
+                    "  observe('resource', function(e) {" +
+                    "    resources++;" +
+                    "    resourceBytes += e.transferSize || 0;" +
+                    "  });" +
+                    "  function report() {" +
+                    "    if (sent) return;" +
+                    "    sent = true;" +
+                    "    const durations = Array.from(interactions.values()).sort(function(a, b) { return b - a; });" +
+                    "    const values = {" +
+                    "      origin: performance.timeOrigin, fcp: fcp, lcp: lcp, cls: cls," +
+                    "      inp: durations.length ? durations[Math.min(durations.length - 1, Math.floor(durations.length / 50))] : -1," +
+                    "      resources: resources, resourceBytes: resourceBytes" +
+                    "    };" +
+                    "    const nav = performance.getEntriesByType('navigation')[0];" +
+                    "    if (nav) {" +
+                    "      values.dns = nav.domainLookupEnd - nav.domainLookupStart;" +
+                    "      values.connect = nav.connectEnd - nav.connectStart;" +
+                    "      values.ttfb = nav.responseStart;" +
+                    "      if (nav.domContentLoadedEventEnd > 0) values.dcl = nav.domContentLoadedEventEnd;" +
+                    "      if (nav.loadEventEnd > 0) values.load = nav.loadEventEnd;" +
+                    "      values.bytes = nav.transferSize;" +
+                    "    }" +
+                    "    window.DuneTelemetry.report(pageUrl, new URLSearchParams(values).toString());" +
+                    "  }" +
+                    "  addEventListener('visibilitychange', function() {" +
+                    "    if (document.visibilityState === 'hidden') report();" +
+                    "  }, true);" +
+                    "  addEventListener('pagehide', report, true);" +
+                    "})();";
+
+    // Native times of recent pages by URL, oldest first; guarded by this
+    private final LinkedHashMap<String, PageTimes> pages = new LinkedHashMap<>();
+
+    /**
+     * Called from onPageStarted
+     */
+    synchronized void pageStarted(String url, long timeMillis) {
+        pages.remove(url);
+        pages.put(url, new PageTimes(timeMillis));
+        Iterator<PageTimes> oldest = pages.values().iterator();
+        while (pages.size() > MAX_PAGES) {
+            oldest.next();
+            oldest.remove();
+        }
+    }
+
+    /**
+     * Called from onPageFinished
+     *
+     * @param blockedRequests requests of the page that were blocked, or -1 if not counted
+     */
+    synchronized void pageFinished(String url, long timeMillis, long blockedRequests) {
+        PageTimes times = pages.get(url);
+        // onPageFinished can repeat for one page, e.g. after a fragment change
+        if (times != null && times.finishedMillis < 0) {
+            times.finishedMillis = timeMillis;
+            times.blockedRequests = blockedRequests;
+        }
+    }
+
+    /**
+     * Combines a page's report with its native times. A page reports once,
+     * so its times are dropped.
+     */
+    PageLoadMetrics complete(String url, String report, boolean adBlockEnabled) {
+        PageTimes times;
+        synchronized (this) {
+            times = pages.remove(url);
+        }
+        if (times == null) {
+            times = new PageTimes(-1);
+        }
+        return new PageLoadMetrics(url, adBlockEnabled, times.blockedRequests,
+                times.startedMillis, times.finishedMillis, parse(report));
+    }
+
+    /**
+     * Numeric values of an application/x-www-form-urlencoded report; others are skipped
+     */
+    static Map<String, Double> parse(String report) {
+        Map<String, Double> values = new HashMap<>();
+        if (report == null) {
+            return values;
+        }
+        for (String pair : report.split("&")) {
+            int equals = pair.indexOf('=');
+            if (equals <= 0) {
+                continue;
+            }
+            try {
+                double value = Double.parseDouble(pair.substring(equals + 1));
+                if (!Double.isNaN(value) && !Double.isInfinite(value)) {
+                    values.put(pair.substring(0, equals), value);
+                }
+            } catch (NumberFormatException e) {
+                // Not a number, e.g. "undefined" from an unsupported field
+            }
+        }
+        return values;
+    }
+
+    private static final class PageTimes {
+        final long startedMillis;
+        long finishedMillis = -1;
+        long blockedRequests = -1;
+
+        PageTimes(long startedMillis) {
+            this.startedMillis = startedMillis;
+        }
+    }
+}
@@ -0,0 +1,753 @@
+package com.levelpixel;
+
+import android.content.Context;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * App-controlled disk cache for subresources (images, scripts, stylesheets,
+ * fonts, ...), served from DuneWebView's request interception once enabled
+ * with {@link DuneWebView#setResourceCacheEnabled(boolean)}.
+ *
+ * Responses are stored when HTTP allows it (200, no "no-store", no cookies
+ * set) and kept within a size budget, evicting by the configured policy.
+ * Fresh entries are served without the network; stale ones are revalidated
+ * with If-None-Match / If-Modified-Since, and served as they are when the
+ * network is unreachable, so pages seen once keep loading offline.
+ * Stored bodies are memory-mapped when served rather than copied in.
+ *
+ * The cache lives as long as the application and is shared by every
+ * DuneWebView; obtain it with {@link #getInstance(Context)}.
+ */
+public final class ResourceCache {
+    public static final long DEFAULT_MAX_BYTES = 50L * 1024 * 1024;
+
+    private static final String DIRECTORY = "dune-resources";
+    private static final String BODY_SUFFIX = ".body";
+    private static final String META_SUFFIX = ".meta";
+    private static final int META_VERSION = 1;
+    // Freshness given to responses with Last-Modified but no explicit lifetime is
+    // a tenth of their age, as browsers do, capped here
+    private static final long MAX_HEURISTIC_LIFETIME_MILLIS = 24L * 60 * 60 * 1000;
+
+    private static volatile ResourceCache instance;
+
+    /**
+     * Which entries go first when the cache is over its size budget
+     */
+    public enum EvictionPolicy {
+        /** Entries served least recently */
+        LEAST_RECENTLY_USED,
+        /** Entries stored earliest, however often they are served */
+        OLDEST_FIRST
+    }
+
+    private final File directory;
+    private final HttpFetcher fetcher;
+
+    private final ExecutorService prefetcher = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "ResourceCache-prefetch");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // Guarded by this: entries by URL in eviction order, eldest first
+    private LinkedHashMap<String, Entry> entries;
+    private long sizeBytes;
+    private long maxBytes;
+    private EvictionPolicy policy;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder revalidations = new LongAdder();
+
+    ResourceCache(File directory, long maxBytes, EvictionPolicy policy, HttpFetcher fetcher) {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+        this.policy = policy;
+        this.fetcher = fetcher;
+    }
+
+    /**
+     * Application-scoped cache in the app's cache directory
+     */
+    public static ResourceCache getInstance(Context context) {
+        ResourceCache cache = instance;
+        if (cache == null) {
+            synchronized (ResourceCache.class) {
+                cache = instance;
+                if (cache == null) {
+                    cache = new ResourceCache(new File(context.getCacheDir(), DIRECTORY),
+                            DEFAULT_MAX_BYTES, EvictionPolicy.LEAST_RECENTLY_USED, new HttpFetcher());
+                    instance = cache;
+                }
+            }
+        }
+        return cache;
+    }
+
+    /**
+     * Set the size budget of stored bodies, evicting entries right away if
+     * the cache is over it
+     */
+    public synchronized void setMaxSize(long bytes) {
+        maxBytes = bytes;
+        if (entries != null) {
+            trimToSize();
+        }
+    }
+
+    public synchronized long getMaxSize() {
+        return maxBytes;
+    }
+
+    public synchronized void setEvictionPolicy(EvictionPolicy policy) {
+        if (policy == this.policy) {
+            return;
+        }
+        this.policy = policy;
+        if (entries != null) {
+            entries = orderedEntries(entries.values());
+        }
+    }
+
+    /**
+     * Download the URLs that are not stored yet, or stored but stale, in the
+     * background, e.g. the resources of kiosk pages before going offline.
+     * Failed downloads are logged and skipped.
+     *
+     * @return future completing with the number of URLs stored or refreshed
+     */
+    public Future<Integer> prefetch(Collection<String> urls) {
+        List<String> copy = new ArrayList<>(urls);
+        return prefetcher.submit(() -> {
+            int stored = 0;
+            byte[] buffer = new byte[8192];
+            for (String url : copy) {
+                try {
+                    Entry entry = lookup(url);
+                    if (entry != null && entry.isFresh(System.currentTimeMillis())) {
+                        continue;
+                    }
+                    long expiresBefore = entry != null ? entry.expiresAt : 0;
+                    HttpFetcher.Response response = fetch(url, null, entry);
+                    if (response == null) {
+                        continue;
+                    }
+                    try (InputStream body = response.body) {
+                        while (body.read(buffer) >= 0) {
+                            // Reading to the end commits the body to the cache
+                        }
+                    }
+                    Entry after = lookup(url);
+                    if (after != null && (after != entry || after.expiresAt != expiresBefore)) {
+                        stored++;
+                    }
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+            return stored;
+        });
+    }
+
+    /**
+     * Requests answered from disk: fresh, revalidated or, when offline, stale
+     */
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    /**
+     * Requests whose body had to be downloaded
+     */
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    /**
+     * Hits that needed a conditional request first
+     */
+    public long getRevalidationCount() {
+        return revalidations.sum();
+    }
+
+    public synchronized int getEntryCount() {
+        ensureLoaded();
+        return entries.size();
+    }
+
+    /**
+     * Total size of the stored bodies in bytes
+     */
+    public synchronized long getSize() {
+        ensureLoaded();
+        return sizeBytes;
+    }
+
+    /**
+     * Delete every stored response
+     */
+    public synchronized void clear() {
+        ensureLoaded();
+        for (Entry entry : entries.values()) {
+            delete(entry);
+        }
+        entries.clear();
+        sizeBytes = 0;
+    }
+
+    /**
+     * Response for a GET request, from disk when possible. A downloaded body
+     * that can be stored is written to the cache as the caller reads it.
+     *
+     * @return the response, or null for a 3xx response, which the caller
+     * should leave to the WebView
+     */
+    HttpFetcher.Response get(String url, Map<String, String> headers) throws IOException {
+        Entry entry = lookup(url);
+        if (entry != null && entry.isFresh(System.currentTimeMillis())) {
+            HttpFetcher.Response cached = open(entry);
+            if (cached != null) {
+                hits.increment();
+                return cached;
+            }
+        }
+        try {
+            return fetch(url, headers, entry);
+        } catch (IOException e) {
+            // Offline: a stale copy beats an error page
+            HttpFetcher.Response cached = entry != null ? open(entry) : null;
+            if (cached == null) {
+                throw e;
+            }
+            hits.increment();
+            return cached;
+        }
+    }
+
+    /**
+     * Downloads the URL, revalidating the stored entry if there is one
+     */
+    private HttpFetcher.Response fetch(String url, Map<String, String> headers, Entry entry) throws IOException {
+        Map<String, String> request = HttpFetcher.withoutConditionalHeaders(headers);
+        if (entry != null) {
+            String etag = entry.header("ETag");
+            String lastModified = entry.header("Last-Modified");
+            if (etag != null) {
+                request.put("If-None-Match", etag);
+            }
+            if (lastModified != null) {
+                request.put("If-Modified-Since", lastModified);
+            }
+        }
+
+        HttpFetcher.Response response = fetcher.get(url, request);
+        long now = System.currentTimeMillis();
+        if (response.status == 304 && entry != null) {
+            response.body.close();
+            entry.expiresAt = expiresAt(response, now);
+            writeMeta(entry);
+            HttpFetcher.Response cached = open(entry);
+            if (cached != null) {
+                hits.increment();
+                revalidations.increment();
+                return cached;
+            }
+            // Stored body is gone; ask again without the validators
+            return fetch(url, headers, null);
+        }
+        if (response.isRedirection()) {
+            response.body.close();
+            return null;
+        }
+        misses.increment();
+        long expiresAt = expiresAt(response, now);
+        if (!isStorable(response, expiresAt)) {
+            return response;
+        }
+        return response.withBody(new StoringInputStream(response.body,
+                new Entry(url, response, now, expiresAt), maxBytes / 8));
+    }
+
+    private synchronized Entry lookup(String url) {
+        ensureLoaded();
+        return entries.get(url);
+    }
+
+    /**
+     * Maps the stored body of an entry
+     *
+     * @return the response, or null if the body file is gone
+     */
+    private HttpFetcher.Response open(Entry entry) {
+        try (RandomAccessFile file = new RandomAccessFile(bodyFile(entry), "r");
+             FileChannel channel = file.getChannel()) {
+            // The mapping stays valid after the channel is closed, and after
+            // the file is deleted by eviction
+            MappedByteBuffer body = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            bodyFile(entry).setLastModified(System.currentTimeMillis());
+            return new HttpFetcher.Response(entry.status, entry.reason, entry.contentType, entry.headers,
+                    Collections.<String>emptyList(), new ByteBufferInputStream(body));
+        } catch (IOException e) {
+            synchronized (this) {
+                if (entries.get(entry.url) == entry) {
+                    entries.remove(entry.url);
+                    sizeBytes -= entry.size;
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Publishes a body written to a temporary file
+     */
+    private void commit(Entry entry, File body) {
+        synchronized (this) {
+            if (!body.renameTo(bodyFile(entry))) {
+                body.delete();
+                return;
+            }
+            writeMeta(entry);
+            Entry previous = entries.put(entry.url, entry);
+            if (previous != null) {
+                sizeBytes -= previous.size;
+            }
+            sizeBytes += entry.size;
+            trimToSize();
+        }
+    }
+
+    private void trimToSize() {
+        Iterator<Entry> eldest = entries.values().iterator();
+        while (sizeBytes > maxBytes && eldest.hasNext()) {
+            Entry entry = eldest.next();
+            eldest.remove();
+            sizeBytes -= entry.size;
+            delete(entry);
+        }
+    }
+
+    /**
+     * Reads the index from the entry files on first use
+     */
+    private void ensureLoaded() {
+        if (entries != null) {
+            return;
+        }
+        List<Entry> loaded = new ArrayList<>();
+        directory.mkdirs();
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                String name = file.getName();
+                if (name.endsWith(META_SUFFIX)) {
+                    Entry entry = readMeta(file);
+                    if (entry != null) {
+                        loaded.add(entry);
+                    } else {
+                        file.delete();
+                        new File(directory, name.replace(META_SUFFIX, BODY_SUFFIX)).delete();
+                    }
+                } else if (!name.endsWith(BODY_SUFFIX)) {
+                    // Temporary file of a download that never finished
+                    file.delete();
+                }
+            }
+        }
+        entries = orderedEntries(loaded);
+        sizeBytes = 0;
+        for (Entry entry : loaded) {
+            sizeBytes += entry.size;
+        }
+        trimToSize();
+    }
+
+    private LinkedHashMap<String, Entry> orderedEntries(Collection<Entry> unordered) {
+        List<Entry> list = new ArrayList<>(unordered);
+        boolean lru = policy == EvictionPolicy.LEAST_RECENTLY_USED;
+        // Bodies are touched when served, so their modification time is the last use
+        Collections.sort(list, lru
+                ? Comparator.comparingLong((Entry e) -> bodyFile(e).lastModified())
+                : Comparator.comparingLong((Entry e) -> e.storedAt));
+        LinkedHashMap<String, Entry> ordered = new LinkedHashMap<>(Math.max(16, list.size() * 2), 0.75f, lru);
+        for (Entry entry : list) {
+            ordered.put(entry.url, entry);
+        }
+        return ordered;
+    }
+
+    private Entry readMeta(File file) {
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            if (in.readInt() != META_VERSION) {
+                return null;
+            }
+            String url = in.readUTF();
+            int status = in.readInt();
+            String reason = in.readUTF();
+            String contentType = in.readUTF();
+            long storedAt = in.readLong();
+            long expiresAt = in.readLong();
+            int headerCount = in.readInt();
+            Map<String, String> headers = new LinkedHashMap<>();
+            for (int i = 0; i < headerCount; i++) {
+                headers.put(in.readUTF(), in.readUTF());
+            }
+            Entry entry = new Entry(url, status, reason, contentType.isEmpty() ? null : contentType,
+                    Collections.unmodifiableMap(headers), storedAt, expiresAt);
+            File body = bodyFile(entry);
+            if (!body.isFile() || !file.getName().equals(entry.fileName + META_SUFFIX)) {
+                return null;
+            }
+            entry.size = body.length();
+            return entry;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private void writeMeta(Entry entry) {
+        File temp = new File(directory, entry.fileName + ".tmp-meta");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+            out.writeInt(META_VERSION);
+            out.writeUTF(entry.url);
+            out.writeInt(entry.status);
+            out.writeUTF(entry.reason);
+            out.writeUTF(entry.contentType != null ? entry.contentType : "");
+            out.writeLong(entry.storedAt);
+            out.writeLong(entry.expiresAt);
+            out.writeInt(entry.headers.size());
+            for (Map.Entry<String, String> header : entry.headers.entrySet()) {
+                out.writeUTF(header.getKey());
+                out.writeUTF(header.getValue());
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            temp.delete();
+            return;
+        }
+        if (!temp.renameTo(new File(directory, entry.fileName + META_SUFFIX))) {
+            temp.delete();
+        }
+    }
+
+    private void delete(Entry entry) {
+        new File(directory, entry.fileName + META_SUFFIX).delete();
+        bodyFile(entry).delete();
+    }
+
+    private File bodyFile(Entry entry) {
+        return new File(directory, entry.fileName + BODY_SUFFIX);
+    }
+
+    /**
+     * Check if HTTP caching rules let this response be stored and replayed
+     */
+    private static boolean isStorable(HttpFetcher.Response response, long expiresAt) {
+        if (response.status != 200 || expiresAt < 0 || !response.cookies.isEmpty()) {
+            return false;
+        }
+        String vary = response.header("Vary");
+        if (vary != null) {
+            String v = vary.toLowerCase(Locale.ROOT);
+            return !v.contains("*") && !v.contains("cookie");
+        }
+        return true;
+    }
+
+    /**
+     * Time until which the response is fresh, from Cache-Control max-age,
+     * Expires or a Last-Modified heuristic; -1 if it must not be stored.
+     * no-store and private win over no-cache and max-age in any order.
+     */
+    static long expiresAt(HttpFetcher.Response response, long now) {
+        String cacheControl = response.header("Cache-Control");
+        if (cacheControl != null) {
+            boolean noCache = false;
+            // Seconds, or -1 without a valid max-age
+            long maxAge = -1;
+            boolean hasMaxAge = false;
+            for (String directive : cacheControl.toLowerCase(Locale.ROOT).split(",")) {
+                String d = directive.trim();
+                if (d.equals("no-store") || d.equals("private")) {
+                    return -1;
+                }
+                if (d.equals("no-cache")) {
+                    noCache = true;
+                } else if (d.startsWith("max-age=")) {
+                    hasMaxAge = true;
+                    try {
+                        maxAge = Long.parseLong(d.substring(8).trim());
+                    } catch (NumberFormatException e) {
+                        maxAge = -1;
+                    }
+                }
+            }
+            if (noCache) {
+                return now;
+            }
+            if (hasMaxAge) {
+                return maxAge > 0 ? now + maxAge * 1000 : now;
+            }
+        }
+        long expires = parseDate(response.header("Expires"));
+        if (expires >= 0) {
+            long date = parseDate(response.header("Date"));
+            return now + Math.max(0, expires - (date >= 0 ? date : now));
+        }
+        long lastModified = parseDate(response.header("Last-Modified"));
+        if (lastModified >= 0 && lastModified < now) {
+            return now + Math.min((now - lastModified) / 10, MAX_HEURISTIC_LIFETIME_MILLIS);
+        }
+        return now;
+    }
+
+    /**
+     * HTTP date in milliseconds, or -1 if missing or invalid
+     */
+    private static long parseDate(String value) {
+        if (value == null) {
+            return -1;
+        }
+        SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("GMT"));
+        try {
+            return format.parse(value.trim()).getTime();
+        } catch (ParseException e) {
+            return -1;
+        }
+    }
+
+    static String fileNameOf(String url) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(url.getBytes(StandardCharsets.UTF_8));
+            StringBuilder hex = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * One stored response
+     */
+    private static final class Entry {
+        final String url;
+        final String fileName;
+        final int status;
+        final String reason;
+        final String contentType;
+        final Map<String, String> headers;
+        final long storedAt;
+        volatile long expiresAt;
+        long size;
+
+        Entry(String url, int status, String reason, String contentType, Map<String, String> headers,
+              long storedAt, long expiresAt) {
+            this.url = url;
+            this.fileName = fileNameOf(url);
+            this.status = status;
+            this.reason = reason;
+            this.contentType = contentType;
+            this.headers = headers;
+            this.storedAt = storedAt;
+            this.expiresAt = expiresAt;
+        }
+
+        Entry(String url, HttpFetcher.Response response, long storedAt, long expiresAt) {
+            this(url, response.status, response.reason, response.contentType, response.headers,
+                    storedAt, expiresAt);
+        }
+
+        boolean isFresh(long now) {
+            return now < expiresAt;
+        }
+
+        String header(String name) {
+            for (Map.Entry<String, String> header : headers.entrySet()) {
+                if (header.getKey().equalsIgnoreCase(name)) {
+                    return header.getValue();
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Passes a downloaded body to the reader while writing it to a temporary
+     * file, which becomes the entry once the body has been read to the end.
+     * A body closed early or larger than the limit is not stored.
+     */
+    private final class StoringInputStream extends FilterInputStream {
+        private final Entry entry;
+        private final long maxSize;
+        private File temp;
+        private OutputStream out;
+
+        StoringInputStream(InputStream in, Entry entry, long maxSize) {
+            super(in);
+            this.entry = entry;
+            this.maxSize = maxSize;
+            try {
+                directory.mkdirs();
+                temp = File.createTempFile(entry.fileName, ".tmp", directory);
+                out = new BufferedOutputStream(new FileOutputStream(temp));
+            } catch (IOException e) {
+                e.printStackTrace();
+                abandon();
+            }
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            int n = read(one, 0, 1);
+            return n < 0 ? -1 : one[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n;
+            try {
+                n = super.read(b, off, len);
+            } catch (IOException e) {
+                abandon();
+                throw e;
+            }
+            if (out == null) {
+                return n;
+            }
+            if (n < 0) {
+                finishStoring();
+                return n;
+            }
+            entry.size += n;
+            if (entry.size > maxSize) {
+                abandon();
+                return n;
+            }
+            try {
+                out.write(b, off, n);
+            } catch (IOException e) {
+                e.printStackTrace();
+                abandon();
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            // Skipped bytes would be missing from the stored copy
+            abandon();
+            return super.skip(n);
+        }
+
+        @Override
+        public void close() throws IOException {
+            abandon();
+            super.close();
+        }
+
+        private void finishStoring() {
+            try {
+                out.close();
+                out = null;
+                commit(entry, temp);
+            } catch (IOException e) {
+                e.printStackTrace();
+                abandon();
+            }
+        }
+
+        private void abandon() {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException ignored) {
+                    // The file is deleted anyway
+                }
+                out = null;
+            }
+            if (temp != null && temp.exists()) {
+                temp.delete();
+            }
+        }
+    }
+
+    /**
+     * Reads a mapped body
+     */
+    private static final class ByteBufferInputStream extends InputStream {
+        private final ByteBuffer buffer;
+
+        ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) {
+                return 0;
+            }
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            int n = Math.min(len, buffer.remaining());
+            buffer.get(b, off, n);
+            return n;
+        }
+
+        @Override
+        public long skip(long n) {
+            int skipped = (int) Math.max(0, Math.min(n, buffer.remaining()));
+            buffer.position(buffer.position() + skipped);
+            return skipped;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+    }
+}
@@ -0,0 +1,179 @@
+package com.levelpixel;
+
+import java.util.Map;
+
+/**
+ * Kind of resource a request loads, as used by filter rule options ($script, $image, ...).
+ * WebView does not report the type directly, so it is inferred from the
+ * main-frame flag, the request headers and the URL's file extension.
+ */
+enum ResourceType {
+    DOCUMENT("document"),
+    SUBDOCUMENT("subdocument"),
+    SCRIPT("script"),
+    STYLESHEET("stylesheet"),
+    IMAGE("image"),
+    FONT("font"),
+    MEDIA("media"),
+    XMLHTTPREQUEST("xmlhttprequest"),
+    WEBSOCKET("websocket"),
+    PING("ping"),
+    OBJECT("object"),
+    OTHER("other");
+
+    // Types a rule without type options applies to. A $document exception is
+    // matched against the page, and then allows every request the page makes.
+    static final int DEFAULT_MASK = ~DOCUMENT.mask;
+
+    final String option;
+    final int mask;
+
+    ResourceType(String option) {
+        this.option = option;
+        this.mask = 1 << ordinal();
+    }
+
+    /**
+     * Type named by a filter option, or null if the name is unknown
+     */
+    static ResourceType fromOption(String option) {
+        switch (option) {
+            case "doc":
+                return DOCUMENT;
+            case "frame":
+                return SUBDOCUMENT;
+            case "css":
+                return STYLESHEET;
+            case "xhr":
+                return XMLHTTPREQUEST;
+            default:
+                for (ResourceType type : values()) {
+                    if (type.option.equals(option)) {
+                        return type;
+                    }
+                }
+                return null;
+        }
+    }
+
+    /**
+     * Best guess at the type of a request
+     */
+    static ResourceType of(String url, boolean mainFrame, Map<String, String> headers) {
+        if (mainFrame) {
+            return DOCUMENT;
+        }
+        if (headers != null) {
+            ResourceType type = fromFetchDest(header(headers, "Sec-Fetch-Dest"));
+            if (type != null) {
+                return type;
+            }
+            String accept = header(headers, "Accept");
+            if (accept != null) {
+                if (accept.startsWith("text/html")) {
+                    return SUBDOCUMENT;
+                }
+                if (accept.startsWith("text/css")) {
+                    return STYLESHEET;
+                }
+                if (accept.startsWith("image/")) {
+                    return IMAGE;
+                }
+            }
+        }
+        return fromExtension(url);
+    }
+
+    private static ResourceType fromFetchDest(String dest) {
+        if (dest == null) {
+            return null;
+        }
+        switch (dest) {
+            case "script":
+            case "worker":
+                return SCRIPT;
+            case "style":
+                return STYLESHEET;
+            case "image":
+                return IMAGE;
+            case "font":
+                return FONT;
+            case "audio":
+            case "video":
+            case "track":
+                return MEDIA;
+            case "iframe":
+            case "frame":
+                return SUBDOCUMENT;
+            case "empty":
+                return XMLHTTPREQUEST;
+            case "object":
+            case "embed":
+                return OBJECT;
+            default:
+                return null;
+        }
+    }
+
+    private static ResourceType fromExtension(String url) {
+        int end = url.length();
+        int query = url.indexOf('?');
+        if (query >= 0) {
+            end = query;
+        }
+        int fragment = url.indexOf('#');
+        if (fragment >= 0 && fragment < end) {
+            end = fragment;
+        }
+        int dot = url.lastIndexOf('.', end - 1);
+        int slash = url.lastIndexOf('/', end - 1);
+        if (dot < 0 || dot < slash) {
+            return OTHER;
+        }
+        String ext = url.substring(dot + 1, end).toLowerCase();
+        switch (ext) {
+            case "js":
+            case "mjs":
+                return SCRIPT;
+            case "css":
+                return STYLESHEET;
+            case "png":
+            case "jpg":
+            case "jpeg":
+            case "gif":
+            case "webp":
+            case "svg":
+            case "ico":
+            case "avif":
+                return IMAGE;
+            case "woff":
+            case "woff2":
+            case "ttf":
+            case "otf":
+                return FONT;
+            case "mp4":
+            case "webm":
+            case "mp3":
+            case "m3u8":
+            case "ogg":
+                return MEDIA;
+            case "html":
+            case "htm":
+                return SUBDOCUMENT;
+            default:
+                return OTHER;
+        }
+    }
+
+    private static String header(Map<String, String> headers, String name) {
+        String value = headers.get(name);
+        if (value == null) {
+            for (Map.Entry<String, String> entry : headers.entrySet()) {
+                if (name.equalsIgnoreCase(entry.getKey())) {
+                    return entry.getValue();
+                }
+            }
+        }
+        return value;
+    }
+}
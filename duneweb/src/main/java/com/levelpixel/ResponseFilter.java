@@ -0,0 +1,26 @@
+package com.levelpixel;
+
+import java.io.InputStream;
+
+/**
+ * Rewrites response bodies fetched by DuneWebView's interception pipeline,
+ * see {@link DuneWebView#addResponseFilter(ResponseFilter)}.
+ *
+ * Filters work on the body as a stream: {@link #filter(InputStream)} returns a
+ * stream that transforms the data as the WebView reads it, so the whole
+ * body is never held in memory.
+ */
+public interface ResponseFilter {
+    /**
+     * Check if the filter rewrites this response
+     *
+     * @param mainFrame whether the response is the main frame's document
+     * @param mimeType  response MIME type, e.g. "text/html"
+     */
+    boolean appliesTo(String url, boolean mainFrame, String mimeType);
+
+    /**
+     * Wrap the response body. The returned stream must close the given one.
+     */
+    InputStream filter(InputStream body);
+}
@@ -0,0 +1,244 @@
+package com.levelpixel;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Fetches allowed main-frame documents and scripts itself and streams their
+ * bodies through the registered {@link ResponseFilter}s. With no filters
+ * registered nothing is fetched and the WebView loads every request as usual.
+ *
+ * The WebView's cached copies are unfiltered, so its conditional headers are
+ * not forwarded. Instead, recent bodies with an ETag or Last-Modified are kept
+ * in memory as received, revalidated on the next load and filtered again when
+ * the server answers 304 Not Modified.
+ */
+final class ResponsePipeline {
+    static final long MAX_STORED_BYTES = 4L * 1024 * 1024;
+    static final int MAX_STORED_BODY_BYTES = 512 * 1024;
+
+    private final List<ResponseFilter> filters = new CopyOnWriteArrayList<>();
+    private final HttpFetcher fetcher;
+
+    // Guarded by this: unfiltered bodies by URL, least recently used first
+    private final LinkedHashMap<String, Stored> stored = new LinkedHashMap<>(16, 0.75f, true);
+    private long storedBytes;
+
+    ResponsePipeline(HttpFetcher fetcher) {
+        this.fetcher = fetcher;
+    }
+
+    void addFilter(ResponseFilter filter) {
+        if (filter != null && !filters.contains(filter)) {
+            filters.add(filter);
+        }
+    }
+
+    void removeFilter(ResponseFilter filter) {
+        filters.remove(filter);
+    }
+
+    /**
+     * Remove every filter. Nothing goes through the pipeline without
+     * filters, so the stored bodies are dropped too.
+     */
+    void clearFilters() {
+        filters.clear();
+        synchronized (this) {
+            stored.clear();
+            storedBytes = 0;
+        }
+    }
+
+    /**
+     * Check if a GET request of this type goes through the pipeline
+     */
+    boolean wants(ResourceType type) {
+        return !filters.isEmpty() && (type == ResourceType.DOCUMENT || type == ResourceType.SCRIPT);
+    }
+
+    /**
+     * Fetches the URL, or revalidates the stored copy of it, and wraps the
+     * body in every filter that applies
+     *
+     * @return the filtered response, or a 3xx response with its body closed,
+     * whose Location the caller follows
+     */
+    HttpFetcher.Response fetch(String url, boolean mainFrame, Map<String, String> headers) throws IOException {
+        Map<String, String> request = HttpFetcher.withoutConditionalHeaders(headers);
+        Stored copy = lookup(url);
+        if (copy != null) {
+            if (copy.etag != null) {
+                request.put("If-None-Match", copy.etag);
+            }
+            if (copy.lastModified != null) {
+                request.put("If-Modified-Since", copy.lastModified);
+            }
+        }
+
+        HttpFetcher.Response response = fetcher.get(url, request);
+        if (response.status == 304 && copy != null) {
+            response.body.close();
+            response = copy.replay(response);
+        } else if (response.isRedirection()) {
+            response.body.close();
+            return response;
+        } else if (isStorable(response)) {
+            response = response.withBody(new StoringInputStream(response.body, url, response));
+        }
+
+        if (!isAsciiCompatible(response.charset)) {
+            return response;
+        }
+        InputStream body = response.body;
+        for (ResponseFilter filter : filters) {
+            if (filter.appliesTo(url, mainFrame, response.mimeType)) {
+                body = filter.filter(body);
+            }
+        }
+        return body == response.body ? response : response.withBody(body);
+    }
+
+    synchronized int getStoredCount() {
+        return stored.size();
+    }
+
+    private synchronized Stored lookup(String url) {
+        return stored.get(url);
+    }
+
+    private synchronized void store(String url, Stored copy) {
+        Stored previous = stored.put(url, copy);
+        if (previous != null) {
+            storedBytes -= previous.body.length;
+        }
+        storedBytes += copy.body.length;
+        Iterator<Stored> eldest = stored.values().iterator();
+        while (storedBytes > MAX_STORED_BYTES && eldest.hasNext()) {
+            storedBytes -= eldest.next().body.length;
+            eldest.remove();
+        }
+    }
+
+    /**
+     * Check if a response can be revalidated later: a 200 with a validator
+     * that the server does not forbid storing
+     */
+    private static boolean isStorable(HttpFetcher.Response response) {
+        if (response.status != 200
+                || (response.header("ETag") == null && response.header("Last-Modified") == null)
+                || response.contentLength > MAX_STORED_BODY_BYTES) {
+            return false;
+        }
+        String cacheControl = response.header("Cache-Control");
+        String vary = response.header("Vary");
+        return (cacheControl == null || !cacheControl.toLowerCase(Locale.ROOT).contains("no-store"))
+                && (vary == null || !vary.contains("*"));
+    }
+
+    /**
+     * Filters look for ASCII markup in raw bytes, which only works when ASCII
+     * characters are single bytes. An unknown charset is assumed compatible.
+     */
+    static boolean isAsciiCompatible(String charset) {
+        if (charset == null) {
+            return true;
+        }
+        try {
+            String name = Charset.forName(charset).name();
+            return !name.startsWith("UTF-16") && !name.startsWith("UTF-32");
+        } catch (RuntimeException e) {
+            return true;
+        }
+    }
+
+    /**
+     * An unfiltered body with the response it came with
+     */
+    private static final class Stored {
+        // Status and headers; its body is not used
+        final HttpFetcher.Response response;
+        final String etag;
+        final String lastModified;
+        final byte[] body;
+
+        Stored(HttpFetcher.Response response, byte[] body) {
+            this.response = response;
+            this.etag = response.header("ETag");
+            this.lastModified = response.header("Last-Modified");
+            this.body = body;
+        }
+
+        /**
+         * The stored response with a fresh body, and the cookies set by the 304
+         */
+        HttpFetcher.Response replay(HttpFetcher.Response notModified) {
+            return new HttpFetcher.Response(response.url, response.status, response.reason,
+                    response.contentType, body.length, response.headers, notModified.cookies,
+                    new ByteArrayInputStream(body));
+        }
+    }
+
+    /**
+     * Keeps a copy of the body as the filters read it, stored once read to
+     * the end. A body closed early or larger than the limit is not stored.
+     */
+    private final class StoringInputStream extends FilterInputStream {
+        private final String url;
+        private final HttpFetcher.Response response;
+        private ByteArrayOutputStream copy = new ByteArrayOutputStream();
+
+        StoringInputStream(InputStream in, String url, HttpFetcher.Response response) {
+            super(in);
+            this.url = url;
+            this.response = response;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            int n = read(one, 0, 1);
+            return n < 0 ? -1 : one[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (copy == null) {
+                return n;
+            }
+            if (n < 0) {
+                store(url, new Stored(response, copy.toByteArray()));
+                copy = null;
+            } else if (copy.size() + n > MAX_STORED_BODY_BYTES) {
+                copy = null;
+            } else {
+                copy.write(b, off, n);
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            // Skipped bytes would be missing from the copy
+            copy = null;
+            return super.skip(n);
+        }
+
+        @Override
+        public void close() throws IOException {
+            copy = null;
+            super.close();
+        }
+    }
+}
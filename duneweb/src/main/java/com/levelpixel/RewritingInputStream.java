@@ -0,0 +1,137 @@
+package com.levelpixel;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Base of the streaming body filters. Reads the source in chunks, lets the
+ * subclass turn each chunk into output, and hands that output to the reader.
+ * Only the current chunk and whatever the subclass holds back are in memory.
+ *
+ * Subclasses work on bytes and only look for ASCII markup, which is safe for
+ * every ASCII-compatible charset (UTF-8, ISO-8859-*, windows-125*).
+ */
+abstract class RewritingInputStream extends InputStream {
+    private static final int CHUNK_SIZE = 8192;
+
+    private final InputStream source;
+    private final byte[] chunk = new byte[CHUNK_SIZE];
+    private boolean sourceDone;
+
+    // Output produced but not yet read: out[outStart, outEnd)
+    private byte[] out = new byte[CHUNK_SIZE];
+    private int outStart;
+    private int outEnd;
+
+    RewritingInputStream(InputStream source) {
+        this.source = source;
+    }
+
+    /**
+     * Process one chunk of the source, calling {@link #emit} for the output
+     */
+    protected abstract void process(byte[] data, int offset, int length);
+
+    /**
+     * Source is exhausted; emit anything still held back
+     */
+    protected abstract void finish();
+
+    /**
+     * Check if the filter has nothing left to change, so the rest of the
+     * source can be passed through without processing
+     */
+    protected boolean isPassThrough() {
+        return false;
+    }
+
+    protected final void emit(byte[] data, int offset, int length) {
+        if (length <= 0) {
+            return;
+        }
+        if (outEnd + length > out.length) {
+            int pending = outEnd - outStart;
+            byte[] target = pending + length > out.length
+                    ? new byte[Math.max(out.length * 2, pending + length)]
+                    : out;
+            System.arraycopy(out, outStart, target, 0, pending);
+            out = target;
+            outStart = 0;
+            outEnd = pending;
+        }
+        System.arraycopy(data, offset, out, outEnd, length);
+        outEnd += length;
+    }
+
+    protected final void emit(byte b) {
+        if (outEnd == out.length) {
+            emit(new byte[]{b}, 0, 1);
+            return;
+        }
+        out[outEnd++] = b;
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] one = new byte[1];
+        int n = read(one, 0, 1);
+        return n < 0 ? -1 : one[0] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        while (outStart == outEnd) {
+            if (sourceDone) {
+                return -1;
+            }
+            if (isPassThrough()) {
+                return source.read(b, off, len);
+            }
+            int n = source.read(chunk, 0, chunk.length);
+            if (n < 0) {
+                sourceDone = true;
+                finish();
+            } else {
+                process(chunk, 0, n);
+            }
+        }
+        int n = Math.min(len, outEnd - outStart);
+        System.arraycopy(out, outStart, b, off, n);
+        outStart += n;
+        if (outStart == outEnd) {
+            outStart = 0;
+            outEnd = 0;
+        }
+        return n;
+    }
+
+    @Override
+    public int available() throws IOException {
+        return outEnd - outStart;
+    }
+
+    @Override
+    public void close() throws IOException {
+        source.close();
+    }
+
+    static int indexOf(byte[] data, int from, int end, byte b) {
+        for (int i = from; i < end; i++) {
+            if (data[i] == b) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    static byte lowerAscii(byte b) {
+        return b >= 'A' && b <= 'Z' ? (byte) (b + ('a' - 'A')) : b;
+    }
+
+    static boolean isTagNameByte(byte b) {
+        return (b >= 'a' && b <= 'z') || (b >= 'A' && b <= 'Z') || (b >= '0' && b <= '9');
+    }
+}
@@ -0,0 +1,895 @@
+package com.levelpixel;
+
+import android.content.Context;
+import android.os.Environment;
+import android.os.Handler;
+import android.os.Looper;
+import android.webkit.CookieManager;
+
+import androidx.annotation.NonNull;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Built-in downloader, used by DuneWebView instead of the system
+ * DownloadManager after {@link DuneWebView#setUseSystemDownloader(boolean)
+ * setUseSystemDownloader(false)}.
+ *
+ * Files the server can send in ranges are split into segments fetched over
+ * parallel connections, each written at its offset into a file preallocated
+ * to the full size. Segment progress is saved next to the file, so a paused,
+ * failed or interrupted download - even one cut off by the process dying -
+ * continues where it stopped, guarded by If-Range so a changed file is
+ * fetched again from the start. Servers without range support get a single
+ * connection.
+ *
+ * Cookies are looked up and files opened on the downloader's own threads,
+ * never the caller's. At most {@link #setMaxConcurrentDownloads(int)}
+ * downloads run at once; the rest wait in order.
+ *
+ * Obtain the application-wide instance with {@link #getInstance(Context)}.
+ */
+public final class SegmentedDownloader {
+    public static final int DEFAULT_MAX_CONCURRENT_DOWNLOADS = 3;
+    public static final int DEFAULT_SEGMENTS_PER_DOWNLOAD = 4;
+
+    // Segments are never smaller than this, so small files use one connection
+    static final long MIN_SEGMENT_BYTES = 1024 * 1024;
+    // End of a segment whose length the server did not announce
+    static final long UNKNOWN_END = Long.MAX_VALUE;
+
+    private static final long PROGRESS_INTERVAL_MILLIS = 250;
+    // Segment offsets are saved this often while running, bounding what a crash loses
+    private static final long SAVE_INTERVAL_MILLIS = 2000;
+    private static final int MAX_ATTEMPTS = 3;
+    private static final long RETRY_DELAY_MILLIS = 1000;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final String PART_SUFFIX = ".part";
+    private static final String STATE_SUFFIX = ".part.state";
+    private static final int STATE_VERSION = 1;
+
+    private static volatile SegmentedDownloader instance;
+
+    public enum State {
+        // Waiting for a free slot
+        QUEUED,
+        RUNNING,
+        // Stopped by pause(); resume() continues it
+        PAUSED,
+        COMPLETED,
+        // Stopped by an error; resume() continues it
+        FAILED,
+        CANCELLED
+    }
+
+    /**
+     * Callbacks for one download, on the main thread
+     */
+    public interface OnDownloadListener {
+        /**
+         * Called a few times a second while the download receives data
+         */
+        void onDownloadProgress(Download download);
+
+        /**
+         * Called when the download starts, is paused, completes, fails or is cancelled
+         */
+        void onDownloadStateChanged(Download download);
+    }
+
+    /**
+     * Looks up the cookies to send with a download
+     */
+    interface CookieSource {
+        String getCookie(String url);
+    }
+
+    private final File directory;
+    private final HttpFetcher fetcher;
+    private final CookieSource cookies;
+    private final Executor callbackExecutor;
+
+    // Runs each download and its segments on their own threads; threads are
+    // bounded by the concurrency limit times the segments per download
+    private final ExecutorService workers = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "DuneDownloader");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // Guarded by this
+    private final ArrayDeque<Download> queue = new ArrayDeque<>();
+    // Target files of downloads that are not finished, so two never share one
+    private final Set<File> reserved = new HashSet<>();
+    private int running;
+    private int maxConcurrentDownloads = DEFAULT_MAX_CONCURRENT_DOWNLOADS;
+    private volatile int segmentsPerDownload = DEFAULT_SEGMENTS_PER_DOWNLOAD;
+
+    SegmentedDownloader(File directory, HttpFetcher fetcher, CookieSource cookies,
+                        Executor callbackExecutor) {
+        this.directory = directory;
+        this.fetcher = fetcher;
+        this.cookies = cookies;
+        this.callbackExecutor = callbackExecutor;
+    }
+
+    /**
+     * Application-wide downloader, saving into the app's external Downloads
+     * directory (internal storage if there is none)
+     */
+    public static SegmentedDownloader getInstance(Context context) {
+        SegmentedDownloader downloader = instance;
+        if (downloader == null) {
+            synchronized (SegmentedDownloader.class) {
+                downloader = instance;
+                if (downloader == null) {
+                    File directory = context.getExternalFilesDir(Environment.DIRECTORY_DOWNLOADS);
+                    if (directory == null) {
+                        directory = new File(context.getFilesDir(), Environment.DIRECTORY_DOWNLOADS);
+                    }
+                    Handler mainHandler = new Handler(Looper.getMainLooper());
+                    downloader = new SegmentedDownloader(directory, new HttpFetcher(),
+                            url -> CookieManager.getInstance().getCookie(url), mainHandler::post);
+                    instance = downloader;
+                }
+            }
+        }
+        return downloader;
+    }
+
+    /**
+     * Download into the downloader's directory. A file of that name that is
+     * partly downloaded from the same URL is continued; if one exists
+     * otherwise, a numbered name is used.
+     *
+     * @param headers request headers such as User-Agent; cookies are added
+     * @param listener may be null
+     */
+    public Download enqueue(String url, Map<String, String> headers, String fileName,
+                            OnDownloadListener listener) {
+        return enqueue(url, headers, new File(directory, fileName), listener);
+    }
+
+    /**
+     * Download into the given file, under the same rules as
+     * {@link #enqueue(String, Map, String, OnDownloadListener)}
+     */
+    public Download enqueue(String url, Map<String, String> headers, File file,
+                            OnDownloadListener listener) {
+        Map<String, String> copy = headers == null
+                ? Collections.<String, String>emptyMap()
+                : new HashMap<>(headers);
+        Download download = new Download(url, copy, file, listener);
+        schedule(download);
+        return download;
+    }
+
+    /**
+     * Set how many downloads run at once; queued downloads start as slots free up
+     */
+    public void setMaxConcurrentDownloads(int count) {
+        synchronized (this) {
+            maxConcurrentDownloads = Math.max(1, count);
+        }
+        startQueued();
+    }
+
+    public synchronized int getMaxConcurrentDownloads() {
+        return maxConcurrentDownloads;
+    }
+
+    /**
+     * Set how many connections a download started from now on may use
+     */
+    public void setSegmentsPerDownload(int count) {
+        segmentsPerDownload = Math.max(1, count);
+    }
+
+    public int getSegmentsPerDownload() {
+        return segmentsPerDownload;
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    private void schedule(Download download) {
+        synchronized (this) {
+            download.state = State.QUEUED;
+            queue.addLast(download);
+        }
+        startQueued();
+    }
+
+    private void startQueued() {
+        List<Download> started = new ArrayList<>();
+        synchronized (this) {
+            while (running < maxConcurrentDownloads && !queue.isEmpty()) {
+                Download download = queue.pollFirst();
+                download.state = State.RUNNING;
+                running++;
+                started.add(download);
+            }
+        }
+        for (Download download : started) {
+            notifyStateChanged(download);
+            workers.execute(() -> run(download));
+        }
+    }
+
+    private void run(Download download) {
+        State result;
+        try {
+            transfer(download);
+            result = State.COMPLETED;
+        } catch (IOException e) {
+            if (download.cancelRequested) {
+                result = State.CANCELLED;
+            } else if (download.pauseRequested) {
+                result = State.PAUSED;
+            } else {
+                e.printStackTrace();
+                download.error = e;
+                result = State.FAILED;
+            }
+        }
+
+        if (result == State.CANCELLED) {
+            new File(download.file.getPath() + PART_SUFFIX).delete();
+            new File(download.file.getPath() + STATE_SUFFIX).delete();
+        }
+        synchronized (this) {
+            if (result == State.COMPLETED || result == State.CANCELLED) {
+                reserved.remove(download.file);
+            }
+            download.state = result;
+            running--;
+        }
+        notifyStateChanged(download);
+        startQueued();
+    }
+
+    /**
+     * Fetches the rest of the file and moves it into place
+     */
+    private void transfer(Download download) throws IOException {
+        download.stopIfRequested();
+        Map<String, String> headers = new HashMap<>(download.headers);
+        // Ranges are counted in bytes of the body as stored
+        headers.put("Accept-Encoding", "identity");
+        String cookie = cookies.getCookie(download.url);
+        if (cookie != null && !cookie.isEmpty()) {
+            headers.put("Cookie", cookie);
+        }
+
+        File part = prepare(download);
+        for (int attempt = 0; ; attempt++) {
+            try {
+                transferSegments(download, part, headers);
+                break;
+            } catch (ResourceChangedException e) {
+                // The file changed since the saved segments were fetched; only try
+                // once more, from scratch, so a server ignoring If-Range cannot loop
+                if (attempt > 0) {
+                    throw e;
+                }
+                download.segments = null;
+                download.downloaded.set(0);
+            }
+        }
+
+        new File(download.file.getPath() + STATE_SUFFIX).delete();
+        if (!part.renameTo(download.file)) {
+            throw new IOException("Cannot move download to " + download.file);
+        }
+    }
+
+    /**
+     * Picks the target file, reusing saved progress for the same URL
+     *
+     * @return the partial file
+     */
+    private File prepare(Download download) throws IOException {
+        synchronized (this) {
+            if (!download.reservedFile) {
+                File requested = download.file;
+                File part = new File(requested.getPath() + PART_SUFFIX);
+                if (reserved.contains(requested) || !part.exists() || !readState(download)) {
+                    for (int n = 1; requested.exists() || part.exists() || reserved.contains(requested); n++) {
+                        requested = numbered(download.file, n);
+                        part = new File(requested.getPath() + PART_SUFFIX);
+                    }
+                    download.file = requested;
+                }
+                reserved.add(download.file);
+                download.reservedFile = true;
+            }
+        }
+        File parent = download.file.getParentFile();
+        if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+            throw new IOException("Cannot create " + parent);
+        }
+        return new File(download.file.getPath() + PART_SUFFIX);
+    }
+
+    private void transferSegments(Download download, File part, Map<String, String> headers)
+            throws IOException {
+        HttpFetcher.Response probe = null;
+        try {
+            if (download.segments == null) {
+                probe = probe(download, headers);
+            }
+            try (RandomAccessFile file = new RandomAccessFile(part, "rw");
+                 FileChannel channel = file.getChannel()) {
+                if (probe != null) {
+                    // Reserves the space up front, so segments write in place;
+                    // also drops what an earlier version of the file left behind
+                    file.setLength(Math.max(0, download.totalBytes));
+                }
+                runSegments(download, channel, headers, probe);
+                if (download.totalBytes < 0) {
+                    download.totalBytes = download.downloaded.get();
+                }
+            }
+        } finally {
+            if (probe != null) {
+                probe.body.close();
+            }
+        }
+    }
+
+    /**
+     * Asks for the whole file as a range, and plans the segments from the answer
+     *
+     * @return the response, whose body feeds the first segment
+     */
+    private HttpFetcher.Response probe(Download download, Map<String, String> headers) throws IOException {
+        Map<String, String> probeHeaders = new HashMap<>(headers);
+        probeHeaders.put("Range", "bytes=0-");
+        HttpFetcher.Response response = fetcher.getFollowingRedirects(download.url, probeHeaders);
+        long total = response.status == 206 ? totalOf(response.header("Content-Range")) : -1;
+        if (response.status != 200 && (response.status != 206 || total < 0)) {
+            response.body.close();
+            throw new IOException("HTTP " + response.status + " " + response.reason + " for " + download.url);
+        }
+        download.source = response.url;
+        download.validator = validatorOf(response);
+        download.downloaded.set(0);
+        List<Segment> segments = new ArrayList<>();
+        if (response.status == 206) {
+            download.totalBytes = total;
+            download.ranged = true;
+            long count = Math.max(1, Math.min(segmentsPerDownload, total / MIN_SEGMENT_BYTES));
+            long size = total / count;
+            for (int i = 0; i < count; i++) {
+                segments.add(new Segment(i * size, i == count - 1 ? total : (i + 1) * size));
+            }
+        } else {
+            download.totalBytes = response.contentLength;
+            download.ranged = false;
+            segments.add(new Segment(0, response.contentLength >= 0 ? response.contentLength : UNKNOWN_END));
+        }
+        download.segments = segments;
+        return response;
+    }
+
+    /**
+     * Fetches every unfinished segment in parallel, reporting progress and
+     * saving state from this thread until all of them stop
+     */
+    private void runSegments(Download download, FileChannel channel, Map<String, String> headers,
+                             HttpFetcher.Response probe) throws IOException {
+        List<Segment> pending = new ArrayList<>();
+        for (Segment segment : download.segments) {
+            if (segment.position < segment.end) {
+                pending.add(segment);
+            }
+        }
+        AtomicReference<IOException> failure = new AtomicReference<>();
+        CountDownLatch done = new CountDownLatch(pending.size());
+        for (Segment segment : pending) {
+            // The probe's body starts at byte 0, so it feeds the first segment
+            HttpFetcher.Response opened = probe != null && segment.position == 0 ? probe : null;
+            workers.execute(() -> {
+                try {
+                    fetchSegment(download, segment, channel, headers, opened);
+                } catch (IOException e) {
+                    if (failure.compareAndSet(null, e)) {
+                        // Stops the other segments; their progress is kept
+                        download.aborted = true;
+                    }
+                } finally {
+                    done.countDown();
+                }
+            });
+        }
+
+        long lastBytes = download.downloaded.get();
+        long lastTick = System.nanoTime();
+        long lastSave = lastTick;
+        try {
+            while (!done.await(PROGRESS_INTERVAL_MILLIS, TimeUnit.MILLISECONDS)) {
+                long now = System.nanoTime();
+                long bytes = download.downloaded.get();
+                download.updateSpeed(bytes - lastBytes, now - lastTick);
+                lastBytes = bytes;
+                lastTick = now;
+                notifyProgress(download);
+                if (now - lastSave >= TimeUnit.MILLISECONDS.toNanos(SAVE_INTERVAL_MILLIS)) {
+                    saveState(download);
+                    lastSave = now;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            download.aborted = true;
+            throw new IOException("Interrupted", e);
+        } finally {
+            download.aborted = false;
+        }
+        download.bytesPerSecond = 0;
+
+        IOException error = failure.get();
+        if (error != null) {
+            if (!(error instanceof ResourceChangedException)) {
+                saveState(download);
+            }
+            throw error;
+        }
+        download.stopIfRequested();
+        notifyProgress(download);
+    }
+
+    /**
+     * Fetches one segment, retrying dropped connections
+     */
+    private void fetchSegment(Download download, Segment segment, FileChannel channel,
+                              Map<String, String> headers, HttpFetcher.Response opened)
+            throws IOException {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                HttpFetcher.Response response = opened != null ? opened : request(download, segment, headers);
+                opened = null;
+                try (InputStream body = response.body) {
+                    copy(download, segment, body, channel);
+                }
+                return;
+            } catch (ResourceChangedException e) {
+                throw e;
+            } catch (IOException e) {
+                if (download.isStopping() || attempt >= MAX_ATTEMPTS) {
+                    throw e;
+                }
+                try {
+                    Thread.sleep(RETRY_DELAY_MILLIS * attempt);
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    throw e;
+                }
+            }
+        }
+    }
+
+    /**
+     * Requests the rest of a segment
+     */
+    private HttpFetcher.Response request(Download download, Segment segment, Map<String, String> headers)
+            throws IOException {
+        if (!download.ranged) {
+            // Without ranges the only way to continue is from the start
+            if (segment.position > 0) {
+                throw new ResourceChangedException();
+            }
+            return fetcher.getFollowingRedirects(download.source, headers);
+        }
+        Map<String, String> rangeHeaders = new HashMap<>(headers);
+        rangeHeaders.put("Range", "bytes=" + segment.position + "-" + (segment.end - 1));
+        if (download.validator != null) {
+            rangeHeaders.put("If-Range", download.validator);
+        }
+        HttpFetcher.Response response = fetcher.getFollowingRedirects(download.source, rangeHeaders);
+        if (response.status == 206 && startOf(response.header("Content-Range")) == segment.position) {
+            return response;
+        }
+        response.body.close();
+        // 200 is the whole file again, which If-Range sends when the validator no longer matches
+        if (response.status == 200 || response.status == 416) {
+            throw new ResourceChangedException();
+        }
+        throw new IOException("HTTP " + response.status + " " + response.reason + " for " + download.url);
+    }
+
+    private void copy(Download download, Segment segment, InputStream body, FileChannel channel)
+            throws IOException {
+        byte[] buffer = new byte[BUFFER_SIZE];
+        while (segment.position < segment.end) {
+            download.stopIfRequested();
+            int read = body.read(buffer, 0, (int) Math.min(buffer.length, segment.end - segment.position));
+            if (read < 0) {
+                if (segment.end == UNKNOWN_END) {
+                    segment.end = segment.position;
+                    return;
+                }
+                throw new EOFException("Connection closed at byte " + segment.position + " of " + download.url);
+            }
+            ByteBuffer bytes = ByteBuffer.wrap(buffer, 0, read);
+            long position = segment.position;
+            while (bytes.hasRemaining()) {
+                position += channel.write(bytes, position);
+            }
+            segment.position = position;
+            download.downloaded.addAndGet(read);
+        }
+    }
+
+    /**
+     * Writes the segment offsets next to the partial file. Downloads without
+     * range support or a validator cannot be continued safely in a later
+     * session, so nothing is saved for them.
+     */
+    private void saveState(Download download) {
+        List<Segment> segments = download.segments;
+        if (!download.ranged || download.validator == null || segments == null) {
+            return;
+        }
+        File file = new File(download.file.getPath() + STATE_SUFFIX);
+        File temp = new File(file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+            out.writeInt(STATE_VERSION);
+            out.writeUTF(download.url);
+            out.writeUTF(download.source);
+            out.writeUTF(download.validator);
+            out.writeLong(download.totalBytes);
+            out.writeInt(segments.size());
+            for (Segment segment : segments) {
+                out.writeLong(segment.start);
+                out.writeLong(segment.end);
+                out.writeLong(segment.position);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            return;
+        }
+        if (!temp.renameTo(file)) {
+            temp.delete();
+        }
+    }
+
+    /**
+     * Loads the segment offsets saved for the download's file. Progress from
+     * the same URL that cannot be read is deleted, so the name can be reused.
+     *
+     * @return false if there are none for this URL, or they cannot be used
+     */
+    private boolean readState(Download download) {
+        File file = new File(download.file.getPath() + STATE_SUFFIX);
+        if (!file.exists()) {
+            return false;
+        }
+        boolean sameUrl = false;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != STATE_VERSION || !in.readUTF().equals(download.url)) {
+                return false;
+            }
+            sameUrl = true;
+            String source = in.readUTF();
+            String validator = in.readUTF();
+            long total = in.readLong();
+            int count = in.readInt();
+            List<Segment> segments = new ArrayList<>(count);
+            long downloaded = 0;
+            for (int i = 0; i < count; i++) {
+                Segment segment = new Segment(in.readLong(), in.readLong());
+                segment.position = in.readLong();
+                segments.add(segment);
+                downloaded += segment.position - segment.start;
+            }
+            download.source = source;
+            download.validator = validator;
+            download.totalBytes = total;
+            download.ranged = true;
+            download.downloaded.set(downloaded);
+            download.segments = segments;
+            return true;
+        } catch (IOException e) {
+            e.printStackTrace();
+            if (sameUrl) {
+                file.delete();
+                new File(download.file.getPath() + PART_SUFFIX).delete();
+            }
+            return false;
+        }
+    }
+
+    private void notifyProgress(Download download) {
+        OnDownloadListener listener = download.listener;
+        if (listener != null) {
+            callbackExecutor.execute(() -> listener.onDownloadProgress(download));
+        }
+    }
+
+    private void notifyStateChanged(Download download) {
+        OnDownloadListener listener = download.listener;
+        if (listener != null) {
+            callbackExecutor.execute(() -> listener.onDownloadStateChanged(download));
+        }
+    }
+
+    /**
+     * "name (n).ext" next to the given file
+     */
+    private static File numbered(File file, int n) {
+        String name = file.getName();
+        int dot = name.lastIndexOf('.');
+        String numbered = dot > 0
+                ? name.substring(0, dot) + " (" + n + ")" + name.substring(dot)
+                : name + " (" + n + ")";
+        return new File(file.getParentFile(), numbered);
+    }
+
+    /**
+     * ETag if strong, else Last-Modified; weak ETags cannot be used with If-Range
+     */
+    private static String validatorOf(HttpFetcher.Response response) {
+        String etag = response.header("ETag");
+        if (etag != null && !etag.startsWith("W/")) {
+            return etag;
+        }
+        return response.header("Last-Modified");
+    }
+
+    /**
+     * Complete length from "bytes first-last/complete"; -1 if absent or "*"
+     */
+    static long totalOf(String contentRange) {
+        if (contentRange == null) {
+            return -1;
+        }
+        int slash = contentRange.lastIndexOf('/');
+        try {
+            return slash < 0 ? -1 : Long.parseLong(contentRange.substring(slash + 1).trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * First byte from "bytes first-last/complete"; -1 if absent
+     */
+    static long startOf(String contentRange) {
+        if (contentRange == null) {
+            return -1;
+        }
+        String range = contentRange.trim();
+        int space = range.indexOf(' ');
+        int dash = range.indexOf('-', space + 1);
+        try {
+            return dash < 0 ? -1 : Long.parseLong(range.substring(space + 1, dash).trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Byte range of the file fetched over one connection
+     */
+    static final class Segment {
+        final long start;
+        // Exclusive; UNKNOWN_END until the server closes the body
+        volatile long end;
+        // Next byte to write; only the segment's own thread advances it
+        volatile long position;
+
+        Segment(long start, long end) {
+            this.start = start;
+            this.end = end;
+            this.position = start;
+        }
+    }
+
+    /**
+     * Thrown when the server no longer has the file the saved segments came from
+     */
+    private static final class ResourceChangedException extends IOException {
+        ResourceChangedException() {
+            super("The file changed on the server");
+        }
+    }
+
+    /**
+     * One enqueued download. Its getters may be called from any thread.
+     */
+    public final class Download {
+        private final String url;
+        private final Map<String, String> headers;
+        private final OnDownloadListener listener;
+        private final AtomicLong downloaded = new AtomicLong();
+
+        private volatile File file;
+        private volatile State state;
+        private volatile long totalBytes = -1;
+        private volatile long bytesPerSecond;
+        private volatile IOException error;
+        private volatile boolean pauseRequested;
+        private volatile boolean cancelRequested;
+        // Set when a segment fails, so the others stop
+        private volatile boolean aborted;
+
+        // Below here only used by the thread running the download
+        // Final URL after redirects, which segments are requested from
+        private String source;
+        // ETag or Last-Modified sent as If-Range when continuing
+        private String validator;
+        private boolean ranged;
+        private List<Segment> segments;
+        // Set once the target file is chosen and claimed
+        private boolean reservedFile;
+
+        Download(String url, Map<String, String> headers, File file, OnDownloadListener listener) {
+            this.url = url;
+            this.headers = headers;
+            this.file = file;
+            this.listener = listener;
+        }
+
+        public String getUrl() {
+            return url;
+        }
+
+        /**
+         * File the download is saved as. A numbered name may replace the
+         * requested one once the download starts.
+         */
+        public File getFile() {
+            return file;
+        }
+
+        public State getState() {
+            return state;
+        }
+
+        /**
+         * Size of the file, or -1 while unknown
+         */
+        public long getTotalBytes() {
+            return totalBytes;
+        }
+
+        public long getDownloadedBytes() {
+            return downloaded.get();
+        }
+
+        /**
+         * Recent throughput, smoothed over the last few progress updates; 0 when not running
+         */
+        public long getBytesPerSecond() {
+            return bytesPerSecond;
+        }
+
+        /**
+         * Number of parallel connections the file is fetched over
+         */
+        public int getSegmentCount() {
+            List<Segment> current = segments;
+            return current != null ? current.size() : 0;
+        }
+
+        /**
+         * Why the download failed; null unless the state is FAILED
+         */
+        public IOException getError() {
+            return state == State.FAILED ? error : null;
+        }
+
+        /**
+         * Stop the download, keeping what was fetched so far
+         */
+        public void pause() {
+            synchronized (SegmentedDownloader.this) {
+                if (queue.remove(this)) {
+                    state = State.PAUSED;
+                } else if (state == State.RUNNING) {
+                    pauseRequested = true;
+                    return;
+                } else {
+                    return;
+                }
+            }
+            notifyStateChanged(this);
+        }
+
+        /**
+         * Continue a paused or failed download where it stopped
+         */
+        public void resume() {
+            synchronized (SegmentedDownloader.this) {
+                if (state != State.PAUSED && state != State.FAILED) {
+                    return;
+                }
+                pauseRequested = false;
+                error = null;
+            }
+            schedule(this);
+        }
+
+        /**
+         * Stop the download and delete what was fetched
+         */
+        public void cancel() {
+            synchronized (SegmentedDownloader.this) {
+                if (state == State.RUNNING) {
+                    cancelRequested = true;
+                    return;
+                }
+                if (state == State.COMPLETED || state == State.CANCELLED) {
+                    return;
+                }
+                queue.remove(this);
+                state = State.CANCELLED;
+                reserved.remove(file);
+            }
+            workers.execute(() -> {
+                new File(file.getPath() + PART_SUFFIX).delete();
+                new File(file.getPath() + STATE_SUFFIX).delete();
+            });
+            notifyStateChanged(this);
+        }
+
+        boolean isStopping() {
+            return pauseRequested || cancelRequested || aborted;
+        }
+
+        void stopIfRequested() throws IOException {
+            if (isStopping()) {
+                throw new IOException("Download stopped");
+            }
+        }
+
+        void updateSpeed(long bytes, long elapsedNanos) {
+            if (elapsedNanos <= 0) {
+                return;
+            }
+            long current = bytes * 1_000_000_000L / elapsedNanos;
+            // Exponential moving average, so one slow tick does not swing the figure
+            bytesPerSecond = bytesPerSecond == 0 ? current : (bytesPerSecond * 3 + current) / 4;
+        }
+
+        @NonNull
+        @Override
+        public String toString() {
+            return "Download{url=" + url
+                    + ", file=" + file
+                    + ", state=" + state
+                    + ", downloadedBytes=" + downloaded.get()
+                    + ", totalBytes=" + totalBytes
+                    + ", bytesPerSecond=" + bytesPerSecond + "}";
+        }
+    }
+}
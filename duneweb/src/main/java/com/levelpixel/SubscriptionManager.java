@@ -0,0 +1,604 @@
+package com.levelpixel;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps remote hosts files and EasyList-style filter lists up to date in the
+ * shared DuneFilterEngine.
+ *
+ * Lists are re-downloaded with If-None-Match / If-Modified-Since, so an
+ * unchanged list costs one 304. A changed list is diffed against the version
+ * in use and only the added and removed entries are applied: domains go into
+ * an overlay on the compiled subscription list, and filter rules are dropped
+ * from or added to the indexes without reparsing the rules that stayed.
+ * Compiled domain lists are diffed and merged by walking them side by side,
+ * without a String per domain; once the overlay holds too many changes the
+ * sink is given the merged list instead.
+ *
+ * Every list is stored on disk in its compiled form, together with the merged
+ * domains of all hosts subscriptions, which is memory-mapped on the next cold
+ * start instead of being downloaded or parsed again.
+ *
+ * Obtain the manager with {@link DuneFilterEngine#getSubscriptionManager()}.
+ * Downloads run on a background thread; listeners are called on the main thread.
+ */
+public final class SubscriptionManager {
+    /**
+     * How a subscribed list is read
+     */
+    public enum Format {
+        // "0.0.0.0 ads.example.com" or one domain per line, '#' comments (see CompactBlocklist#fromText)
+        HOSTS,
+        // Adblock Plus syntax: network rules and element hiding rules
+        FILTER_LIST
+    }
+
+    /**
+     * Interface for update results, called on the main thread
+     */
+    public interface OnSubscriptionsUpdatedListener {
+        void onSubscriptionsUpdated(List<SubscriptionUpdate> updates);
+    }
+
+    /**
+     * Where list changes are applied
+     */
+    interface Sink {
+        /**
+         * Replace all subscribed domains, e.g. with the merged list from disk
+         */
+        void setDomains(CompactBlocklist domains);
+
+        void updateDomains(Collection<String> added, Collection<String> removed);
+
+        void updateRules(Collection<String> added, Collection<String> removed);
+    }
+
+    // Domain changes the sink's overlay may hold before it is given the merged list instead
+    static final int MAX_INCREMENTAL_DOMAINS = 4096;
+
+    private static final String META_SUFFIX = ".meta";
+    private static final String DOMAINS_SUFFIX = ".bin";
+    private static final String RULES_SUFFIX = ".rules";
+    private static final String MERGED_DOMAINS = "domains.bin";
+    private static final int META_VERSION = 1;
+
+    private final File directory;
+    private final HttpFetcher fetcher;
+    private final Sink sink;
+    private final Executor callbackExecutor;
+
+    // Subscriptions are only downloaded, diffed and stored on this thread
+    private final ScheduledExecutorService worker = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "DuneSubscriptions");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // Subscriptions by URL
+    private final Map<String, Subscription> subscriptions = new LinkedHashMap<>();
+
+    // Union of the hosts subscriptions, as stored for the next cold start; worker thread only
+    private CompactBlocklist mergedDomains = CompactBlocklist.EMPTY;
+    // Domain changes handed to the sink since it last got the merged list; worker thread only
+    private int incrementalDomains;
+
+    private ScheduledFuture<?> schedule;
+    private volatile OnSubscriptionsUpdatedListener listener;
+
+    SubscriptionManager(File directory, HttpFetcher fetcher, Sink sink, Executor callbackExecutor) {
+        this.directory = directory;
+        this.fetcher = fetcher;
+        this.sink = sink;
+        this.callbackExecutor = callbackExecutor;
+        // Runs before anything else is queued, so lists are in use before the first update
+        worker.execute(this::restore);
+    }
+
+    /**
+     * Subscribe to a list and download it (conditionally, if already subscribed).
+     * Subscribing again with another format replaces the list's entries.
+     *
+     * @return future completing with the result of the download
+     */
+    public Future<SubscriptionUpdate> subscribe(String url, Format format) {
+        return worker.submit(() -> {
+            Subscription subscription;
+            synchronized (subscriptions) {
+                subscription = subscriptions.get(url);
+            }
+            if (subscription != null && subscription.format != format) {
+                remove(subscription);
+                subscription = null;
+            }
+            if (subscription == null) {
+                subscription = new Subscription(url, format, ResourceCache.fileNameOf(url));
+                synchronized (subscriptions) {
+                    subscriptions.put(url, subscription);
+                }
+            }
+            SubscriptionUpdate update = update(subscription);
+            notifyListener(Collections.singletonList(update));
+            return update;
+        });
+    }
+
+    /**
+     * Unsubscribe from a list, removing its domains or rules from use
+     *
+     * @return future completing with the removed entries, or null if the URL was not subscribed
+     */
+    public Future<SubscriptionUpdate> unsubscribe(String url) {
+        return worker.submit(() -> {
+            Subscription subscription;
+            synchronized (subscriptions) {
+                subscription = subscriptions.get(url);
+            }
+            return subscription != null ? remove(subscription) : null;
+        });
+    }
+
+    /**
+     * URLs of the subscribed lists
+     */
+    public List<String> getSubscriptions() {
+        synchronized (subscriptions) {
+            return new ArrayList<>(subscriptions.keySet());
+        }
+    }
+
+    /**
+     * Check every subscribed list for changes now
+     *
+     * @return future completing with one result per list
+     */
+    public Future<List<SubscriptionUpdate>> updateNow() {
+        return worker.submit(() -> updateDue(0));
+    }
+
+    /**
+     * Check the lists for changes periodically, starting now. Lists checked
+     * less than one interval ago, e.g. before the app was restarted, are skipped.
+     * Replaces any previous schedule.
+     */
+    public synchronized void schedule(long interval, TimeUnit unit) {
+        cancelSchedule();
+        long minAge = unit.toMillis(interval);
+        schedule = worker.scheduleWithFixedDelay(() -> {
+            try {
+                updateDue(minAge);
+            } catch (RuntimeException e) {
+                // An exception would cancel the schedule
+                e.printStackTrace();
+            }
+        }, 0, interval, unit);
+    }
+
+    /**
+     * Stop checking the lists periodically
+     */
+    public synchronized void cancelSchedule() {
+        if (schedule != null) {
+            schedule.cancel(false);
+            schedule = null;
+        }
+    }
+
+    /**
+     * Set a listener for the results of every update, or null to remove it
+     */
+    public void setOnSubscriptionsUpdatedListener(OnSubscriptionsUpdatedListener listener) {
+        this.listener = listener;
+    }
+
+    private List<SubscriptionUpdate> updateDue(long minAge) {
+        List<Subscription> due = new ArrayList<>();
+        long now = System.currentTimeMillis();
+        synchronized (subscriptions) {
+            for (Subscription subscription : subscriptions.values()) {
+                if (now - subscription.lastChecked >= minAge) {
+                    due.add(subscription);
+                }
+            }
+        }
+        List<SubscriptionUpdate> updates = new ArrayList<>(due.size());
+        for (Subscription subscription : due) {
+            updates.add(update(subscription));
+        }
+        if (!updates.isEmpty()) {
+            notifyListener(updates);
+        }
+        return updates;
+    }
+
+    /**
+     * Downloads one list if it changed and applies the difference
+     */
+    private SubscriptionUpdate update(Subscription subscription) {
+        long start = System.nanoTime();
+        try {
+            HttpFetcher.Response response = fetch(subscription);
+            try (InputStream body = response.body) {
+                if (response.status == 304) {
+                    subscription.lastChecked = System.currentTimeMillis();
+                    writeMeta(subscription);
+                    return result(subscription, SubscriptionUpdate.Status.NOT_MODIFIED, 0, 0, start);
+                }
+                if (response.status != 200) {
+                    throw new IOException("HTTP " + response.status + " " + response.reason
+                            + " for " + subscription.url);
+                }
+                int[] changes = subscription.format == Format.HOSTS
+                        ? applyDomains(subscription, BlocklistParser.compile(body))
+                        : applyRules(subscription, parseRules(readLines(body)));
+                // Stored after the list itself, so a crash in between only causes a full download
+                subscription.etag = response.header("ETag");
+                subscription.lastModified = response.header("Last-Modified");
+                subscription.lastChecked = System.currentTimeMillis();
+                writeMeta(subscription);
+                return changes[0] == 0 && changes[1] == 0
+                        ? result(subscription, SubscriptionUpdate.Status.NOT_MODIFIED, 0, 0, start)
+                        : result(subscription, SubscriptionUpdate.Status.UPDATED, changes[0], changes[1], start);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            return result(subscription, SubscriptionUpdate.Status.FAILED, 0, 0, start);
+        }
+    }
+
+    /**
+     * Conditional GET, following redirects
+     */
+    private HttpFetcher.Response fetch(Subscription subscription) throws IOException {
+        Map<String, String> headers = new HashMap<>();
+        if (subscription.etag != null) {
+            headers.put("If-None-Match", subscription.etag);
+        }
+        if (subscription.lastModified != null) {
+            headers.put("If-Modified-Since", subscription.lastModified);
+        }
+        return fetcher.getFollowingRedirects(subscription.url, headers);
+    }
+
+    /**
+     * Diffs a compiled hosts list against the stored version and applies the difference
+     *
+     * @return number of added and removed domains
+     */
+    private int[] applyDomains(Subscription subscription, byte[] compiled) throws IOException {
+        CompactBlocklist previous = subscription.domains;
+        CompactBlocklist domains = CompactBlocklist.wrap(ByteBuffer.wrap(compiled));
+        CompactBlocklist added = CompactBlocklist.difference(domains, previous);
+        CompactBlocklist removed = CompactBlocklist.difference(previous, domains);
+        if (added.size() == 0 && removed.size() == 0) {
+            return new int[]{0, 0};
+        }
+        subscription.domains = store(dataFile(subscription), compiled);
+        publishDomains(added, removed);
+        return new int[]{added.size(), removed.size()};
+    }
+
+    /**
+     * Diffs a filter list against the stored version and applies the difference
+     *
+     * @return number of added and removed rules
+     */
+    private int[] applyRules(Subscription subscription, Set<String> rules) throws IOException {
+        Set<String> previous = new HashSet<>(subscription.rules);
+        List<String> added = new ArrayList<>();
+        for (String rule : rules) {
+            if (!previous.contains(rule)) {
+                added.add(rule);
+            }
+        }
+        List<String> removed = new ArrayList<>();
+        for (String rule : subscription.rules) {
+            if (!rules.contains(rule)) {
+                removed.add(rule);
+            }
+        }
+        if (added.isEmpty() && removed.isEmpty()) {
+            return new int[]{0, 0};
+        }
+        writeLines(dataFile(subscription), rules);
+        subscription.rules = new ArrayList<>(rules);
+        sink.updateRules(added, removed);
+        return new int[]{added.size(), removed.size()};
+    }
+
+    /**
+     * Merges changed domains into the merged list, stores it and hands the
+     * changes to the sink. Domains still listed by another subscription are
+     * not removed, and domains already listed are not added again.
+     */
+    private void publishDomains(CompactBlocklist added, CompactBlocklist removed) {
+        CompactBlocklist unlisted = removed;
+        synchronized (subscriptions) {
+            for (Subscription subscription : subscriptions.values()) {
+                unlisted = CompactBlocklist.difference(unlisted, subscription.domains);
+            }
+        }
+        CompactBlocklist listed = CompactBlocklist.difference(added, mergedDomains);
+        if (listed.size() == 0 && unlisted.size() == 0) {
+            return;
+        }
+        mergedDomains = CompactBlocklist.union(CompactBlocklist.difference(mergedDomains, unlisted), listed);
+        storeMergedDomains();
+
+        int changes = listed.size() + unlisted.size();
+        if (incrementalDomains + changes > MAX_INCREMENTAL_DOMAINS) {
+            incrementalDomains = 0;
+            sink.setDomains(mergedDomains);
+        } else {
+            incrementalDomains += changes;
+            sink.updateDomains(listed.domains(), unlisted.domains());
+        }
+    }
+
+    /**
+     * Writes the merged domains for the next cold start and maps the stored copy
+     */
+    private void storeMergedDomains() {
+        File file = new File(directory, MERGED_DOMAINS);
+        try {
+            File temp = tempFile(file);
+            try (OutputStream out = new BufferedOutputStream(new FileOutputStream(temp))) {
+                mergedDomains.writeTo(out);
+            }
+            replace(temp, file);
+            mergedDomains = CompactBlocklist.map(file);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Drops a subscription, its stored files and its entries in use
+     */
+    private SubscriptionUpdate remove(Subscription subscription) {
+        long start = System.nanoTime();
+        synchronized (subscriptions) {
+            subscriptions.remove(subscription.url);
+        }
+        int removed;
+        if (subscription.format == Format.HOSTS) {
+            removed = subscription.domains.size();
+            publishDomains(CompactBlocklist.EMPTY, subscription.domains);
+        } else {
+            removed = subscription.rules.size();
+            sink.updateRules(Collections.<String>emptyList(), subscription.rules);
+        }
+        new File(directory, subscription.fileName + META_SUFFIX).delete();
+        dataFile(subscription).delete();
+        return result(subscription, SubscriptionUpdate.Status.UPDATED, 0, removed, start);
+    }
+
+    /**
+     * Loads the stored subscriptions and hands their entries to the sink
+     */
+    private void restore() {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        List<String> rules = new ArrayList<>();
+        boolean hasDomains = false;
+        for (File file : files) {
+            if (!file.getName().endsWith(META_SUFFIX)) {
+                continue;
+            }
+            try {
+                Subscription subscription = readMeta(file);
+                File data = dataFile(subscription);
+                if (!data.exists()) {
+                    // Without the list a 304 would leave it empty, so download it in full
+                    subscription.etag = null;
+                    subscription.lastModified = null;
+                    subscription.lastChecked = 0;
+                } else if (subscription.format == Format.HOSTS) {
+                    subscription.domains = CompactBlocklist.map(data);
+                    hasDomains |= subscription.domains.size() > 0;
+                } else {
+                    try (InputStream in = new FileInputStream(data)) {
+                        subscription.rules = readLines(in);
+                    }
+                    rules.addAll(subscription.rules);
+                }
+                synchronized (subscriptions) {
+                    subscriptions.put(subscription.url, subscription);
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+                file.delete();
+            }
+        }
+
+        if (hasDomains) {
+            try {
+                mergedDomains = CompactBlocklist.map(new File(directory, MERGED_DOMAINS));
+            } catch (IOException e) {
+                synchronized (subscriptions) {
+                    for (Subscription subscription : subscriptions.values()) {
+                        mergedDomains = CompactBlocklist.union(mergedDomains, subscription.domains);
+                    }
+                }
+                storeMergedDomains();
+            }
+            sink.setDomains(mergedDomains);
+        }
+        if (!rules.isEmpty()) {
+            sink.updateRules(rules, Collections.<String>emptyList());
+        }
+    }
+
+    /**
+     * Rule lines of a filter list without comments, the header and blank lines.
+     * Unsupported rules are kept here; the indexes skip them.
+     */
+    static Set<String> parseRules(List<String> lines) {
+        Set<String> rules = new LinkedHashSet<>();
+        for (String line : lines) {
+            String rule = line.trim();
+            if (!rule.isEmpty() && !rule.startsWith("!") && !rule.startsWith("[")) {
+                rules.add(rule);
+            }
+        }
+        return rules;
+    }
+
+    private void notifyListener(List<SubscriptionUpdate> updates) {
+        OnSubscriptionsUpdatedListener current = listener;
+        if (current != null) {
+            List<SubscriptionUpdate> results = Collections.unmodifiableList(updates);
+            callbackExecutor.execute(() -> current.onSubscriptionsUpdated(results));
+        }
+    }
+
+    private static SubscriptionUpdate result(Subscription subscription, SubscriptionUpdate.Status status,
+                                             int added, int removed, long startNanos) {
+        return new SubscriptionUpdate(subscription.url, status, added, removed,
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos));
+    }
+
+    private File dataFile(Subscription subscription) {
+        return new File(directory, subscription.fileName
+                + (subscription.format == Format.HOSTS ? DOMAINS_SUFFIX : RULES_SUFFIX));
+    }
+
+    /**
+     * Writes a compiled list next to its final name, renames it into place and maps it
+     */
+    private CompactBlocklist store(File file, byte[] compiled) throws IOException {
+        File temp = tempFile(file);
+        try (OutputStream out = new FileOutputStream(temp)) {
+            out.write(compiled);
+        }
+        replace(temp, file);
+        return CompactBlocklist.map(file);
+    }
+
+    private void writeLines(File file, Collection<String> lines) throws IOException {
+        File temp = tempFile(file);
+        try (Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(temp),
+                StandardCharsets.UTF_8))) {
+            for (String line : lines) {
+                out.write(line);
+                out.write('\n');
+            }
+        }
+        replace(temp, file);
+    }
+
+    private void writeMeta(Subscription subscription) throws IOException {
+        File file = new File(directory, subscription.fileName + META_SUFFIX);
+        File temp = tempFile(file);
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+            out.writeInt(META_VERSION);
+            out.writeUTF(subscription.url);
+            out.writeUTF(subscription.format.name());
+            out.writeUTF(subscription.etag != null ? subscription.etag : "");
+            out.writeUTF(subscription.lastModified != null ? subscription.lastModified : "");
+            out.writeLong(subscription.lastChecked);
+        }
+        replace(temp, file);
+    }
+
+    private Subscription readMeta(File file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            if (in.readInt() != META_VERSION) {
+                throw new IOException("Unsupported subscription metadata: " + file);
+            }
+            String url = in.readUTF();
+            Format format;
+            try {
+                format = Format.valueOf(in.readUTF());
+            } catch (IllegalArgumentException e) {
+                throw new IOException("Unknown subscription format: " + file);
+            }
+            Subscription subscription = new Subscription(url, format, ResourceCache.fileNameOf(url));
+            String etag = in.readUTF();
+            String lastModified = in.readUTF();
+            subscription.etag = etag.isEmpty() ? null : etag;
+            subscription.lastModified = lastModified.isEmpty() ? null : lastModified;
+            subscription.lastChecked = in.readLong();
+            return subscription;
+        }
+    }
+
+    private File tempFile(File file) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create " + directory);
+        }
+        return new File(directory, file.getName() + ".tmp");
+    }
+
+    private static void replace(File temp, File file) throws IOException {
+        if (!temp.renameTo(file)) {
+            temp.delete();
+            throw new IOException("Cannot replace " + file);
+        }
+    }
+
+    private static List<String> readLines(InputStream in) throws IOException {
+        List<String> lines = new ArrayList<>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+        String line;
+        while ((line = reader.readLine()) != null) {
+            lines.add(line);
+        }
+        return lines;
+    }
+
+    /**
+     * One subscribed list; only touched on the worker thread
+     */
+    private static final class Subscription {
+        final String url;
+        final Format format;
+        final String fileName;
+        String etag;
+        String lastModified;
+        // Wall-clock time of the last successful check, kept across restarts
+        long lastChecked;
+        // Current entries: compiled domains of a hosts list, or the rule lines of a filter list
+        CompactBlocklist domains = CompactBlocklist.EMPTY;
+        List<String> rules = Collections.emptyList();
+
+        Subscription(String url, Format format, String fileName) {
+            this.url = url;
+            this.format = format;
+            this.fileName = fileName;
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package com.levelpixel;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Result of checking one subscribed list for changes
+ */
+public final class SubscriptionUpdate {
+    public enum Status {
+        // The server answered 304, or the list came back unchanged
+        NOT_MODIFIED,
+        // Entries were added or removed
+        UPDATED,
+        // The list could not be downloaded; the previous version stays in use
+        FAILED
+    }
+
+    private final String url;
+    private final Status status;
+    private final int added;
+    private final int removed;
+    private final long elapsedMillis;
+
+    SubscriptionUpdate(String url, Status status, int added, int removed, long elapsedMillis) {
+        this.url = url;
+        this.status = status;
+        this.added = added;
+        this.removed = removed;
+        this.elapsedMillis = elapsedMillis;
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    /**
+     * Number of domains or rules the list gained
+     */
+    public int getAdded() {
+        return added;
+    }
+
+    /**
+     * Number of domains or rules the list lost
+     */
+    public int getRemoved() {
+        return removed;
+    }
+
+    /**
+     * Time spent downloading, diffing and applying the list
+     */
+    public long getElapsedMillis() {
+        return elapsedMillis;
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return "SubscriptionUpdate{url=" + url
+                + ", status=" + status
+                + ", added=" + added
+                + ", removed=" + removed
+                + ", elapsedMillis=" + elapsedMillis + "}";
+    }
+}
@@ -0,0 +1,446 @@
+package com.levelpixel;
+
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.MutableContextWrapper;
+import android.content.res.Configuration;
+import android.os.Bundle;
+import android.os.Debug;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.view.ViewGroup;
+import android.view.ViewParent;
+
+import androidx.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hibernates background tabs, so that many open tabs do not each keep a
+ * renderer, running timers and the page's memory.
+ *
+ * A {@link Tab} owns at most one DuneWebView at a time. Hiding a tab pauses
+ * its view and snapshots it: the back/forward list from saveState() (without
+ * form data, which DuneWebView never saves), the scroll position, URL and
+ * title. A hidden tab is hibernated, its view removed and destroyed, once it
+ * has been hidden for the idle timeout, or earlier when the system reports
+ * memory pressure. Showing it again takes a view from {@link DuneWebViewPool},
+ * hands it to the tab's listener to configure and lay out, and restores the
+ * snapshot. A tab whose renderer crashed or was killed is hibernated the same
+ * way, and restored right away if it was on screen.
+ *
+ * All methods must be called on the main thread.
+ */
+public final class TabHibernator {
+    public static final long DEFAULT_IDLE_TIMEOUT_MILLIS = 5 * 60 * 1000;
+
+    // Time for memory to settle after views are destroyed, before it is measured again
+    private static final long MEASURE_DELAY_MILLIS = 1000;
+    // A visible tab losing its renderer again this soon after a restore stays hibernated
+    private static final long CRASH_LOOP_MILLIS = 10 * 1000;
+
+    private static TabHibernator instance;
+
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    // Reads memory use, which takes milliseconds, off the main thread
+    private final ScheduledExecutorService meter = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "DuneHibernation");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // Open tabs, in the order they were opened
+    private final List<Tab> tabs = new ArrayList<>();
+    private long idleTimeoutMillis = DEFAULT_IDLE_TIMEOUT_MILLIS;
+    private OnTabsHibernatedListener hibernatedListener;
+    // Total of all measured hibernations
+    private long reclaimedKb;
+
+    /**
+     * Why tabs were hibernated
+     */
+    public enum Reason {
+        // Tab.hibernate() or hibernateHiddenTabs()
+        REQUESTED,
+        // Hidden for the idle timeout
+        IDLE,
+        // The system asked the app to release memory
+        MEMORY_PRESSURE,
+        // The renderer crashed or was killed
+        RENDERER_GONE
+    }
+
+    /**
+     * Interface for a tab's view being replaced
+     */
+    public interface OnTabViewListener {
+        /**
+         * @param view a new view to configure (ad blocking, listeners) and add
+         *             to the layout, or null when the tab's view was removed
+         *             and is about to be destroyed
+         */
+        void onTabViewChanged(Tab tab, @Nullable DuneWebView view);
+    }
+
+    /**
+     * Interface for hibernations, reported once the reclaimed memory is measured
+     */
+    public interface OnTabsHibernatedListener {
+        /**
+         * @param reclaimedKb how much the app process's PSS dropped, or -1 if
+         *                    not measured (the renderer was already gone)
+         */
+        void onTabsHibernated(List<Tab> tabs, Reason reason, long reclaimedKb);
+    }
+
+    private TabHibernator(Context context) {
+        Context appContext = context.getApplicationContext() != null
+                ? context.getApplicationContext()
+                : context;
+        appContext.registerComponentCallbacks(new ComponentCallbacks2() {
+            @Override
+            public void onTrimMemory(int level) {
+                // Only means the app's UI is no longer visible
+                if (level == TRIM_MEMORY_UI_HIDDEN) {
+                    return;
+                }
+                if (level >= TRIM_MEMORY_RUNNING_LOW) {
+                    hibernateHidden(Integer.MAX_VALUE, Reason.MEMORY_PRESSURE);
+                } else if (level >= TRIM_MEMORY_RUNNING_MODERATE) {
+                    hibernateHidden(1, Reason.MEMORY_PRESSURE);
+                }
+            }
+
+            @Override
+            public void onLowMemory() {
+                hibernateHidden(Integer.MAX_VALUE, Reason.MEMORY_PRESSURE);
+            }
+
+            @Override
+            public void onConfigurationChanged(Configuration newConfig) {
+            }
+        });
+    }
+
+    /**
+     * Application-scoped instance
+     */
+    public static TabHibernator getInstance(Context context) {
+        if (instance == null) {
+            instance = new TabHibernator(context);
+        }
+        return instance;
+    }
+
+    /**
+     * Open a visible tab. Its listener receives the view right away, before
+     * the URL starts loading, and again whenever the tab is restored.
+     *
+     * @param url page to load, or null to leave the view empty
+     */
+    public Tab open(Context context, @Nullable String url, OnTabViewListener listener) {
+        Tab tab = new Tab(listener);
+        tabs.add(tab);
+        tab.url = url;
+        tab.show(context);
+        return tab;
+    }
+
+    /**
+     * Open tabs, in the order they were opened
+     */
+    public List<Tab> getTabs() {
+        return Collections.unmodifiableList(new ArrayList<>(tabs));
+    }
+
+    /**
+     * Set how long a tab stays hidden before it is hibernated; a negative
+     * value hibernates hidden tabs only under memory pressure
+     */
+    public void setIdleTimeout(long millis) {
+        idleTimeoutMillis = millis;
+        for (Tab tab : tabs) {
+            if (!tab.visible && tab.view != null) {
+                tab.scheduleIdleHibernation();
+            }
+        }
+    }
+
+    public long getIdleTimeout() {
+        return idleTimeoutMillis;
+    }
+
+    public void setOnTabsHibernatedListener(OnTabsHibernatedListener listener) {
+        this.hibernatedListener = listener;
+    }
+
+    /**
+     * Memory reclaimed by all measured hibernations, in KB of the app
+     * process's PSS. Renderer memory is not included where the renderer runs
+     * in its own process (Android 8 and later), so this is a lower bound.
+     */
+    public long getReclaimedKb() {
+        return reclaimedKb;
+    }
+
+    /**
+     * Hibernate every hidden tab now
+     */
+    public void hibernateHiddenTabs() {
+        hibernateHidden(Integer.MAX_VALUE, Reason.REQUESTED);
+    }
+
+    /**
+     * Hibernate up to count hidden tabs, those hidden longest first
+     */
+    private void hibernateHidden(int count, Reason reason) {
+        List<Tab> hidden = new ArrayList<>();
+        for (Tab tab : tabs) {
+            if (!tab.visible && tab.view != null) {
+                hidden.add(tab);
+            }
+        }
+        Collections.sort(hidden, (a, b) -> Long.compare(a.hiddenAtMillis, b.hiddenAtMillis));
+        hibernate(hidden.subList(0, Math.min(count, hidden.size())), reason);
+    }
+
+    private void hibernate(List<Tab> batch, Reason reason) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        List<Tab> hibernated = Collections.unmodifiableList(new ArrayList<>(batch));
+        List<DuneWebView> views = new ArrayList<>(batch.size());
+        for (Tab tab : hibernated) {
+            tab.snapshot();
+            views.add(tab.detach());
+        }
+        // The tabs are hibernated from here on; their views are destroyed
+        // between two measurements of the process's memory
+        meter.execute(() -> {
+            long before = Debug.getPss();
+            mainHandler.post(() -> {
+                // Destroyed rather than pooled whatever the reason: a pooled view
+                // keeps its renderer, which hibernation is meant to free
+                for (DuneWebView view : views) {
+                    destroy(view);
+                }
+                meter.schedule(() -> {
+                    long reclaimed = Math.max(0, before - Debug.getPss());
+                    mainHandler.post(() -> {
+                        reclaimedKb += reclaimed;
+                        if (hibernatedListener != null) {
+                            hibernatedListener.onTabsHibernated(hibernated, reason, reclaimed);
+                        }
+                    });
+                }, MEASURE_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+            });
+        });
+    }
+
+    private static void destroy(DuneWebView view) {
+        ViewParent parent = view.getParent();
+        if (parent instanceof ViewGroup) {
+            ((ViewGroup) parent).removeView(view);
+        }
+        view.destroy();
+    }
+
+    /**
+     * One browser tab, holding a DuneWebView while awake and a snapshot of it
+     * while hibernated
+     */
+    public final class Tab {
+        private final OnTabViewListener listener;
+        private DuneWebView view;
+        // Activity showing the tab, to rebuild its view after a renderer crash
+        private Context context;
+        private boolean visible;
+        private long hiddenAtMillis;
+        private long restoredAtMillis;
+
+        // Snapshot taken when hidden or hibernated; state is null if saveState() failed
+        private Bundle state;
+        private String url;
+        private String title;
+        private int scrollX;
+        private int scrollY;
+
+        private final Runnable idleHibernation =
+                () -> TabHibernator.this.hibernate(Collections.singletonList(this), Reason.IDLE);
+
+        private Tab(OnTabViewListener listener) {
+            this.listener = listener;
+        }
+
+        /**
+         * The tab's view, or null while hibernated
+         */
+        @Nullable
+        public DuneWebView getView() {
+            return view;
+        }
+
+        public boolean isVisible() {
+            return visible;
+        }
+
+        public boolean isHibernated() {
+            return view == null;
+        }
+
+        @Nullable
+        public String getUrl() {
+            return view != null ? view.getUrl() : url;
+        }
+
+        @Nullable
+        public String getTitle() {
+            return view != null ? view.getTitle() : title;
+        }
+
+        /**
+         * Show the tab in the given Activity, restoring it if hibernated.
+         * A restored view goes to the tab's listener before it loads.
+         *
+         * @return the tab's view
+         */
+        public DuneWebView show(Context context) {
+            mainHandler.removeCallbacks(idleHibernation);
+            this.context = context;
+            visible = true;
+            if (view == null) {
+                restore();
+            } else {
+                if (view.getContext() instanceof MutableContextWrapper) {
+                    ((MutableContextWrapper) view.getContext()).setBaseContext(context);
+                }
+                view.onResume();
+            }
+            return view;
+        }
+
+        /**
+         * Pause the tab's view and snapshot it; it is hibernated after the
+         * idle timeout or under memory pressure. Removing the view from the
+         * layout is up to the app.
+         */
+        public void hide() {
+            if (!visible) {
+                return;
+            }
+            visible = false;
+            context = null;
+            hiddenAtMillis = SystemClock.uptimeMillis();
+            if (view != null) {
+                snapshot();
+                view.onPause();
+                scheduleIdleHibernation();
+            }
+        }
+
+        /**
+         * Hide and hibernate the tab now
+         */
+        public void hibernate() {
+            hide();
+            if (view != null) {
+                TabHibernator.this.hibernate(Collections.singletonList(this), Reason.REQUESTED);
+            }
+        }
+
+        /**
+         * Close the tab: its view is removed and handed back to the pool
+         */
+        public void close() {
+            mainHandler.removeCallbacks(idleHibernation);
+            tabs.remove(this);
+            if (view != null) {
+                DuneWebView closed = view;
+                view = null;
+                DuneWebViewPool.getInstance(closed.getContext()).release(closed);
+            }
+            visible = false;
+            context = null;
+            state = null;
+        }
+
+        private void scheduleIdleHibernation() {
+            mainHandler.removeCallbacks(idleHibernation);
+            if (idleTimeoutMillis >= 0) {
+                long hiddenFor = SystemClock.uptimeMillis() - hiddenAtMillis;
+                mainHandler.postDelayed(idleHibernation, Math.max(0, idleTimeoutMillis - hiddenFor));
+            }
+        }
+
+        private void snapshot() {
+            Bundle saved = new Bundle();
+            state = view.saveState(saved) != null ? saved : null;
+            url = view.getUrl();
+            title = view.getTitle();
+            scrollX = view.getScrollX();
+            scrollY = view.getScrollY();
+        }
+
+        /**
+         * Takes the view from the tab and tells the listener to remove it
+         */
+        private DuneWebView detach() {
+            mainHandler.removeCallbacks(idleHibernation);
+            DuneWebView detached = view;
+            view = null;
+            listener.onTabViewChanged(this, null);
+            return detached;
+        }
+
+        private void restore() {
+            DuneWebView restored = DuneWebViewPool.getInstance(context).acquire(context);
+            restored.setRenderProcessGoneListener((gone, crashed) -> onRenderProcessGone(gone));
+            view = restored;
+            restoredAtMillis = SystemClock.uptimeMillis();
+            listener.onTabViewChanged(this, restored);
+            // The listener may have closed or hidden the tab
+            if (view != restored) {
+                return;
+            }
+            if (url != null) {
+                restored.restoreScrollPosition(url, scrollX, scrollY);
+            }
+            if (state == null || restored.restoreState(state) == null) {
+                if (url != null) {
+                    restored.loadUrl(url);
+                }
+            }
+        }
+
+        private void onRenderProcessGone(DuneWebView gone) {
+            if (gone != view) {
+                // Already detached, waiting to be destroyed
+                return;
+            }
+            // The view must not be used any more, so the last snapshot stands in
+            // for saveState(), unless the tab has navigated since
+            String committed = gone.getCommittedUrl();
+            if (committed != null && !committed.equals(url)) {
+                url = committed;
+                state = null;
+            }
+            scrollX = gone.getScrollX();
+            scrollY = gone.getScrollY();
+            detach();
+            destroy(gone);
+            if (hibernatedListener != null) {
+                hibernatedListener.onTabsHibernated(Collections.singletonList(this), Reason.RENDERER_GONE, -1);
+            }
+            if (visible && context != null
+                    && SystemClock.uptimeMillis() - restoredAtMillis > CRASH_LOOP_MILLIS) {
+                restore();
+            }
+        }
+    }
+}
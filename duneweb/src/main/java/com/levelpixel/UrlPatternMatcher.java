@@ -0,0 +1,189 @@
+package com.levelpixel;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Immutable Aho-Corasick automaton over a set of substring patterns.
+ * A URL is scanned once, left to right, whatever the number of patterns;
+ * ASCII case is folded on the fly so no lowercased copy is created.
+ *
+ * Characters that appear in no pattern share one column of the transition
+ * table, which keeps the table small for the handful of characters real
+ * patterns use. Add patterns with {@link #with(String)}, which returns a new
+ * matcher and leaves this one untouched, so readers never need a lock.
+ */
+final class UrlPatternMatcher {
+    private static final int NO_MATCH = -1;
+
+    private final List<String> patterns;
+    // Column of every ASCII character in the transition table, 0 for unused ones
+    private final int[] charClass;
+    private final int classCount;
+    // Next state for state * classCount + class, failure links already folded in
+    private final int[] transitions;
+    // Lowest index of a pattern ending at each state, or NO_MATCH
+    private final int[] matchAt;
+
+    private UrlPatternMatcher(List<String> patterns) {
+        this.patterns = patterns;
+
+        charClass = new int[128];
+        int classes = 1;
+        for (String pattern : patterns) {
+            for (int i = 0; i < pattern.length(); i++) {
+                int c = pattern.charAt(i);
+                if (charClass[c] == 0) {
+                    charClass[c] = classes++;
+                }
+            }
+        }
+        classCount = classes;
+
+        // Build the trie of patterns
+        int maxStates = 1;
+        for (String pattern : patterns) {
+            maxStates += pattern.length();
+        }
+        int[] goTo = new int[maxStates * classCount];
+        Arrays.fill(goTo, -1);
+        int[] matches = new int[maxStates];
+        Arrays.fill(matches, NO_MATCH);
+        int states = 1;
+        for (int p = 0; p < patterns.size(); p++) {
+            String pattern = patterns.get(p);
+            int state = 0;
+            for (int i = 0; i < pattern.length(); i++) {
+                int slot = state * classCount + charClass[pattern.charAt(i)];
+                if (goTo[slot] == -1) {
+                    goTo[slot] = states++;
+                }
+                state = goTo[slot];
+            }
+            if (matches[state] == NO_MATCH) {
+                matches[state] = p;
+            }
+        }
+
+        // Breadth-first pass turning the trie into a full transition table
+        int[] fail = new int[states];
+        ArrayDeque<Integer> queue = new ArrayDeque<>();
+        for (int c = 0; c < classCount; c++) {
+            int next = goTo[c];
+            if (next == -1) {
+                goTo[c] = 0;
+            } else {
+                fail[next] = 0;
+                queue.add(next);
+            }
+        }
+        while (!queue.isEmpty()) {
+            int state = queue.poll();
+            int inherited = matches[fail[state]];
+            if (inherited != NO_MATCH && (matches[state] == NO_MATCH || inherited < matches[state])) {
+                matches[state] = inherited;
+            }
+            for (int c = 0; c < classCount; c++) {
+                int slot = state * classCount + c;
+                int next = goTo[slot];
+                if (next == -1) {
+                    goTo[slot] = goTo[fail[state] * classCount + c];
+                } else {
+                    fail[next] = goTo[fail[state] * classCount + c];
+                    queue.add(next);
+                }
+            }
+        }
+
+        transitions = Arrays.copyOf(goTo, states * classCount);
+        matchAt = Arrays.copyOf(matches, states);
+    }
+
+    /**
+     * Compiles patterns into a matcher. Patterns are lowercased, blank and
+     * non-ASCII patterns are ignored, and duplicates are dropped.
+     */
+    static UrlPatternMatcher compile(Collection<String> patterns) {
+        List<String> normalized = new ArrayList<>(patterns.size());
+        for (String pattern : patterns) {
+            String key = normalize(pattern);
+            if (key != null && !normalized.contains(key)) {
+                normalized.add(key);
+            }
+        }
+        return new UrlPatternMatcher(Collections.unmodifiableList(normalized));
+    }
+
+    /**
+     * Returns a matcher that also matches the given pattern
+     */
+    UrlPatternMatcher with(String pattern) {
+        String key = normalize(pattern);
+        if (key == null || patterns.contains(key)) {
+            return this;
+        }
+        List<String> extended = new ArrayList<>(patterns);
+        extended.add(key);
+        return new UrlPatternMatcher(Collections.unmodifiableList(extended));
+    }
+
+    /**
+     * Returns a matcher without the given pattern
+     */
+    UrlPatternMatcher without(String pattern) {
+        String key = normalize(pattern);
+        if (key == null || !patterns.contains(key)) {
+            return this;
+        }
+        List<String> reduced = new ArrayList<>(patterns);
+        reduced.remove(key);
+        return new UrlPatternMatcher(Collections.unmodifiableList(reduced));
+    }
+
+    /**
+     * Check if the text contains any pattern, ignoring ASCII case
+     */
+    boolean matches(CharSequence text) {
+        return find(text) != NO_MATCH;
+    }
+
+    /**
+     * Index in {@link #patterns()} of the first pattern found in the text, or -1
+     */
+    int find(CharSequence text) {
+        int state = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            int column = c < 128 ? charClass[CompactBlocklist.lowerAscii(c)] : 0;
+            state = transitions[state * classCount + column];
+            if (matchAt[state] != NO_MATCH) {
+                return matchAt[state];
+            }
+        }
+        return NO_MATCH;
+    }
+
+    List<String> patterns() {
+        return patterns;
+    }
+
+    private static String normalize(String pattern) {
+        if (pattern == null) {
+            return null;
+        }
+        String key = pattern.toLowerCase();
+        if (key.isEmpty()) {
+            return null;
+        }
+        for (int i = 0; i < key.length(); i++) {
+            if (key.charAt(i) >= 128) {
+                return null;
+            }
+        }
+        return key;
+    }
+}
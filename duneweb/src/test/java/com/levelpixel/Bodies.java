@@ -0,0 +1,58 @@
+package com.levelpixel;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * Response bodies for filter tests, delivered and read in awkward pieces
+ */
+final class Bodies {
+    private Bodies() {
+    }
+
+    /**
+     * Source handing out one byte per read, so every markup boundary falls
+     * between two reads
+     */
+    static InputStream trickle(byte[] data) {
+        return new ByteArrayInputStream(data) {
+            @Override
+            public synchronized int read(byte[] b, int off, int len) {
+                return super.read(b, off, Math.min(len, 1));
+            }
+        };
+    }
+
+    /**
+     * Reads the stream to the end, asking for at most readSize bytes at a time
+     */
+    static byte[] read(InputStream in, int readSize) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[readSize];
+        try (InputStream body = in) {
+            for (int n; (n = body.read(buffer, 0, readSize)) >= 0; ) {
+                out.write(buffer, 0, n);
+            }
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Runs the text through the filter fed one byte at a time, checking that
+     * single-byte and large reads give the same output
+     */
+    static String filter(ResponseFilter filter, String text, Charset charset) throws IOException {
+        byte[] data = text.getBytes(charset);
+        byte[] small = read(filter.filter(trickle(data)), 1);
+        byte[] large = read(filter.filter(trickle(data)), 16 * 1024);
+        byte[] whole = read(filter.filter(new ByteArrayInputStream(data)), 16 * 1024);
+        if (!Arrays.equals(small, large) || !Arrays.equals(small, whole)) {
+            throw new AssertionError("Output depends on how the body is read");
+        }
+        return new String(small, charset);
+    }
+}
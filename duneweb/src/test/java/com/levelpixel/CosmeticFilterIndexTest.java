@@ -0,0 +1,76 @@
+package com.levelpixel;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * {@link CosmeticFilterIndex} domain exclusions and exceptions
+ */
+public class CosmeticFilterIndexTest {
+    private static boolean hides(CosmeticFilterIndex index, String host, String selector) {
+        String css = index.stylesheetFor(host);
+        for (String rule : css.isEmpty() ? new String[0] : css.split("\n")) {
+            String selectors = rule.substring(0, rule.indexOf('{'));
+            if (Arrays.asList(selectors.split(",")).contains(selector)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Test
+    public void negatedDomainOnlyCancelsItsOwnRule() {
+        CosmeticFilterIndex index = CosmeticFilterIndex.of(Arrays.asList("##.ad", "~example.com##.ad"));
+
+        assertTrue(hides(index, "example.com", ".ad"));
+        assertTrue(hides(index, "other.com", ".ad"));
+    }
+
+    @Test
+    public void negatedDomainSkipsTheRuleThere() {
+        CosmeticFilterIndex index = CosmeticFilterIndex.of(Arrays.asList("~example.com##.ad", "##.banner"));
+
+        assertFalse(hides(index, "example.com", ".ad"));
+        assertFalse(hides(index, "www.example.com", ".ad"));
+        assertTrue(hides(index, "example.com", ".banner"));
+        assertTrue(hides(index, "other.com", ".ad"));
+    }
+
+    @Test
+    public void excludedSubdomainKeepsGenericRule() {
+        CosmeticFilterIndex index = CosmeticFilterIndex.of(Arrays.asList(
+                "##.ad", "example.com,~shop.example.com##.ad", "example.com,~shop.example.com##.promo"));
+
+        assertTrue(hides(index, "shop.example.com", ".ad"));
+        assertFalse(hides(index, "shop.example.com", ".promo"));
+        assertTrue(hides(index, "www.example.com", ".promo"));
+    }
+
+    @Test
+    public void exclusionGoesAwayWithItsRule() {
+        CosmeticFilterIndex index = CosmeticFilterIndex.of(Arrays.asList("~example.com##.ad"));
+        assertFalse(hides(index, "example.com", ".ad"));
+
+        index = index.with(Collections.singletonList("##.ad"));
+        assertTrue(hides(index, "example.com", ".ad"));
+
+        index = index.without(Collections.singletonList("~example.com##.ad"));
+        assertTrue(hides(index, "example.com", ".ad"));
+        assertEquals(1, index.size());
+    }
+
+    @Test
+    public void exceptionCancelsSelectorForEveryRule() {
+        CosmeticFilterIndex index = CosmeticFilterIndex.of(Arrays.asList(
+                "##.ad", "example.com##.ad", "example.com#@#.ad"));
+
+        assertFalse(hides(index, "example.com", ".ad"));
+        assertTrue(hides(index, "other.com", ".ad"));
+    }
+}
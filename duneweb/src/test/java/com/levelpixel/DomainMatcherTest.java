@@ -0,0 +1,99 @@
+package com.levelpixel;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * {@link DomainMatcher} runtime changes across compiled list swaps, and
+ * merging compiled lists
+ */
+public class DomainMatcherTest {
+    private static CompactBlocklist list(String... domains) {
+        return CompactBlocklist.of(Arrays.asList(domains));
+    }
+
+    @Test
+    public void removalSurvivesSwappingTheList() {
+        DomainMatcher matcher = DomainMatcher.EMPTY.withCompiled(list("ads.com", "track.com"))
+                .withRemoved("ads.com");
+        assertFalse(matcher.matches("ads.com"));
+
+        matcher = matcher.withCompiled(list("ads.com", "track.com", "more.com"));
+        assertFalse(matcher.matches("ads.com"));
+        assertTrue(matcher.matches("more.com"));
+        assertEquals(2, matcher.size());
+    }
+
+    @Test
+    public void removalBeforeTheListLoadsApplies() {
+        DomainMatcher matcher = DomainMatcher.EMPTY.withRemoved("ads.com");
+
+        matcher = matcher.withCompiled(list("ads.com", "track.com"));
+        assertFalse(matcher.matches("ads.com"));
+        assertTrue(matcher.matches("track.com"));
+        assertEquals(1, matcher.size());
+    }
+
+    @Test
+    public void additionCoveredByOneListSurvivesTheNext() {
+        DomainMatcher matcher = DomainMatcher.EMPTY.withCompiled(list("custom.com"))
+                .withAdded("custom.com");
+
+        matcher = matcher.withCompiled(list("other.com"));
+        assertTrue(matcher.matches("www.custom.com"));
+        assertEquals(2, matcher.size());
+    }
+
+    @Test
+    public void batchChangesSurviveSwappingTheList() {
+        DomainMatcher matcher = DomainMatcher.EMPTY.withCompiled(list("a.com", "b.com"))
+                .withChanges(DomainMatcher.Changes.of(Arrays.asList("a.com", "c.com"),
+                        Collections.singletonList("b.com")));
+
+        matcher = matcher.withCompiled(list("b.com"));
+        assertTrue(matcher.matches("a.com"));
+        assertFalse(matcher.matches("b.com"));
+        assertTrue(matcher.matches("c.com"));
+    }
+
+    @Test
+    public void withoutChangesKeepsTheList() {
+        DomainMatcher matcher = DomainMatcher.EMPTY.withCompiled(list("a.com"))
+                .withAdded("b.com").withRemoved("a.com");
+
+        matcher = matcher.withoutChanges();
+        assertTrue(matcher.matches("a.com"));
+        assertFalse(matcher.matches("b.com"));
+    }
+
+    @Test
+    public void unionAndDifferenceMergeSortedLists() {
+        CompactBlocklist a = list("a.com", "shared.com", "x.a.com");
+        CompactBlocklist b = list("b.com", "shared.com", "a.org");
+
+        CompactBlocklist union = CompactBlocklist.union(a, b);
+        assertEquals(5, union.size());
+        for (String domain : Arrays.asList("a.com", "x.a.com", "b.com", "shared.com", "a.org")) {
+            assertTrue(domain, union.contains(domain));
+        }
+        for (int i = 1; i < union.size(); i++) {
+            assertTrue(CompactBlocklist.compareEntries(union, i - 1, union, i) < 0);
+        }
+
+        CompactBlocklist difference = CompactBlocklist.difference(a, b);
+        assertEquals(2, difference.size());
+        assertTrue(difference.contains("a.com"));
+        assertTrue(difference.contains("x.a.com"));
+        assertFalse(difference.contains("shared.com"));
+
+        assertSame(a, CompactBlocklist.union(a, CompactBlocklist.EMPTY));
+        assertEquals(0, CompactBlocklist.difference(a, a).size());
+    }
+}
@@ -0,0 +1,71 @@
+package com.levelpixel;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * {@link HeadInjectionFilter} on pages with and without a head, read one byte at a time
+ */
+public class HeadInjectionFilterTest {
+    private static final String MARKUP = "<script>init()</script>";
+    private static final HeadInjectionFilter FILTER = new HeadInjectionFilter(MARKUP);
+
+    private static String filter(String html) throws IOException {
+        return Bodies.filter(FILTER, html, StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void injectsRightAfterTheHeadStartTag() throws IOException {
+        assertEquals("<!DOCTYPE html><html><head lang=\"en\">" + MARKUP + "<title>T</title></head><body></body>",
+                filter("<!DOCTYPE html><html><head lang=\"en\"><title>T</title></head><body></body>"));
+    }
+
+    @Test
+    public void matchesUppercaseTags() throws IOException {
+        assertEquals("<HTML><HEAD>" + MARKUP + "<TITLE>T</TITLE></HEAD>",
+                filter("<HTML><HEAD><TITLE>T</TITLE></HEAD>"));
+    }
+
+    @Test
+    public void pageWithoutHeadGetsMarkupBeforeItsFirstHeadOrBodyTag() throws IOException {
+        assertEquals("<html>" + MARKUP + "<meta charset=\"utf-8\"><p>Hi",
+                filter("<html><meta charset=\"utf-8\"><p>Hi"));
+        assertEquals("<html><!-- x -->" + MARKUP + "<BODY><header>Top</header>",
+                filter("<html><!-- x --><BODY><header>Top</header>"));
+    }
+
+    @Test
+    public void injectsOnlyOnce() throws IOException {
+        assertEquals("<head>" + MARKUP + "</head><body><head></head>",
+                filter("<head></head><body><head></head>"));
+    }
+
+    @Test
+    public void pageWithoutTagsIsUnchanged() throws IOException {
+        assertEquals("plain < text <headline", filter("plain < text <headline"));
+    }
+
+    @Test
+    public void leavesNonAsciiTextIntact() throws IOException {
+        String page = "<html><head><title>Café – 日本語 😀</title></head>";
+        assertEquals("<html><head>" + MARKUP + "<title>Café – 日本語 😀</title></head>", filter(page));
+
+        Charset latin = Charset.forName("windows-1252");
+        String latinPage = "<html><head><title>Crème brûlée €</title>";
+        assertEquals("<html><head>" + MARKUP + "<title>Crème brûlée €</title>",
+                Bodies.filter(FILTER, latinPage, latin));
+    }
+
+    @Test
+    public void appliesToHtmlOnly() {
+        assertTrue(FILTER.appliesTo("https://a.com/", true, "text/html"));
+        assertFalse(FILTER.appliesTo("https://a.com/app.js", false, "application/javascript"));
+    }
+}
@@ -0,0 +1,139 @@
+package com.levelpixel;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * {@link HistoryIndex} ranking and speed on 100k entries
+ */
+public class HistoryIndexTest {
+    private static final int ENTRIES = 100_000;
+    private static final long NOW = 1_700_000_000_000L;
+    private static final long DAY_MILLIS = 24L * 60 * 60 * 1000;
+    private static final int LIMIT = HistoryStore.DEFAULT_SUGGESTION_LIMIT;
+    // Generous next to the sub-millisecond goal, so slow machines pass
+    private static final double MAX_AVERAGE_MILLIS = 5;
+
+    private static final String[] WORDS = {
+            "news", "world", "today", "travel", "tech", "the", "weather", "video", "music", "sports",
+            "recipes", "shop", "deals", "review", "guide", "how", "to", "best", "top", "local",
+            "market", "science", "health", "games", "movies", "photos", "forum", "blog", "wiki", "maps"};
+    private static final String[] SITES = {
+            "example", "tribune", "weekly", "daily", "tube", "wander", "tools", "store", "board", "post"};
+    private static final String[] ZONES = {"com", "org", "net", "co.uk", "de"};
+
+    private static List<HistoryEntry> all;
+    private static HistoryIndex index;
+
+    @BeforeClass
+    public static void buildIndex() {
+        Random random = new Random(42);
+        all = new ArrayList<>(ENTRIES);
+        for (int i = 0; i < ENTRIES; i++) {
+            String host = (random.nextInt(3) == 0 ? "www." : "")
+                    + SITES[random.nextInt(SITES.length)] + random.nextInt(2000) + "."
+                    + ZONES[random.nextInt(ZONES.length)];
+            StringBuilder title = new StringBuilder();
+            for (int w = 0, count = 2 + random.nextInt(6); w < count; w++) {
+                title.append(w > 0 ? " " : "").append(WORDS[random.nextInt(WORDS.length)]);
+            }
+            all.add(new HistoryEntry("https://" + host + "/page/" + i, title.toString(),
+                    1 + random.nextInt(random.nextInt(4) == 0 ? 50 : 3),
+                    NOW - (long) (random.nextDouble() * 120 * DAY_MILLIS)));
+        }
+        index = HistoryIndex.build(all, NOW);
+    }
+
+    private static List<HistoryEntry> search(String input) {
+        return index.search(input.split(" "), Collections.<String, HistoryEntry>emptyMap(), LIMIT, NOW);
+    }
+
+    /**
+     * Scores of the best matches, by checking every entry
+     */
+    private static List<Long> expectedScores(String[] words, Map<String, HistoryEntry> changed) {
+        List<Long> scores = new ArrayList<>();
+        for (HistoryEntry entry : all) {
+            HistoryEntry current = changed.containsKey(entry.getUrl()) ? changed.get(entry.getUrl()) : entry;
+            long score = score(current, words);
+            if (score > 0) {
+                scores.add(score);
+            }
+        }
+        Collections.sort(scores, Collections.reverseOrder());
+        return scores.subList(0, Math.min(LIMIT, scores.size()));
+    }
+
+    private static long score(HistoryEntry entry, String[] words) {
+        for (String word : words) {
+            if (entry.match(word) == 0) {
+                return 0;
+            }
+        }
+        return HistoryIndex.frecency(entry, NOW) * (entry.match(words[0]) == 2 ? 2 : 1);
+    }
+
+    private static List<Long> scoresOf(List<HistoryEntry> found, String[] words) {
+        List<Long> scores = new ArrayList<>();
+        for (HistoryEntry entry : found) {
+            scores.add(score(entry, words));
+        }
+        return scores;
+    }
+
+    @Test
+    public void ranksLikeCheckingEveryEntry() {
+        for (String input : new String[]{"t", "w", "e", "w zzz", "news world", "news", "the to",
+                "daily", "tribune17", "example1 the", "co", "zzz", "maps wiki blog"}) {
+            String[] words = input.split(" ");
+            assertEquals(input, expectedScores(words, Collections.<String, HistoryEntry>emptyMap()),
+                    scoresOf(search(input), words));
+        }
+    }
+
+    @Test
+    public void changedEntriesReplaceIndexedOnes() {
+        Map<String, HistoryEntry> changed = new HashMap<>();
+        // Renamed out of the results, and one visited often enough to lead them
+        HistoryEntry renamed = all.get(0).withTitle("zzz");
+        changed.put(renamed.getUrl(), renamed);
+        HistoryEntry visited = all.get(1);
+        for (int i = 0; i < 1000; i++) {
+            visited = visited.visited(null, NOW);
+        }
+        changed.put(visited.getUrl(), visited);
+
+        String[] words = visited.tokens[visited.urlTokenCount].substring(0, 1).split(" ");
+        List<HistoryEntry> found = index.search(words, changed, LIMIT, NOW);
+        assertEquals(visited, found.get(0));
+        assertEquals(expectedScores(words, changed), scoresOf(found, words));
+    }
+
+    @Test
+    public void shortAndCommonWordsAreFast() {
+        String[] inputs = {"t", "w zzz", "news world", "s", "the to", "e"};
+        // Warm up
+        for (int i = 0; i < 200; i++) {
+            search(inputs[i % inputs.length]);
+        }
+        for (String input : inputs) {
+            int runs = 200;
+            long start = System.nanoTime();
+            for (int i = 0; i < runs; i++) {
+                search(input);
+            }
+            double averageMillis = (System.nanoTime() - start) / 1e6 / runs;
+            assertTrue(input + " took " + averageMillis + " ms", averageMillis < MAX_AVERAGE_MILLIS);
+        }
+    }
+}
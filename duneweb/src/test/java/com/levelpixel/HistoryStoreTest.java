@@ -0,0 +1,78 @@
+package com.levelpixel;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * {@link HistoryStore} records too long for the log
+ */
+public class HistoryStoreTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static String repeat(String text, int times) {
+        return String.join("", Collections.nCopies(times, text));
+    }
+
+    private static HistoryEntry only(HistoryStore store, String input) {
+        List<HistoryEntry> found = store.suggest(input, HistoryStore.DEFAULT_SUGGESTION_LIMIT);
+        assertEquals(1, found.size());
+        return found.get(0);
+    }
+
+    @Test
+    public void longTitlesAreCutAndTheLogStaysReadable() throws Exception {
+        File directory = folder.newFolder("history");
+        // Three UTF-8 bytes per char: well past writeUTF's 65535 byte limit
+        String huge = repeat("€", 30_000);
+        HistoryStore store = new HistoryStore(directory);
+        store.recordVisit("https://long.example/", huge);
+        store.recordVisit("https://renamed.example/", "Short");
+        store.updateTitle("https://renamed.example/", huge);
+        store.recordVisit("https://after.example/", "After");
+        store.flush().get();
+
+        assertEquals(HistoryStore.MAX_TITLE_LENGTH, only(store, "long.example").getTitle().length());
+
+        // Every record, including those after the long titles, reads back
+        HistoryStore reopened = new HistoryStore(directory);
+        reopened.flush().get();
+        assertEquals(3, reopened.size());
+        assertEquals(huge.substring(0, HistoryStore.MAX_TITLE_LENGTH),
+                only(reopened, "renamed.example").getTitle());
+        assertEquals("After", only(reopened, "after.example").getTitle());
+    }
+
+    @Test
+    public void unrecordableRemovalLeavesTheLogReadable() throws Exception {
+        File directory = folder.newFolder("history");
+        HistoryStore store = new HistoryStore(directory);
+        store.recordVisit("https://before.example/", "Before");
+        // Too long for a log record, and never recorded anyway
+        store.remove("https://huge.example/" + repeat("a", 70_000));
+        store.remove(null);
+        store.recordVisit("https://after.example/", "After");
+        store.flush().get();
+        store.recordVisit("https://later.example/", "Later");
+        store.flush().get();
+
+        HistoryStore reopened = new HistoryStore(directory);
+        reopened.flush().get();
+        assertEquals(3, reopened.size());
+        assertEquals("Later", only(reopened, "later.example").getTitle());
+    }
+
+    @Test
+    public void cutDoesNotSplitSurrogatePairs() {
+        String title = repeat("a", HistoryStore.MAX_TITLE_LENGTH - 1) + "😀 more";
+        assertEquals(repeat("a", HistoryStore.MAX_TITLE_LENGTH - 1), HistoryStore.truncateTitle(title));
+        assertEquals("Short", HistoryStore.truncateTitle("Short"));
+    }
+}
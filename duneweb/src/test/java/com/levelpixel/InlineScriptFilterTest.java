@@ -0,0 +1,76 @@
+package com.levelpixel;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+/**
+ * {@link InlineScriptFilter} end tags, case and size limit, read one byte at a time
+ */
+public class InlineScriptFilterTest {
+    private static final InlineScriptFilter FILTER =
+            new InlineScriptFilter(Arrays.asList("googletag.cmd", "adsbygoogle"));
+
+    private static String filter(String html) throws IOException {
+        return Bodies.filter(FILTER, html, StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void removesScriptsWithMarkers() throws IOException {
+        assertEquals("<head><script>app()</script></head><p>x</p>",
+                filter("<head><script>app()</script><script>googletag.cmd.push(f)</script></head>"
+                        + "<script async src=\"//ads.example/adsbygoogle.js\"></script><p>x</p>"));
+    }
+
+    @Test
+    public void findsEndTagsWithSpaceOrUppercase() throws IOException {
+        assertEquals("<p>a</p><p>b</p><p>c</p>",
+                filter("<p>a</p><script>adsbygoogle.push({})</script ><p>b</p>"
+                        + "<SCRIPT TYPE=\"text/javascript\">GoogleTag.Cmd.push(f)</SCRIPT\n><p>c</p>"));
+    }
+
+    @Test
+    public void codeContainingMarkupStaysHeldUntilTheEndTag() throws IOException {
+        assertEquals("<p>after</p>",
+                filter("<script>if (a > b) { s = '</scrip' + 't>'; adsbygoogle(); }</script><p>after</p>"));
+        assertEquals("<script>if (a > b) run()</script><p>after</p>",
+                filter("<script>if (a > b) run()</script><p>after</p>"));
+    }
+
+    @Test
+    public void otherTagsAreUntouched() throws IOException {
+        String page = "<scripts>adsbygoogle</scripts><s>adsbygoogle</s><noscript>adsbygoogle</noscript>";
+        assertEquals(page, filter(page));
+    }
+
+    @Test
+    public void oversizedScriptPassesThrough() throws IOException {
+        InlineScriptFilter small = new InlineScriptFilter(Collections.singletonList("adsbygoogle"), 32);
+        String script = "<script>adsbygoogle; " + String.join("", Collections.nCopies(40, "x = 1; ")) + "</script>";
+        String page = "<p>a</p>" + script + "<script>adsbygoogle</script><p>b</p>";
+        assertEquals("<p>a</p>" + script + "<p>b</p>", Bodies.filter(small, page, StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void unfinishedScriptIsKept() throws IOException {
+        assertEquals("<p>a</p><script>adsbygoogle(", filter("<p>a</p><script>adsbygoogle("));
+    }
+
+    @Test
+    public void leavesNonAsciiTextIntact() throws IOException {
+        assertEquals("<p>日本語 – Café</p><script>var s = \"😀\";</script>",
+                filter("<p>日本語 – Café</p><script>var s = \"😀\";</script><script>adsbygoogle(\"é\")</script>"));
+    }
+
+    @Test
+    public void doesNothingWithoutMarkers() {
+        assertFalse(new InlineScriptFilter(Collections.<String>emptyList())
+                .appliesTo("https://a.com/", true, "text/html"));
+    }
+}
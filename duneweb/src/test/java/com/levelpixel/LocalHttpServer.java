@@ -0,0 +1,109 @@
+package com.levelpixel;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * HTTP server on the loopback interface standing in for remote hosts in
+ * tests, recording every request it answers
+ */
+final class LocalHttpServer implements Closeable {
+    interface Handler {
+        void handle(HttpExchange exchange) throws IOException;
+    }
+
+    /**
+     * One answered request; header names are lowercased
+     */
+    static final class Request {
+        final String path;
+        final Map<String, String> headers;
+
+        Request(String path, Map<String, String> headers) {
+            this.path = path;
+            this.headers = headers;
+        }
+
+        String header(String name) {
+            return headers.get(name.toLowerCase(Locale.ROOT));
+        }
+    }
+
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final List<Request> requests = new ArrayList<>();
+
+    LocalHttpServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    void handle(String path, Handler handler) {
+        server.createContext(path, exchange -> {
+            Map<String, String> headers = new HashMap<>();
+            for (Map.Entry<String, List<String>> header : exchange.getRequestHeaders().entrySet()) {
+                headers.put(header.getKey().toLowerCase(Locale.ROOT), header.getValue().get(0));
+            }
+            synchronized (requests) {
+                requests.add(new Request(exchange.getRequestURI().getPath(), headers));
+            }
+            try {
+                handler.handle(exchange);
+            } finally {
+                exchange.close();
+            }
+        });
+    }
+
+    String url(String path) {
+        return "http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort() + path;
+    }
+
+    List<Request> requests(String path) {
+        List<Request> matching = new ArrayList<>();
+        synchronized (requests) {
+            for (Request request : requests) {
+                if (request.path.equals(path)) {
+                    matching.add(request);
+                }
+            }
+        }
+        return matching;
+    }
+
+    /**
+     * Sends a complete response; headers are name, value pairs
+     */
+    static void respond(HttpExchange exchange, int status, byte[] body, String... headers) throws IOException {
+        for (int i = 0; i + 1 < headers.length; i += 2) {
+            exchange.getResponseHeaders().add(headers[i], headers[i + 1]);
+        }
+        boolean empty = body == null || body.length == 0;
+        exchange.sendResponseHeaders(status, empty ? -1 : body.length);
+        if (!empty) {
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,51 @@
+package com.levelpixel;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * {@link NetworkFilterIndex} exceptions for whole pages ($document)
+ */
+public class NetworkFilterIndexTest {
+    private static final String AD = "https://ads.example/banner.js";
+
+    private static boolean blocks(NetworkFilterIndex index, String pageUrl, boolean blockedElsewhere) {
+        String pageHost = pageUrl.substring("https://".length(), pageUrl.indexOf('/', "https://".length()));
+        return index.shouldBlock(AD, "ads.example", ResourceType.SCRIPT, pageUrl, pageHost, blockedElsewhere);
+    }
+
+    @Test
+    public void documentExceptionAllowsEveryRequestOfThePage() {
+        NetworkFilterIndex index = NetworkFilterIndex.of(Arrays.asList(
+                "||ads.example^", "@@||site.com^$document"));
+
+        assertTrue(index.hasDocumentExceptions());
+        assertFalse(blocks(index, "https://site.com/article", false));
+        assertFalse(blocks(index, "https://www.site.com/", false));
+        // Also unblocks what the domain list caught
+        assertFalse(blocks(index, "https://site.com/article", true));
+        assertTrue(blocks(index, "https://other.com/", false));
+    }
+
+    @Test
+    public void documentExceptionMatchesThePagePath() {
+        NetworkFilterIndex index = NetworkFilterIndex.of(Arrays.asList(
+                "||ads.example^", "@@||site.com/forum/$document"));
+
+        assertFalse(blocks(index, "https://site.com/forum/thread", false));
+        assertTrue(blocks(index, "https://site.com/news", false));
+    }
+
+    @Test
+    public void otherExceptionsOnlyAllowTheirOwnRequests() {
+        NetworkFilterIndex index = NetworkFilterIndex.of(Arrays.asList(
+                "||ads.example^", "@@||site.com^", "@@||cdn.example^$script"));
+
+        assertFalse(index.hasDocumentExceptions());
+        assertTrue(blocks(index, "https://site.com/article", false));
+    }
+}
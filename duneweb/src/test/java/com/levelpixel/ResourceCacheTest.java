@@ -0,0 +1,55 @@
+package com.levelpixel;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Freshness rules of {@link ResourceCache#expiresAt(HttpFetcher.Response, long)}
+ */
+public class ResourceCacheTest {
+    private static final long NOW = 1_700_000_000_000L;
+
+    private static HttpFetcher.Response response(String cacheControl) {
+        Map<String, String> headers = new HashMap<>();
+        headers.put("Cache-Control", cacheControl);
+        return new HttpFetcher.Response(200, "OK", "text/css", headers,
+                Collections.<String>emptyList(), new ByteArrayInputStream(new byte[0]));
+    }
+
+    @Test
+    public void maxAgeSetsLifetime() {
+        assertEquals(NOW + 60_000, ResourceCache.expiresAt(response("public, max-age=60"), NOW));
+    }
+
+    @Test
+    public void noStoreAfterNoCacheIsNotStored() {
+        assertEquals(-1, ResourceCache.expiresAt(response("no-cache, no-store, must-revalidate"), NOW));
+    }
+
+    @Test
+    public void privateAfterMaxAgeIsNotStored() {
+        assertEquals(-1, ResourceCache.expiresAt(response("max-age=60, private"), NOW));
+    }
+
+    @Test
+    public void noStoreBeforeMaxAgeIsNotStored() {
+        assertEquals(-1, ResourceCache.expiresAt(response("no-store, max-age=60"), NOW));
+    }
+
+    @Test
+    public void noCacheWinsOverMaxAge() {
+        assertEquals(NOW, ResourceCache.expiresAt(response("max-age=60, no-cache"), NOW));
+        assertEquals(NOW, ResourceCache.expiresAt(response("no-cache, max-age=60"), NOW));
+    }
+
+    @Test
+    public void invalidMaxAgeIsStale() {
+        assertEquals(NOW, ResourceCache.expiresAt(response("max-age=soon"), NOW));
+    }
+}
@@ -0,0 +1,132 @@
+package com.levelpixel;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * {@link ResponsePipeline} against a local server: filtering, revalidating
+ * its own copies and handing back redirects
+ */
+public class ResponsePipelineTest {
+    private static final String MARKUP = "<script>init()</script>";
+    private static final String PAGE = "<html><head><title>Café</title></head><body>"
+            + "<script>adsbygoogle.push({})</script ><p>日本語</p></body></html>";
+    private static final String FILTERED = "<html><head>" + MARKUP + "<title>Café</title></head><body>"
+            + "<p>日本語</p></body></html>";
+
+    private LocalHttpServer server;
+    private ResponsePipeline pipeline;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new LocalHttpServer();
+        pipeline = new ResponsePipeline(new HttpFetcher());
+        pipeline.addFilter(new HeadInjectionFilter(MARKUP));
+        pipeline.addFilter(new InlineScriptFilter(Collections.singletonList("adsbygoogle")));
+
+        byte[] page = PAGE.getBytes(StandardCharsets.UTF_8);
+        server.handle("/page", exchange -> {
+            if ("\"v1\"".equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                LocalHttpServer.respond(exchange, 304, null, "ETag", "\"v1\"");
+            } else {
+                LocalHttpServer.respond(exchange, 200, page,
+                        "Content-Type", "text/html; charset=utf-8", "ETag", "\"v1\"");
+            }
+        });
+        server.handle("/fresh", exchange -> LocalHttpServer.respond(exchange, 200, page,
+                "Content-Type", "text/html", "ETag", "\"v1\"", "Cache-Control", "no-store"));
+        server.handle("/app.js", exchange -> LocalHttpServer.respond(exchange, 200,
+                "adsbygoogle.push({})".getBytes(StandardCharsets.UTF_8), "Content-Type", "application/javascript"));
+        server.handle("/utf16", exchange -> LocalHttpServer.respond(exchange, 200,
+                PAGE.getBytes(StandardCharsets.UTF_16), "Content-Type", "text/html; charset=UTF-16"));
+        server.handle("/moved", exchange -> LocalHttpServer.respond(exchange, 302, null,
+                "Location", "/page", "Set-Cookie", "seen=1"));
+    }
+
+    @After
+    public void tearDown() {
+        server.close();
+    }
+
+    private String fetch(String path, Map<String, String> headers) throws IOException {
+        HttpFetcher.Response response = pipeline.fetch(server.url(path), true, headers);
+        assertEquals(200, response.status);
+        return new String(Bodies.read(response.body, 1), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void filtersDocumentsAndLeavesScriptsToTheirFilters() throws IOException {
+        assertTrue(pipeline.wants(ResourceType.DOCUMENT));
+        assertFalse(pipeline.wants(ResourceType.IMAGE));
+        assertEquals(FILTERED, fetch("/page", Collections.<String, String>emptyMap()));
+        assertEquals("adsbygoogle.push({})", fetch("/app.js", Collections.<String, String>emptyMap()));
+    }
+
+    @Test
+    public void revalidatesItsOwnCopyInsteadOfTheWebViews() throws IOException {
+        Map<String, String> webView = new HashMap<>();
+        webView.put("If-None-Match", "\"webview\"");
+        webView.put("If-Modified-Since", "Mon, 01 Jan 2024 00:00:00 GMT");
+        assertEquals(FILTERED, fetch("/page", webView));
+        assertNull(server.requests("/page").get(0).header("If-None-Match"));
+        assertNull(server.requests("/page").get(0).header("If-Modified-Since"));
+        assertEquals(1, pipeline.getStoredCount());
+
+        // The server answers 304 and the kept copy is filtered again
+        assertEquals(FILTERED, fetch("/page", webView));
+        assertEquals("\"v1\"", server.requests("/page").get(1).header("If-None-Match"));
+    }
+
+    @Test
+    public void keepsOnlyWhatMayBeStoredAndWasReadToTheEnd() throws IOException {
+        fetch("/fresh", Collections.<String, String>emptyMap());
+        assertEquals(0, pipeline.getStoredCount());
+
+        HttpFetcher.Response response = pipeline.fetch(server.url("/page"), true,
+                Collections.<String, String>emptyMap());
+        response.body.read(new byte[4]);
+        response.body.close();
+        assertEquals(0, pipeline.getStoredCount());
+        fetch("/page", Collections.<String, String>emptyMap());
+        assertNull(server.requests("/page").get(1).header("If-None-Match"));
+    }
+
+    @Test
+    public void handsRedirectsBack() throws IOException {
+        HttpFetcher.Response response = pipeline.fetch(server.url("/moved"), true,
+                Collections.<String, String>emptyMap());
+
+        assertEquals(302, response.status);
+        assertEquals("/page", response.header("Location"));
+        assertEquals(Collections.singletonList("seen=1"), response.cookies);
+        assertTrue(server.requests("/page").isEmpty());
+    }
+
+    @Test
+    public void leavesUtf16BodiesUnfiltered() throws IOException {
+        HttpFetcher.Response response = pipeline.fetch(server.url("/utf16"), true,
+                Collections.<String, String>emptyMap());
+        assertArrayEquals(PAGE.getBytes(StandardCharsets.UTF_16), Bodies.read(response.body, 1));
+    }
+
+    @Test
+    public void clearingFiltersDropsStoredCopies() throws IOException {
+        fetch("/page", Collections.<String, String>emptyMap());
+        pipeline.clearFilters();
+        assertEquals(0, pipeline.getStoredCount());
+        assertFalse(pipeline.wants(ResourceType.DOCUMENT));
+    }
+}
@@ -0,0 +1,114 @@
+package com.levelpixel;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * {@link RewritingInputStream} buffering, pass-through and closing
+ */
+public class RewritingInputStreamTest {
+    /**
+     * Writes every byte twice until a '|', then passes the rest through
+     */
+    private static final class Doubling extends RewritingInputStream {
+        private boolean passThrough;
+
+        Doubling(InputStream source) {
+            super(source);
+        }
+
+        @Override
+        protected void process(byte[] data, int offset, int length) {
+            for (int i = offset; i < offset + length; i++) {
+                if (passThrough) {
+                    emit(data[i]);
+                } else if (data[i] == '|') {
+                    emit(data[i]);
+                    passThrough = true;
+                } else {
+                    emit(data[i]);
+                    emit(data[i]);
+                }
+            }
+        }
+
+        @Override
+        protected void finish() {
+            emit((byte) '.');
+        }
+
+        @Override
+        protected boolean isPassThrough() {
+            return passThrough;
+        }
+    }
+
+    private static byte[] doubled(byte[] data) {
+        byte[] out = new byte[data.length * 2];
+        for (int i = 0; i < data.length; i++) {
+            out[2 * i] = data[i];
+            out[2 * i + 1] = data[i];
+        }
+        return out;
+    }
+
+    @Test
+    public void outputLargerThanTheBufferIsKept() throws IOException {
+        byte[] data = new byte[50_000];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) ('a' + i % 26);
+        }
+        byte[] expected = Arrays.copyOf(doubled(data), data.length * 2 + 1);
+        expected[expected.length - 1] = '.';
+
+        assertArrayEquals(expected, Bodies.read(new Doubling(new ByteArrayInputStream(data)), 1));
+        assertArrayEquals(expected, Bodies.read(new Doubling(new ByteArrayInputStream(data)), 64 * 1024));
+        assertArrayEquals(expected, Bodies.read(new Doubling(Bodies.trickle(data)), 7));
+    }
+
+    @Test
+    public void passThroughSkipsProcessingAndFinish() throws IOException {
+        byte[] data = "ab|cd".getBytes(StandardCharsets.US_ASCII);
+        assertEquals("aabb|cd", new String(Bodies.read(new Doubling(Bodies.trickle(data)), 1),
+                StandardCharsets.US_ASCII));
+        assertEquals("aabb|cd", new String(Bodies.read(new Doubling(new ByteArrayInputStream(data)), 100),
+                StandardCharsets.US_ASCII));
+    }
+
+    @Test
+    public void emptySourceOnlyFinishes() throws IOException {
+        assertEquals(".", new String(Bodies.read(new Doubling(new ByteArrayInputStream(new byte[0])), 10),
+                StandardCharsets.US_ASCII));
+    }
+
+    @Test
+    public void singleByteReadsReturnUnsignedValues() throws IOException {
+        InputStream in = new Doubling(new ByteArrayInputStream(new byte[]{(byte) 0xE9}));
+        assertEquals(0xE9, in.read());
+        assertEquals(0xE9, in.read());
+        assertEquals('.', in.read());
+        assertEquals(-1, in.read());
+    }
+
+    @Test
+    public void closeClosesTheSource() throws IOException {
+        boolean[] closed = new boolean[1];
+        InputStream source = new ByteArrayInputStream(new byte[]{'a'}) {
+            @Override
+            public void close() {
+                closed[0] = true;
+            }
+        };
+        new Doubling(source).close();
+        assertTrue(closed[0]);
+    }
+}
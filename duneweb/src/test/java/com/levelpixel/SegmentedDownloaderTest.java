@@ -0,0 +1,292 @@
+package com.levelpixel;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * {@link SegmentedDownloader} against a local server: segmenting, resuming,
+ * If-Range, servers without ranges and the concurrency limit
+ */
+public class SegmentedDownloaderTest {
+    private static final long TIMEOUT_MILLIS = 20_000;
+    private static final int CHUNK_BYTES = 16 * 1024;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private LocalHttpServer server;
+    private File directory;
+
+    // What /file serves
+    private final AtomicReference<byte[]> content = new AtomicReference<>();
+    private final AtomicReference<String> etag = new AtomicReference<>("\"v1\"");
+    private volatile boolean acceptRanges = true;
+    // Pause after every chunk written, so downloads can be caught while running
+    private volatile long chunkDelayMillis;
+    // Holds every response until opened, when set
+    private volatile CountDownLatch gate;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new LocalHttpServer();
+        directory = folder.newFolder("downloads");
+        server.handle("/file", exchange -> {
+            CountDownLatch held = gate;
+            if (held != null) {
+                try {
+                    held.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+            byte[] data = content.get();
+            String tag = etag.get();
+            String range = exchange.getRequestHeaders().getFirst("Range");
+            String ifRange = exchange.getRequestHeaders().getFirst("If-Range");
+            exchange.getResponseHeaders().add("ETag", tag);
+            int start = 0;
+            int end = data.length - 1;
+            int status = 200;
+            if (acceptRanges && range != null && (ifRange == null || ifRange.equals(tag))) {
+                String[] bounds = range.substring("bytes=".length()).split("-", -1);
+                start = Integer.parseInt(bounds[0]);
+                if (!bounds[1].isEmpty()) {
+                    end = Math.min(end, Integer.parseInt(bounds[1]));
+                }
+                status = 206;
+                exchange.getResponseHeaders().add("Content-Range",
+                        "bytes " + start + "-" + end + "/" + data.length);
+            }
+            exchange.sendResponseHeaders(status, end - start + 1);
+            try (OutputStream out = exchange.getResponseBody()) {
+                for (int position = start; position <= end; position += CHUNK_BYTES) {
+                    out.write(data, position, Math.min(CHUNK_BYTES, end + 1 - position));
+                    out.flush();
+                    if (chunkDelayMillis > 0) {
+                        Thread.sleep(chunkDelayMillis);
+                    }
+                }
+            } catch (IOException | InterruptedException e) {
+                // The client stopped reading, e.g. a paused download
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        server.close();
+    }
+
+    private SegmentedDownloader downloader() {
+        return new SegmentedDownloader(directory, new HttpFetcher(), url -> null, Runnable::run);
+    }
+
+    private static byte[] bytes(int length, int seed) {
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) {
+            data[i] = (byte) (i * 31 + (i >> 9) + seed);
+        }
+        return data;
+    }
+
+    private static void awaitState(SegmentedDownloader.Download download, SegmentedDownloader.State state)
+            throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (download.getState() != state) {
+            if (System.currentTimeMillis() > deadline) {
+                throw new AssertionError("Expected " + state + ": " + download
+                        + ", error " + download.getError());
+            }
+            Thread.sleep(10);
+        }
+    }
+
+    private static void awaitBytes(SegmentedDownloader.Download download, long bytes) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (download.getDownloadedBytes() < bytes) {
+            if (System.currentTimeMillis() > deadline) {
+                throw new AssertionError("Stuck at " + download);
+            }
+            Thread.sleep(5);
+        }
+    }
+
+    /**
+     * Starting offsets of the ranged requests for /file after the given index
+     */
+    private Set<Long> rangeStarts(int fromRequest) {
+        Set<Long> starts = new HashSet<>();
+        List<LocalHttpServer.Request> requests = server.requests("/file");
+        for (LocalHttpServer.Request request : requests.subList(fromRequest, requests.size())) {
+            String range = request.header("Range");
+            if (range != null) {
+                starts.add(Long.parseLong(range.substring("bytes=".length(), range.indexOf('-'))));
+            }
+        }
+        return starts;
+    }
+
+    @Test
+    public void splitsRangedFileIntoSegments() throws Exception {
+        byte[] data = bytes(3 * (int) SegmentedDownloader.MIN_SEGMENT_BYTES + 123, 0);
+        content.set(data);
+        SegmentedDownloader downloader = downloader();
+        downloader.setSegmentsPerDownload(3);
+
+        SegmentedDownloader.Download download = downloader.enqueue(server.url("/file"),
+                Collections.<String, String>emptyMap(), "file.bin", null);
+        awaitState(download, SegmentedDownloader.State.COMPLETED);
+
+        assertEquals(3, download.getSegmentCount());
+        assertArrayEquals(data, Files.readAllBytes(new File(directory, "file.bin").toPath()));
+        long segment = data.length / 3;
+        assertEquals(new HashSet<>(Arrays.asList(0L, segment, 2 * segment)), rangeStarts(0));
+        // Segments after the probe are guarded by the validator
+        for (LocalHttpServer.Request request : server.requests("/file")) {
+            if (!"bytes=0-".equals(request.header("Range"))) {
+                assertEquals("\"v1\"", request.header("If-Range"));
+            }
+        }
+        assertFalse(new File(directory, "file.bin.part").exists());
+        assertFalse(new File(directory, "file.bin.part.state").exists());
+    }
+
+    @Test
+    public void resumesFromSavedStateInANewSession() throws Exception {
+        byte[] data = bytes(2 * (int) SegmentedDownloader.MIN_SEGMENT_BYTES, 1);
+        content.set(data);
+        chunkDelayMillis = 10;
+        SegmentedDownloader first = downloader();
+        first.setSegmentsPerDownload(2);
+        SegmentedDownloader.Download paused = first.enqueue(server.url("/file"),
+                Collections.<String, String>emptyMap(), "file.bin", null);
+        awaitBytes(paused, 256 * 1024);
+        paused.pause();
+        awaitState(paused, SegmentedDownloader.State.PAUSED);
+        long saved = paused.getDownloadedBytes();
+        assertTrue(new File(directory, "file.bin.part.state").isFile());
+
+        // A new downloader, as after the process restarted
+        chunkDelayMillis = 0;
+        int before = server.requests("/file").size();
+        SegmentedDownloader.Download resumed = downloader().enqueue(server.url("/file"),
+                Collections.<String, String>emptyMap(), "file.bin", null);
+        awaitState(resumed, SegmentedDownloader.State.COMPLETED);
+
+        assertEquals(new File(directory, "file.bin"), resumed.getFile());
+        assertArrayEquals(data, Files.readAllBytes(resumed.getFile().toPath()));
+        // No probe from byte 0: both segments continue where they stopped
+        List<LocalHttpServer.Request> requests = server.requests("/file");
+        for (LocalHttpServer.Request request : requests.subList(before, requests.size())) {
+            assertFalse("bytes=0-".equals(request.header("Range")));
+            assertEquals("\"v1\"", request.header("If-Range"));
+        }
+        assertTrue(saved > 0);
+        assertFalse(rangeStarts(before).contains(0L));
+    }
+
+    @Test
+    public void changedFileRestartsFromZero() throws Exception {
+        content.set(bytes(2 * (int) SegmentedDownloader.MIN_SEGMENT_BYTES, 2));
+        chunkDelayMillis = 10;
+        SegmentedDownloader downloader = downloader();
+        downloader.setSegmentsPerDownload(2);
+        SegmentedDownloader.Download download = downloader.enqueue(server.url("/file"),
+                Collections.<String, String>emptyMap(), "file.bin", null);
+        awaitBytes(download, 256 * 1024);
+        download.pause();
+        awaitState(download, SegmentedDownloader.State.PAUSED);
+
+        // The file changes on the server: If-Range no longer matches and it answers 200
+        byte[] changed = bytes(2 * (int) SegmentedDownloader.MIN_SEGMENT_BYTES + 7, 3);
+        content.set(changed);
+        etag.set("\"v2\"");
+        chunkDelayMillis = 0;
+        int before = server.requests("/file").size();
+        download.resume();
+        awaitState(download, SegmentedDownloader.State.COMPLETED);
+
+        assertArrayEquals(changed, Files.readAllBytes(download.getFile().toPath()));
+        assertEquals(changed.length, download.getTotalBytes());
+        // A new probe from byte 0 followed the rejected resume
+        List<LocalHttpServer.Request> requests = server.requests("/file");
+        boolean probed = false;
+        for (LocalHttpServer.Request request : requests.subList(before, requests.size())) {
+            probed |= "bytes=0-".equals(request.header("Range"));
+        }
+        assertTrue(probed);
+    }
+
+    @Test
+    public void serverWithoutRangesUsesOneConnection() throws Exception {
+        byte[] data = bytes(3 * (int) SegmentedDownloader.MIN_SEGMENT_BYTES, 4);
+        content.set(data);
+        acceptRanges = false;
+        SegmentedDownloader downloader = downloader();
+        downloader.setSegmentsPerDownload(4);
+
+        SegmentedDownloader.Download download = downloader.enqueue(server.url("/file"),
+                Collections.<String, String>emptyMap(), "file.bin", null);
+        awaitState(download, SegmentedDownloader.State.COMPLETED);
+
+        assertEquals(1, download.getSegmentCount());
+        assertEquals(1, server.requests("/file").size());
+        assertArrayEquals(data, Files.readAllBytes(download.getFile().toPath()));
+        assertNull(download.getError());
+    }
+
+    @Test
+    public void runsAtMostTheConfiguredNumberOfDownloads() throws Exception {
+        content.set(bytes(64 * 1024, 5));
+        gate = new CountDownLatch(1);
+        SegmentedDownloader downloader = downloader();
+        downloader.setMaxConcurrentDownloads(2);
+
+        List<SegmentedDownloader.Download> downloads = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            downloads.add(downloader.enqueue(server.url("/file"),
+                    Collections.<String, String>emptyMap(), "file.bin", null));
+        }
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (server.requests("/file").size() < 2 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        // Give a third connection the chance to show up while both slots are held
+        Thread.sleep(200);
+        assertEquals(2, server.requests("/file").size());
+        for (SegmentedDownloader.Download download : downloads.subList(2, 5)) {
+            assertEquals(SegmentedDownloader.State.QUEUED, download.getState());
+        }
+
+        gate.countDown();
+        Set<File> files = new HashSet<>();
+        for (SegmentedDownloader.Download download : downloads) {
+            awaitState(download, SegmentedDownloader.State.COMPLETED);
+            files.add(download.getFile());
+            assertArrayEquals(content.get(), Files.readAllBytes(download.getFile().toPath()));
+        }
+        assertEquals(5, files.size());
+    }
+}
@@ -0,0 +1,229 @@
+package com.levelpixel;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * {@link SubscriptionManager} against a local server: conditional downloads,
+ * diffs, shared domains and restoring from disk
+ */
+public class SubscriptionManagerTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private LocalHttpServer server;
+    private File directory;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new LocalHttpServer();
+        directory = folder.newFolder("subscriptions");
+    }
+
+    @After
+    public void tearDown() {
+        server.close();
+    }
+
+    /**
+     * Serves a hosts list at the path with the given ETag, answering 304 to a matching If-None-Match
+     */
+    private void serveHosts(String path, AtomicReference<String> body, AtomicReference<String> etag) {
+        server.handle(path, exchange -> {
+            String tag = etag.get();
+            if (tag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                LocalHttpServer.respond(exchange, 304, null, "ETag", tag);
+            } else {
+                LocalHttpServer.respond(exchange, 200, body.get().getBytes(StandardCharsets.UTF_8),
+                        "ETag", tag, "Content-Type", "text/plain");
+            }
+        });
+    }
+
+    private SubscriptionManager manager(RecordingSink sink) {
+        return new SubscriptionManager(directory, new HttpFetcher(), sink, Runnable::run);
+    }
+
+    @Test
+    public void unchangedListIsNotModified() throws Exception {
+        serveHosts("/hosts", new AtomicReference<>("0.0.0.0 a.com\n0.0.0.0 b.com\n"),
+                new AtomicReference<>("\"v1\""));
+        RecordingSink sink = new RecordingSink();
+        SubscriptionManager manager = manager(sink);
+
+        SubscriptionUpdate first = manager.subscribe(server.url("/hosts"), SubscriptionManager.Format.HOSTS).get();
+        assertEquals(SubscriptionUpdate.Status.UPDATED, first.getStatus());
+        assertEquals(2, first.getAdded());
+
+        SubscriptionUpdate second = manager.updateNow().get().get(0);
+        assertEquals(SubscriptionUpdate.Status.NOT_MODIFIED, second.getStatus());
+        assertEquals("\"v1\"", server.requests("/hosts").get(1).header("If-None-Match"));
+        assertEquals(new HashSet<>(Arrays.asList("a.com", "b.com")), sink.domains);
+    }
+
+    @Test
+    public void changedListAppliesOnlyTheDifference() throws Exception {
+        AtomicReference<String> body = new AtomicReference<>("a.com\nb.com\nc.com\n");
+        AtomicReference<String> etag = new AtomicReference<>("\"v1\"");
+        serveHosts("/hosts", body, etag);
+        RecordingSink sink = new RecordingSink();
+        SubscriptionManager manager = manager(sink);
+        manager.subscribe(server.url("/hosts"), SubscriptionManager.Format.HOSTS).get();
+
+        body.set("b.com\nc.com\nd.com\n");
+        etag.set("\"v2\"");
+        SubscriptionUpdate update = manager.updateNow().get().get(0);
+
+        assertEquals(SubscriptionUpdate.Status.UPDATED, update.getStatus());
+        assertEquals(1, update.getAdded());
+        assertEquals(1, update.getRemoved());
+        assertEquals(Arrays.asList("d.com"), sink.lastAdded);
+        assertEquals(Arrays.asList("a.com"), sink.lastRemoved);
+        assertEquals(new HashSet<>(Arrays.asList("b.com", "c.com", "d.com")), sink.domains);
+    }
+
+    @Test
+    public void domainListedTwiceSurvivesOneUnsubscribe() throws Exception {
+        serveHosts("/one", new AtomicReference<>("shared.com\none.com\n"), new AtomicReference<>("\"1\""));
+        serveHosts("/two", new AtomicReference<>("shared.com\ntwo.com\n"), new AtomicReference<>("\"2\""));
+        RecordingSink sink = new RecordingSink();
+        SubscriptionManager manager = manager(sink);
+        manager.subscribe(server.url("/one"), SubscriptionManager.Format.HOSTS).get();
+        manager.subscribe(server.url("/two"), SubscriptionManager.Format.HOSTS).get();
+
+        SubscriptionUpdate removed = manager.unsubscribe(server.url("/one")).get();
+
+        assertEquals(2, removed.getRemoved());
+        assertEquals(new HashSet<>(Arrays.asList("shared.com", "two.com")), sink.domains);
+        assertEquals(Arrays.asList(server.url("/two")), manager.getSubscriptions());
+    }
+
+    @Test
+    public void coldStartRestoresStoredDomainsWithoutDownloading() throws Exception {
+        serveHosts("/hosts", new AtomicReference<>("a.com\nb.com\n"), new AtomicReference<>("\"v1\""));
+        manager(new RecordingSink()).subscribe(server.url("/hosts"), SubscriptionManager.Format.HOSTS).get();
+        assertTrue(new File(directory, "domains.bin").isFile());
+
+        RecordingSink restored = new RecordingSink();
+        SubscriptionManager manager = manager(restored);
+        // Queued behind the restore on the manager's thread
+        manager.unsubscribe("http://not.subscribed/").get();
+
+        assertEquals(new HashSet<>(Arrays.asList("a.com", "b.com")), restored.domains);
+        assertTrue(restored.replaced);
+        assertEquals(Arrays.asList(server.url("/hosts")), manager.getSubscriptions());
+        assertEquals(1, server.requests("/hosts").size());
+
+        // The stored validator is sent after the restart
+        assertEquals(SubscriptionUpdate.Status.NOT_MODIFIED, manager.updateNow().get().get(0).getStatus());
+        assertNull(restored.lastAdded);
+    }
+
+    @Test
+    public void overlayIsReplacedByTheMergedListOnceItGrows() throws Exception {
+        AtomicReference<String> body = new AtomicReference<>(domains("a", 0, 2000));
+        AtomicReference<String> etag = new AtomicReference<>("\"v1\"");
+        serveHosts("/hosts", body, etag);
+        RecordingSink sink = new RecordingSink();
+        SubscriptionManager manager = manager(sink);
+        manager.subscribe(server.url("/hosts"), SubscriptionManager.Format.HOSTS).get();
+
+        // Each diff is small, but together they pass the limit
+        body.set(domains("a", 0, 2000) + domains("b", 0, 2000));
+        etag.set("\"v2\"");
+        manager.updateNow().get();
+        assertFalse(sink.replaced);
+
+        body.set(domains("b", 0, 2000) + domains("c", 0, 100));
+        etag.set("\"v3\"");
+        SubscriptionUpdate update = manager.updateNow().get().get(0);
+        assertEquals(100, update.getAdded());
+        assertEquals(2000, update.getRemoved());
+        assertTrue(sink.replaced);
+        assertEquals(2100, sink.domains.size());
+        assertTrue(sink.domains.contains("b1999.com"));
+        assertFalse(sink.domains.contains("a0.com"));
+    }
+
+    @Test
+    public void storedMergedListFollowsDiffsAndUnsubscribes() throws Exception {
+        AtomicReference<String> body = new AtomicReference<>("shared.com\none.com\nold.com\n");
+        AtomicReference<String> etag = new AtomicReference<>("\"1\"");
+        serveHosts("/one", body, etag);
+        serveHosts("/two", new AtomicReference<>("shared.com\ntwo.com\n"), new AtomicReference<>("\"2\""));
+        serveHosts("/three", new AtomicReference<>("three.com\n"), new AtomicReference<>("\"3\""));
+        RecordingSink sink = new RecordingSink();
+        SubscriptionManager manager = manager(sink);
+        manager.subscribe(server.url("/one"), SubscriptionManager.Format.HOSTS).get();
+        manager.subscribe(server.url("/two"), SubscriptionManager.Format.HOSTS).get();
+        // Only two.com is new to the merged list
+        assertEquals(Arrays.asList("two.com"), sink.lastAdded);
+        manager.subscribe(server.url("/three"), SubscriptionManager.Format.HOSTS).get();
+
+        body.set("shared.com\none.com\nnew.com\n");
+        etag.set("\"1b\"");
+        manager.updateNow().get();
+        manager.unsubscribe(server.url("/two")).get();
+        Set<String> expected = new HashSet<>(Arrays.asList("shared.com", "one.com", "new.com", "three.com"));
+        assertEquals(expected, sink.domains);
+
+        RecordingSink restored = new RecordingSink();
+        manager(restored).unsubscribe("http://not.subscribed/").get();
+        assertEquals(expected, restored.domains);
+    }
+
+    private static String domains(String prefix, int from, int to) {
+        StringBuilder text = new StringBuilder();
+        for (int i = from; i < to; i++) {
+            text.append(prefix).append(i).append(".com\n");
+        }
+        return text.toString();
+    }
+
+    /**
+     * Applies changes to an in-memory set of domains, as the engine would
+     */
+    private static final class RecordingSink implements SubscriptionManager.Sink {
+        final Set<String> domains = new HashSet<>();
+        boolean replaced;
+        Collection<String> lastAdded;
+        Collection<String> lastRemoved;
+
+        @Override
+        public synchronized void setDomains(CompactBlocklist list) {
+            replaced = true;
+            domains.clear();
+            for (int i = 0; i < list.size(); i++) {
+                domains.add(list.domainAt(i));
+            }
+        }
+
+        @Override
+        public synchronized void updateDomains(Collection<String> added, Collection<String> removed) {
+            lastAdded = added;
+            lastRemoved = removed;
+            domains.addAll(added);
+            domains.removeAll(removed);
+        }
+
+        @Override
+        public void updateRules(Collection<String> added, Collection<String> removed) {
+        }
+    }
+}